@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.benchmarks;
+
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.infrastructure.InMemoryCommandDispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of <code>InMemoryCommandDispatcher.execute</code> with a varying number of registered
+ * handlers. The benchmark cycles through commands of all registered types, so the handler lookup and the call of the
+ * handler see as many types as there are handlers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+@State(Scope.Benchmark)
+public class CommandDispatcherBenchmark {
+    @Param({"1", "4", "16"})
+    private int handlerCount;
+
+    @Param({"false", "true"})
+    private boolean frozen;
+
+    private InMemoryCommandDispatcher dispatcher;
+    private Command[] commands;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        final Command[] allCommands = new Command[]{
+                new Command0(), new Command1(), new Command2(), new Command3(),
+                new Command4(), new Command5(), new Command6(), new Command7(),
+                new Command8(), new Command9(), new Command10(), new Command11(),
+                new Command12(), new Command13(), new Command14(), new Command15()
+        };
+
+        dispatcher = new InMemoryCommandDispatcher();
+        commands = new Command[handlerCount];
+
+        for (int i = 0; i < handlerCount; i++) {
+            commands[i] = allCommands[i];
+            dispatcher.registerHandler(commands[i].getClass(), new CommandHandler<Command>() {
+                public void execute(Command command) throws Exception {
+                    blackhole.consume(command);
+                }
+            });
+        }
+
+        if (frozen) {
+            dispatcher.freeze();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(16)
+    public void execute() throws Exception {
+        final Command[] commands = this.commands;
+
+        for (int i = 0; i < 16; i++) {
+            dispatcher.execute(commands[i % commands.length]);
+        }
+    }
+
+    private static class Command0 extends Command {
+    }
+
+    private static class Command1 extends Command {
+    }
+
+    private static class Command2 extends Command {
+    }
+
+    private static class Command3 extends Command {
+    }
+
+    private static class Command4 extends Command {
+    }
+
+    private static class Command5 extends Command {
+    }
+
+    private static class Command6 extends Command {
+    }
+
+    private static class Command7 extends Command {
+    }
+
+    private static class Command8 extends Command {
+    }
+
+    private static class Command9 extends Command {
+    }
+
+    private static class Command10 extends Command {
+    }
+
+    private static class Command11 extends Command {
+    }
+
+    private static class Command12 extends Command {
+    }
+
+    private static class Command13 extends Command {
+    }
+
+    private static class Command14 extends Command {
+    }
+
+    private static class Command15 extends Command {
+    }
+}
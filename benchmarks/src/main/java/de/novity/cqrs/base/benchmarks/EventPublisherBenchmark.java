@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.benchmarks;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.infrastructure.BlockingEventQueue;
+import de.novity.cqrs.base.infrastructure.EventQueue;
+import de.novity.cqrs.base.infrastructure.InMemoryEventPublisherService;
+import de.novity.cqrs.base.infrastructure.RingBufferEventQueue;
+import de.novity.cqrs.base.infrastructure.YieldingWaitStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the latency from publishing an event by an <code>InMemoryEventPublisherService</code> until the last
+ * subscriber has been notified by <code>onEvent</code>, with a varying number of subscribers, producer threads and
+ * event queues. Every operation publishes a single event and waits, yielding the processor, until it has been
+ * delivered, so the sampled times are end-to-end latencies and not the time to put the event into the queue.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+@State(Scope.Benchmark)
+public class EventPublisherBenchmark {
+    @Param({"1", "4", "16"})
+    private int subscriberCount;
+
+    @Param({"blocking", "ringbuffer"})
+    private String queue;
+
+    private InMemoryEventPublisherService service;
+    private EventPublisher publisher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final EventQueue eventQueue;
+
+        if ("ringbuffer".equals(queue)) {
+            eventQueue = new RingBufferEventQueue(1024, new YieldingWaitStrategy());
+        } else {
+            eventQueue = new BlockingEventQueue(1024);
+        }
+
+        service = new InMemoryEventPublisherService(eventQueue);
+        publisher = service.getPublisher();
+
+        for (int i = 0; i < subscriberCount; i++) {
+            publisher.addSubscriber(new EventSubscriber() {
+                public void onEvent(Event event) {
+                    ((LatencyEvent) event).acknowledge();
+                }
+            });
+        }
+
+        service.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void publishToOnEventOneProducer() throws Exception {
+        publishAndAwait();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publishToOnEventFourProducers() throws Exception {
+        publishAndAwait();
+    }
+
+    private void publishAndAwait() throws Exception {
+        final LatencyEvent event = new LatencyEvent(subscriberCount);
+        publisher.publish(event);
+
+        while (!event.isDelivered()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+
+            Thread.yield();
+        }
+    }
+
+    private static class LatencyEvent extends Event {
+        private final AtomicInteger pendingSubscribers;
+
+        private LatencyEvent(int subscriberCount) {
+            this.pendingSubscribers = new AtomicInteger(subscriberCount);
+        }
+
+        private void acknowledge() {
+            pendingSubscribers.decrementAndGet();
+        }
+
+        private boolean isDelivered() {
+            return pendingSubscribers.get() == 0;
+        }
+    }
+}
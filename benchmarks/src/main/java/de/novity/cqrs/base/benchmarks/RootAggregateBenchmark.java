@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.benchmarks;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.RootAggregate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding events to a <code>RootAggregate</code>, reading them and committing them, with a varying number of
+ * events per command. Run with <code>-prof gc</code> to get the allocation rate per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+@State(Scope.Thread)
+public class RootAggregateBenchmark {
+    @Param({"1", "4", "16", "128"})
+    private int eventsPerCommand;
+
+    private Event event;
+    private BenchmarkAggregate aggregate;
+
+    @Setup
+    public void setUp() {
+        event = new BenchmarkEvent();
+        aggregate = new BenchmarkAggregate();
+    }
+
+    /**
+     * A command on an aggregate kept in memory, as in a cached repository.
+     */
+    @Benchmark
+    public void addGetCommit(Blackhole blackhole) {
+        addGetCommit(aggregate, blackhole);
+    }
+
+    /**
+     * A command on a freshly loaded aggregate, as in a repository without a cache.
+     */
+    @Benchmark
+    public void addGetCommitNewAggregate(Blackhole blackhole) {
+        addGetCommit(new BenchmarkAggregate(), blackhole);
+    }
+
+    private void addGetCommit(BenchmarkAggregate aggregate, Blackhole blackhole) {
+        for (int i = 0; i < eventsPerCommand; i++) {
+            aggregate.change(event);
+        }
+
+        final List<Event> events = aggregate.getEvents();
+
+        for (int i = 0; i < events.size(); i++) {
+            blackhole.consume(events.get(i));
+        }
+
+        aggregate.commitEvents();
+    }
+
+    private static class BenchmarkAggregate extends RootAggregate {
+        private void change(Event event) {
+            addEvent(event);
+        }
+    }
+
+    private static class BenchmarkEvent extends Event {
+    }
+}
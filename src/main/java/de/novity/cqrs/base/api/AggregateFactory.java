@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * An aggregate factory creates empty root aggregates, which are then rebuilt from their history by a repository.
+ *
+ * @param <T> The type of root aggregate.
+ */
+public interface AggregateFactory<T extends EventSourcedRootAggregate> {
+    /**
+     * @param id The id of the root aggregate.
+     * @return A new root aggregate in its initial state.
+     */
+    T create(String id);
+}
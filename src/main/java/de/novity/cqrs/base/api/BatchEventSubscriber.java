@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.util.List;
+
+/**
+ * An event subscriber that is able to process several events at once, e.g. a projection writing all events of a batch
+ * to its store in a single transaction.
+ * <p/>
+ * An event publisher that delivers events in batches notifies the subscriber by calling <code>onEvents</code> instead of
+ * calling <code>onEvent</code> for every single event. Publishers not supporting batches keep calling
+ * <code>onEvent</code>, so implementations should support both.
+ */
+public interface BatchEventSubscriber extends EventSubscriber {
+    /**
+     * @param events The published events in the order they were published. The list is owned by the subscriber.
+     */
+    void onEvents(List<Event> events);
+}
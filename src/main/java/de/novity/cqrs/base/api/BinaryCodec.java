@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A binary codec writes the fields of an event or command to a <code>ByteBuffer</code> and reads them back. Codecs are
+ * usually generated for types annotated with <code>TypeId</code> rather than written by hand.
+ *
+ * @param <T> The encoded type.
+ */
+public interface BinaryCodec<T> {
+    Class<T> getType();
+
+    int getTypeId();
+
+    int getVersion();
+
+    /**
+     * @return The number of fields written by <code>write</code>.
+     */
+    int getFieldCount();
+
+    /**
+     * Writes the fields of the value at the position of the buffer.
+     */
+    void write(T value, ByteBuffer buffer);
+
+    /**
+     * Reads the fields at the position of the buffer.
+     *
+     * @param buffer The buffer positioned at the first field.
+     * @param version The version of the layout the fields were written with.
+     * @param fieldCount The number of written fields. Missing fields are read as default values.
+     * @return The decoded value.
+     */
+    T read(ByteBuffer buffer, int version, int fieldCount);
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.util.Collection;
+
+/**
+ * A query whose result may be cached until an event of one of the declared types is published. A caching query
+ * dispatcher evicts the cached result when it is notified about an event that is an instance of one of the declared
+ * types, including their subtypes.
+ * <p/>
+ * The declared types are read whenever the query is executed, so equal queries must declare the same types. See the
+ * following example:
+ * <p/>
+ * <pre>{@code
+ * public class FindOpenOrders extends Query<List<OrderView>> implements CacheableQuery {
+ *   public Collection<Class<? extends Event>> getInvalidatingEventTypes() {
+ *     return Arrays.<Class<? extends Event>>asList(OrderPlaced.class, OrderConfirmed.class);
+ *   }
+ *
+ *   ...
+ * }
+ * }</pre>
+ */
+public interface CacheableQuery {
+    /**
+     * @return The types of events invalidating the result of this query.
+     */
+    Collection<Class<? extends Event>> getInvalidatingEventTypes();
+}
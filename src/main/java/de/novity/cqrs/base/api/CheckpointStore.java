@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * A checkpoint store keeps the position in the event log up to which a projection has processed all events.
+ */
+public interface CheckpointStore {
+    /**
+     * @param name The name of the projection.
+     * @return The position of the checkpoint, or 0 if no checkpoint was saved.
+     * @throws Exception If the checkpoint could not be read.
+     */
+    long load(String name) throws Exception;
+
+    /**
+     * Replaces the checkpoint of the projection. Once this method returns, the checkpoint survives a restart.
+     *
+     * @param name The name of the projection.
+     * @param position The position of the last processed event.
+     * @throws Exception If the checkpoint could not be saved.
+     */
+    void save(String name, long position) throws Exception;
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * Thrown if events could not be appended to a stream because the stream does not have the expected version, i.e.
+ * the root aggregate was changed concurrently. Executing the command again on the reloaded root aggregate usually
+ * resolves the conflict.
+ */
+public class ConcurrencyException extends Exception {
+    private final String streamId;
+    private final long expectedVersion;
+    private final long actualVersion;
+
+    public ConcurrencyException(String streamId, long expectedVersion, long actualVersion) {
+        super("Stream " + streamId + " was expected at version " + expectedVersion + " but is at version " + actualVersion);
+        this.streamId = streamId;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getActualVersion() {
+        return actualVersion;
+    }
+}
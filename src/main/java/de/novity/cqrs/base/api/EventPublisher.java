@@ -51,7 +51,8 @@ public interface EventPublisher {
     void publish(Event event) throws Exception;
 
     /**
-     * Takes a list of events and publishes each event to all registered receivers.
+     * Takes a list of events and publishes each event to all registered receivers. Implementations should publish the
+     * list as one unit, so that the events are not interleaved with events published concurrently.
      *
      * @param events The list of events to be published.
      * @throws Exception If the publishing of the events failed.
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An event serializer converts events to bytes and back for storing them.
+ */
+public interface EventSerializer {
+    /**
+     * @param event The event to be serialized.
+     * @return The serialized form of the event.
+     * @throws Exception If the event cannot be serialized.
+     */
+    byte[] serialize(Event event) throws Exception;
+
+    /**
+     * Reads an event from the remaining bytes of the buffer. The buffer may be a view on the storage itself, so
+     * implementations must not keep a reference to it.
+     *
+     * @param buffer The buffer containing exactly one serialized event.
+     * @return The deserialized event.
+     * @throws Exception If the event cannot be deserialized.
+     */
+    Event deserialize(ByteBuffer buffer) throws Exception;
+}
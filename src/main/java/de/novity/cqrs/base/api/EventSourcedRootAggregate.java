@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * A root aggregate whose state is derived entirely from its events. Business methods do not change the state directly
+ * but raise events by <code>applyChange</code>, which applies the event to the state and adds it to the uncommitted
+ * events. A repository rebuilds the root aggregate by passing its stored events to <code>loadFromHistory</code>,
+ * optionally starting from a snapshot.
+ * <p/>
+ * The version of the root aggregate is the number of events applied since it was created, not counting uncommitted
+ * events. To support snapshots, override <code>snapshotState</code> and <code>restoreState</code>.
+ */
+public abstract class EventSourcedRootAggregate extends RootAggregate {
+    private final String id;
+    private long snapshotVersion;
+    private long bytesSinceSnapshot;
+
+    protected EventSourcedRootAggregate(String id) {
+        if (id == null) {
+            throw new NullPointerException("You must provide an id");
+        }
+
+        this.id = id;
+        this.snapshotVersion = 0;
+        this.bytesSinceSnapshot = 0;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return The number of events applied to this root aggregate since the last snapshot.
+     */
+    public long getEventsSinceSnapshot() {
+        return getVersion() - snapshotVersion;
+    }
+
+    /**
+     * @return The serialized size of the events applied to this root aggregate since the last snapshot, as counted by
+     * the repository.
+     */
+    public long getBytesSinceSnapshot() {
+        return bytesSinceSnapshot;
+    }
+
+    void addBytesSinceSnapshot(long bytes) {
+        bytesSinceSnapshot += bytes;
+    }
+
+    /**
+     * Applies a stored event to rebuild the state of this root aggregate.
+     *
+     * @param event An event of the history of this root aggregate.
+     */
+    public void loadFromHistory(Event event) {
+        apply(event);
+        setVersion(getVersion() + 1);
+    }
+
+    /**
+     * Applies a stored event to rebuild the state of this root aggregate, counting its serialized size since the last
+     * snapshot.
+     *
+     * @param event An event of the history of this root aggregate.
+     * @param size The serialized size of the event as stored.
+     */
+    public void loadFromHistory(Event event, long size) {
+        loadFromHistory(event);
+        addBytesSinceSnapshot(size);
+    }
+
+    /**
+     * Commits the uncommitted events after they have been stored, counting their serialized size since the last
+     * snapshot.
+     *
+     * @param size The serialized size of the events as stored.
+     */
+    public void commitEvents(long size) {
+        commitEvents();
+        addBytesSinceSnapshot(size);
+    }
+
+    /**
+     * Restores the state of this root aggregate from the snapshot.
+     *
+     * @param snapshot The latest snapshot of this root aggregate.
+     */
+    public void loadFromSnapshot(Snapshot snapshot) {
+        if (!id.equals(snapshot.getAggregateId())) {
+            throw new IllegalArgumentException("You tried to load a snapshot of root aggregate " + snapshot.getAggregateId() + " into root aggregate " + id);
+        }
+
+        restoreState(snapshot.getState());
+        setVersion(snapshot.getVersion());
+        snapshotVersion = snapshot.getVersion();
+        bytesSinceSnapshot = 0;
+    }
+
+    /**
+     * Takes a snapshot of the committed state of this root aggregate.
+     *
+     * @return The snapshot, or <code>null</code> if this root aggregate does not support snapshots or has
+     * uncommitted events.
+     */
+    public Snapshot takeSnapshot() {
+        if (getEventCount() > 0) {
+            return null;
+        }
+
+        final Object state = snapshotState();
+
+        if (state == null) {
+            return null;
+        }
+
+        snapshotVersion = getVersion();
+        bytesSinceSnapshot = 0;
+        return new Snapshot(id, snapshotVersion, state);
+    }
+
+    /**
+     * Applies the event to the state and adds it to the uncommitted events of this root aggregate.
+     *
+     * @param event The domain event representing a change of state of this root aggregate.
+     */
+    protected void applyChange(Event event) {
+        apply(event);
+        addEvent(event);
+    }
+
+    /**
+     * Changes the state of this root aggregate according to the event. Must not fail for events already stored.
+     *
+     * @param event The event to be applied.
+     */
+    protected abstract void apply(Event event);
+
+    /**
+     * @return A copy of the state of this root aggregate that is not changed by later events, or <code>null</code>
+     * if snapshots are not supported.
+     */
+    protected Object snapshotState() {
+        return null;
+    }
+
+    /**
+     * Replaces the state of this root aggregate with the state of a snapshot.
+     *
+     * @param state The state returned by <code>snapshotState</code>.
+     */
+    protected void restoreState(Object state) {
+        throw new UnsupportedOperationException("Root aggregate " + getClass().getSimpleName() + " does not support snapshots");
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.util.List;
+
+/**
+ * An event store persists the events of root aggregates in append-only event streams, one stream per root aggregate.
+ * Each event in a stream has a version, starting with 1 for the first event of the stream. The version of a stream is
+ * the version of its last event, or 0 if the stream is empty.
+ * <p/>
+ * In addition, all events of all streams form a single log in the order they were appended. Each event has a position
+ * in this log, starting with 1 for the first event appended to the store, which is passed to the subscriber reading
+ * the log. Events of the same stream appear in the log in the order of their versions.
+ * <p/>
+ * Usually a command handler appends the uncommitted events of an affected root aggregate to its stream before
+ * publishing them, so that the root aggregate can be rebuilt later by replaying its stream.
+ */
+public interface EventStore {
+    /**
+     * Appends the events to the end of the stream as one unit.
+     *
+     * @param streamId The id of the stream, usually the id of the root aggregate.
+     * @param events The events to be appended.
+     * @return The version of the stream after appending the events.
+     * @throws Exception If the events could not be stored.
+     */
+    long append(String streamId, List<Event> events) throws Exception;
+
+    /**
+     * Appends the events to the end of the stream as one unit, if the stream still has the expected version.
+     *
+     * @param streamId The id of the stream, usually the id of the root aggregate.
+     * @param expectedVersion The version the stream must have, 0 for a new stream.
+     * @param events The events to be appended.
+     * @return The version of the stream after appending the events.
+     * @throws ConcurrencyException If the stream does not have the expected version.
+     * @throws Exception If the events could not be stored.
+     */
+    long append(String streamId, long expectedVersion, List<Event> events) throws Exception;
+
+    /**
+     * @param streamId The id of the stream.
+     * @return The version of the stream, or 0 if the stream does not exist.
+     */
+    long getVersion(String streamId);
+
+    /**
+     * Passes the events of the stream following the given version to the subscriber in order.
+     *
+     * @param streamId The id of the stream.
+     * @param fromVersion The version after which the replay starts, 0 to replay the whole stream.
+     * @param subscriber The subscriber receiving the replayed events.
+     * @throws Exception If the events could not be read.
+     */
+    void replay(String streamId, long fromVersion, EventSubscriber subscriber) throws Exception;
+
+    /**
+     * @return The position of the last event in the log, or 0 if the store is empty.
+     */
+    long getPosition();
+
+    /**
+     * Passes the events of all streams following the given position in the log to the subscriber in order. Events
+     * appended while reading may be passed as well.
+     *
+     * @param fromPosition The position after which reading starts, 0 to read the whole log.
+     * @param subscriber The subscriber receiving the events.
+     * @throws Exception If the events could not be read, or the subscriber failed.
+     */
+    void readAll(long fromPosition, StoredEventSubscriber subscriber) throws Exception;
+}
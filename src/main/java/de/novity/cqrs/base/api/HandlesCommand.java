@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a command handler to be registered by the handler registry generated at build time. The handled command type
+ * is the type argument of <code>CommandHandler</code> implemented by the annotated class.
+ * <p/>
+ * The generated registry is named <code>GeneratedHandlerRegistry</code> and placed in the common package of all
+ * annotated classes, unless the processor option <code>cqrs.registryPackage</code> names another package. The
+ * annotated class must be accessible from this package. See the following example:
+ * <p/>
+ * <pre>{@code
+ * @HandlesCommand
+ * public class ConfirmOrderHandler implements CommandHandler<ConfirmOrder> {
+ *   public void execute(ConfirmOrder command) throws Exception {
+ *     ...
+ *   }
+ * }
+ *
+ * GeneratedHandlerRegistry.register(dispatcher, publisher);
+ * }</pre>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface HandlesCommand {
+}
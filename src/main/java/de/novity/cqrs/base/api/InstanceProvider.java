@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * An instance provider supplies the command handlers and event subscribers registered by a generated handler
+ * registry, e.g. from a dependency injection container or a map of instances created by the application.
+ */
+public interface InstanceProvider {
+    /**
+     * @param type The class of the command handler or event subscriber.
+     * @return The instance of the given class to be registered.
+     * @throws Exception If the instance could not be provided.
+     */
+    <T> T get(Class<T> type) throws Exception;
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * A projection builds a read model from the events of an event store. It is fed by a projection runner, which tracks
+ * the position of the last processed event in a <code>CheckpointStore</code> under the name of the projection.
+ * <p/>
+ * After a restart, the events following the last checkpoint are passed again, so a projection must tolerate events
+ * it has already processed since then. During a rebuild, <code>onEvent</code> is called concurrently by several
+ * threads, each of them passing the events of a distinct set of streams in order. A projection supporting rebuilds
+ * must therefore be thread safe for events of different streams.
+ */
+public interface Projection extends EventSubscriber {
+    /**
+     * @return The unique name of the projection, used as key of its checkpoint.
+     */
+    String getName();
+
+    /**
+     * Clears the read model before it is rebuilt from the first event.
+     */
+    void reset() throws Exception;
+}
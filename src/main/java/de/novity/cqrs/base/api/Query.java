@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * This is the base class for all queries.
+ * <p/>
+ * A query is a message to the read side asking for information without changing anything. The query is named after
+ * the information requested, for example <code>FindOrderById</code>. The fields of the query carry the criteria, and
+ * the type parameter <code>TResult</code> is the type of the answer.
+ * <p/>
+ * Like commands, queries should be immutable having only final fields. Queries whose results are cached must also
+ * implement <code>equals</code> and <code>hashCode</code> by their fields, as equal queries share a cached result. See
+ * the following example:
+ * <p/>
+ * <pre>{@code
+ * public class FindOrderById extends Query<OrderView> {
+ *   public final String id;
+ *
+ *   public FindOrderById(String id) {
+ *      this.id = id;
+ *   }
+ *
+ *   public boolean equals(Object o) {
+ *      return o instanceof FindOrderById && ((FindOrderById) o).id.equals(id);
+ *   }
+ *
+ *   public int hashCode() {
+ *      return id.hashCode();
+ *   }
+ * }
+ * }</pre>
+ *
+ * @param <TResult> The type of the result of the query
+ */
+public abstract class Query<TResult> {
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * A query dispatcher is a central endpoint that receives queries to be answered by your read side. Upon requesting a
+ * query to be executed, the query dispatcher looks up a <code>QueryHandler</code> that can answer it.
+ * <p/>
+ * You must have your infrastructure implement at least one query dispatcher and publish it to your clients.
+ */
+public interface QueryDispatcher {
+    /**
+     * Registers a handler for a given query.
+     *
+     * @param queryType Class of query that the handler is registered for.
+     * @param handler The handler handling queries of the given query type.
+     */
+    void registerHandler(Class queryType, QueryHandler handler);
+
+    /**
+     * @param query The query to be executed by the read side
+     * @return The result of the query
+     * @throws Exception If the execution of the query failed
+     */
+    <TResult> TResult execute(Query<TResult> query) throws Exception;
+}
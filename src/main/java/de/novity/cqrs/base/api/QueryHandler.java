@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * A query handler is capable of executing the query specified by the query type <code>TQuery</code>, usually by
+ * reading a read model.
+ * <p/>
+ * See the following example for a query handler implementation:
+ * <p/>
+ * <pre>{@code
+ * public class FindOrderByIdQueryHandler implements QueryHandler<FindOrderById, OrderView> {
+ *  private final OrderViewStore store;
+ *
+ *  public FindOrderByIdQueryHandler(OrderViewStore store) {
+ *    this.store = store;
+ *  }
+ *
+ *  public OrderView execute(FindOrderById query) throws Exception {
+ *    return store.findById(query.id);
+ *  }
+ * }
+ * }</pre>
+ *
+ * @param <TQuery> The type of the query that this handler can execute
+ * @param <TResult> The type of the result of the query
+ */
+public interface QueryHandler<TQuery extends Query<TResult>, TResult> {
+    /**
+     * Executes the query
+     *
+     * @param query The query to be executed
+     * @return The result of the query
+     * @throws Exception If the query execution fails
+     */
+    TResult execute(TQuery query) throws Exception;
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * A repository loads and saves root aggregates by their id.
+ *
+ * @param <T> The type of root aggregate.
+ */
+public interface Repository<T extends EventSourcedRootAggregate> {
+    /**
+     * @param id The id of the root aggregate.
+     * @return The root aggregate, or <code>null</code> if it does not exist.
+     * @throws Exception If the root aggregate could not be loaded.
+     */
+    T load(String id) throws Exception;
+
+    /**
+     * Stores the uncommitted events of the root aggregate and commits them.
+     *
+     * @param aggregate The root aggregate to be saved.
+     * @throws Exception If the root aggregate could not be saved.
+     */
+    void save(T aggregate) throws Exception;
+}
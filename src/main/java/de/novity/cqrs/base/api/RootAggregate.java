@@ -16,9 +16,12 @@
 
 package de.novity.cqrs.base.api;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
 
 /**
  * This is the base class of all root aggregates.
@@ -34,17 +37,53 @@ import java.util.List;
  * <p/>
  * Your root aggregate should extend this base class to get a functionality for managing the domain events created
  * by your root aggregate.
+ * <p/>
+ * A root aggregate also tracks its version, the number of committed events. When the uncommitted events are stored,
+ * the stored version of the root aggregate is expected to still be the version it was loaded with. Otherwise another
+ * command changed the root aggregate concurrently and storing fails with a <code>ConcurrencyException</code>.
  *
  * @See RootAggregate for an example of the cooperation between comand hanlder and root aggregate.
  */
 public abstract class RootAggregate {
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * The largest event buffer kept after a commit. Larger buffers are released to avoid keeping the memory of rare
+     * large changes.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64;
+
+    /**
+     * The events representing state changes of this root aggregate since the last commit, allocated with the first
+     * event.
+     */
+    private Event[] events;
+
+    /**
+     * The number of uncommitted events.
+     */
+    private int eventCount;
+
     /**
-     * The list of events representing state changes of this root aggregate since the last commit.
+     * The read-only view on the uncommitted events returned by <code>getEvents</code>, created on first access.
      */
-    private final List<Event> events;
+    private List<Event> eventList;
+
+    /**
+     * The number of committed events of this root aggregate.
+     */
+    private long version;
 
     protected RootAggregate() {
-        this.events = new ArrayList<Event>();
+        this.version = 0;
+    }
+
+    /**
+     * @return The number of committed events of this root aggregate, not counting uncommitted events. This is the
+     * version the stored root aggregate is expected to have when the uncommitted events are stored.
+     */
+    public long getVersion() {
+        return version;
     }
 
     /**
@@ -53,7 +92,13 @@ public abstract class RootAggregate {
      * @param event The domain event representing a change of state of this root aggregate.
      */
     protected void addEvent(Event event) {
-        events.add(event);
+        if (events == null) {
+            events = new Event[INITIAL_CAPACITY];
+        } else if (eventCount == events.length) {
+            events = Arrays.copyOf(events, eventCount * 2);
+        }
+
+        events[eventCount++] = event;
     }
 
     /**
@@ -65,7 +110,36 @@ public abstract class RootAggregate {
      * @return List of uncommited state changes.
      */
     public List<Event> getEvents() {
-        return Collections.unmodifiableList(events);
+        if (events == null) {
+            return Collections.emptyList();
+        }
+
+        if (eventList == null) {
+            eventList = new EventList();
+        }
+
+        return eventList;
+    }
+
+    /**
+     * @return The number of uncommitted state changes of this root aggregate.
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Passes the uncommitted state changes of this root aggregate to the consumer in order and commits them
+     * afterwards, without creating any intermediate list. If the consumer fails, no event is committed.
+     *
+     * @param consumer The consumer taking over the events, e.g. by publishing them.
+     */
+    public void drainEvents(Consumer<? super Event> consumer) {
+        for (int i = 0; i < eventCount; i++) {
+            consumer.accept(events[i]);
+        }
+
+        commitEvents();
     }
 
     /**
@@ -75,6 +149,41 @@ public abstract class RootAggregate {
      * aggregates to interested event subscribers.
      */
     public void commitEvents() {
-        events.clear();
+        version += eventCount;
+
+        if (events != null && events.length > MAX_RETAINED_CAPACITY) {
+            events = null;
+            eventList = null;
+        } else if (events != null) {
+            Arrays.fill(events, 0, eventCount, null);
+        }
+
+        eventCount = 0;
+    }
+
+    /**
+     * Sets the committed version, e.g. after loading this root aggregate.
+     */
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * A read-only view on the uncommitted events, reflecting later changes.
+     */
+    private final class EventList extends AbstractList<Event> implements RandomAccess {
+        @Override
+        public Event get(int index) {
+            if (index < 0 || index >= eventCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + eventCount);
+            }
+
+            return events[index];
+        }
+
+        @Override
+        public int size() {
+            return eventCount;
+        }
     }
 }
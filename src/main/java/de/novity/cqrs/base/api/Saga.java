@@ -0,0 +1,260 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the base class of all sagas, also known as process managers.
+ * <p/>
+ * A saga coordinates a long-running workflow spanning several root aggregates. It reacts to events by sending
+ * commands, and it may request timeouts to react to events that did not arrive in time. A saga instance is
+ * correlated to the events it handles by its associations, e.g. the id of an order. A saga runtime passes every event
+ * to the sagas associated with the correlation key of the event, and starts a new saga for the events the saga type
+ * is started by.
+ * <p/>
+ * While handling an event or timeout, a saga collects the commands to be sent and the timeouts to be requested or
+ * cancelled. The runtime records the deadlines of the requested timeouts, stores the saga and then sends the commands
+ * and schedules the timeouts. As the deadlines are stored with the saga, pending timeouts survive a restart of the
+ * runtime. Once a saga is completed, it is removed together with its timeouts.
+ * <p/>
+ * Sagas are stored in a serialized form between events, so only keep the state needed to make decisions. See the
+ * following example:
+ * <p/>
+ * <pre>{@code
+ * public class OrderFulfillment extends Saga {
+ *   private boolean paid;
+ *
+ *   public OrderFulfillment(String id) {
+ *     super(id);
+ *   }
+ *
+ *   public void handle(Event event) {
+ *     if (event instanceof OrderPlaced) {
+ *       associateWith(((OrderPlaced) event).orderId);
+ *       requestTimeout("payment", 7, TimeUnit.DAYS);
+ *     } else if (event instanceof PaymentReceived) {
+ *       cancelTimeout("payment");
+ *       send(new ShipOrder(((PaymentReceived) event).orderId));
+ *       complete();
+ *     }
+ *   }
+ *
+ *   public void onTimeout(String name) {
+ *     send(new CancelOrder(...));
+ *     complete();
+ *   }
+ * }
+ * }</pre>
+ */
+public abstract class Saga implements Serializable {
+    private static final long CANCELLED = -1;
+
+    private final String id;
+    private final Set<Object> associations;
+    private final Map<String, Long> timeouts;
+    private boolean completed;
+    private transient List<Command> commands;
+    private transient Map<String, Long> timeoutRequests;
+    private transient Map<Object, Boolean> associationChanges;
+
+    protected Saga(String id) {
+        if (id == null) {
+            throw new NullPointerException("You must provide an id");
+        }
+
+        this.id = id;
+        this.associations = new HashSet<Object>(2);
+        this.timeouts = new HashMap<String, Long>(2);
+        this.completed = false;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return <code>true</code> if the workflow of this saga is finished.
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return The correlation keys of the events this saga handles.
+     */
+    public Set<Object> getAssociations() {
+        return Collections.unmodifiableSet(associations);
+    }
+
+    /**
+     * @return The deadlines of the pending timeouts of this saga in nanoseconds on the clock of the runtime, keyed by
+     * their names.
+     */
+    public Map<String, Long> getTimeouts() {
+        return Collections.unmodifiableMap(timeouts);
+    }
+
+    /**
+     * Handles an event correlated to this saga.
+     *
+     * @param event The event to be handled.
+     * @throws Exception If handling the event failed. The changes of the saga are discarded in this case.
+     */
+    public abstract void handle(Event event) throws Exception;
+
+    /**
+     * Handles a timeout requested by this saga. Ignores the timeout by default.
+     *
+     * @param name The name of the expired timeout.
+     * @throws Exception If handling the timeout failed. The changes of the saga are discarded in this case.
+     */
+    public void onTimeout(String name) throws Exception {
+    }
+
+    /**
+     * @return The commands to be sent since the last commit.
+     */
+    public List<Command> getCommands() {
+        return commands == null ? Collections.<Command>emptyList() : Collections.unmodifiableList(commands);
+    }
+
+    /**
+     * @return The delays in nanoseconds of the timeouts requested since the last commit, keyed by their names. A
+     * negative delay requests to cancel the timeout.
+     */
+    public Map<String, Long> getTimeoutRequests() {
+        return timeoutRequests == null ? Collections.<String, Long>emptyMap() : Collections.unmodifiableMap(timeoutRequests);
+    }
+
+    /**
+     * @return The correlation keys associated (<code>true</code>) or dissociated (<code>false</code>) since the last
+     * commit, so that a saga store only updates the changed entries of its index.
+     */
+    public Map<Object, Boolean> getAssociationChanges() {
+        return associationChanges == null ? Collections.<Object, Boolean>emptyMap() : Collections.unmodifiableMap(associationChanges);
+    }
+
+    /**
+     * Clears the commands, timeout requests and association changes after they have been processed.
+     */
+    public void commit() {
+        commands = null;
+        timeoutRequests = null;
+        associationChanges = null;
+    }
+
+    /**
+     * Records the deadline of a requested timeout, before the saga is stored.
+     */
+    public void timeoutScheduled(String name, long deadlineNanos) {
+        timeouts.put(name, deadlineNanos);
+    }
+
+    /**
+     * Removes an expired timeout from the pending timeouts, before <code>onTimeout</code> is called. If handling the
+     * timeout fails, the stored saga keeps the timeout pending.
+     */
+    public void timeoutExpired(String name) {
+        timeouts.remove(name);
+    }
+
+    /**
+     * Associates this saga with a correlation key. The runtime associates a new saga with the key of the event
+     * starting it.
+     */
+    public void associateWith(Object key) {
+        if (key == null) {
+            throw new NullPointerException("You must provide a correlation key");
+        }
+
+        if (associations.add(key)) {
+            associationChanges().put(key, Boolean.TRUE);
+        }
+    }
+
+    protected void dissociateFrom(Object key) {
+        if (associations.remove(key)) {
+            associationChanges().put(key, Boolean.FALSE);
+        }
+    }
+
+    protected void send(Command command) {
+        if (command == null) {
+            throw new NullPointerException("You tried to send a null command");
+        }
+
+        if (commands == null) {
+            commands = new ArrayList<Command>(2);
+        }
+
+        commands.add(command);
+    }
+
+    /**
+     * Requests a timeout, replacing a pending timeout of the same name.
+     */
+    protected void requestTimeout(String name, long delay, TimeUnit unit) {
+        if (name == null) {
+            throw new NullPointerException("You must provide a timeout name");
+        }
+
+        if (delay < 0) {
+            throw new IllegalArgumentException("You must provide a delay of at least 0, but provided " + delay);
+        }
+
+        timeoutRequests().put(name, unit.toNanos(delay));
+    }
+
+    protected void cancelTimeout(String name) {
+        if (timeouts.remove(name) != null || (timeoutRequests != null && timeoutRequests.containsKey(name))) {
+            timeoutRequests().put(name, CANCELLED);
+        }
+    }
+
+    /**
+     * Finishes the workflow. The saga and its pending timeouts are removed after the current event or timeout.
+     */
+    protected void complete() {
+        completed = true;
+    }
+
+    private Map<String, Long> timeoutRequests() {
+        if (timeoutRequests == null) {
+            timeoutRequests = new LinkedHashMap<String, Long>(2);
+        }
+
+        return timeoutRequests;
+    }
+
+    private Map<Object, Boolean> associationChanges() {
+        if (associationChanges == null) {
+            associationChanges = new LinkedHashMap<Object, Boolean>(2);
+        }
+
+        return associationChanges;
+    }
+}
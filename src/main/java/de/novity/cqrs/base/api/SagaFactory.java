@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * A saga factory creates new instances of a saga type when an event starting the saga is published.
+ *
+ * @param <T> The type of saga.
+ */
+public interface SagaFactory<T extends Saga> {
+    /**
+     * @param id The id of the new saga.
+     * @return A new saga without state.
+     */
+    T create(String id);
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A saga serializer converts sagas to bytes and back for storing them between events, including their associations
+ * and pending timeouts.
+ */
+public interface SagaSerializer {
+    /**
+     * @param saga The saga to be serialized.
+     * @return The serialized form of the saga.
+     * @throws Exception If the saga cannot be serialized.
+     */
+    byte[] serialize(Saga saga) throws Exception;
+
+    /**
+     * @param buffer The buffer containing exactly one serialized saga.
+     * @return The deserialized saga without uncommitted changes.
+     * @throws Exception If the saga cannot be deserialized.
+     */
+    Saga deserialize(ByteBuffer buffer) throws Exception;
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.util.Collection;
+
+/**
+ * A saga store keeps the state of running sagas between events, and an index of their associations to find the sagas
+ * correlated to an event.
+ */
+public interface SagaStore {
+    /**
+     * @param sagaId The id of the saga.
+     * @return The saga or <code>null</code> if there is no such saga.
+     * @throws Exception If loading the saga failed.
+     */
+    Saga load(String sagaId) throws Exception;
+
+    /**
+     * Stores the saga and updates the index of its associations.
+     *
+     * @param saga The saga to be stored.
+     * @throws Exception If storing the saga failed.
+     */
+    void save(Saga saga) throws Exception;
+
+    /**
+     * Removes the saga and its associations.
+     *
+     * @param sagaId The id of the saga.
+     * @throws Exception If removing the saga failed.
+     */
+    void delete(String sagaId) throws Exception;
+
+    /**
+     * @param sagaType The type of the sagas.
+     * @param key The correlation key.
+     * @return The ids of the sagas of the given type associated with the key, or an empty collection.
+     * @throws Exception If looking up the index failed.
+     */
+    Collection<String> find(Class<? extends Saga> sagaType, Object key) throws Exception;
+
+    /**
+     * @return The ids of the sagas with pending timeouts, which a saga runtime schedules again when it is started.
+     * @throws Exception If looking up the sagas failed.
+     */
+    Collection<String> findWithTimeouts() throws Exception;
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * A snapshot holds the state of an event sourced root aggregate at a given version, so that the root aggregate can
+ * be rebuilt without replaying all of its events.
+ */
+public final class Snapshot {
+    private final String aggregateId;
+    private final long version;
+    private final Object state;
+
+    public Snapshot(String aggregateId, long version, Object state) {
+        if (aggregateId == null) {
+            throw new NullPointerException("You must provide an aggregate id");
+        }
+
+        if (state == null) {
+            throw new NullPointerException("You must provide a state");
+        }
+
+        this.aggregateId = aggregateId;
+        this.version = version;
+        this.state = state;
+    }
+
+    public String getAggregateId() {
+        return aggregateId;
+    }
+
+    /**
+     * @return The version of the root aggregate, i.e. the number of events contained in the state.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Object getState() {
+        return state;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * A snapshot store keeps the latest snapshot of each event sourced root aggregate.
+ */
+public interface SnapshotStore {
+    /**
+     * Stores the snapshot unless a snapshot of a later version is already stored.
+     *
+     * @param snapshot The snapshot to be stored.
+     * @throws Exception If the snapshot could not be stored.
+     */
+    void save(Snapshot snapshot) throws Exception;
+
+    /**
+     * @param aggregateId The id of the root aggregate.
+     * @return The latest snapshot of the root aggregate, or <code>null</code> if there is none.
+     * @throws Exception If the snapshot could not be loaded.
+     */
+    Snapshot load(String aggregateId) throws Exception;
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+/**
+ * A stored event subscriber receives the events read from the log of an event store together with the stream they
+ * belong to and their position in the log.
+ */
+public interface StoredEventSubscriber {
+    /**
+     * @param streamId The id of the stream the event belongs to.
+     * @param version The version of the event in its stream.
+     * @param position The position of the event in the log.
+     * @param event The event.
+     * @throws Exception If the event could not be processed, which stops reading.
+     */
+    void onEvent(String streamId, long version, long position, Event event) throws Exception;
+}
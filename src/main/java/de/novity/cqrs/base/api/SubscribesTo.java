@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an event subscriber to be added to the event publisher by the handler registry generated at build time. The
+ * subscriber is notified about events of the given types and their subtypes only, or about all events if no type is
+ * given. See <code>HandlesCommand</code> for the generated registry.
+ * <p/>
+ * See the following example:
+ * <p/>
+ * <pre>{@code
+ * @SubscribesTo({OrderConfirmed.class, OrderCancelled.class})
+ * public class OrderView implements EventSubscriber {
+ *   public void onEvent(Event event) {
+ *     ...
+ *   }
+ * }
+ * }</pre>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface SubscribesTo {
+    /**
+     * @return The types of events the subscriber is notified about, or none for all events.
+     */
+    Class<? extends Event>[] value() default {};
+}
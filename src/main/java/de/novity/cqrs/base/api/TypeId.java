@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an event or command for binary encoding and assigns its stable type id. A <code>BinaryCodec</code> is
+ * generated for the annotated class at build time, which writes the instance fields in declaration order.
+ * <p/>
+ * The annotated class must not be private, its instance fields must not be private, and it must have a constructor
+ * taking all instance fields in declaration order. Supported field types are primitives and their wrappers,
+ * <code>String</code>, <code>byte[]</code>, <code>UUID</code> and enums.
+ * <p/>
+ * Never change the type id of a stored type. To evolve a type, only append new fields and increase the version.
+ * Fields missing in older data are read as <code>null</code>, <code>0</code> or <code>false</code>, and fields unknown
+ * to an older reader are skipped.
+ * <p/>
+ * See the following example:
+ * <p/>
+ * <pre>{@code
+ * @TypeId(value = 42, version = 2)
+ * public class OrderPlaced extends Event {
+ *   public final String orderId;
+ *   public final int quantity;
+ *
+ *   public OrderPlaced(String orderId, int quantity) {
+ *     this.orderId = orderId;
+ *     this.quantity = quantity;
+ *   }
+ * }
+ * }</pre>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface TypeId {
+    /**
+     * @return The type id, unique among all encoded types.
+     */
+    int value();
+
+    /**
+     * @return The version of the layout of the type.
+     */
+    int version() default 1;
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import java.util.Collection;
+
+/**
+ * An event subscriber that declares the types of events it is interested in. An event publisher only notifies the
+ * subscriber about events that are instances of one of the declared types, including their subtypes.
+ * <p/>
+ * The declared types are read once when the subscriber is registered with an event publisher. See the following
+ * example:
+ * <p/>
+ * <pre>{@code
+ * public class OrderView implements TypedEventSubscriber {
+ *   public Collection<Class<? extends Event>> getEventTypes() {
+ *     return Arrays.<Class<? extends Event>>asList(OrderConfirmed.class, OrderCancelled.class);
+ *   }
+ *
+ *   public void onEvent(Event event) {
+ *     ...
+ *   }
+ * }
+ * }</pre>
+ */
+public interface TypedEventSubscriber extends EventSubscriber {
+    /**
+     * @return The types of events this subscriber wants to be notified about.
+     */
+    Collection<Class<? extends Event>> getEventTypes();
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventStore;
+import de.novity.cqrs.base.api.RootAggregate;
+
+import java.util.List;
+
+/**
+ * Commits the uncommitted events of a root aggregate by appending them to its stream in an event store, publishing
+ * them, and finally committing them on the root aggregate. The events are only appended if the stream still has the
+ * expected version of the root aggregate. If appending fails, the events are neither published nor committed.
+ * <p/>
+ * See the following example of a command handler:
+ * <p/>
+ * <pre>{@code
+ * public void execute(PlaceOrder command) throws Exception {
+ *   Order order = new Order(command.orderId);
+ *   order.place(command.items);
+ *   committer.commit(command.orderId, order);
+ * }
+ * }</pre>
+ */
+public class AggregateCommitter {
+    private final EventStore eventStore;
+    private final EventPublisher eventPublisher;
+
+    public AggregateCommitter(EventStore eventStore, EventPublisher eventPublisher) {
+        if (eventStore == null) {
+            throw new NullPointerException("You must provide an event store");
+        }
+
+        if (eventPublisher == null) {
+            throw new NullPointerException("You must provide an event publisher");
+        }
+
+        this.eventStore = eventStore;
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * @param streamId The id of the stream of the root aggregate.
+     * @param aggregate The root aggregate whose events are committed.
+     * @return The version of the stream after appending the events.
+     * @throws de.novity.cqrs.base.api.ConcurrencyException If the stream does not have the expected version.
+     * @throws Exception If the events could not be stored or published.
+     */
+    public long commit(String streamId, RootAggregate aggregate) throws Exception {
+        if (aggregate == null) {
+            throw new NullPointerException("You must provide a root aggregate");
+        }
+
+        final List<Event> events = aggregate.getEvents();
+
+        if (events.isEmpty()) {
+            return eventStore.getVersion(streamId);
+        }
+
+        final long version = eventStore.append(streamId, aggregate.getVersion(), events);
+        eventPublisher.publish(events);
+        aggregate.commitEvents();
+        return version;
+    }
+}
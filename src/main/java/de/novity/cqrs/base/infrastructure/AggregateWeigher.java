@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.EventSourcedRootAggregate;
+
+/**
+ * An aggregate weigher determines the weight of a cached root aggregate, e.g. its estimated size in memory.
+ *
+ * @param <T> The type of root aggregate.
+ */
+public interface AggregateWeigher<T extends EventSourcedRootAggregate> {
+    /**
+     * @param aggregate The cached root aggregate.
+     * @return The weight of the root aggregate, at least 1.
+     */
+    long weigh(T aggregate);
+}
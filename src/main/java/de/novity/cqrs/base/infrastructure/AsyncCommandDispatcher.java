@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandDispatcher;
+import de.novity.cqrs.base.api.CommandHandler;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * A command dispatcher executing commands asynchronously on an <code>Executor</code>.
+ * <p/>
+ * Commands are submitted by <code>submit</code>, which returns a <code>CompletableFuture</code> completed with the
+ * outcome of the command handler. Commands targeting the same aggregate, as determined by a
+ * <code>CommandKeyExtractor</code>, are queued in a mailbox of this aggregate and executed one after another in the
+ * order they were submitted. Commands targeting different aggregates run in parallel. The mailbox of an aggregate is
+ * removed as soon as it is empty.
+ * <p/>
+ * The handlers are looked up and executed by a delegate dispatcher, an <code>InMemoryCommandDispatcher</code> by
+ * default. Unless an executor is given, a fixed pool of one daemon thread per available processor is used. On a
+ * runtime supporting virtual threads, an executor creating a virtual thread per task may be given instead. If the
+ * executor rejects a mailbox, the mailbox is processed by the submitting thread.
+ * <p/>
+ * A command handler must not execute a command targeting its own aggregate synchronously by <code>execute</code>,
+ * as this command is queued behind the running one.
+ */
+public class AsyncCommandDispatcher implements CommandDispatcher {
+    private static final int MAILBOX_THROUGHPUT = 64;
+
+    private final CommandDispatcher delegate;
+    private final CommandKeyExtractor keyExtractor;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+    private final ConcurrentMap<Object, Mailbox> mailboxes;
+
+    /**
+     * Creates a dispatcher executing the commands on a fixed pool of one thread per available processor.
+     *
+     * @param keyExtractor Extracts the key of the targeted aggregate from commands.
+     */
+    public AsyncCommandDispatcher(CommandKeyExtractor keyExtractor) {
+        this(new InMemoryCommandDispatcher(), keyExtractor, createDefaultExecutor(), true);
+    }
+
+    /**
+     * @param delegate The dispatcher looking up and executing the command handlers.
+     * @param keyExtractor Extracts the key of the targeted aggregate from commands.
+     * @param executor The executor running the commands.
+     */
+    public AsyncCommandDispatcher(CommandDispatcher delegate, CommandKeyExtractor keyExtractor, Executor executor) {
+        this(delegate, keyExtractor, executor, false);
+    }
+
+    private AsyncCommandDispatcher(CommandDispatcher delegate, CommandKeyExtractor keyExtractor, Executor executor, boolean ownsExecutor) {
+        if (delegate == null) {
+            throw new NullPointerException("You must provide a delegate dispatcher");
+        }
+
+        if (keyExtractor == null) {
+            throw new NullPointerException("You must provide a command key extractor");
+        }
+
+        if (executor == null) {
+            throw new NullPointerException("You must provide an executor");
+        }
+
+        this.delegate = delegate;
+        this.keyExtractor = keyExtractor;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.mailboxes = new ConcurrentHashMap<Object, Mailbox>();
+    }
+
+    public void registerHandler(Class commandType, CommandHandler handler) {
+        delegate.registerHandler(commandType, handler);
+    }
+
+    /**
+     * Submits the command and waits for its execution.
+     */
+    public void execute(Command command) throws Exception {
+        try {
+            submit(command).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Submits the command for asynchronous execution.
+     *
+     * @param command The command to be executed by the domain
+     * @return A future completed after the command has been executed, or completed exceptionally with the exception
+     * thrown by the command handler.
+     */
+    public CompletableFuture<Void> submit(Command command) {
+        if (command == null) {
+            throw new NullPointerException("You tried to execute a null command");
+        }
+
+        final Task task = new Task(command);
+        final Object key = keyExtractor.getKey(command);
+
+        if (key == null) {
+            execute(task);
+            return task.result;
+        }
+
+        final Mailbox[] unscheduled = new Mailbox[1];
+
+        mailboxes.compute(key, new BiFunction<Object, Mailbox, Mailbox>() {
+            public Mailbox apply(Object key, Mailbox mailbox) {
+                if (mailbox == null) {
+                    mailbox = new Mailbox(key);
+                }
+
+                mailbox.tasks.add(task);
+
+                if (!mailbox.scheduled) {
+                    mailbox.scheduled = true;
+                    unscheduled[0] = mailbox;
+                }
+
+                return mailbox;
+            }
+        });
+
+        if (unscheduled[0] != null) {
+            execute(unscheduled[0]);
+        }
+
+        return task.result;
+    }
+
+    /**
+     * Shuts down the executor if it was created by this dispatcher. Already submitted commands are still executed.
+     */
+    public void shutdown() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    private void execute(Runnable runnable) {
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            runnable.run();
+        }
+    }
+
+    private static ExecutorService createDefaultExecutor() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "command-dispatcher-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private class Task implements Runnable {
+        private final Command command;
+        private final CompletableFuture<Void> result;
+
+        private Task(Command command) {
+            this.command = command;
+            this.result = new CompletableFuture<Void>();
+        }
+
+        public void run() {
+            try {
+                delegate.execute(command);
+                result.complete(null);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * The queue of commands targeting the same aggregate. A mailbox is scheduled at most once at a time. After running
+     * a limited number of commands it is either removed, if it is empty, or scheduled again to let other mailboxes
+     * run. Tasks are added and the mailbox is scheduled or removed only while holding the lock of its map entry, so
+     * that no task is left behind in a removed mailbox.
+     */
+    private class Mailbox implements Runnable {
+        private final Object key;
+        private final Queue<Task> tasks;
+        private boolean scheduled;
+
+        private Mailbox(Object key) {
+            this.key = key;
+            this.tasks = new ConcurrentLinkedQueue<Task>();
+            this.scheduled = false;
+        }
+
+        public void run() {
+            for (int i = 0; i < MAILBOX_THROUGHPUT; i++) {
+                Task task = tasks.poll();
+
+                if (task == null) {
+                    break;
+                }
+
+                task.run();
+            }
+
+            final Mailbox remaining = mailboxes.computeIfPresent(key, new BiFunction<Object, Mailbox, Mailbox>() {
+                public Mailbox apply(Object key, Mailbox mailbox) {
+                    if (mailbox.tasks.isEmpty()) {
+                        mailbox.scheduled = false;
+                        return null;
+                    }
+
+                    return mailbox;
+                }
+            });
+
+            if (remaining != null) {
+                execute(remaining);
+            }
+        }
+    }
+}
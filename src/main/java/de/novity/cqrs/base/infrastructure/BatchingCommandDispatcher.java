@@ -0,0 +1,383 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandDispatcher;
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventStore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * A command dispatcher executing bursts of commands targeting the same aggregate as one batch.
+ * <p/>
+ * Commands are submitted by <code>submit</code> and queued in a mailbox per aggregate, as determined by a
+ * <code>CommandKeyExtractor</code>. A mailbox is run once it holds <code>maxBatchSize</code> commands or its first
+ * command waited for <code>maxDelay</code>. Commands queued while a batch is running form the next batch without
+ * further delay. A delay of 0 only batches the commands that queue up while the previous batch is running.
+ * <p/>
+ * The commands of a batch are executed in order within a single <code>UnitOfWork</code>. As the repositories return
+ * the root aggregates registered with the unit of work, and register the root aggregates they load, a root aggregate
+ * is loaded only once per batch. The events of all commands of the batch are then appended to the event store, if
+ * given, and published in one group write.
+ * <p/>
+ * Each command gets a result of its own: if a command handler fails, the events raised by the preceding commands of
+ * the batch are written, the failed command is completed exceptionally, and the following commands are executed in a
+ * new unit of work, loading the root aggregates again. If the group write fails, all of its commands fail.
+ * <p/>
+ * Commands without a key are executed on their own. Unless an executor is given, a pool of one daemon thread per
+ * available processor is used.
+ */
+public class BatchingCommandDispatcher implements CommandDispatcher {
+    private final CommandDispatcher delegate;
+    private final CommandKeyExtractor keyExtractor;
+    private final EventStore eventStore;
+    private final EventPublisher eventPublisher;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService executor;
+    private final boolean ownsExecutor;
+    private final ConcurrentMap<Object, Mailbox> mailboxes;
+
+    /**
+     * Creates a dispatcher running the batches on a pool of one thread per available processor.
+     *
+     * @param delegate The dispatcher looking up and executing the command handlers.
+     * @param keyExtractor Extracts the key of the targeted aggregate from commands.
+     * @param eventStore The event store the events are appended to, or <code>null</code> to only publish them.
+     * @param eventPublisher The publisher publishing the events.
+     * @param maxBatchSize The maximum number of commands executed as one batch.
+     * @param maxDelay The maximum time the first command of a batch waits for further commands.
+     * @param unit The unit of the delay.
+     */
+    public BatchingCommandDispatcher(CommandDispatcher delegate, CommandKeyExtractor keyExtractor, EventStore eventStore, EventPublisher eventPublisher, int maxBatchSize, long maxDelay, TimeUnit unit) {
+        this(delegate, keyExtractor, eventStore, eventPublisher, maxBatchSize, maxDelay, unit, createDefaultExecutor(), true);
+    }
+
+    /**
+     * @param executor The executor running the batches and their delays.
+     */
+    public BatchingCommandDispatcher(CommandDispatcher delegate, CommandKeyExtractor keyExtractor, EventStore eventStore, EventPublisher eventPublisher, int maxBatchSize, long maxDelay, TimeUnit unit, ScheduledExecutorService executor) {
+        this(delegate, keyExtractor, eventStore, eventPublisher, maxBatchSize, maxDelay, unit, executor, false);
+    }
+
+    private BatchingCommandDispatcher(CommandDispatcher delegate, CommandKeyExtractor keyExtractor, EventStore eventStore, EventPublisher eventPublisher, int maxBatchSize, long maxDelay, TimeUnit unit, ScheduledExecutorService executor, boolean ownsExecutor) {
+        if (delegate == null) {
+            throw new NullPointerException("You must provide a delegate dispatcher");
+        }
+
+        if (keyExtractor == null) {
+            throw new NullPointerException("You must provide a command key extractor");
+        }
+
+        if (eventPublisher == null) {
+            throw new NullPointerException("You must provide an event publisher");
+        }
+
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("You must provide a maximum batch size of at least 1");
+        }
+
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("You must provide a maximum delay of at least 0");
+        }
+
+        if (unit == null) {
+            throw new NullPointerException("You must provide a time unit");
+        }
+
+        if (executor == null) {
+            throw new NullPointerException("You must provide an executor");
+        }
+
+        this.delegate = delegate;
+        this.keyExtractor = keyExtractor;
+        this.eventStore = eventStore;
+        this.eventPublisher = eventPublisher;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.mailboxes = new ConcurrentHashMap<Object, Mailbox>();
+    }
+
+    public void registerHandler(Class commandType, CommandHandler handler) {
+        delegate.registerHandler(commandType, handler);
+    }
+
+    /**
+     * Submits the command and waits for its execution.
+     */
+    public void execute(Command command) throws Exception {
+        try {
+            submit(command).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Submits the command for execution within a batch.
+     *
+     * @param command The command to be executed by the domain
+     * @return A future completed after the events of the command have been written, or completed exceptionally with
+     * the exception thrown by the command handler or by the group write.
+     */
+    public CompletableFuture<Void> submit(Command command) {
+        if (command == null) {
+            throw new NullPointerException("You tried to execute a null command");
+        }
+
+        final Task task = new Task(command);
+        final Object key = keyExtractor.getKey(command);
+
+        if (key == null) {
+            execute(new Runnable() {
+                public void run() {
+                    executeBatch(Collections.singletonList(task));
+                }
+            });
+            return task.result;
+        }
+
+        final Mailbox[] runNow = new Mailbox[1];
+        final ScheduledFuture<?>[] expedite = new ScheduledFuture<?>[1];
+
+        mailboxes.compute(key, new BiFunction<Object, Mailbox, Mailbox>() {
+            public Mailbox apply(Object key, Mailbox mailbox) {
+                if (mailbox == null) {
+                    mailbox = new Mailbox(key);
+                }
+
+                mailbox.tasks.add(task);
+
+                if (!mailbox.scheduled) {
+                    mailbox.scheduled = true;
+
+                    if (maxDelayNanos == 0 || mailbox.tasks.size() >= maxBatchSize) {
+                        runNow[0] = mailbox;
+                    } else {
+                        try {
+                            mailbox.delayed = executor.schedule(mailbox, maxDelayNanos, TimeUnit.NANOSECONDS);
+                        } catch (RejectedExecutionException e) {
+                            runNow[0] = mailbox;
+                        }
+                    }
+                } else if (mailbox.delayed != null && mailbox.tasks.size() >= maxBatchSize) {
+                    expedite[0] = mailbox.delayed;
+                    mailbox.delayed = null;
+                    runNow[0] = mailbox;
+                }
+
+                return mailbox;
+            }
+        });
+
+        if (runNow[0] != null && (expedite[0] == null || expedite[0].cancel(false))) {
+            execute(runNow[0]);
+        }
+
+        return task.result;
+    }
+
+    /**
+     * Shuts down the executor if it was created by this dispatcher. Already submitted commands are still executed.
+     */
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private void execute(Runnable runnable) {
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * Executes the commands in units of work, starting a new one after each failed command.
+     */
+    private void executeBatch(List<Task> batch) {
+        int next = 0;
+
+        while (next < batch.size()) {
+            final UnitOfWork unitOfWork = UnitOfWork.begin();
+
+            if (unitOfWork == null) {
+                executeJoined(batch.subList(next, batch.size()));
+                return;
+            }
+            final List<Task> executed = new ArrayList<Task>();
+            Task failed = null;
+            Throwable failure = null;
+
+            try {
+                while (next < batch.size() && failed == null) {
+                    final Task task = batch.get(next++);
+                    unitOfWork.savepoint();
+
+                    try {
+                        delegate.execute(task.command);
+                        executed.add(task);
+                    } catch (Throwable e) {
+                        failed = task;
+                        failure = e;
+                    }
+                }
+
+                if (failed == null) {
+                    unitOfWork.flush(eventStore, eventPublisher);
+                } else {
+                    unitOfWork.flushSavepoint(eventStore, eventPublisher);
+                }
+
+                for (Task task : executed) {
+                    task.result.complete(null);
+                }
+            } catch (Throwable e) {
+                for (Task task : executed) {
+                    task.result.completeExceptionally(e);
+                }
+            } finally {
+                unitOfWork.end();
+            }
+
+            if (failed != null) {
+                failed.result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Executes the commands within the unit of work of the current thread, which happens if a command handler submits
+     * a command that is rejected by the executor. The outer unit of work writes the events.
+     */
+    private void executeJoined(List<Task> tasks) {
+        for (Task task : tasks) {
+            try {
+                delegate.execute(task.command);
+                task.result.complete(null);
+            } catch (Throwable e) {
+                task.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static ScheduledExecutorService createDefaultExecutor() {
+        return Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "command-batcher-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static class Task {
+        private final Command command;
+        private final CompletableFuture<Void> result;
+
+        private Task(Command command) {
+            this.command = command;
+            this.result = new CompletableFuture<Void>();
+        }
+    }
+
+    /**
+     * The queue of commands targeting the same aggregate. A mailbox is scheduled at most once at a time, either
+     * delayed or to be run immediately. Its tasks and state are only accessed while holding the lock of its map
+     * entry, so that no task is left behind in a removed mailbox.
+     */
+    private class Mailbox implements Runnable {
+        private final Object key;
+        private final Queue<Task> tasks;
+        private boolean scheduled;
+        private ScheduledFuture<?> delayed;
+
+        private Mailbox(Object key) {
+            this.key = key;
+            this.tasks = new ArrayDeque<Task>();
+            this.scheduled = false;
+        }
+
+        public void run() {
+            final List<Task> batch = new ArrayList<Task>();
+
+            mailboxes.computeIfPresent(key, new BiFunction<Object, Mailbox, Mailbox>() {
+                public Mailbox apply(Object key, Mailbox mailbox) {
+                    mailbox.delayed = null;
+
+                    while (batch.size() < maxBatchSize && !mailbox.tasks.isEmpty()) {
+                        batch.add(mailbox.tasks.poll());
+                    }
+
+                    return mailbox;
+                }
+            });
+
+            executeBatch(batch);
+
+            final Mailbox remaining = mailboxes.computeIfPresent(key, new BiFunction<Object, Mailbox, Mailbox>() {
+                public Mailbox apply(Object key, Mailbox mailbox) {
+                    if (mailbox.tasks.isEmpty()) {
+                        mailbox.scheduled = false;
+                        return null;
+                    }
+
+                    return mailbox;
+                }
+            });
+
+            if (remaining != null) {
+                execute(remaining);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSerializer;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An event serializer using the binary codecs of a codec registry. Events are encoded into a buffer kept per thread,
+ * which grows as needed.
+ */
+public class BinaryEventSerializer implements EventSerializer {
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final CodecRegistry registry;
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    public BinaryEventSerializer(CodecRegistry registry) {
+        if (registry == null) {
+            throw new NullPointerException("You must provide a codec registry");
+        }
+
+        this.registry = registry;
+        this.buffers = new ThreadLocal<ByteBuffer>() {
+            @Override
+            protected ByteBuffer initialValue() {
+                return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            }
+        };
+    }
+
+    public byte[] serialize(Event event) {
+        ByteBuffer buffer = buffers.get();
+
+        while (true) {
+            buffer.clear();
+
+            try {
+                registry.encode(event, buffer);
+                return Arrays.copyOf(buffer.array(), buffer.position());
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffers.set(buffer);
+            }
+        }
+    }
+
+    public Event deserialize(ByteBuffer buffer) {
+        return (Event) registry.decode(buffer);
+    }
+}
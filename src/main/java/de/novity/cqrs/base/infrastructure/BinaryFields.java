@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * Encodes the non-primitive field types supported by generated codecs. A <code>null</code> value is written as
+ * length -1 or as a zero presence byte.
+ */
+public final class BinaryFields {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private BinaryFields() {
+    }
+
+    public static void writeString(ByteBuffer buffer, String value) {
+        writeBytes(buffer, value == null ? null : value.getBytes(UTF_8));
+    }
+
+    public static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    public static void writeBytes(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+
+        buffer.putInt(value.length);
+        buffer.put(value);
+    }
+
+    public static byte[] readBytes(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the name of the constant, so that constants may be reordered.
+     */
+    public static void writeEnum(ByteBuffer buffer, Enum<?> value) {
+        writeString(buffer, value == null ? null : value.name());
+    }
+
+    public static <E extends Enum<E>> E readEnum(ByteBuffer buffer, Class<E> type) {
+        final String name = readString(buffer);
+        return name == null ? null : Enum.valueOf(type, name);
+    }
+
+    public static void writeUuid(ByteBuffer buffer, UUID value) {
+        if (value == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+
+        buffer.put((byte) 1);
+        buffer.putLong(value.getMostSignificantBits());
+        buffer.putLong(value.getLeastSignificantBits());
+    }
+
+    public static UUID readUuid(ByteBuffer buffer) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
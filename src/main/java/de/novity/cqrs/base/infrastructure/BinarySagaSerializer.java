@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Saga;
+import de.novity.cqrs.base.api.SagaSerializer;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A saga serializer using the binary codecs of a codec registry. The state of a saga is written by the codec registered
+ * for its type, which must write the id of the saga to be able to create it again. The associations and pending
+ * timeouts are written by the serializer itself, with the following layout:
+ * <pre>
+ * [encoded saga][int association count][associations][int timeout count]{[string name][long deadline]}
+ * </pre>
+ * Correlation keys of type <code>String</code>, <code>Long</code> and <code>UUID</code> are written directly, keys of
+ * other types by the codec registered for them. Sagas are encoded into a buffer kept per thread, which grows as
+ * needed.
+ */
+public class BinarySagaSerializer implements SagaSerializer {
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final byte STRING_KEY = 0;
+    private static final byte LONG_KEY = 1;
+    private static final byte UUID_KEY = 2;
+    private static final byte ENCODED_KEY = 3;
+
+    private final CodecRegistry registry;
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    public BinarySagaSerializer(CodecRegistry registry) {
+        if (registry == null) {
+            throw new NullPointerException("You must provide a codec registry");
+        }
+
+        this.registry = registry;
+        this.buffers = new ThreadLocal<ByteBuffer>() {
+            @Override
+            protected ByteBuffer initialValue() {
+                return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            }
+        };
+    }
+
+    public byte[] serialize(Saga saga) {
+        ByteBuffer buffer = buffers.get();
+
+        while (true) {
+            buffer.clear();
+
+            try {
+                write(saga, buffer);
+                return Arrays.copyOf(buffer.array(), buffer.position());
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffers.set(buffer);
+            }
+        }
+    }
+
+    public Saga deserialize(ByteBuffer buffer) {
+        final Saga saga = (Saga) registry.decode(buffer);
+
+        for (int i = buffer.getInt(); i > 0; i--) {
+            saga.associateWith(readKey(buffer));
+        }
+
+        for (int i = buffer.getInt(); i > 0; i--) {
+            saga.timeoutScheduled(BinaryFields.readString(buffer), buffer.getLong());
+        }
+
+        saga.commit();
+        return saga;
+    }
+
+    private void write(Saga saga, ByteBuffer buffer) {
+        registry.encode(saga, buffer);
+
+        buffer.putInt(saga.getAssociations().size());
+        for (Object key : saga.getAssociations()) {
+            writeKey(key, buffer);
+        }
+
+        buffer.putInt(saga.getTimeouts().size());
+        for (Map.Entry<String, Long> timeout : saga.getTimeouts().entrySet()) {
+            BinaryFields.writeString(buffer, timeout.getKey());
+            buffer.putLong(timeout.getValue());
+        }
+    }
+
+    private void writeKey(Object key, ByteBuffer buffer) {
+        if (key instanceof String) {
+            buffer.put(STRING_KEY);
+            BinaryFields.writeString(buffer, (String) key);
+        } else if (key instanceof Long) {
+            buffer.put(LONG_KEY);
+            buffer.putLong((Long) key);
+        } else if (key instanceof UUID) {
+            buffer.put(UUID_KEY);
+            buffer.putLong(((UUID) key).getMostSignificantBits());
+            buffer.putLong(((UUID) key).getLeastSignificantBits());
+        } else {
+            buffer.put(ENCODED_KEY);
+            registry.encode(key, buffer);
+        }
+    }
+
+    private Object readKey(ByteBuffer buffer) {
+        final byte tag = buffer.get();
+
+        switch (tag) {
+            case STRING_KEY:
+                return BinaryFields.readString(buffer);
+            case LONG_KEY:
+                return buffer.getLong();
+            case UUID_KEY:
+                return new UUID(buffer.getLong(), buffer.getLong());
+            case ENCODED_KEY:
+                return registry.decode(buffer);
+            default:
+                throw new IllegalArgumentException("You tried to read a correlation key with unknown tag " + tag);
+        }
+    }
+}
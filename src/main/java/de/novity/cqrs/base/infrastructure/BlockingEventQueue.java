@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An event queue backed by an array guarded by a single lock, comparable to an <code>ArrayBlockingQueue</code>.
+ * Producers and the consumer are synchronized by the lock, so a list of events is put into the queue with a single
+ * acquisition of the lock.
+ */
+public class BlockingEventQueue implements EventQueue {
+    private final Event[] items;
+    private final long[] putTimes;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private int head;
+    private int count;
+
+    public BlockingEventQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, but was " + capacity);
+        }
+
+        this.items = new Event[capacity];
+        this.putTimes = new long[capacity];
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+    }
+
+    public void put(Event event) throws InterruptedException {
+        if (event == null) {
+            throw new NullPointerException("You tried to queue a null event");
+        }
+
+        final long now = System.nanoTime();
+
+        lock.lockInterruptibly();
+        try {
+            while (count == items.length) {
+                notFull.await();
+            }
+
+            enqueue(event, now);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void putAll(List<Event> events) throws InterruptedException {
+        final int size = events.size();
+        int offset = 0;
+
+        for (Event event : events) {
+            if (event == null) {
+                throw new NullPointerException("You tried to queue a null event");
+            }
+        }
+
+        final long now = System.nanoTime();
+
+        lock.lockInterruptibly();
+        try {
+            while (offset < size) {
+                final int chunk = Math.min(size - offset, items.length);
+
+                while (items.length - count < chunk) {
+                    notFull.await();
+                }
+
+                for (int i = offset; i < offset + chunk; i++) {
+                    enqueue(events.get(i), now);
+                }
+
+                offset += chunk;
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean offerAll(List<Event> events, long timeout, TimeUnit unit) throws InterruptedException {
+        final int size = events.size();
+
+        if (size > items.length) {
+            throw new IllegalArgumentException("You tried to offer " + size + " events exceeding the capacity of " + items.length);
+        }
+
+        for (Event event : events) {
+            if (event == null) {
+                throw new NullPointerException("You tried to queue a null event");
+            }
+        }
+
+        final long now = System.nanoTime();
+        long nanos = unit.toNanos(timeout);
+
+        lock.lockInterruptibly();
+        try {
+            while (items.length - count < size) {
+                if (nanos <= 0) {
+                    return false;
+                }
+
+                nanos = notFull.awaitNanos(nanos);
+            }
+
+            for (Event event : events) {
+                enqueue(event, now);
+            }
+
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Event poll() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+
+            Event event = items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            count--;
+            notFull.signalAll();
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int drainTo(List<Event> batch, int maxEvents) throws InterruptedException {
+        return drainTo(batch, null, maxEvents);
+    }
+
+    public int drainTo(List<Event> batch, long[] putTimes, int maxEvents) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+
+            final int drained = Math.min(count, maxEvents);
+
+            for (int i = 0; i < drained; i++) {
+                if (putTimes != null) {
+                    putTimes[i] = this.putTimes[head];
+                }
+
+                batch.add(items[head]);
+                items[head] = null;
+                head = (head + 1) % items.length;
+            }
+
+            count -= drained;
+            notFull.signalAll();
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+    private void enqueue(Event event, long putTime) {
+        final int tail = (head + count) % items.length;
+        items[tail] = event;
+        putTimes[tail] = putTime;
+        count++;
+    }
+}
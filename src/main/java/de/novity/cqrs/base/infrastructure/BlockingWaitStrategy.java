@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A wait strategy that blocks waiting threads on a condition. The lock is only acquired for signalling if there is at
+ * least one waiting thread.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+    private final Lock lock;
+    private final Condition stateChanged;
+    private final AtomicInteger waiting;
+
+    public BlockingWaitStrategy() {
+        this.lock = new ReentrantLock();
+        this.stateChanged = lock.newCondition();
+        this.waiting = new AtomicInteger();
+    }
+
+    public void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        if (condition.getAsBoolean()) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            waiting.incrementAndGet();
+
+            try {
+                while (!condition.getAsBoolean()) {
+                    stateChanged.await();
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean waitUntil(BooleanSupplier condition, long timeout, TimeUnit unit) throws InterruptedException {
+        if (condition.getAsBoolean()) {
+            return true;
+        }
+
+        long nanos = unit.toNanos(timeout);
+
+        lock.lock();
+        try {
+            waiting.incrementAndGet();
+
+            try {
+                while (!condition.getAsBoolean()) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+
+                    nanos = stateChanged.awaitNanos(nanos);
+                }
+
+                return true;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void signalAll() {
+        if (waiting.get() == 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
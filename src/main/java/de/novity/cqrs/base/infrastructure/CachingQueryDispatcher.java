@@ -0,0 +1,338 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BatchEventSubscriber;
+import de.novity.cqrs.base.api.CacheableQuery;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.Projection;
+import de.novity.cqrs.base.api.Query;
+import de.novity.cqrs.base.api.QueryDispatcher;
+import de.novity.cqrs.base.api.QueryHandler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A query dispatcher keeping the results of recently executed queries in memory in front of another query dispatcher,
+ * so that repeated queries are not answered by the read model again.
+ * <p/>
+ * Only the results of queries implementing <code>CacheableQuery</code> are cached, keyed by the query itself. All
+ * other queries are passed to the delegate. The cache subscribes to an event publisher and evicts exactly the results
+ * whose queries declared the type of a published event, or one of its supertypes, as invalidating. A result is not
+ * cached if an invalidating event arrived while the query was executed, so a result read before the read model was
+ * updated is never kept.
+ * <p/>
+ * The cache is notified as a <code>BatchEventSubscriber</code>, i.e. after the other subscribers of the publisher have
+ * been notified about the events. If the publisher notifies all subscribers on one thread, like
+ * <code>InMemoryEventPublisherService</code>, read models subscribed to the same publisher are therefore updated before
+ * the results read from them are evicted. Read models that are batch subscribers themselves must be subscribed before
+ * the dispatcher is created.
+ * <p/>
+ * Read models updated independently of the cache, e.g. by a <code>FanOutEventPublisherService</code> on their own
+ * threads or by a <code>ProjectionRunner</code>, may apply an event after the cache evicted the results. A query
+ * executed in between reads the old state and would be cached. Such read models must call <code>readModelUpdated</code>
+ * once they applied the events, which evicts the affected results again, so that the cache never keeps a result read
+ * before the last update. Wrap a projection with <code>invalidating</code> to do so.
+ * <p/>
+ * The cache is bounded by a maximum number of results, evicting the least recently used results when it is exceeded.
+ * Cached results are handed out to every caller, so they should be immutable. <code>close</code> unsubscribes the
+ * cache from the event publisher.
+ */
+public class CachingQueryDispatcher implements QueryDispatcher, AutoCloseable {
+    private final QueryDispatcher delegate;
+    private final EventPublisher eventPublisher;
+    private final int maximumSize;
+    private final LinkedHashMap<Object, Entry> entries;
+    private final Map<Class<? extends Event>, Invalidation> invalidations;
+    private final BatchEventSubscriber invalidator;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    /**
+     * @param delegate The dispatcher executing queries whose results are not cached.
+     * @param eventPublisher The publisher of the events invalidating cached results.
+     * @param maximumSize The maximum number of cached results.
+     */
+    public CachingQueryDispatcher(QueryDispatcher delegate, EventPublisher eventPublisher, int maximumSize) {
+        if (delegate == null) {
+            throw new NullPointerException("You must provide a delegate dispatcher");
+        }
+
+        if (eventPublisher == null) {
+            throw new NullPointerException("You must provide an event publisher");
+        }
+
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("You must provide a maximum size of at least 1");
+        }
+
+        this.delegate = delegate;
+        this.eventPublisher = eventPublisher;
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+        this.invalidations = new HashMap<Class<? extends Event>, Invalidation>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.invalidator = new BatchEventSubscriber() {
+            public void onEvent(Event event) {
+                onEvents(Collections.singletonList(event));
+            }
+
+            public void onEvents(List<Event> events) {
+                invalidate(events);
+            }
+        };
+
+        eventPublisher.addSubscriber(invalidator);
+    }
+
+    public void registerHandler(Class queryType, QueryHandler handler) {
+        delegate.registerHandler(queryType, handler);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <TResult> TResult execute(Query<TResult> query) throws Exception {
+        if (query == null) {
+            throw new NullPointerException("You tried to execute a null query");
+        }
+
+        if (!(query instanceof CacheableQuery)) {
+            return delegate.execute(query);
+        }
+
+        final Collection<Class<? extends Event>> eventTypes = ((CacheableQuery) query).getInvalidatingEventTypes();
+        final long version;
+
+        synchronized (entries) {
+            Entry entry = entries.get(query);
+
+            if (entry != null) {
+                hits.incrementAndGet();
+                return (TResult) entry.result;
+            }
+
+            version = versionOf(eventTypes);
+        }
+
+        misses.incrementAndGet();
+
+        final TResult result = delegate.execute(query);
+
+        synchronized (entries) {
+            if (versionOf(eventTypes) == version) {
+                cache(query, eventTypes, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes the cached result of the given query, so that it is executed again on next access.
+     */
+    public void invalidate(Query<?> query) {
+        synchronized (entries) {
+            remove(query);
+        }
+    }
+
+    /**
+     * Evicts the results invalidated by the given events again, after a read model applied them. Results of queries
+     * executed while the read model was updated are not cached either.
+     *
+     * @param events The events applied by the read model.
+     */
+    public void readModelUpdated(List<Event> events) {
+        if (events == null) {
+            throw new NullPointerException("You must provide the applied events");
+        }
+
+        invalidate(events);
+    }
+
+    /**
+     * Wraps a projection, so that the cache is invalidated after the projection applied an event and cleared after the
+     * projection was reset.
+     *
+     * @param projection The projection updating the read model queried through this dispatcher.
+     * @return The projection to be passed to a <code>ProjectionRunner</code>.
+     */
+    public Projection invalidating(final Projection projection) {
+        if (projection == null) {
+            throw new NullPointerException("You must provide a projection");
+        }
+
+        return new Projection() {
+            public String getName() {
+                return projection.getName();
+            }
+
+            public void reset() throws Exception {
+                projection.reset();
+                invalidateAll();
+            }
+
+            public void onEvent(Event event) {
+                projection.onEvent(event);
+                invalidate(Collections.singletonList(event));
+            }
+        };
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+
+            for (Invalidation invalidation : invalidations.values()) {
+                invalidation.version++;
+                invalidation.queries.clear();
+            }
+        }
+    }
+
+    /**
+     * Unsubscribes the cache from the event publisher. Cached results are no longer invalidated afterwards.
+     */
+    public void close() {
+        eventPublisher.removeSubscriber(invalidator);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private void invalidate(List<Event> events) {
+        synchronized (entries) {
+            for (Event event : events) {
+                for (Map.Entry<Class<? extends Event>, Invalidation> invalidation : invalidations.entrySet()) {
+                    if (!invalidation.getKey().isInstance(event)) {
+                        continue;
+                    }
+
+                    invalidation.getValue().version++;
+
+                    for (Object query : new ArrayList<Object>(invalidation.getValue().queries)) {
+                        remove(query);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The sum of the invalidation versions of the given event types, changing whenever one of them is
+     * invalidated.
+     */
+    private long versionOf(Collection<Class<? extends Event>> eventTypes) {
+        long version = 0;
+
+        for (Class<? extends Event> eventType : eventTypes) {
+            version += invalidationOf(eventType).version;
+        }
+
+        return version;
+    }
+
+    private Invalidation invalidationOf(Class<? extends Event> eventType) {
+        Invalidation invalidation = invalidations.get(eventType);
+
+        if (invalidation == null) {
+            invalidation = new Invalidation();
+            invalidations.put(eventType, invalidation);
+        }
+
+        return invalidation;
+    }
+
+    private void cache(Object query, Collection<Class<? extends Event>> eventTypes, Object result) {
+        remove(query);
+
+        final Entry entry = new Entry(result, new ArrayList<Class<? extends Event>>(eventTypes));
+        entries.put(query, entry);
+
+        for (Class<? extends Event> eventType : entry.eventTypes) {
+            invalidationOf(eventType).queries.add(query);
+        }
+
+        final Iterator<Map.Entry<Object, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maximumSize && iterator.hasNext()) {
+            final Map.Entry<Object, Entry> eldest = iterator.next();
+            iterator.remove();
+            unindex(eldest.getKey(), eldest.getValue());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(Object query) {
+        final Entry entry = entries.remove(query);
+
+        if (entry != null) {
+            unindex(query, entry);
+        }
+    }
+
+    private void unindex(Object query, Entry entry) {
+        for (Class<? extends Event> eventType : entry.eventTypes) {
+            invalidations.get(eventType).queries.remove(query);
+        }
+    }
+
+    private static final class Entry {
+        private final Object result;
+        private final List<Class<? extends Event>> eventTypes;
+
+        private Entry(Object result, List<Class<? extends Event>> eventTypes) {
+            this.result = result;
+            this.eventTypes = eventTypes;
+        }
+    }
+
+    /**
+     * The cached queries invalidated by an event type, and a version counting its invalidations.
+     */
+    private static final class Invalidation {
+        private final Set<Object> queries = new HashSet<Object>();
+        private long version;
+    }
+}
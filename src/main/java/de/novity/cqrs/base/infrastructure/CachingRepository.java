@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.EventSourcedRootAggregate;
+import de.novity.cqrs.base.api.Repository;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A repository keeping recently used root aggregates in memory in front of another repository, so that hot root
+ * aggregates are not rebuilt for every command.
+ * <p/>
+ * The cache is bounded by a maximum total weight. Each root aggregate weighs 1 unless a weigher is given, making the
+ * maximum weight the maximum number of cached root aggregates. When the weight is exceeded, the least recently used
+ * root aggregates are evicted.
+ * <p/>
+ * Each entry remembers the version of its root aggregate when it was loaded or saved. A cached root aggregate is only
+ * returned if it still has this version and no uncommitted events. Otherwise it has been changed without being saved,
+ * e.g. by a command that failed, and is loaded again. If saving a root aggregate fails, its entry is removed. While a
+ * <code>UnitOfWork</code> is active, a root aggregate registered with it is returned without consulting the cache, a
+ * root aggregate taken from the cache is registered with it, and saving a root aggregate only registers it.
+ * <p/>
+ * The cached instances are handed out to every caller, so commands targeting the same root aggregate must not be
+ * executed concurrently, e.g. by using an <code>AsyncCommandDispatcher</code>.
+ *
+ * @param <T> The type of root aggregate.
+ */
+public class CachingRepository<T extends EventSourcedRootAggregate> implements Repository<T> {
+    private final Repository<T> delegate;
+    private final long maximumWeight;
+    private final AggregateWeigher<T> weigher;
+    private final LinkedHashMap<String, Entry<T>> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private long weight;
+
+    /**
+     * @param delegate The repository loading and saving the root aggregates.
+     * @param maximumSize The maximum number of cached root aggregates.
+     */
+    public CachingRepository(Repository<T> delegate, int maximumSize) {
+        this(delegate, maximumSize, new AggregateWeigher<T>() {
+            public long weigh(T aggregate) {
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * @param delegate The repository loading and saving the root aggregates.
+     * @param maximumWeight The maximum total weight of the cached root aggregates.
+     * @param weigher The weigher determining the weight of a root aggregate.
+     */
+    public CachingRepository(Repository<T> delegate, long maximumWeight, AggregateWeigher<T> weigher) {
+        if (delegate == null) {
+            throw new NullPointerException("You must provide a delegate repository");
+        }
+
+        if (maximumWeight < 1) {
+            throw new IllegalArgumentException("You must provide a maximum weight of at least 1");
+        }
+
+        if (weigher == null) {
+            throw new NullPointerException("You must provide an aggregate weigher");
+        }
+
+        this.delegate = delegate;
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.entries = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.weight = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T load(String id) throws Exception {
+        if (id == null) {
+            throw new NullPointerException("You must provide an id");
+        }
+
+        final UnitOfWork unitOfWork = UnitOfWork.collecting();
+
+        if (unitOfWork != null && unitOfWork.find(id) != null) {
+            return (T) unitOfWork.find(id);
+        }
+
+        synchronized (entries) {
+            Entry<T> entry = entries.get(id);
+
+            if (entry != null) {
+                if (entry.isCurrent()) {
+                    hits.incrementAndGet();
+
+                    if (unitOfWork != null) {
+                        unitOfWork.register(entry.aggregate, this);
+                    }
+
+                    return entry.aggregate;
+                }
+
+                remove(id);
+            }
+        }
+
+        misses.incrementAndGet();
+
+        final T aggregate = delegate.load(id);
+
+        if (aggregate != null) {
+            cache(aggregate);
+
+            if (unitOfWork != null) {
+                unitOfWork.register(aggregate, this);
+            }
+        }
+
+        return aggregate;
+    }
+
+    public void save(T aggregate) throws Exception {
+        if (aggregate == null) {
+            throw new NullPointerException("You must provide a root aggregate");
+        }
+
+        final UnitOfWork unitOfWork = UnitOfWork.collecting();
+
+        if (unitOfWork != null) {
+            unitOfWork.register(aggregate, this);
+            return;
+        }
+
+        try {
+            delegate.save(aggregate);
+        } catch (Exception e) {
+            invalidate(aggregate.getId());
+            throw e;
+        }
+
+        cache(aggregate);
+    }
+
+    /**
+     * Removes the root aggregate from the cache, so that it is loaded again on next access.
+     */
+    public void invalidate(String id) {
+        synchronized (entries) {
+            remove(id);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getWeight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private void cache(T aggregate) {
+        final Entry<T> entry = new Entry<T>(aggregate, Math.max(1, weigher.weigh(aggregate)));
+
+        if (entry.weight > maximumWeight) {
+            invalidate(aggregate.getId());
+            return;
+        }
+
+        synchronized (entries) {
+            remove(aggregate.getId());
+            entries.put(aggregate.getId(), entry);
+            weight += entry.weight;
+
+            Iterator<Map.Entry<String, Entry<T>>> iterator = entries.entrySet().iterator();
+            while (weight > maximumWeight && iterator.hasNext()) {
+                Entry<T> eldest = iterator.next().getValue();
+
+                if (eldest == entry) {
+                    continue;
+                }
+
+                iterator.remove();
+                weight -= eldest.weight;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(String id) {
+        Entry<T> entry = entries.remove(id);
+
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    private static final class Entry<T extends EventSourcedRootAggregate> {
+        private final T aggregate;
+        private final long version;
+        private final long weight;
+
+        private Entry(T aggregate, long weight) {
+            this.aggregate = aggregate;
+            this.version = aggregate.getVersion();
+            this.weight = weight;
+        }
+
+        private boolean isCurrent() {
+            return aggregate.getVersion() == version && aggregate.getEventCount() == 0;
+        }
+    }
+}
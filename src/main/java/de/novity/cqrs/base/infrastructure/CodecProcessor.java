@@ -0,0 +1,315 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.TypeId;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates a <code>BinaryCodec</code> for each type annotated with <code>TypeId</code> and lists the generated codecs
+ * as services of <code>BinaryCodec</code>.
+ * <p/>
+ * The codec of type <code>OrderPlaced</code> is named <code>OrderPlacedCodec</code> and placed in the same package.
+ * Codecs of nested types are named after all enclosing types, e.g. <code>Order_PlacedCodec</code>.
+ */
+public class CodecProcessor extends AbstractProcessor {
+    private static final String SERVICE_FILE = "META-INF/services/de.novity.cqrs.base.api.BinaryCodec";
+
+    private final List<String> generatedCodecs = new ArrayList<String>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(TypeId.class.getName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+        for (Element element : roundEnvironment.getElementsAnnotatedWith(TypeId.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@TypeId is only supported on classes");
+                continue;
+            }
+
+            try {
+                generateCodec((TypeElement) element);
+            } catch (IOException e) {
+                error(element, "Cannot write codec: " + e.getMessage());
+            }
+        }
+
+        if (roundEnvironment.processingOver() && !generatedCodecs.isEmpty()) {
+            try {
+                writeServiceFile();
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + SERVICE_FILE + ": " + e.getMessage());
+            }
+        }
+
+        return true;
+    }
+
+    private void generateCodec(TypeElement type) throws IOException {
+        if (!isAccessible(type) || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(type, "@TypeId requires a concrete class that is not private");
+            return;
+        }
+
+        final List<VariableElement> fields = new ArrayList<VariableElement>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                continue;
+            }
+
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                error(field, "@TypeId requires fields that are not private");
+                return;
+            }
+
+            if (encoder(field.asType()) == null) {
+                error(field, "Field type " + field.asType() + " is not supported by @TypeId");
+                return;
+            }
+
+            fields.add(field);
+        }
+
+        if (!hasFieldConstructor(type, fields)) {
+            error(type, "@TypeId requires a constructor taking all fields in declaration order");
+            return;
+        }
+
+        final TypeId typeId = type.getAnnotation(TypeId.class);
+        final String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String typeName = type.getQualifiedName().toString();
+        final String codecName = codecName(type);
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+
+        source.append("// Generated by ").append(getClass().getName()).append(" from ").append(typeName).append("\n");
+        source.append("public final class ").append(codecName).append(" implements de.novity.cqrs.base.api.BinaryCodec<").append(typeName).append("> {\n");
+        source.append("    public Class<").append(typeName).append("> getType() {\n");
+        source.append("        return ").append(typeName).append(".class;\n");
+        source.append("    }\n\n");
+        source.append("    public int getTypeId() {\n");
+        source.append("        return ").append(typeId.value()).append(";\n");
+        source.append("    }\n\n");
+        source.append("    public int getVersion() {\n");
+        source.append("        return ").append(typeId.version()).append(";\n");
+        source.append("    }\n\n");
+        source.append("    public int getFieldCount() {\n");
+        source.append("        return ").append(fields.size()).append(";\n");
+        source.append("    }\n\n");
+        source.append("    public void write(").append(typeName).append(" value, java.nio.ByteBuffer buffer) {\n");
+        for (VariableElement field : fields) {
+            source.append("        ").append(encoder(field.asType()).write("value." + field.getSimpleName())).append("\n");
+        }
+        source.append("    }\n\n");
+        source.append("    public ").append(typeName).append(" read(java.nio.ByteBuffer buffer, int version, int fieldCount) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            VariableElement field = fields.get(i);
+            FieldEncoder encoder = encoder(field.asType());
+            source.append("        ").append(field.asType()).append(" f").append(i)
+                    .append(" = fieldCount > ").append(i).append(" ? ").append(encoder.read).append(" : ").append(encoder.defaultValue).append(";\n");
+        }
+        source.append("        return new ").append(typeName).append("(");
+        for (int i = 0; i < fields.size(); i++) {
+            source.append(i == 0 ? "" : ", ").append("f").append(i);
+        }
+        source.append(");\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        final String qualifiedCodecName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedCodecName, type);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+
+        generatedCodecs.add(qualifiedCodecName);
+    }
+
+    private void writeServiceFile() throws IOException {
+        FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+        Writer writer = file.openWriter();
+        try {
+            for (String codec : generatedCodecs) {
+                writer.write(codec);
+                writer.write("\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private boolean hasFieldConstructor(TypeElement type, List<VariableElement> fields) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getModifiers().contains(Modifier.PRIVATE) || constructor.getParameters().size() != fields.size()) {
+                continue;
+            }
+
+            boolean matches = true;
+            for (int i = 0; i < fields.size() && matches; i++) {
+                matches = processingEnv.getTypeUtils().isSameType(constructor.getParameters().get(i).asType(), fields.get(i).asType());
+            }
+
+            if (matches) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static boolean isAccessible(TypeElement type) {
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            TypeElement current = (TypeElement) element;
+
+            if (current.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+
+            if (current.getNestingKind().isNested() && !current.getModifiers().contains(Modifier.STATIC)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String codecName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+
+        for (Element element = type.getEnclosingElement(); !(element instanceof PackageElement); element = element.getEnclosingElement()) {
+            name = element.getSimpleName() + "_" + name;
+        }
+
+        return name + "Codec";
+    }
+
+    private FieldEncoder encoder(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return new FieldEncoder("buffer.put((byte) (%s ? 1 : 0));", "buffer.get() != 0", "false");
+            case BYTE:
+                return new FieldEncoder("buffer.put(%s);", "buffer.get()", "(byte) 0");
+            case SHORT:
+                return new FieldEncoder("buffer.putShort(%s);", "buffer.getShort()", "(short) 0");
+            case CHAR:
+                return new FieldEncoder("buffer.putChar(%s);", "buffer.getChar()", "(char) 0");
+            case INT:
+                return new FieldEncoder("buffer.putInt(%s);", "buffer.getInt()", "0");
+            case LONG:
+                return new FieldEncoder("buffer.putLong(%s);", "buffer.getLong()", "0L");
+            case FLOAT:
+                return new FieldEncoder("buffer.putFloat(%s);", "buffer.getFloat()", "0f");
+            case DOUBLE:
+                return new FieldEncoder("buffer.putDouble(%s);", "buffer.getDouble()", "0d");
+            case ARRAY:
+                if (type.toString().equals("byte[]")) {
+                    return new FieldEncoder(BinaryFields.class.getName() + ".writeBytes(buffer, %s);", BinaryFields.class.getName() + ".readBytes(buffer)", "null");
+                }
+
+                return null;
+            case DECLARED:
+                return declaredEncoder(type);
+            default:
+                return null;
+        }
+    }
+
+    private FieldEncoder declaredEncoder(TypeMirror type) {
+        final String name = processingEnv.getTypeUtils().erasure(type).toString();
+
+        if (name.equals("java.lang.String")) {
+            return new FieldEncoder(BinaryFields.class.getName() + ".writeString(buffer, %s);", BinaryFields.class.getName() + ".readString(buffer)", "null");
+        }
+
+        if (name.equals("java.util.UUID")) {
+            return new FieldEncoder(BinaryFields.class.getName() + ".writeUuid(buffer, %s);", BinaryFields.class.getName() + ".readUuid(buffer)", "null");
+        }
+
+        final Element element = processingEnv.getTypeUtils().asElement(type);
+
+        if (element.getKind() == ElementKind.ENUM) {
+            return new FieldEncoder(BinaryFields.class.getName() + ".writeEnum(buffer, %s);", BinaryFields.class.getName() + ".readEnum(buffer, " + name + ".class)", "null");
+        }
+
+        try {
+            TypeMirror unboxed = processingEnv.getTypeUtils().unboxedType(type);
+            FieldEncoder primitive = encoder(unboxed);
+            return new FieldEncoder("if (%1$s == null) { buffer.put((byte) 0); } else { buffer.put((byte) 1); " + String.format(primitive.write, "%1$s") + " }",
+                    "buffer.get() == 0 ? null : " + name + ".valueOf(" + primitive.read + ")", "null");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static final class FieldEncoder {
+        private final String write;
+        private final String read;
+        private final String defaultValue;
+
+        private FieldEncoder(String write, String read, String defaultValue) {
+            this.write = write;
+            this.read = read;
+            this.defaultValue = defaultValue;
+        }
+
+        private String write(String value) {
+            return String.format(write, value);
+        }
+    }
+}
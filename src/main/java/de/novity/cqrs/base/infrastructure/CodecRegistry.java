@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BinaryCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A codec registry encodes values by the binary codec registered for their class and decodes them by their type id.
+ * <p/>
+ * Each encoded value has the following layout, with all numbers in the byte order of the buffer:
+ * <pre>
+ * [int type id][short version][short field count][int body length][fields]
+ * </pre>
+ * The body length allows readers to skip fields appended by newer versions of a type.
+ * <p/>
+ * Codecs generated for types annotated with <code>TypeId</code> are listed as services of <code>BinaryCodec</code>,
+ * so that they are registered by <code>registerGenerated</code>.
+ */
+public class CodecRegistry {
+    public static final int HEADER_SIZE = 12;
+
+    private final ConcurrentMap<Integer, BinaryCodec<?>> codecsByTypeId;
+    private final ConcurrentMap<Class<?>, BinaryCodec<?>> codecsByType;
+
+    public CodecRegistry() {
+        this.codecsByTypeId = new ConcurrentHashMap<Integer, BinaryCodec<?>>();
+        this.codecsByType = new ConcurrentHashMap<Class<?>, BinaryCodec<?>>();
+    }
+
+    /**
+     * Registers all generated codecs found by the class loader.
+     *
+     * @return This registry.
+     */
+    @SuppressWarnings("rawtypes")
+    public CodecRegistry registerGenerated(ClassLoader classLoader) {
+        for (BinaryCodec codec : ServiceLoader.load(BinaryCodec.class, classLoader)) {
+            register(codec);
+        }
+
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException If another type is already registered with the type id of the codec.
+     */
+    public void register(BinaryCodec<?> codec) {
+        if (codec == null) {
+            throw new NullPointerException("You must provide a codec");
+        }
+
+        BinaryCodec<?> registered = codecsByTypeId.putIfAbsent(codec.getTypeId(), codec);
+
+        if (registered != null && registered.getType() != codec.getType()) {
+            throw new IllegalArgumentException("You tried to register type " + codec.getType().getName() + " with type id " + codec.getTypeId() + " already used by type " + registered.getType().getName());
+        }
+
+        codecsByType.put(codec.getType(), codec);
+    }
+
+    public boolean isRegistered(Class<?> type) {
+        return codecsByType.containsKey(type);
+    }
+
+    /**
+     * Writes the value at the position of the buffer.
+     *
+     * @throws java.nio.BufferOverflowException If the buffer is too small.
+     */
+    @SuppressWarnings("unchecked")
+    public void encode(Object value, ByteBuffer buffer) {
+        if (value == null) {
+            throw new NullPointerException("You tried to encode a null value");
+        }
+
+        final BinaryCodec<Object> codec = (BinaryCodec<Object>) codecsByType.get(value.getClass());
+
+        if (codec == null) {
+            throw new IllegalArgumentException("You didn't register a codec for type " + value.getClass().getName());
+        }
+
+        buffer.putInt(codec.getTypeId());
+        buffer.putShort((short) codec.getVersion());
+        buffer.putShort((short) codec.getFieldCount());
+
+        final int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        codec.write(value, buffer);
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    /**
+     * Reads a value at the position of the buffer and moves the position behind it.
+     */
+    public Object decode(ByteBuffer buffer) {
+        final int typeId = buffer.getInt();
+        final int version = buffer.getShort() & 0xffff;
+        final int fieldCount = buffer.getShort() & 0xffff;
+        final int length = buffer.getInt();
+        final BinaryCodec<?> codec = codecsByTypeId.get(typeId);
+
+        if (codec == null) {
+            throw new IllegalArgumentException("You didn't register a codec for type id " + typeId);
+        }
+
+        final int limit = buffer.limit();
+        final int end = buffer.position() + length;
+
+        buffer.limit(end);
+        try {
+            return codec.read(buffer, version, fieldCount);
+        } finally {
+            buffer.limit(limit);
+            buffer.position(end);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Command;
+
+/**
+ * A command key extractor determines the key of the root aggregate a command is targeting. Commands with equal keys
+ * are executed one after another, commands with different keys may be executed in parallel.
+ * <p/>
+ * See the following example:
+ * <p/>
+ * <pre>{@code
+ * public class OrderIdExtractor implements CommandKeyExtractor {
+ *   public Object getKey(Command command) {
+ *     return ((OrderCommand) command).orderId;
+ *   }
+ * }
+ * }</pre>
+ */
+public interface CommandKeyExtractor {
+    /**
+     * @param command The command to be executed
+     * @return The key of the targeted aggregate or <code>null</code> if the command may run in parallel to any other
+     * command.
+     */
+    Object getKey(Command command);
+}
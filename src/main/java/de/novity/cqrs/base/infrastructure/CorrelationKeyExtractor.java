@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+
+/**
+ * A correlation key extractor determines the key correlating an event to the sagas of a saga type, e.g. the id of
+ * the order an event belongs to. The event is passed to the sagas associated with this key.
+ * <p/>
+ * See the following example:
+ * <p/>
+ * <pre>{@code
+ * public class OrderIdCorrelation implements CorrelationKeyExtractor {
+ *   public Object getKey(Event event) {
+ *     return event instanceof OrderEvent ? ((OrderEvent) event).orderId : null;
+ *   }
+ * }
+ * }</pre>
+ */
+public interface CorrelationKeyExtractor {
+    /**
+     * @param event The published event
+     * @return The correlation key or <code>null</code> if the event is not handled by the saga type.
+     */
+    Object getKey(Event event);
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BatchEventSubscriber;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSubscriber;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivers batches of events drained from an event queue to the subscribers of a registry. Every event is delivered
+ * to the subscribers it is routed to. Subscribers implementing <code>BatchEventSubscriber</code> receive all their
+ * events of a batch with a single call after the other subscribers have been notified.
+ * <p/>
+ * Unless the metrics recorder is <code>NO_OP</code>, the time every subscriber call takes is reported to it, as well as
+ * the delivery latency of every event if the times the events were put into the queue are given.
+ * <p/>
+ * An instance is owned by a single delivering thread and is not thread safe.
+ */
+final class EventDelivery {
+    private final SubscriberRegistry subscribers;
+    private final Map<EventSubscriber, List<Event>> batches;
+    private final List<BatchEventSubscriber> batchSubscribers;
+    private final MetricsRecorder metrics;
+
+    EventDelivery(SubscriberRegistry subscribers) {
+        this(subscribers, MetricsRecorder.NO_OP);
+    }
+
+    EventDelivery(SubscriberRegistry subscribers, MetricsRecorder metrics) {
+        this.subscribers = subscribers;
+        this.metrics = metrics;
+        this.batches = new IdentityHashMap<EventSubscriber, List<Event>>();
+        this.batchSubscribers = new ArrayList<BatchEventSubscriber>();
+    }
+
+    void deliver(List<Event> events) {
+        deliver(events, null);
+    }
+
+    /**
+     * @param events The events to be delivered.
+     * @param putTimes The times the events were put into the queue, as drained by <code>EventQueue.drainTo</code>, or
+     * <code>null</code> if the delivery latency is not to be reported.
+     */
+    void deliver(List<Event> events, long[] putTimes) {
+        if (metrics != MetricsRecorder.NO_OP) {
+            deliverMeasured(events, putTimes);
+            return;
+        }
+
+        try {
+            for (Event event : events) {
+                for (EventSubscriber subscriber : subscribers.subscribersOf(event.getClass())) {
+                    if (subscriber instanceof BatchEventSubscriber) {
+                        batchOf((BatchEventSubscriber) subscriber).add(event);
+                    } else {
+                        subscriber.onEvent(event);
+                    }
+                }
+            }
+
+            for (BatchEventSubscriber subscriber : batchSubscribers) {
+                subscriber.onEvents(batches.get(subscriber));
+            }
+        } finally {
+            batches.clear();
+            batchSubscribers.clear();
+        }
+    }
+
+    private void deliverMeasured(List<Event> events, long[] putTimes) {
+        try {
+            if (putTimes != null) {
+                final long now = System.nanoTime();
+
+                for (int i = 0; i < events.size(); i++) {
+                    metrics.eventDelivered(now - putTimes[i]);
+                }
+            }
+
+            for (Event event : events) {
+                for (EventSubscriber subscriber : subscribers.subscribersOf(event.getClass())) {
+                    if (subscriber instanceof BatchEventSubscriber) {
+                        batchOf((BatchEventSubscriber) subscriber).add(event);
+                    } else {
+                        final long start = System.nanoTime();
+                        subscriber.onEvent(event);
+                        metrics.subscriberNotified(subscriber, System.nanoTime() - start);
+                    }
+                }
+            }
+
+            for (BatchEventSubscriber subscriber : batchSubscribers) {
+                final long start = System.nanoTime();
+                subscriber.onEvents(batches.get(subscriber));
+                metrics.subscriberNotified(subscriber, System.nanoTime() - start);
+            }
+        } finally {
+            batches.clear();
+            batchSubscribers.clear();
+        }
+    }
+
+    private List<Event> batchOf(BatchEventSubscriber subscriber) {
+        List<Event> batch = batches.get(subscriber);
+
+        if (batch == null) {
+            batch = new ArrayList<Event>();
+            batches.put(subscriber, batch);
+            batchSubscribers.add(subscriber);
+        }
+
+        return batch;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded queue of events waiting to be delivered by an event publisher. Events may be put by several threads, but
+ * are drained by a single consuming thread.
+ * <p/>
+ * Every queued event is stamped with the time it was put into the queue, as returned by <code>System.nanoTime</code>,
+ * so that the consumer can measure how long events waited for delivery. Events put by a single call share one time.
+ */
+public interface EventQueue {
+    /**
+     * Puts an event into the queue, waiting for space to become available if necessary.
+     *
+     * @param event The event to be queued.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void put(Event event) throws InterruptedException;
+
+    /**
+     * Puts a list of events into the queue as one contiguous unit, waiting for space to become available if necessary.
+     * Events put by other producers are not interleaved with the given events, unless the list holds more events than
+     * the capacity of the queue. In that case the list is put in chunks of the capacity.
+     *
+     * @param events The events to be queued.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void putAll(List<Event> events) throws InterruptedException;
+
+    /**
+     * Puts a list of events into the queue as one contiguous unit if there is space for all of them within the given
+     * timeout.
+     *
+     * @param events The events to be queued, not more than the capacity of the queue.
+     * @param timeout The maximum time to wait for space, zero to not wait at all.
+     * @param unit The time unit of the timeout.
+     * @return <code>true</code> if the events were queued, <code>false</code> if the timeout elapsed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    boolean offerAll(List<Event> events, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Removes the oldest event from the queue without waiting. Unlike <code>drainTo</code>, this method may be called
+     * by producers, e.g. to make room for newer events.
+     *
+     * @return The removed event or <code>null</code> if the queue is empty.
+     */
+    Event poll();
+
+    /**
+     * Removes all available events from the queue and adds them to the given batch, waiting until at least one event
+     * is available.
+     *
+     * @param batch The list the removed events are added to.
+     * @param maxEvents The maximum number of events to be removed.
+     * @return The number of removed events.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    int drainTo(List<Event> batch, int maxEvents) throws InterruptedException;
+
+    /**
+     * Removes all available events from the queue like <code>drainTo</code>, and stores the time each removed event
+     * was put into the queue in the given array.
+     *
+     * @param batch The list the removed events are added to.
+     * @param putTimes The array the put time of the n-th removed event is stored at index n of, holding at least
+     * <code>maxEvents</code> elements.
+     * @param maxEvents The maximum number of events to be removed.
+     * @return The number of removed events.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    int drainTo(List<Event> batch, long[] putTimes, int maxEvents) throws InterruptedException;
+
+    /**
+     * @return The number of queued events.
+     */
+    int size();
+
+    /**
+     * @return The maximum number of queued events.
+     */
+    int capacity();
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+/**
+ * Thrown by an event publisher if published events cannot be queued because the event queue is full and the
+ * <code>OverflowPolicy</code> of the publisher rejects them.
+ */
+public class EventQueueFullException extends Exception {
+    private final int rejectedEvents;
+
+    public EventQueueFullException(String message, int rejectedEvents) {
+        super(message);
+        this.rejectedEvents = rejectedEvents;
+    }
+
+    /**
+     * @return The number of events that were not published.
+     */
+    public int getRejectedEvents() {
+        return rejectedEvents;
+    }
+}
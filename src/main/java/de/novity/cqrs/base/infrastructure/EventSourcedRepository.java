@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.AggregateFactory;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSourcedRootAggregate;
+import de.novity.cqrs.base.api.EventStore;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.Repository;
+import de.novity.cqrs.base.api.Snapshot;
+import de.novity.cqrs.base.api.SnapshotStore;
+
+import java.util.List;
+
+/**
+ * A repository storing root aggregates as event streams in an event store.
+ * <p/>
+ * A root aggregate is loaded by restoring its latest snapshot, if there is one, and replaying only the events
+ * following the version of the snapshot. After saving a root aggregate, the snapshot policy decides whether a new
+ * snapshot is taken. A policy counting bytes requires a <code>SizedEventStore</code>, whose replay and stored records
+ * provide the serialized size of the events, so that no event is serialized twice.
+ * <p/>
+ * While a <code>UnitOfWork</code> is active, a root aggregate registered with it is returned instead of loading it, a
+ * loaded root aggregate is registered with it, and saving a root aggregate only registers it, leaving the storing to
+ * the unit of work.
+ *
+ * @param <T> The type of root aggregate.
+ */
+public class EventSourcedRepository<T extends EventSourcedRootAggregate> implements Repository<T> {
+    private final EventStore eventStore;
+    private final SnapshotStore snapshotStore;
+    private final SnapshotPolicy snapshotPolicy;
+    private final AggregateFactory<T> aggregateFactory;
+
+    /**
+     * Creates a repository that does not take snapshots.
+     */
+    public EventSourcedRepository(EventStore eventStore, AggregateFactory<T> aggregateFactory) {
+        this(eventStore, new InMemorySnapshotStore(), SnapshotPolicy.never(), aggregateFactory);
+    }
+
+    public EventSourcedRepository(EventStore eventStore, SnapshotStore snapshotStore, SnapshotPolicy snapshotPolicy, AggregateFactory<T> aggregateFactory) {
+        if (eventStore == null) {
+            throw new NullPointerException("You must provide an event store");
+        }
+
+        if (snapshotStore == null) {
+            throw new NullPointerException("You must provide a snapshot store");
+        }
+
+        if (snapshotPolicy == null) {
+            throw new NullPointerException("You must provide a snapshot policy");
+        }
+
+        if (aggregateFactory == null) {
+            throw new NullPointerException("You must provide an aggregate factory");
+        }
+
+        if (snapshotPolicy.countsBytes() && !(eventStore instanceof SizedEventStore)) {
+            throw new IllegalArgumentException("You tried to count bytes with an event store not knowing the size of its events");
+        }
+
+        this.eventStore = eventStore;
+        this.snapshotStore = snapshotStore;
+        this.snapshotPolicy = snapshotPolicy;
+        this.aggregateFactory = aggregateFactory;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T load(String id) throws Exception {
+        if (id == null) {
+            throw new NullPointerException("You must provide an id");
+        }
+
+        final UnitOfWork unitOfWork = UnitOfWork.collecting();
+
+        if (unitOfWork != null && unitOfWork.find(id) != null) {
+            return (T) unitOfWork.find(id);
+        }
+
+        final T aggregate = aggregateFactory.create(id);
+        final Snapshot snapshot = snapshotStore.load(id);
+
+        if (snapshot != null) {
+            aggregate.loadFromSnapshot(snapshot);
+        }
+
+        if (snapshotPolicy.countsBytes()) {
+            ((SizedEventStore) eventStore).replay(id, aggregate.getVersion(), new SizedEventSubscriber() {
+                public void onEvent(Event event, int size) {
+                    aggregate.loadFromHistory(event, size);
+                }
+            });
+        } else {
+            eventStore.replay(id, aggregate.getVersion(), new EventSubscriber() {
+                public void onEvent(Event event) {
+                    aggregate.loadFromHistory(event);
+                }
+            });
+        }
+
+        if (snapshot == null && aggregate.getVersion() == 0) {
+            return null;
+        }
+
+        if (unitOfWork != null) {
+            unitOfWork.register(aggregate, this);
+        }
+
+        return aggregate;
+    }
+
+    public void save(T aggregate) throws Exception {
+        if (aggregate == null) {
+            throw new NullPointerException("You must provide a root aggregate");
+        }
+
+        final UnitOfWork unitOfWork = UnitOfWork.collecting();
+
+        if (unitOfWork != null) {
+            unitOfWork.register(aggregate, this);
+            return;
+        }
+
+        final List<Event> events = aggregate.getEvents();
+
+        if (events.isEmpty()) {
+            return;
+        }
+
+        final long expectedVersion = aggregate.getVersion();
+        final long version = eventStore.append(aggregate.getId(), expectedVersion, events);
+
+        if (snapshotPolicy.countsBytes()) {
+            aggregate.commitEvents(((SizedEventStore) eventStore).getSize(aggregate.getId(), expectedVersion, version));
+        } else {
+            aggregate.commitEvents();
+        }
+
+        if (snapshotPolicy.isDue(aggregate.getEventsSinceSnapshot(), aggregate.getBytesSinceSnapshot())) {
+            Snapshot snapshot = aggregate.takeSnapshot();
+
+            if (snapshot != null) {
+                snapshotStore.save(snapshot);
+            }
+        }
+    }
+}
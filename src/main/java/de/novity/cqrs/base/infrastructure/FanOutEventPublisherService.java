@@ -0,0 +1,365 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventPublisherService;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * An in memory implementation of an event publisher that delivers events to every subscriber on a thread of its own.
+ * <p/>
+ * Published events are stored in a shared, preallocated ring buffer. Every subscriber consumes the sequence of events
+ * with its own cursor and thread, so a slow subscriber doesn't delay the others. The publishing threads are only held
+ * back by the slowest subscriber as defined by the <code>SlowSubscriberPolicy</code>. The lag of each subscriber is
+ * available by <code>getLag</code>.
+ * <p/>
+ * A subscriber receives the events published after its registration. Subscribers implementing
+ * <code>TypedEventSubscriber</code> or <code>BatchEventSubscriber</code> are supported. An exception thrown by a
+ * subscriber is logged and doesn't stop the delivery to this subscriber.
+ */
+public class FanOutEventPublisherService implements EventPublisherService {
+    private static final Logger logger = LoggerFactory.getLogger(FanOutEventPublisherService.class);
+
+    private final int capacity;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final SlowSubscriberPolicy slowSubscriberPolicy;
+    private final AtomicReferenceArray<Event> entries;
+    private final AtomicLongArray published;
+    private final AtomicLong claimSequence;
+    private final List<Cursor> cursors;
+    private final EventPublisherImpl eventPublisher;
+    private volatile boolean started;
+
+    public FanOutEventPublisherService() {
+        this(1024, new BlockingWaitStrategy(), SlowSubscriberPolicy.BLOCK_PUBLISHER);
+    }
+
+    /**
+     * @param capacity The number of slots of the ring buffer, rounded up to the next power of two.
+     * @param waitStrategy The strategy used by waiting subscribers and publishing threads.
+     * @param slowSubscriberPolicy Defines whether publishing threads wait for the slowest subscriber.
+     */
+    public FanOutEventPublisherService(int capacity, WaitStrategy waitStrategy, SlowSubscriberPolicy slowSubscriberPolicy) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30, but was " + capacity);
+        }
+
+        if (waitStrategy == null) {
+            throw new NullPointerException("You must provide a wait strategy");
+        }
+
+        if (slowSubscriberPolicy == null) {
+            throw new NullPointerException("You must provide a slow subscriber policy");
+        }
+
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.waitStrategy = waitStrategy;
+        this.slowSubscriberPolicy = slowSubscriberPolicy;
+        this.entries = new AtomicReferenceArray<Event>(this.capacity);
+        this.published = new AtomicLongArray(this.capacity);
+        this.claimSequence = new AtomicLong();
+        this.cursors = new CopyOnWriteArrayList<Cursor>();
+        this.eventPublisher = new EventPublisherImpl();
+        this.started = false;
+
+        for (int i = 0; i < this.capacity; i++) {
+            published.set(i, -1L);
+        }
+
+        logger.info("FanOutPublisher created");
+    }
+
+    public synchronized void start() {
+        if (isRunning()) {
+            throw new IllegalStateException("Publisher is already started");
+        }
+
+        for (Cursor cursor : cursors) {
+            cursor.start();
+        }
+
+        started = true;
+        logger.info("Publisher started");
+    }
+
+    public synchronized void stop() {
+        if (!isRunning()) {
+            throw new IllegalStateException("Publisher is not started");
+        }
+
+        try {
+            for (Cursor cursor : cursors) {
+                cursor.interrupt();
+            }
+
+            for (Cursor cursor : cursors) {
+                cursor.join(1000);
+            }
+
+            logger.info("Publisher stopped");
+        } catch (InterruptedException e) {
+            logger.error("Failed to stop publisher", e);
+        } finally {
+            started = false;
+        }
+    }
+
+    public boolean isRunning() {
+        return started;
+    }
+
+    public EventPublisher getPublisher() {
+        return eventPublisher;
+    }
+
+    /**
+     * @param subscriber A registered subscriber.
+     * @return The number of published events the subscriber has not yet consumed.
+     */
+    public long getLag(EventSubscriber subscriber) {
+        return Math.max(0, claimSequence.get() - cursorOf(subscriber).sequence.get());
+    }
+
+    /**
+     * @param subscriber A registered subscriber.
+     * @return The number of events the subscriber missed because it was overrun.
+     */
+    public long getDroppedEventCount(EventSubscriber subscriber) {
+        return cursorOf(subscriber).dropped.get();
+    }
+
+    private Cursor cursorOf(EventSubscriber subscriber) {
+        for (Cursor cursor : cursors) {
+            if (cursor.subscriber.equals(subscriber)) {
+                return cursor;
+            }
+        }
+
+        throw new IllegalArgumentException("Subscriber " + subscriber + " is not registered");
+    }
+
+    private int index(long sequence) {
+        return (int) sequence & mask;
+    }
+
+    /**
+     * Claims the given number of consecutive sequences, waiting for the slowest subscriber if required by the policy.
+     */
+    private long claim(final int count) throws InterruptedException {
+        while (true) {
+            long current = claimSequence.get();
+
+            if (slowSubscriberPolicy == SlowSubscriberPolicy.DROP_EVENTS
+                    || current + count - gatingSequence(current) <= capacity) {
+                if (claimSequence.compareAndSet(current, current + count)) {
+                    return current;
+                }
+            } else {
+                waitStrategy.waitUntil(new BooleanSupplier() {
+                    public boolean getAsBoolean() {
+                        long current = claimSequence.get();
+                        return current + count - gatingSequence(current) <= capacity;
+                    }
+                });
+            }
+        }
+    }
+
+    private long gatingSequence(long current) {
+        long minimum = current;
+
+        for (Cursor cursor : cursors) {
+            minimum = Math.min(minimum, cursor.sequence.get());
+        }
+
+        return minimum;
+    }
+
+    private class EventPublisherImpl implements EventPublisher {
+        public synchronized void addSubscriber(EventSubscriber subscriber) {
+            if (subscriber == null) {
+                throw new NullPointerException("You tried to add a null subscriber");
+            }
+
+            Cursor cursor = new Cursor(subscriber, claimSequence.get());
+            cursors.add(cursor);
+
+            synchronized (FanOutEventPublisherService.this) {
+                if (isRunning()) {
+                    cursor.start();
+                }
+            }
+
+            logger.debug("Added subscriber " + subscriber);
+        }
+
+        public synchronized void removeSubscriber(EventSubscriber subscriber) {
+            for (Cursor cursor : cursors) {
+                if (cursor.subscriber.equals(subscriber)) {
+                    cursors.remove(cursor);
+                    cursor.interrupt();
+                    waitStrategy.signalAll();
+                    logger.debug("Removed subscriber " + subscriber);
+                    return;
+                }
+            }
+        }
+
+        public void publish(Event event) throws Exception {
+            if (event == null) {
+                throw new NullPointerException("You tried to publish a null event");
+            }
+
+            long sequence = claim(1);
+            entries.set(index(sequence), event);
+            published.set(index(sequence), sequence);
+            waitStrategy.signalAll();
+        }
+
+        public void publish(List<Event> events) throws Exception {
+            final int size = events.size();
+            int offset = 0;
+
+            for (Event event : events) {
+                if (event == null) {
+                    throw new NullPointerException("You tried to publish a null event");
+                }
+            }
+
+            while (offset < size) {
+                final int chunk = Math.min(size - offset, capacity);
+                final long first = claim(chunk);
+
+                for (int i = 0; i < chunk; i++) {
+                    entries.set(index(first + i), events.get(offset + i));
+                }
+
+                for (int i = 0; i < chunk; i++) {
+                    published.set(index(first + i), first + i);
+                }
+
+                offset += chunk;
+                waitStrategy.signalAll();
+            }
+        }
+    }
+
+    /**
+     * The cursor of a single subscriber. The sequence is the next sequence to be consumed by the subscriber and is only
+     * advanced by the thread of the cursor.
+     */
+    private class Cursor implements Runnable {
+        private final EventSubscriber subscriber;
+        private final AtomicLong sequence;
+        private final AtomicLong dropped;
+        private final EventDelivery delivery;
+        private final BooleanSupplier eventAvailable;
+        private Thread thread;
+
+        private Cursor(EventSubscriber subscriber, long sequence) {
+            SubscriberRegistry registry = new SubscriberRegistry();
+            registry.add(subscriber);
+
+            this.subscriber = subscriber;
+            this.sequence = new AtomicLong(sequence);
+            this.dropped = new AtomicLong();
+            this.delivery = new EventDelivery(registry);
+            this.eventAvailable = new BooleanSupplier() {
+                public boolean getAsBoolean() {
+                    long next = Cursor.this.sequence.get();
+                    return published.get(index(next)) >= next;
+                }
+            };
+        }
+
+        private void start() {
+            thread = new Thread(this, "publisher-" + subscriber);
+            thread.start();
+        }
+
+        private void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        private void join(long millis) throws InterruptedException {
+            if (thread != null) {
+                thread.join(millis);
+            }
+        }
+
+        public void run() {
+            final Thread currentThread = Thread.currentThread();
+            final List<Event> batch = new ArrayList<Event>(capacity);
+
+            do {
+                try {
+                    waitStrategy.waitUntil(eventAvailable);
+
+                    long next = sequence.get();
+
+                    while (batch.size() < capacity) {
+                        long available = published.get(index(next));
+
+                        if (available < next) {
+                            break;
+                        }
+
+                        Event event = entries.get(index(next));
+
+                        if (available > next || claimSequence.get() > next + capacity) {
+                            long resumed = Math.max(next + 1, claimSequence.get() - capacity);
+                            dropped.addAndGet(resumed - next);
+                            next = resumed;
+                            break;
+                        }
+
+                        batch.add(event);
+                        next++;
+                    }
+
+                    try {
+                        delivery.deliver(batch);
+                    } catch (RuntimeException e) {
+                        logger.error("Subscriber " + subscriber + " failed to process events", e);
+                    }
+
+                    batch.clear();
+                    sequence.set(next);
+                    waitStrategy.signalAll();
+                } catch (InterruptedException e) {
+                    currentThread.interrupt();
+                }
+            } while (!currentThread.isInterrupted() && cursors.contains(this));
+        }
+    }
+}
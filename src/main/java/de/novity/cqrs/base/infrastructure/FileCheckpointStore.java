@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.CheckpointStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+/**
+ * A checkpoint store keeping the checkpoint of each projection in a file of its own, named after the projection.
+ * <p/>
+ * A checkpoint is written to a temporary file, which is forced to disk and then atomically renamed to the checkpoint
+ * file, so that a crash leaves either the old or the new checkpoint behind.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+    private static final String SUFFIX = ".checkpoint";
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private final File directory;
+
+    /**
+     * @param directory The directory of the checkpoint files, created if it does not exist.
+     */
+    public FileCheckpointStore(File directory) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("You must provide a directory");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+
+        this.directory = directory;
+    }
+
+    public long load(String name) throws IOException {
+        final File file = file(name);
+
+        if (!file.exists()) {
+            return 0;
+        }
+
+        final RandomAccessFile checkpoint = new RandomAccessFile(file, "r");
+        try {
+            return checkpoint.readLong();
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    public void save(String name, long position) throws IOException {
+        final File file = file(name);
+        final File temporary = new File(directory, file.getName() + ".tmp");
+        final RandomAccessFile checkpoint = new RandomAccessFile(temporary, "rw");
+
+        try {
+            final FileChannel channel = checkpoint.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate(8);
+            buffer.putLong(0, position);
+
+            checkpoint.setLength(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            channel.force(true);
+        } finally {
+            checkpoint.close();
+        }
+
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File file(String name) {
+        if (name == null) {
+            throw new NullPointerException("You must provide a projection name");
+        }
+
+        if (!VALID_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("You tried to use the projection name '" + name + "' containing other characters than letters, digits, '.', '_' and '-'");
+        }
+
+        return new File(directory, name + SUFFIX);
+    }
+}
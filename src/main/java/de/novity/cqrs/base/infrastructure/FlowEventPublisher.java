@@ -0,0 +1,329 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BatchEventSubscriber;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Adapts an event publisher to a <code>Flow.Publisher</code>, so that events can be consumed with backpressure.
+ * <p/>
+ * The adapter subscribes itself to the event publisher. Every published event is put into a bounded buffer per flow
+ * subscriber, and taken from it only as requested by the subscriber through <code>request(n)</code>. If a buffer is
+ * full, the overflow policy of the subscription decides whether the delivering thread of the event publisher waits,
+ * events are dropped or spilled to disk. Policies failing on overflow terminate the subscription with an
+ * <code>EventQueueFullException</code>. Each subscription gets a policy of its own from the given supplier, by default
+ * <code>OverflowPolicy.block()</code>.
+ * <p/>
+ * Subscribers are signalled by tasks run on an executor, by default the common <code>ForkJoinPool</code>, one task at
+ * a time per subscriber. <code>close</code> unsubscribes the adapter from the event publisher and completes every
+ * subscription after its buffered events have been delivered.
+ */
+public class FlowEventPublisher implements Flow.Publisher<Event>, AutoCloseable {
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    private static final Logger logger = LoggerFactory.getLogger(FlowEventPublisher.class);
+
+    private final EventPublisher eventPublisher;
+    private final int bufferSize;
+    private final Supplier<OverflowPolicy> overflowPolicies;
+    private final Executor executor;
+    private final List<BufferedSubscription> subscriptions;
+    private final BatchEventSubscriber upstream;
+    private volatile boolean closed;
+
+    /**
+     * Creates an adapter blocking the event publisher while the buffer of a subscriber is full.
+     */
+    public FlowEventPublisher(EventPublisher eventPublisher) {
+        this(eventPublisher, DEFAULT_BUFFER_SIZE, new Supplier<OverflowPolicy>() {
+            public OverflowPolicy get() {
+                return OverflowPolicy.block();
+            }
+        }, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param eventPublisher The event publisher whose events are passed to the flow subscribers.
+     * @param bufferSize The maximum number of events buffered per subscriber.
+     * @param overflowPolicies Supplies a new overflow policy for each subscription.
+     * @param executor The executor signalling the subscribers.
+     */
+    public FlowEventPublisher(EventPublisher eventPublisher, int bufferSize, Supplier<OverflowPolicy> overflowPolicies, Executor executor) {
+        if (eventPublisher == null) {
+            throw new NullPointerException("You must provide an event publisher");
+        }
+
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("You must provide a buffer size of at least 1");
+        }
+
+        if (overflowPolicies == null) {
+            throw new NullPointerException("You must provide a supplier of overflow policies");
+        }
+
+        if (executor == null) {
+            throw new NullPointerException("You must provide an executor");
+        }
+
+        this.eventPublisher = eventPublisher;
+        this.bufferSize = bufferSize;
+        this.overflowPolicies = overflowPolicies;
+        this.executor = executor;
+        this.subscriptions = new CopyOnWriteArrayList<BufferedSubscription>();
+        this.upstream = new BatchEventSubscriber() {
+            public void onEvent(Event event) {
+                onEvents(Collections.singletonList(event));
+            }
+
+            public void onEvents(List<Event> events) {
+                for (BufferedSubscription subscription : subscriptions) {
+                    subscription.offer(events);
+                }
+            }
+        };
+        this.closed = false;
+
+        eventPublisher.addSubscriber(upstream);
+    }
+
+    public void subscribe(Flow.Subscriber<? super Event> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("You must provide a flow subscriber");
+        }
+
+        final BufferedSubscription subscription = new BufferedSubscription(subscriber, overflowPolicies.get());
+        subscriber.onSubscribe(subscription);
+
+        if (closed) {
+            subscription.complete();
+            return;
+        }
+
+        subscriptions.add(subscription);
+    }
+
+    /**
+     * @return The number of active subscriptions.
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Unsubscribes from the event publisher and completes all subscriptions once their buffered events are delivered.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        eventPublisher.removeSubscriber(upstream);
+
+        for (BufferedSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * The subscription of a single flow subscriber. Events are offered by the delivering thread of the event publisher
+     * and passed to the subscriber by a drain task, which is scheduled whenever events arrive or demand is signalled
+     * and runs at most once at a time.
+     */
+    private class BufferedSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Event> subscriber;
+        private final EventQueue buffer;
+        private final OverflowPolicy overflowPolicy;
+        private final AtomicLong requested;
+        private final AtomicInteger pendingDrains;
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile Throwable failure;
+        private boolean terminated;
+
+        private BufferedSubscription(Flow.Subscriber<? super Event> subscriber, OverflowPolicy overflowPolicy) {
+            this.subscriber = subscriber;
+            this.buffer = new BlockingEventQueue(bufferSize);
+            this.overflowPolicy = overflowPolicy;
+            this.requested = new AtomicLong();
+            this.pendingDrains = new AtomicInteger();
+            this.cancelled = false;
+            this.completed = false;
+            this.terminated = false;
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("You must request at least 1 event, but requested " + n));
+                return;
+            }
+
+            long current;
+            do {
+                current = requested.get();
+            } while (current != Long.MAX_VALUE && !requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+
+            schedule();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            schedule();
+        }
+
+        private void offer(List<Event> events) {
+            if (cancelled || failure != null) {
+                return;
+            }
+
+            try {
+                overflowPolicy.put(buffer, events);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+
+            schedule();
+        }
+
+        private void complete() {
+            completed = true;
+            schedule();
+        }
+
+        private void fail(Throwable e) {
+            failure = e;
+            subscriptions.remove(this);
+            schedule();
+        }
+
+        private void schedule() {
+            if (pendingDrains.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    logger.error("Cannot signal flow subscriber " + subscriber, e);
+                    cancelled = true;
+                    subscriptions.remove(this);
+                }
+            }
+        }
+
+        public void run() {
+            int drains = pendingDrains.get();
+
+            do {
+                drain();
+                drains = pendingDrains.addAndGet(-drains);
+            } while (drains != 0);
+        }
+
+        private void drain() {
+            if (terminated) {
+                return;
+            }
+
+            if (cancelled) {
+                terminated = true;
+                clear();
+                return;
+            }
+
+            if (failure != null) {
+                terminate();
+                subscriber.onError(failure);
+                return;
+            }
+
+            try {
+                long demand = requested.get();
+                long emitted = 0;
+
+                while (emitted < demand && !cancelled) {
+                    Event event = next();
+
+                    if (event == null) {
+                        break;
+                    }
+
+                    subscriber.onNext(event);
+                    emitted++;
+                }
+
+                if (emitted > 0 && demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+
+                if (completed && !cancelled && buffer.size() == 0) {
+                    terminate();
+                    subscriber.onComplete();
+                }
+            } catch (Throwable e) {
+                logger.error("Flow subscriber " + subscriber + " failed, cancelling its subscription", e);
+                cancelled = true;
+                subscriptions.remove(this);
+                terminated = true;
+                clear();
+            }
+        }
+
+        /**
+         * @return The next buffered event, refilling the buffer from the overflow policy if it is empty.
+         */
+        private Event next() throws Exception {
+            Event event = buffer.poll();
+
+            if (event == null) {
+                overflowPolicy.refill(buffer);
+                event = buffer.poll();
+            }
+
+            return event;
+        }
+
+        private void terminate() {
+            terminated = true;
+            subscriptions.remove(this);
+            clear();
+        }
+
+        private void clear() {
+            while (buffer.poll() != null) {
+                // discard
+            }
+        }
+    }
+}
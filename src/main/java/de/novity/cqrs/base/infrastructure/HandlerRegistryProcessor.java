@@ -0,0 +1,346 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.HandlesCommand;
+import de.novity.cqrs.base.api.SubscribesTo;
+import de.novity.cqrs.base.api.TypedEventSubscriber;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the handler registry of all classes annotated with <code>HandlesCommand</code> or
+ * <code>SubscribesTo</code>, so that they are registered at startup without reflection or classpath scanning.
+ * <p/>
+ * The registry <code>GeneratedHandlerRegistry</code> has a static method <code>register</code> taking a command
+ * dispatcher, an event publisher and an <code>InstanceProvider</code> supplying the annotated classes. If all
+ * annotated classes have a constructor without parameters, an overload without provider creates them directly.
+ * <p/>
+ * The registry is written in the first round finding annotated classes. Annotated classes generated by other
+ * processors in later rounds are reported as errors.
+ */
+public class HandlerRegistryProcessor extends AbstractProcessor {
+    public static final String REGISTRY_PACKAGE_OPTION = "cqrs.registryPackage";
+    public static final String REGISTRY_NAME = "GeneratedHandlerRegistry";
+
+    private boolean generated;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new HashSet<String>(Arrays.asList(HandlesCommand.class.getName(), SubscribesTo.class.getName()));
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(REGISTRY_PACKAGE_OPTION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+        final List<TypeElement> handlers = annotatedClasses(roundEnvironment, HandlesCommand.class);
+        final List<TypeElement> subscribers = annotatedClasses(roundEnvironment, SubscribesTo.class);
+
+        if (handlers.isEmpty() && subscribers.isEmpty()) {
+            return true;
+        }
+
+        if (generated) {
+            for (TypeElement type : handlers) {
+                error(type, "@HandlesCommand on classes generated in later rounds is not supported");
+            }
+
+            for (TypeElement type : subscribers) {
+                error(type, "@SubscribesTo on classes generated in later rounds is not supported");
+            }
+
+            return true;
+        }
+
+        generated = true;
+
+        try {
+            generateRegistry(handlers, subscribers);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + REGISTRY_NAME + ": " + e.getMessage());
+        }
+
+        return true;
+    }
+
+    private List<TypeElement> annotatedClasses(RoundEnvironment roundEnvironment, Class<? extends java.lang.annotation.Annotation> annotation) {
+        final List<TypeElement> types = new ArrayList<TypeElement>();
+
+        for (Element element : roundEnvironment.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+                error(element, "@" + annotation.getSimpleName() + " is only supported on concrete classes");
+                continue;
+            }
+
+            types.add((TypeElement) element);
+        }
+
+        return types;
+    }
+
+    private void generateRegistry(List<TypeElement> handlers, List<TypeElement> subscribers) throws IOException {
+        final String packageName = registryPackage(handlers, subscribers);
+        final List<String> registrations = new ArrayList<String>();
+        final List<String> instantiations = new ArrayList<String>();
+        final List<Element> origins = new ArrayList<Element>();
+        boolean instantiable = true;
+
+        for (TypeElement handler : handlers) {
+            final TypeMirror commandType = commandTypeOf(handler);
+
+            if (commandType == null) {
+                error(handler, "@HandlesCommand requires a class implementing CommandHandler of a command class");
+                continue;
+            }
+
+            if (!isAccessibleFrom(handler, packageName)) {
+                error(handler, "@HandlesCommand requires a class accessible from package " + packageName);
+                continue;
+            }
+
+            final String command = processingEnv.getTypeUtils().erasure(commandType).toString();
+            registrations.add("dispatcher.registerHandler(" + command + ".class, provider.get(" + handler.getQualifiedName() + ".class));");
+            instantiations.add("dispatcher.registerHandler(" + command + ".class, new " + handler.getQualifiedName() + "());");
+            instantiable &= hasDefaultConstructor(handler, packageName);
+            origins.add(handler);
+        }
+
+        for (TypeElement subscriber : subscribers) {
+            if (!isSubtype(subscriber, EventSubscriber.class)) {
+                error(subscriber, "@SubscribesTo requires a class implementing EventSubscriber");
+                continue;
+            }
+
+            if (!isAccessibleFrom(subscriber, packageName)) {
+                error(subscriber, "@SubscribesTo requires a class accessible from package " + packageName);
+                continue;
+            }
+
+            final List<String> eventTypes = eventTypesOf(subscriber);
+
+            if (!eventTypes.isEmpty() && isSubtype(subscriber, TypedEventSubscriber.class)) {
+                error(subscriber, "@SubscribesTo with event types cannot be used on a TypedEventSubscriber");
+                continue;
+            }
+
+            registrations.add("publisher.addSubscriber(" + subscription("provider.get(" + subscriber.getQualifiedName() + ".class)", eventTypes) + ");");
+            instantiations.add("publisher.addSubscriber(" + subscription("new " + subscriber.getQualifiedName() + "()", eventTypes) + ");");
+            instantiable &= hasDefaultConstructor(subscriber, packageName);
+            origins.add(subscriber);
+        }
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+
+        source.append("// Generated by ").append(getClass().getName()).append("\n");
+        source.append("public final class ").append(REGISTRY_NAME).append(" {\n");
+        source.append("    private ").append(REGISTRY_NAME).append("() {\n");
+        source.append("    }\n");
+
+        if (instantiable) {
+            source.append("\n");
+            source.append("    public static void register(de.novity.cqrs.base.api.CommandDispatcher dispatcher, de.novity.cqrs.base.api.EventPublisher publisher) {\n");
+            for (String instantiation : instantiations) {
+                source.append("        ").append(instantiation).append("\n");
+            }
+            source.append("    }\n");
+        }
+
+        source.append("\n");
+        source.append("    public static void register(de.novity.cqrs.base.api.CommandDispatcher dispatcher, de.novity.cqrs.base.api.EventPublisher publisher, de.novity.cqrs.base.api.InstanceProvider provider) throws Exception {\n");
+        for (String registration : registrations) {
+            source.append("        ").append(registration).append("\n");
+        }
+        source.append("    }\n");
+        source.append("}\n");
+
+        final String qualifiedName = packageName.isEmpty() ? REGISTRY_NAME : packageName + "." + REGISTRY_NAME;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, origins.toArray(new Element[origins.size()]));
+        Writer writer = file.openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return The package given by option, or else the longest package containing all annotated classes.
+     */
+    private String registryPackage(List<TypeElement> handlers, List<TypeElement> subscribers) {
+        final String option = processingEnv.getOptions().get(REGISTRY_PACKAGE_OPTION);
+
+        if (option != null) {
+            return option;
+        }
+
+        String common = null;
+        final List<TypeElement> types = new ArrayList<TypeElement>(handlers);
+        types.addAll(subscribers);
+
+        for (TypeElement type : types) {
+            final String name = packageOf(type);
+
+            if (common == null) {
+                common = name;
+            }
+
+            while (!common.isEmpty() && !name.equals(common) && !name.startsWith(common + ".")) {
+                common = common.lastIndexOf('.') < 0 ? "" : common.substring(0, common.lastIndexOf('.'));
+            }
+        }
+
+        return common;
+    }
+
+    private TypeMirror commandTypeOf(TypeElement handler) {
+        final List<TypeMirror> pending = new ArrayList<TypeMirror>();
+        pending.add(handler.asType());
+
+        while (!pending.isEmpty()) {
+            final TypeMirror type = pending.remove(0);
+
+            for (TypeMirror supertype : processingEnv.getTypeUtils().directSupertypes(type)) {
+                final DeclaredType declared = (DeclaredType) supertype;
+
+                if (((TypeElement) declared.asElement()).getQualifiedName().contentEquals(CommandHandler.class.getName())) {
+                    if (declared.getTypeArguments().size() == 1 && declared.getTypeArguments().get(0).getKind() == TypeKind.DECLARED) {
+                        return declared.getTypeArguments().get(0);
+                    }
+
+                    return null;
+                }
+
+                pending.add(supertype);
+            }
+        }
+
+        return null;
+    }
+
+    private List<String> eventTypesOf(TypeElement subscriber) {
+        final List<String> eventTypes = new ArrayList<String>();
+
+        for (AnnotationMirror annotation : subscriber.getAnnotationMirrors()) {
+            if (!((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(SubscribesTo.class.getName())) {
+                continue;
+            }
+
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+                for (Object value : (List<?>) entry.getValue().getValue()) {
+                    eventTypes.add(((AnnotationValue) value).getValue().toString() + ".class");
+                }
+            }
+        }
+
+        return eventTypes;
+    }
+
+    private static String subscription(String subscriber, List<String> eventTypes) {
+        if (eventTypes.isEmpty()) {
+            return subscriber;
+        }
+
+        StringBuilder types = new StringBuilder();
+        for (String eventType : eventTypes) {
+            types.append(types.length() == 0 ? "" : ", ").append(eventType);
+        }
+
+        return TypedSubscription.class.getName() + ".of(" + subscriber + ", java.util.Arrays.<Class<? extends de.novity.cqrs.base.api.Event>>asList(" + types + "))";
+    }
+
+    private boolean isSubtype(TypeElement type, Class<?> supertype) {
+        final TypeElement element = processingEnv.getElementUtils().getTypeElement(supertype.getName());
+        return processingEnv.getTypeUtils().isSubtype(type.asType(), processingEnv.getTypeUtils().erasure(element.asType()));
+    }
+
+    private boolean isAccessibleFrom(TypeElement type, String packageName) {
+        if (!CodecProcessor.isAccessible(type)) {
+            return false;
+        }
+
+        if (packageOf(type).equals(packageName)) {
+            return true;
+        }
+
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            if (!element.getModifiers().contains(Modifier.PUBLIC)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean hasDefaultConstructor(TypeElement type, String packageName) {
+        final boolean samePackage = packageOf(type).equals(packageName);
+
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty()) {
+                Set<Modifier> modifiers = constructor.getModifiers();
+                return modifiers.contains(Modifier.PUBLIC) || (samePackage && !modifiers.contains(Modifier.PRIVATE));
+            }
+        }
+
+        return false;
+    }
+
+    private String packageOf(TypeElement type) {
+        return processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
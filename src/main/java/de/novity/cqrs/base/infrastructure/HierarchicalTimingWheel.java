@@ -0,0 +1,244 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical timing wheel scheduling large numbers of timeouts with constant cost per operation.
+ * <p/>
+ * Time is divided into ticks of a fixed duration. The wheel consists of 4 levels of 256 buckets each. The buckets of
+ * the lowest level hold the timeouts expiring within the next 256 ticks, one bucket per tick, and each higher level
+ * covers a 256 times larger range with buckets of a 256 times longer duration. Scheduling a timeout adds it to the
+ * bucket of its deadline, and cancelling unlinks it from its bucket, both in constant time. Whenever the lower level
+ * completes a revolution, the timeouts of the next bucket of the higher level are moved down, until they reach the
+ * lowest level and expire. Timeouts beyond the range of the highest level, about 4 billion ticks, are kept in its
+ * farthest bucket until they are in range.
+ * <p/>
+ * Timeouts expire at the first tick at or after their deadline, so they are delayed by up to one tick. The wheel does
+ * not read a clock by itself, the current time is passed to <code>schedule</code> and <code>advance</code>. The wheel
+ * is not thread safe.
+ *
+ * @param <T> The type of payload of the timeouts.
+ */
+public class HierarchicalTimingWheel<T> {
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = 1L << (WHEEL_BITS * LEVELS);
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout<T>[] buckets;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickDuration The duration of a tick, defining the resolution of the wheel.
+     * @param unit The time unit of the tick duration.
+     * @param startNanos The current time in nanoseconds, as the first tick of the wheel.
+     */
+    @SuppressWarnings("unchecked")
+    public HierarchicalTimingWheel(long tickDuration, TimeUnit unit, long startNanos) {
+        if (unit == null) {
+            throw new NullPointerException("You must provide a time unit");
+        }
+
+        if (unit.toNanos(tickDuration) < 1) {
+            throw new IllegalArgumentException("You must provide a tick duration of at least 1 nanosecond");
+        }
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.startNanos = startNanos;
+        this.buckets = (Timeout<T>[]) new Timeout[LEVELS * WHEEL_SIZE];
+        this.currentTick = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Schedules a timeout expiring at the given deadline. A deadline that already passed expires with the next tick.
+     *
+     * @param payload The payload returned when the timeout expires.
+     * @param deadlineNanos The deadline in nanoseconds, on the time scale of the start time.
+     * @return The scheduled timeout, which can be cancelled.
+     */
+    public Timeout<T> schedule(T payload, long deadlineNanos) {
+        if (payload == null) {
+            throw new NullPointerException("You must provide a payload");
+        }
+
+        final long elapsed = deadlineNanos - startNanos;
+        final long deadline = elapsed <= 0 ? 0 : (elapsed - 1) / tickNanos + 1;
+        final Timeout<T> timeout = new Timeout<T>(payload, Math.max(deadline, currentTick + 1));
+
+        add(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * @return <code>true</code> if the timeout was cancelled, <code>false</code> if it already expired or was
+     * cancelled before.
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        if (timeout.bucket < 0) {
+            return false;
+        }
+
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the given time and collects the expired timeouts in the order of their deadlines.
+     *
+     * @param nowNanos The current time in nanoseconds, on the time scale of the start time.
+     * @param expired The list the expired timeouts are added to.
+     * @return The number of expired timeouts.
+     */
+    public int advance(long nowNanos, List<Timeout<T>> expired) {
+        final long targetTick = Math.max(0, nowNanos - startNanos) / tickNanos;
+        int count = 0;
+
+        while (currentTick < targetTick) {
+            if (size == 0) {
+                currentTick = targetTick;
+                break;
+            }
+
+            currentTick++;
+
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+
+            final int bucket = (int) currentTick & WHEEL_MASK;
+            Timeout<T> timeout = buckets[bucket];
+
+            while (timeout != null) {
+                final Timeout<T> next = timeout.next;
+                unlink(timeout);
+                expired.add(timeout);
+                size--;
+                count++;
+                timeout = next;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return The number of scheduled timeouts.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Moves the timeouts of the current bucket of the given level to the lower levels.
+     */
+    private void cascade(int level) {
+        Timeout<T> timeout = buckets[level * WHEEL_SIZE + ((int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK)];
+
+        while (timeout != null) {
+            final Timeout<T> next = timeout.next;
+            unlink(timeout);
+            add(timeout);
+            timeout = next;
+        }
+    }
+
+    private void add(Timeout<T> timeout) {
+        long deadline = timeout.deadline;
+
+        if (deadline - currentTick >= MAX_TICKS) {
+            deadline = currentTick + MAX_TICKS - 1;
+        }
+
+        final long ticks = deadline - currentTick;
+        int level = 0;
+
+        while (level < LEVELS - 1 && ticks >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+
+        final int bucket = level * WHEEL_SIZE + ((int) (deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        final Timeout<T> head = buckets[bucket];
+
+        timeout.bucket = bucket;
+        timeout.previous = null;
+        timeout.next = head;
+
+        if (head != null) {
+            head.previous = timeout;
+        }
+
+        buckets[bucket] = timeout;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+
+        timeout.bucket = -1;
+        timeout.previous = null;
+        timeout.next = null;
+    }
+
+    /**
+     * A scheduled timeout, linked into the bucket of its deadline.
+     *
+     * @param <T> The type of payload.
+     */
+    public static final class Timeout<T> {
+        private final T payload;
+        private final long deadline;
+        private int bucket;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+
+        private Timeout(T payload, long deadline) {
+            this.payload = payload;
+            this.deadline = deadline;
+            this.bucket = -1;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return <code>true</code> while the timeout is neither expired nor cancelled.
+         */
+        public boolean isPending() {
+            return bucket >= 0;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.CheckpointStore;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in memory implementation of a checkpoint store that can be used in tests and standalone applications whose read
+ * models are rebuilt on every start.
+ */
+public class InMemoryCheckpointStore implements CheckpointStore {
+    private final ConcurrentMap<String, Long> checkpoints;
+
+    public InMemoryCheckpointStore() {
+        this.checkpoints = new ConcurrentHashMap<String, Long>();
+    }
+
+    public long load(String name) {
+        if (name == null) {
+            throw new NullPointerException("You must provide a projection name");
+        }
+
+        Long position = checkpoints.get(name);
+        return position == null ? 0 : position;
+    }
+
+    public void save(String name, long position) {
+        if (name == null) {
+            throw new NullPointerException("You must provide a projection name");
+        }
+
+        checkpoints.put(name, position);
+    }
+}
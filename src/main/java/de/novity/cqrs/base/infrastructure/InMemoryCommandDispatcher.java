@@ -20,25 +20,91 @@ import de.novity.cqrs.base.api.Command;
 import de.novity.cqrs.base.api.CommandDispatcher;
 import de.novity.cqrs.base.api.CommandHandler;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An in memory implementation of a command dispatcher that can be used in standalone applications. The registered
  * command handlers are backed by a <code>Map</code> implementation.
+ * <p/>
+ * A handler registered for a class also handles its subclasses, and a handler registered for an interface handles all
+ * commands implementing it. The handler of a command class is resolved by walking its class hierarchy, starting with
+ * the class itself, then its interfaces, then its superclass and so on, and the first registered handler found wins.
+ * The resolved handler is cached per command class by a <code>ClassValue</code>, which is replaced whenever another
+ * handler is registered.
+ * <p/>
+ * Handlers may be registered while commands are executed. Once all handlers have been registered, call
+ * <code>freeze</code> to make the registrations immutable, so that the cached lookup is never invalidated again.
+ * <p/>
+ * The execution time of every command handler is reported to a <code>MetricsRecorder</code> if one is given. Without
+ * a recorder, commands are executed without reading the clock.
  */
 public class InMemoryCommandDispatcher implements CommandDispatcher {
-    private final Map<Class<Command>, CommandHandler> handlerMap;
+    private final Object lock;
+    private volatile Map<Class<?>, CommandHandler> handlerMap;
+    private volatile ClassValue<CommandHandler> handlerCache;
+    private volatile boolean frozen;
+    private final MetricsRecorder metrics;
 
     public InMemoryCommandDispatcher() {
-        this.handlerMap = new HashMap<Class<Command>, CommandHandler>();
+        this(MetricsRecorder.NO_OP);
+    }
+
+    /**
+     * @param metrics The recorder the execution times of the command handlers are reported to.
+     */
+    public InMemoryCommandDispatcher(MetricsRecorder metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("You must provide a metrics recorder");
+        }
+
+        this.metrics = metrics;
+        this.lock = new Object();
+        this.handlerMap = new ConcurrentHashMap<Class<?>, CommandHandler>();
+        this.handlerCache = createHandlerCache();
+        this.frozen = false;
     }
 
-    @SuppressWarnings("unchecked")
     public void registerHandler(Class commandType, CommandHandler handler) {
-        handlerMap.put(commandType, handler);
+        if (commandType == null) {
+            throw new NullPointerException("You must provide a command type");
+        }
+
+        if (handler == null) {
+            throw new NullPointerException("You must provide a command handler");
+        }
+
+        synchronized (lock) {
+            if (frozen) {
+                throw new IllegalStateException("You tried to register a command handler after the dispatcher was frozen");
+            }
+
+            handlerMap.put(commandType, handler);
+            handlerCache = createHandlerCache();
+        }
     }
 
+    /**
+     * Makes the registered handlers immutable. Any further registration fails with an
+     * <code>IllegalStateException</code>.
+     */
+    public void freeze() {
+        synchronized (lock) {
+            if (frozen) {
+                return;
+            }
+
+            handlerMap = Collections.unmodifiableMap(new HashMap<Class<?>, CommandHandler>(handlerMap));
+            handlerCache = createHandlerCache();
+            frozen = true;
+        }
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
 
     @SuppressWarnings("unchecked")
     public void execute(Command command) throws Exception {
@@ -46,12 +112,69 @@ public class InMemoryCommandDispatcher implements CommandDispatcher {
             throw new NullPointerException("You tried to execute a null command");
         }
 
-        CommandHandler handler = handlerMap.get((Class<Command>) command.getClass());
+        CommandHandler handler = handlerCache.get(command.getClass());
 
         if (handler == null) {
             throw new NullPointerException("You didn't register a command handler for command " + command.getClass().getSimpleName());
         }
 
-        handler.execute(command);
+        if (metrics == MetricsRecorder.NO_OP) {
+            handler.execute(command);
+            return;
+        }
+
+        final long start = System.nanoTime();
+
+        try {
+            handler.execute(command);
+        } catch (Exception e) {
+            metrics.commandFailed(command.getClass(), System.nanoTime() - start);
+            throw e;
+        }
+
+        metrics.commandExecuted(command.getClass(), System.nanoTime() - start);
+    }
+
+    private ClassValue<CommandHandler> createHandlerCache() {
+        final Map<Class<?>, CommandHandler> handlers = handlerMap;
+
+        return new ClassValue<CommandHandler>() {
+            @Override
+            protected CommandHandler computeValue(Class<?> commandType) {
+                return resolve(handlers, commandType);
+            }
+        };
+    }
+
+    private static CommandHandler resolve(Map<Class<?>, CommandHandler> handlers, Class<?> type) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            CommandHandler handler = handlers.get(current);
+
+            if (handler == null) {
+                handler = resolveInterfaces(handlers, current);
+            }
+
+            if (handler != null) {
+                return handler;
+            }
+        }
+
+        return null;
+    }
+
+    private static CommandHandler resolveInterfaces(Map<Class<?>, CommandHandler> handlers, Class<?> type) {
+        for (Class<?> anInterface : type.getInterfaces()) {
+            CommandHandler handler = handlers.get(anInterface);
+
+            if (handler == null) {
+                handler = resolveInterfaces(handlers, anInterface);
+            }
+
+            if (handler != null) {
+                return handler;
+            }
+        }
+
+        return null;
     }
 }
@@ -25,16 +25,27 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 
 /**
  * An in memory implementation of an event publisher that can be used in standalone applications. The registered
- * event subscribers are backed by a simple list of subscribers. The <code>addSubscriber</code> and
- * <code>removeSubscriber</code> methods are synchronized to support multi threaded applications.
+ * event subscribers are backed by a copy-on-write routing table, so that subscribers can be added and removed by
+ * multi threaded applications without blocking the delivery of events. Subscribers implementing
+ * <code>TypedEventSubscriber</code> are only notified about events of their declared types.
  * <p/>
- * The events to be published by the <code>publish</code> methods are backed by a blocking queue and a spawned
- * thread publishing the queued events for the same reason.
+ * The events to be published by the <code>publish</code> methods are backed by an <code>EventQueue</code> and a
+ * spawned thread publishing the queued events for the same reason. By default a blocking queue holding up to 1024
+ * events is used. Alternatively a lock-free <code>RingBufferEventQueue</code> with a configurable capacity and
+ * <code>WaitStrategy</code> can be used. A list of events is put into the queue as one unit, so it is not interleaved
+ * with events published by other threads. The publishing thread drains all queued events at once and delivers them as
+ * one batch, notifying a <code>BatchEventSubscriber</code> once per batch.
+ * <p/>
+ * If the queue is full, the configured <code>OverflowPolicy</code> decides whether publishing threads wait, fail or
+ * drop events, or whether the events are spilled to disk. By default publishing threads wait.
+ * <p/>
+ * If a <code>MetricsRecorder</code> is given, the delivery latency of every event, measured from the time it was put
+ * into the queue, the number of events drained from the queue at once and the processing time of every subscriber are
+ * reported to it. Events spilled to disk by the overflow policy are measured from the time they are moved back into
+ * the queue.
  */
 public class InMemoryEventPublisherService implements EventPublisherService {
     private static final Logger logger = LoggerFactory.getLogger(InMemoryEventPublisherService.class);
@@ -43,7 +54,53 @@ public class InMemoryEventPublisherService implements EventPublisherService {
     private boolean started;
 
     public InMemoryEventPublisherService() {
-        this.eventPublisher = new EventPublisherImpl();
+        this(new BlockingEventQueue(1024));
+    }
+
+    /**
+     * Creates a publisher backed by a ring buffer.
+     *
+     * @param capacity The capacity of the ring buffer.
+     * @param waitStrategy The strategy used by threads waiting on the ring buffer.
+     */
+    public InMemoryEventPublisherService(int capacity, WaitStrategy waitStrategy) {
+        this(new RingBufferEventQueue(capacity, waitStrategy));
+    }
+
+    /**
+     * @param eventQueue The queue holding the published events until they are delivered.
+     */
+    public InMemoryEventPublisherService(EventQueue eventQueue) {
+        this(eventQueue, OverflowPolicy.block());
+    }
+
+    /**
+     * @param eventQueue The queue holding the published events until they are delivered.
+     * @param overflowPolicy The policy applied to published events if the queue is full.
+     */
+    public InMemoryEventPublisherService(EventQueue eventQueue, OverflowPolicy overflowPolicy) {
+        this(eventQueue, overflowPolicy, MetricsRecorder.NO_OP);
+    }
+
+    /**
+     * @param eventQueue The queue holding the published events until they are delivered.
+     * @param overflowPolicy The policy applied to published events if the queue is full.
+     * @param metrics The recorder the delivery metrics are reported to.
+     */
+    public InMemoryEventPublisherService(EventQueue eventQueue, OverflowPolicy overflowPolicy, MetricsRecorder metrics) {
+        if (eventQueue == null) {
+            throw new NullPointerException("You must provide an event queue");
+        }
+
+        if (overflowPolicy == null) {
+            throw new NullPointerException("You must provide an overflow policy");
+        }
+
+        if (metrics == null) {
+            throw new NullPointerException("You must provide a metrics recorder");
+        }
+
+        this.eventPublisher = new EventPublisherImpl(eventQueue, overflowPolicy, metrics);
         this.started = false;
         logger.info("InMemoryPublisher created");
     }
@@ -82,53 +139,72 @@ public class InMemoryEventPublisherService implements EventPublisherService {
         return eventPublisher;
     }
 
-    private class EventPublisherImpl extends Thread implements EventPublisher {
-        private final List<EventSubscriber> subscribers;
-        private final BlockingQueue<Event> eventQueue;
+    /**
+     * @return The number of events dropped by the overflow policy.
+     */
+    public long getDroppedEventCount() {
+        return eventPublisher.overflowPolicy.getDroppedEventCount();
+    }
 
-        private EventPublisherImpl() {
-            this.subscribers = new ArrayList<EventSubscriber>();
-            this.eventQueue = new ArrayBlockingQueue<Event>(1024);
+    private class EventPublisherImpl extends Thread implements EventPublisher {
+        private final SubscriberRegistry subscribers;
+        private final EventQueue eventQueue;
+        private final OverflowPolicy overflowPolicy;
+        private final MetricsRecorder metrics;
+
+        private EventPublisherImpl(EventQueue eventQueue, OverflowPolicy overflowPolicy, MetricsRecorder metrics) {
+            this.subscribers = new SubscriberRegistry();
+            this.eventQueue = eventQueue;
+            this.overflowPolicy = overflowPolicy;
+            this.metrics = metrics;
             setName("publisher");
         }
 
         public void addSubscriber(EventSubscriber subscriber) {
-            synchronized (subscribers) {
-                subscribers.add(subscriber);
-                logger.debug("Added subscriber " + subscriber);
-            }
+            subscribers.add(subscriber);
+            metrics.subscriberAdded(subscriber);
+            logger.debug("Added subscriber " + subscriber);
         }
 
         public void removeSubscriber(EventSubscriber subscriber) {
-            synchronized (subscribers) {
-                subscribers.remove(subscriber);
-                logger.debug("Removed subscriber " + subscriber);
+            if (subscribers.remove(subscriber)) {
+                metrics.subscriberRemoved(subscriber);
             }
+
+            logger.debug("Removed subscriber " + subscriber);
         }
 
         public void publish(Event event) throws Exception {
-            eventQueue.put(event);
+            overflowPolicy.put(eventQueue, event);
         }
 
         public void publish(List<Event> events) throws Exception {
-            for (Event event : events) {
-                publish(event);
-            }
+            overflowPolicy.put(eventQueue, events);
         }
 
         @Override
         public void run() {
+            final int batchSize = eventQueue.capacity();
+            final List<Event> batch = new ArrayList<Event>(batchSize);
+            final long[] putTimes = metrics != MetricsRecorder.NO_OP ? new long[batchSize] : null;
+            final EventDelivery delivery = new EventDelivery(subscribers, metrics);
+
             do {
                 try {
-                    Event event = eventQueue.take();
+                    eventQueue.drainTo(batch, putTimes, batchSize);
+                    metrics.queueOccupancy(batch.size(), batchSize);
 
-                    synchronized (subscribers) {
-                        for (EventSubscriber subscriber : subscribers) {
-                            subscriber.onEvent(event);
-                        }
+                    try {
+                        delivery.deliver(batch, putTimes);
+                    } finally {
+                        batch.clear();
                     }
+
+                    overflowPolicy.refill(eventQueue);
                 } catch (InterruptedException e) {
                     interrupt();
+                } catch (Exception e) {
+                    logger.error("Failed to publish events", e);
                 }
             } while (!isInterrupted());
         }
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.ConcurrencyException;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventStore;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.StoredEventSubscriber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An in memory implementation of an event store that can be used in tests and standalone applications without
+ * persistence.
+ * <p/>
+ * Each stream is an immutable chain of appended batches, linked from the latest batch backwards. Appending is a
+ * compare-and-set of the latest batch, so that the version check and the append form one atomic step without
+ * locking. Afterwards the batch is added to the log of all streams while holding a short lock. As appenders of the
+ * same stream may reach this lock in any order, an appender adds all batches of its stream that are not yet in the
+ * log, so that the log keeps the order of each stream.
+ */
+public class InMemoryEventStore implements EventStore {
+    private static final long ANY_VERSION = -1;
+
+    private final ConcurrentMap<String, AtomicReference<Batch>> streams;
+    private final List<Batch> log;
+
+    public InMemoryEventStore() {
+        this.streams = new ConcurrentHashMap<String, AtomicReference<Batch>>();
+        this.log = new ArrayList<Batch>();
+    }
+
+    public long append(String streamId, List<Event> events) throws ConcurrencyException {
+        return doAppend(streamId, ANY_VERSION, events);
+    }
+
+    public long append(String streamId, long expectedVersion, List<Event> events) throws ConcurrencyException {
+        if (expectedVersion < 0) {
+            throw new IllegalArgumentException("You must provide an expected version of at least 0");
+        }
+
+        return doAppend(streamId, expectedVersion, events);
+    }
+
+    public long getVersion(String streamId) {
+        final AtomicReference<Batch> stream = stream(streamId, false);
+        return stream == null ? 0 : versionOf(stream.get());
+    }
+
+    public void replay(String streamId, long fromVersion, EventSubscriber subscriber) throws Exception {
+        if (fromVersion < 0) {
+            throw new IllegalArgumentException("You must provide a version of at least 0");
+        }
+
+        if (subscriber == null) {
+            throw new NullPointerException("You must provide an event subscriber");
+        }
+
+        final AtomicReference<Batch> stream = stream(streamId, false);
+
+        if (stream == null) {
+            return;
+        }
+
+        final List<Batch> batches = new ArrayList<Batch>();
+        for (Batch batch = stream.get(); batch != null && batch.version > fromVersion; batch = batch.previous) {
+            batches.add(batch);
+        }
+
+        for (int i = batches.size() - 1; i >= 0; i--) {
+            Batch batch = batches.get(i);
+            long version = batch.version - batch.events.length;
+
+            for (Event event : batch.events) {
+                if (++version > fromVersion) {
+                    subscriber.onEvent(event);
+                }
+            }
+        }
+    }
+
+    public long getPosition() {
+        synchronized (log) {
+            return log.isEmpty() ? 0 : log.get(log.size() - 1).position;
+        }
+    }
+
+    public void readAll(long fromPosition, StoredEventSubscriber subscriber) throws Exception {
+        if (fromPosition < 0) {
+            throw new IllegalArgumentException("You must provide a position of at least 0");
+        }
+
+        if (subscriber == null) {
+            throw new NullPointerException("You must provide a stored event subscriber");
+        }
+
+        final List<Batch> batches;
+
+        synchronized (log) {
+            int low = 0;
+            int high = log.size();
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (log.get(middle).position <= fromPosition) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            batches = new ArrayList<Batch>(log.subList(low, log.size()));
+        }
+
+        for (Batch batch : batches) {
+            long position = batch.position - batch.events.length;
+            long version = batch.version - batch.events.length;
+
+            for (Event event : batch.events) {
+                version++;
+
+                if (++position > fromPosition) {
+                    subscriber.onEvent(batch.streamId, version, position, event);
+                }
+            }
+        }
+    }
+
+    private long doAppend(String streamId, long expectedVersion, List<Event> events) throws ConcurrencyException {
+        if (events == null) {
+            throw new NullPointerException("You must provide a list of events");
+        }
+
+        final AtomicReference<Batch> stream = stream(streamId, true);
+        final Event[] appended = events.toArray(new Event[events.size()]);
+
+        while (true) {
+            final Batch latest = stream.get();
+            final long version = versionOf(latest);
+
+            if (expectedVersion != ANY_VERSION && version != expectedVersion) {
+                throw new ConcurrencyException(streamId, expectedVersion, version);
+            }
+
+            if (appended.length == 0) {
+                return version;
+            }
+
+            final Batch batch = new Batch(streamId, appended, version + appended.length, latest);
+
+            if (stream.compareAndSet(latest, batch)) {
+                log(batch);
+                return batch.version;
+            }
+        }
+    }
+
+    /**
+     * Adds the batch and all preceding batches of its stream that are not yet in the log, oldest first.
+     */
+    private void log(Batch batch) {
+        synchronized (log) {
+            if (batch.position != 0) {
+                return;
+            }
+
+            final List<Batch> unlogged = new ArrayList<Batch>();
+            for (Batch current = batch; current != null && current.position == 0; current = current.previous) {
+                unlogged.add(current);
+            }
+
+            long position = log.isEmpty() ? 0 : log.get(log.size() - 1).position;
+
+            for (int i = unlogged.size() - 1; i >= 0; i--) {
+                Batch current = unlogged.get(i);
+                position += current.events.length;
+                current.position = position;
+                log.add(current);
+            }
+        }
+    }
+
+    private AtomicReference<Batch> stream(String streamId, boolean create) {
+        if (streamId == null) {
+            throw new NullPointerException("You must provide a stream id");
+        }
+
+        AtomicReference<Batch> stream = streams.get(streamId);
+
+        if (stream == null && create) {
+            streams.putIfAbsent(streamId, new AtomicReference<Batch>());
+            stream = streams.get(streamId);
+        }
+
+        return stream;
+    }
+
+    private static long versionOf(Batch batch) {
+        return batch == null ? 0 : batch.version;
+    }
+
+    private static final class Batch {
+        private final String streamId;
+        private final Event[] events;
+        private final long version;
+        private final Batch previous;
+
+        /**
+         * The position of the last event of the batch in the log, or 0 if the batch is not yet in the log. Guarded by
+         * the lock of the log.
+         */
+        private long position;
+
+        private Batch(String streamId, Event[] events, long version, Batch previous) {
+            this.streamId = streamId;
+            this.events = events;
+            this.version = version;
+            this.previous = previous;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.EventSubscriber;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A metrics recorder keeping all measurements in memory, to be read by <code>snapshot</code>.
+ * <p/>
+ * The metrics of a command type are looked up by a <code>ClassValue</code> and those of a subscriber by a concurrent
+ * map, so recording allocates only when a command type is seen for the first time. The metrics of a subscriber are
+ * created when it is added to a publisher and discarded when it is removed again, as often as it was added. Each
+ * subscriber is reported by its string representation followed by a number unique within the recorder, so that
+ * subscribers with equal string representations are kept apart.
+ */
+public class InMemoryMetrics implements MetricsRecorder {
+    private final ConcurrentMap<Class<?>, CommandMetrics> commands;
+    private final ClassValue<CommandMetrics> commandLookup;
+    private final ConcurrentMap<EventSubscriber, SubscriberMetrics> subscribers;
+    private final LatencyHistogram deliveryLatency;
+    private final LatencyHistogram queueOccupancy;
+    private final AtomicInteger queueCapacity;
+    private long subscriberCount;
+
+    public InMemoryMetrics() {
+        this.commands = new ConcurrentHashMap<Class<?>, CommandMetrics>();
+        this.commandLookup = new ClassValue<CommandMetrics>() {
+            @Override
+            protected CommandMetrics computeValue(Class<?> commandType) {
+                CommandMetrics created = new CommandMetrics();
+                CommandMetrics existing = commands.putIfAbsent(commandType, created);
+                return existing == null ? created : existing;
+            }
+        };
+        this.subscribers = new ConcurrentHashMap<EventSubscriber, SubscriberMetrics>();
+        this.deliveryLatency = new LatencyHistogram();
+        this.queueOccupancy = new LatencyHistogram();
+        this.queueCapacity = new AtomicInteger();
+    }
+
+    public void commandExecuted(Class<?> commandType, long durationNanos) {
+        commandLookup.get(commandType).latency.record(durationNanos);
+    }
+
+    public void commandFailed(Class<?> commandType, long durationNanos) {
+        CommandMetrics metrics = commandLookup.get(commandType);
+        metrics.latency.record(durationNanos);
+        metrics.failures.incrementAndGet();
+    }
+
+    public void eventDelivered(long latencyNanos) {
+        deliveryLatency.record(latencyNanos);
+    }
+
+    public void queueOccupancy(int size, int capacity) {
+        queueOccupancy.record(size);
+        queueCapacity.lazySet(capacity);
+    }
+
+    public void subscriberAdded(EventSubscriber subscriber) {
+        synchronized (subscribers) {
+            SubscriberMetrics metrics = subscribers.get(subscriber);
+
+            if (metrics == null) {
+                metrics = new SubscriberMetrics(subscriber + "#" + ++subscriberCount);
+                subscribers.put(subscriber, metrics);
+            }
+
+            metrics.registrations++;
+        }
+    }
+
+    public void subscriberNotified(EventSubscriber subscriber, long durationNanos) {
+        SubscriberMetrics metrics = subscribers.get(subscriber);
+
+        if (metrics != null) {
+            metrics.times.record(durationNanos);
+        }
+    }
+
+    public void subscriberRemoved(EventSubscriber subscriber) {
+        synchronized (subscribers) {
+            SubscriberMetrics metrics = subscribers.get(subscriber);
+
+            if (metrics != null && --metrics.registrations == 0) {
+                subscribers.remove(subscriber);
+            }
+        }
+    }
+
+    /**
+     * @return The current values of all metrics.
+     */
+    public MetricsSnapshot snapshot() {
+        final Map<String, LatencyHistogram.Snapshot> commandLatencies = new LinkedHashMap<String, LatencyHistogram.Snapshot>();
+        final Map<String, Long> commandFailures = new LinkedHashMap<String, Long>();
+
+        for (Map.Entry<Class<?>, CommandMetrics> entry : commands.entrySet()) {
+            commandLatencies.put(entry.getKey().getName(), entry.getValue().latency.snapshot());
+            commandFailures.put(entry.getKey().getName(), entry.getValue().failures.get());
+        }
+
+        final Map<String, LatencyHistogram.Snapshot> subscriberTimes = new LinkedHashMap<String, LatencyHistogram.Snapshot>();
+
+        for (SubscriberMetrics metrics : subscribers.values()) {
+            subscriberTimes.put(metrics.name, metrics.times.snapshot());
+        }
+
+        return new MetricsSnapshot(commandLatencies, commandFailures, deliveryLatency.snapshot(), queueOccupancy.snapshot(), queueCapacity.get(), subscriberTimes);
+    }
+
+    private static final class CommandMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong failures = new AtomicLong();
+    }
+
+    private static final class SubscriberMetrics {
+        private final String name;
+        private final LatencyHistogram times;
+        private int registrations;
+
+        private SubscriberMetrics(String name) {
+            this.name = name;
+            this.times = new LatencyHistogram();
+        }
+    }
+}
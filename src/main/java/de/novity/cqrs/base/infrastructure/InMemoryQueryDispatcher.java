@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Query;
+import de.novity.cqrs.base.api.QueryDispatcher;
+import de.novity.cqrs.base.api.QueryHandler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in memory implementation of a query dispatcher that can be used in standalone applications. The registered
+ * query handlers are backed by a <code>Map</code> implementation.
+ * <p/>
+ * A handler registered for a class also handles its subclasses. The handler of a query class is resolved by walking
+ * its superclasses, and the first registered handler found wins. The resolved handler is cached per query class by a
+ * <code>ClassValue</code>, which is replaced whenever another handler is registered.
+ */
+public class InMemoryQueryDispatcher implements QueryDispatcher {
+    private final Map<Class<?>, QueryHandler> handlerMap;
+    private volatile ClassValue<QueryHandler> handlerCache;
+
+    public InMemoryQueryDispatcher() {
+        this.handlerMap = new ConcurrentHashMap<Class<?>, QueryHandler>();
+        this.handlerCache = createHandlerCache();
+    }
+
+    public void registerHandler(Class queryType, QueryHandler handler) {
+        if (queryType == null) {
+            throw new NullPointerException("You must provide a query type");
+        }
+
+        if (handler == null) {
+            throw new NullPointerException("You must provide a query handler");
+        }
+
+        synchronized (handlerMap) {
+            handlerMap.put(queryType, handler);
+            handlerCache = createHandlerCache();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <TResult> TResult execute(Query<TResult> query) throws Exception {
+        if (query == null) {
+            throw new NullPointerException("You tried to execute a null query");
+        }
+
+        QueryHandler handler = handlerCache.get(query.getClass());
+
+        if (handler == null) {
+            throw new NullPointerException("You didn't register a query handler for query " + query.getClass().getSimpleName());
+        }
+
+        return (TResult) handler.execute(query);
+    }
+
+    private ClassValue<QueryHandler> createHandlerCache() {
+        return new ClassValue<QueryHandler>() {
+            @Override
+            protected QueryHandler computeValue(Class<?> queryType) {
+                for (Class<?> current = queryType; current != null; current = current.getSuperclass()) {
+                    QueryHandler handler = handlerMap.get(current);
+
+                    if (handler != null) {
+                        return handler;
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+}
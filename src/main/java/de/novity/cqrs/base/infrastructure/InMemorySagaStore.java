@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Saga;
+import de.novity.cqrs.base.api.SagaSerializer;
+import de.novity.cqrs.base.api.SagaStore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in memory implementation of a saga store.
+ * <p/>
+ * Sagas are kept in their serialized form, written by a <code>SagaSerializer</code>, so that a large number of waiting
+ * sagas takes little memory and no object graphs. Use a <code>BinarySagaSerializer</code> to keep them compact, Java
+ * serialization is used by default. The association index maps the saga type and correlation key to the ids of the
+ * associated sagas, holding a single id without a set for the common case of one saga per key. Saving a saga only
+ * updates the index for the associations changed since its last commit, so the associations are not kept besides the
+ * serialized saga. The ids of the sagas with pending timeouts are kept in a separate set.
+ */
+public class InMemorySagaStore implements SagaStore {
+    private final SagaSerializer serializer;
+    private final Map<String, StoredSaga> sagas;
+    private final Map<Association, Object> index;
+    private final Set<String> withTimeouts;
+
+    public InMemorySagaStore() {
+        this(new JavaSagaSerializer());
+    }
+
+    public InMemorySagaStore(SagaSerializer serializer) {
+        if (serializer == null) {
+            throw new NullPointerException("You must provide a saga serializer");
+        }
+
+        this.serializer = serializer;
+        this.sagas = new HashMap<String, StoredSaga>();
+        this.index = new HashMap<Association, Object>();
+        this.withTimeouts = new HashSet<String>();
+    }
+
+    public Saga load(String sagaId) throws Exception {
+        if (sagaId == null) {
+            throw new NullPointerException("You must provide a saga id");
+        }
+
+        final StoredSaga stored;
+
+        synchronized (this) {
+            stored = sagas.get(sagaId);
+        }
+
+        return stored == null ? null : serializer.deserialize(ByteBuffer.wrap(stored.state));
+    }
+
+    public void save(Saga saga) throws Exception {
+        if (saga == null) {
+            throw new NullPointerException("You must provide a saga");
+        }
+
+        final StoredSaga stored = new StoredSaga(saga.getClass(), serializer.serialize(saga));
+
+        synchronized (this) {
+            sagas.put(saga.getId(), stored);
+
+            for (Map.Entry<Object, Boolean> change : saga.getAssociationChanges().entrySet()) {
+                if (change.getValue()) {
+                    add(new Association(stored.type, change.getKey()), saga.getId());
+                } else {
+                    remove(new Association(stored.type, change.getKey()), saga.getId());
+                }
+            }
+
+            if (saga.getTimeouts().isEmpty()) {
+                withTimeouts.remove(saga.getId());
+            } else {
+                withTimeouts.add(saga.getId());
+            }
+        }
+    }
+
+    /**
+     * Reads the associations of the removed saga from its serialized form to remove them from the index.
+     */
+    public synchronized void delete(String sagaId) throws Exception {
+        if (sagaId == null) {
+            throw new NullPointerException("You must provide a saga id");
+        }
+
+        final StoredSaga previous = sagas.remove(sagaId);
+
+        if (previous != null) {
+            for (Object key : serializer.deserialize(ByteBuffer.wrap(previous.state)).getAssociations()) {
+                remove(new Association(previous.type, key), sagaId);
+            }
+        }
+
+        withTimeouts.remove(sagaId);
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized Collection<String> find(Class<? extends Saga> sagaType, Object key) {
+        if (sagaType == null) {
+            throw new NullPointerException("You must provide a saga type");
+        }
+
+        if (key == null) {
+            throw new NullPointerException("You must provide a correlation key");
+        }
+
+        final Object ids = index.get(new Association(sagaType, key));
+
+        if (ids == null) {
+            return Collections.emptySet();
+        }
+
+        if (ids instanceof String) {
+            return Collections.singleton((String) ids);
+        }
+
+        return Collections.unmodifiableSet(new HashSet<String>((Set<String>) ids));
+    }
+
+    public synchronized Collection<String> findWithTimeouts() {
+        return new ArrayList<String>(withTimeouts);
+    }
+
+    /**
+     * @return The number of stored sagas.
+     */
+    public synchronized int size() {
+        return sagas.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(Association association, String sagaId) {
+        final Object ids = index.get(association);
+
+        if (ids == null) {
+            index.put(association, sagaId);
+        } else if (ids instanceof String) {
+            if (!ids.equals(sagaId)) {
+                final Set<String> set = new HashSet<String>(4);
+                set.add((String) ids);
+                set.add(sagaId);
+                index.put(association, set);
+            }
+        } else {
+            ((Set<String>) ids).add(sagaId);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void remove(Association association, String sagaId) {
+        final Object ids = index.get(association);
+
+        if (ids instanceof String) {
+            if (ids.equals(sagaId)) {
+                index.remove(association);
+            }
+        } else if (ids != null) {
+            final Set<String> set = (Set<String>) ids;
+            set.remove(sagaId);
+
+            if (set.size() == 1) {
+                index.put(association, set.iterator().next());
+            }
+        }
+    }
+
+    private static final class StoredSaga {
+        private final Class<? extends Saga> type;
+        private final byte[] state;
+
+        private StoredSaga(Class<? extends Saga> type, byte[] state) {
+            this.type = type;
+            this.state = state;
+        }
+    }
+
+    private static final class Association {
+        private final Class<? extends Saga> sagaType;
+        private final Object key;
+
+        private Association(Class<? extends Saga> sagaType, Object key) {
+            this.sagaType = sagaType;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Association)) {
+                return false;
+            }
+
+            final Association other = (Association) o;
+            return sagaType == other.sagaType && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sagaType.hashCode() + key.hashCode();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Snapshot;
+import de.novity.cqrs.base.api.SnapshotStore;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in memory implementation of a snapshot store keeping the latest snapshot of each root aggregate in a
+ * <code>Map</code>.
+ */
+public class InMemorySnapshotStore implements SnapshotStore {
+    private final ConcurrentMap<String, Snapshot> snapshots;
+
+    public InMemorySnapshotStore() {
+        this.snapshots = new ConcurrentHashMap<String, Snapshot>();
+    }
+
+    public void save(Snapshot snapshot) {
+        if (snapshot == null) {
+            throw new NullPointerException("You must provide a snapshot");
+        }
+
+        while (true) {
+            Snapshot latest = snapshots.putIfAbsent(snapshot.getAggregateId(), snapshot);
+
+            if (latest == null || latest.getVersion() >= snapshot.getVersion()
+                    || snapshots.replace(snapshot.getAggregateId(), latest, snapshot)) {
+                return;
+            }
+        }
+    }
+
+    public Snapshot load(String aggregateId) {
+        if (aggregateId == null) {
+            throw new NullPointerException("You must provide an aggregate id");
+        }
+
+        return snapshots.get(aggregateId);
+    }
+}
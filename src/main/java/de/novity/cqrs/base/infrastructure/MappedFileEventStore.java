@@ -0,0 +1,613 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.ConcurrencyException;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSerializer;
+import de.novity.cqrs.base.api.EventStore;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.StoredEventSubscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An event store keeping all streams in one append-only log, split into memory-mapped segment files of a fixed size.
+ * <p/>
+ * Each event is stored as one record:
+ * <pre>
+ * [int body length][int CRC32 of body][long version][int events following in batch][short stream id length]
+ * [stream id bytes][serialized event]
+ * </pre>
+ * The length is written last, and a record is only valid if its checksum matches. The events appended by one call to
+ * <code>append</code> form a batch, which is only kept on recovery if all of its records are valid. Recovery stops at
+ * the first invalid record and clears everything following it, including later segments. The locations of the records
+ * of each stream, and of all streams in log order, are kept in memory and rebuilt from the log when the store is
+ * opened.
+ * <p/>
+ * If <code>forceOnAppend</code> is set, <code>append</code> returns only after the appended events have been forced
+ * to disk. Concurrent appenders share a single force: the first waiting appender forces all records appended so far,
+ * and the others return as soon as their records are covered. Replayed events are deserialized directly from the
+ * mapped segments without copying them. The serialized size of an event is taken from the header of its record.
+ */
+public class MappedFileEventStore implements SizedEventStore, Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedFileEventStore.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;
+    private static final int FIXED_BODY_SIZE = 14;
+    private static final int MAX_STREAM_ID_LENGTH = 0xffff;
+    private static final long ANY_VERSION = -1;
+    private static final int READ_ALL_CHUNK = 4096;
+
+    private final File directory;
+    private final int segmentSize;
+    private final EventSerializer serializer;
+    private final boolean forceOnAppend;
+    private final ReentrantLock appendLock;
+    private final Object forceLock;
+    private final List<Segment> segments;
+    private final ConcurrentMap<String, Stream> streams;
+    private final Stream log;
+    private volatile Segment current;
+    private int writeOffset;
+    private volatile long appendedBatches;
+    private long forcedBatches;
+    private volatile boolean closed;
+
+    /**
+     * Opens the store in the given directory with the default segment size, using Java serialization and forcing
+     * appended events to disk.
+     */
+    public MappedFileEventStore(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, new JavaEventSerializer(), true);
+    }
+
+    /**
+     * @param directory The directory of the segment files, created if it does not exist.
+     * @param segmentSize The size of a segment file in bytes, limiting the size of a single event.
+     * @param serializer The serializer converting events to bytes and back.
+     * @param forceOnAppend Whether <code>append</code> waits until the appended events have been forced to disk.
+     */
+    public MappedFileEventStore(File directory, int segmentSize, EventSerializer serializer, boolean forceOnAppend) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("You must provide a directory");
+        }
+
+        if (segmentSize <= HEADER_SIZE + FIXED_BODY_SIZE) {
+            throw new IllegalArgumentException("You must provide a segment size larger than " + (HEADER_SIZE + FIXED_BODY_SIZE) + " bytes");
+        }
+
+        if (serializer == null) {
+            throw new NullPointerException("You must provide an event serializer");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.serializer = serializer;
+        this.forceOnAppend = forceOnAppend;
+        this.appendLock = new ReentrantLock();
+        this.forceLock = new Object();
+        this.segments = new CopyOnWriteArrayList<Segment>();
+        this.streams = new ConcurrentHashMap<String, Stream>();
+        this.log = new Stream();
+        this.closed = false;
+
+        recover();
+    }
+
+    public long append(String streamId, List<Event> events) throws Exception {
+        return doAppend(streamId, ANY_VERSION, events);
+    }
+
+    /**
+     * Appends the events if the stream has the expected version. As the log has a single write position, the version
+     * is checked while holding the append lock.
+     */
+    public long append(String streamId, long expectedVersion, List<Event> events) throws Exception {
+        if (expectedVersion < 0) {
+            throw new IllegalArgumentException("You must provide an expected version of at least 0");
+        }
+
+        return doAppend(streamId, expectedVersion, events);
+    }
+
+    private long doAppend(String streamId, long expectedVersion, List<Event> events) throws Exception {
+        if (streamId == null) {
+            throw new NullPointerException("You must provide a stream id");
+        }
+
+        if (events == null) {
+            throw new NullPointerException("You must provide a list of events");
+        }
+
+        final byte[] id = streamId.getBytes(UTF_8);
+
+        if (id.length > MAX_STREAM_ID_LENGTH) {
+            throw new IllegalArgumentException("You tried to use a stream id longer than " + MAX_STREAM_ID_LENGTH + " bytes");
+        }
+
+        if (events.isEmpty() && expectedVersion == ANY_VERSION) {
+            return getVersion(streamId);
+        }
+
+        final byte[][] payloads = new byte[events.size()][];
+        long batchSize = 0;
+
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = serializer.serialize(events.get(i));
+            long recordSize = recordSize(id.length, payloads[i].length);
+
+            if (recordSize > segmentSize) {
+                throw new IllegalArgumentException("You tried to append an event of " + recordSize + " bytes exceeding the segment size of " + segmentSize + " bytes");
+            }
+
+            batchSize += recordSize;
+        }
+
+        final long version;
+        final long batch;
+
+        appendLock.lock();
+        try {
+            checkOpen();
+
+            Stream stream = streams.get(streamId);
+            if (stream == null) {
+                stream = new Stream();
+            }
+
+            if (expectedVersion != ANY_VERSION && stream.size() != expectedVersion) {
+                throw new ConcurrencyException(streamId, expectedVersion, stream.size());
+            }
+
+            if (payloads.length == 0) {
+                return expectedVersion;
+            }
+
+            if (writeOffset + batchSize > segmentSize && batchSize <= segmentSize) {
+                roll();
+            }
+
+            final long[] locations = new long[payloads.length];
+            long streamVersion = stream.size();
+
+            for (int i = 0; i < payloads.length; i++) {
+                int recordSize = (int) recordSize(id.length, payloads[i].length);
+
+                if (writeOffset + recordSize > segmentSize) {
+                    roll();
+                }
+
+                locations[i] = location(current.number, writeOffset);
+                write(current.buffer, writeOffset, ++streamVersion, payloads.length - 1 - i, id, payloads[i]);
+                writeOffset += recordSize;
+            }
+
+            stream.addAll(locations);
+            streams.putIfAbsent(streamId, stream);
+            log.addAll(locations);
+            version = streamVersion;
+            batch = ++appendedBatches;
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (forceOnAppend) {
+            force(batch);
+        }
+
+        return version;
+    }
+
+    public long getVersion(String streamId) {
+        if (streamId == null) {
+            throw new NullPointerException("You must provide a stream id");
+        }
+
+        Stream stream = streams.get(streamId);
+        return stream == null ? 0 : stream.size();
+    }
+
+    public void replay(String streamId, long fromVersion, EventSubscriber subscriber) throws Exception {
+        if (subscriber == null) {
+            throw new NullPointerException("You must provide an event subscriber");
+        }
+
+        for (long location : locationsFrom(streamId, fromVersion)) {
+            subscriber.onEvent(read(location));
+        }
+    }
+
+    public void replay(String streamId, long fromVersion, SizedEventSubscriber subscriber) throws Exception {
+        if (subscriber == null) {
+            throw new NullPointerException("You must provide an event subscriber");
+        }
+
+        for (long location : locationsFrom(streamId, fromVersion)) {
+            subscriber.onEvent(read(location), payloadSize(location));
+        }
+    }
+
+    public long getSize(String streamId, long fromVersion, long toVersion) {
+        if (toVersion < fromVersion) {
+            throw new IllegalArgumentException("You must provide a version range ending at or after its start");
+        }
+
+        final long[] locations = locationsFrom(streamId, fromVersion);
+        final int count = (int) Math.min(locations.length, toVersion - fromVersion);
+        long size = 0;
+
+        for (int i = 0; i < count; i++) {
+            size += payloadSize(locations[i]);
+        }
+
+        return size;
+    }
+
+    public long getPosition() {
+        return log.size();
+    }
+
+    /**
+     * Reads the log in chunks of locations, so that reading a large log does not copy all of its locations at once.
+     */
+    public void readAll(long fromPosition, StoredEventSubscriber subscriber) throws Exception {
+        if (fromPosition < 0) {
+            throw new IllegalArgumentException("You must provide a position of at least 0");
+        }
+
+        if (subscriber == null) {
+            throw new NullPointerException("You must provide a stored event subscriber");
+        }
+
+        checkOpen();
+
+        long position = fromPosition;
+        long[] locations;
+
+        do {
+            locations = log.locationsFrom(position, READ_ALL_CHUNK);
+
+            for (long location : locations) {
+                final ByteBuffer buffer = segments.get(segmentNumber(location)).buffer.duplicate();
+                final int bodyOffset = segmentOffset(location) + HEADER_SIZE;
+                final byte[] id = new byte[buffer.getShort(bodyOffset + 12) & 0xffff];
+
+                buffer.position(bodyOffset + FIXED_BODY_SIZE);
+                buffer.get(id);
+
+                subscriber.onEvent(new String(id, UTF_8), buffer.getLong(bodyOffset), ++position, read(location));
+            }
+        } while (locations.length == READ_ALL_CHUNK);
+    }
+
+    /**
+     * Forces all appended events to disk and closes the store.
+     */
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            current.buffer.force();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private long[] locationsFrom(String streamId, long fromVersion) {
+        if (streamId == null) {
+            throw new NullPointerException("You must provide a stream id");
+        }
+
+        if (fromVersion < 0) {
+            throw new IllegalArgumentException("You must provide a version of at least 0");
+        }
+
+        checkOpen();
+
+        Stream stream = streams.get(streamId);
+        return stream == null ? new long[0] : stream.locationsFrom(fromVersion);
+    }
+
+    /**
+     * @return The size of the serialized event of the record at the given location.
+     */
+    private int payloadSize(long location) {
+        final ByteBuffer buffer = segments.get(segmentNumber(location)).buffer;
+        final int offset = segmentOffset(location);
+        return buffer.getInt(offset) - FIXED_BODY_SIZE - (buffer.getShort(offset + HEADER_SIZE + 12) & 0xffff);
+    }
+
+    private Event read(long location) throws Exception {
+        final ByteBuffer buffer = segments.get(segmentNumber(location)).buffer.duplicate();
+        final int offset = segmentOffset(location);
+        final int bodyLength = buffer.getInt(offset);
+        final int idLength = buffer.getShort(offset + HEADER_SIZE + 12) & 0xffff;
+
+        buffer.limit(offset + HEADER_SIZE + bodyLength);
+        buffer.position(offset + HEADER_SIZE + FIXED_BODY_SIZE + idLength);
+        return serializer.deserialize(buffer.slice());
+    }
+
+    private static void write(ByteBuffer buffer, int offset, long version, int following, byte[] id, byte[] payload) {
+        final int bodyOffset = offset + HEADER_SIZE;
+        final int bodyLength = FIXED_BODY_SIZE + id.length + payload.length;
+
+        buffer.putLong(bodyOffset, version);
+        buffer.putInt(bodyOffset + 8, following);
+        buffer.putShort(bodyOffset + 12, (short) id.length);
+
+        ByteBuffer body = buffer.duplicate();
+        body.position(bodyOffset + FIXED_BODY_SIZE);
+        body.put(id);
+        body.put(payload);
+
+        buffer.putInt(offset + 4, checksum(buffer, bodyOffset, bodyLength));
+        buffer.putInt(offset, bodyLength);
+    }
+
+    private static int checksum(ByteBuffer buffer, int bodyOffset, int bodyLength) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(bodyOffset + bodyLength);
+        body.position(bodyOffset);
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private void force(long batch) {
+        synchronized (forceLock) {
+            if (forcedBatches >= batch) {
+                return;
+            }
+
+            long appended = appendedBatches;
+            current.buffer.force();
+            forcedBatches = appended;
+        }
+    }
+
+    private void roll() throws IOException {
+        current.buffer.force();
+
+        final int next = current.number + 1;
+        current = next < segments.size() ? segments.get(next) : openSegment(next);
+        writeOffset = 0;
+    }
+
+    private void recover() throws IOException {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+
+        for (int number = 0; number < files.length; number++) {
+            if (!files[number].getName().equals(segmentName(number))) {
+                throw new IOException("Segment " + segmentName(number) + " is missing in " + directory);
+            }
+
+            openSegment(number);
+        }
+
+        if (segments.isEmpty()) {
+            current = openSegment(0);
+            writeOffset = 0;
+            return;
+        }
+
+        final List<String> batchStreams = new ArrayList<String>();
+        final List<Long> batchLocations = new ArrayList<Long>();
+        long end = location(0, 0);
+        boolean torn = false;
+
+        records:
+        for (Segment segment : segments) {
+            final MappedByteBuffer buffer = segment.buffer;
+            int offset = 0;
+
+            while (offset + HEADER_SIZE + FIXED_BODY_SIZE <= segmentSize) {
+                final int bodyLength = buffer.getInt(offset);
+
+                if (bodyLength == 0) {
+                    break;
+                }
+
+                final int bodyOffset = offset + HEADER_SIZE;
+
+                if (bodyLength < FIXED_BODY_SIZE
+                        || bodyOffset + bodyLength > segmentSize
+                        || (buffer.getShort(bodyOffset + 12) & 0xffff) > bodyLength - FIXED_BODY_SIZE
+                        || buffer.getInt(offset + 4) != checksum(buffer, bodyOffset, bodyLength)) {
+                    torn = true;
+                    break records;
+                }
+
+                final byte[] id = new byte[buffer.getShort(bodyOffset + 12) & 0xffff];
+                ByteBuffer body = buffer.duplicate();
+                body.position(bodyOffset + FIXED_BODY_SIZE);
+                body.get(id);
+
+                batchStreams.add(new String(id, UTF_8));
+                batchLocations.add(location(segment.number, offset));
+                offset = bodyOffset + bodyLength;
+
+                if (buffer.getInt(bodyOffset + 8) == 0) {
+                    for (int i = 0; i < batchStreams.size(); i++) {
+                        Stream stream = streams.get(batchStreams.get(i));
+                        if (stream == null) {
+                            stream = new Stream();
+                            streams.put(batchStreams.get(i), stream);
+                        }
+
+                        stream.addAll(new long[]{batchLocations.get(i)});
+                        log.addAll(new long[]{batchLocations.get(i)});
+                    }
+
+                    batchStreams.clear();
+                    batchLocations.clear();
+                    end = location(segment.number, offset);
+                }
+            }
+        }
+
+        if (!batchLocations.isEmpty()) {
+            logger.warn("Discarding " + batchLocations.size() + " events of an incomplete batch");
+            torn = true;
+        }
+
+        current = segments.get(segmentNumber(end));
+        writeOffset = segmentOffset(end);
+
+        if (torn) {
+            truncate();
+        }
+
+        logger.info("Recovered " + streams.size() + " streams from " + segments.size() + " segments");
+    }
+
+    /**
+     * Clears everything following the write position, so that no stale records are read on the next recovery.
+     */
+    private void truncate() {
+        for (int number = current.number; number < segments.size(); number++) {
+            MappedByteBuffer buffer = segments.get(number).buffer;
+
+            for (int offset = number == current.number ? writeOffset : 0; offset < segmentSize; offset++) {
+                buffer.put(offset, (byte) 0);
+            }
+
+            buffer.force();
+        }
+    }
+
+    private Segment openSegment(int number) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(new File(directory, segmentName(number)), "rw");
+        try {
+            if (file.length() != segmentSize) {
+                if (file.length() > 0) {
+                    throw new IOException("Segment " + segmentName(number) + " does not have the segment size of " + segmentSize + " bytes");
+                }
+
+                file.setLength(segmentSize);
+            }
+
+            Segment segment = new Segment(number, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+            segments.add(segment);
+            return segment;
+        } finally {
+            file.close();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("You tried to use a closed event store");
+        }
+    }
+
+    private static long recordSize(int idLength, int payloadLength) {
+        return (long) HEADER_SIZE + FIXED_BODY_SIZE + idLength + payloadLength;
+    }
+
+    private static String segmentName(int number) {
+        return String.format("%010d%s", number, SEGMENT_SUFFIX);
+    }
+
+    private static long location(int segmentNumber, int offset) {
+        return ((long) segmentNumber << 32) | offset;
+    }
+
+    private static int segmentNumber(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int segmentOffset(long location) {
+        return (int) location;
+    }
+
+    private static final class Segment {
+        private final int number;
+        private final MappedByteBuffer buffer;
+
+        private Segment(int number, MappedByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * The locations of the records of a stream in the log, where the record of version <code>n</code> is found at
+     * index <code>n - 1</code>. The locations of all records are kept the same way, indexed by their position.
+     */
+    private static final class Stream {
+        private long[] locations = new long[8];
+        private int size;
+
+        private synchronized int size() {
+            return size;
+        }
+
+        private synchronized void addAll(long[] added) {
+            if (size + added.length > locations.length) {
+                locations = Arrays.copyOf(locations, Math.max(locations.length * 2, size + added.length));
+            }
+
+            System.arraycopy(added, 0, locations, size, added.length);
+            size += added.length;
+        }
+
+        private synchronized long[] locationsFrom(long version) {
+            return locationsFrom(version, Integer.MAX_VALUE);
+        }
+
+        private synchronized long[] locationsFrom(long version, int max) {
+            return version >= size ? new long[0] : Arrays.copyOfRange(locations, (int) version, (int) Math.min(size, version + max));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.EventSubscriber;
+
+/**
+ * A metrics recorder receives measurements from the hot paths of command dispatchers and event publishers. The
+ * methods are called by the executing threads, so implementations must be thread safe, must not block and should not
+ * allocate.
+ * <p/>
+ * Components skip all measurements if they are given <code>NO_OP</code>, which is their default.
+ */
+public interface MetricsRecorder {
+    /**
+     * A recorder discarding all measurements.
+     */
+    MetricsRecorder NO_OP = new MetricsRecorder() {
+        public void commandExecuted(Class<?> commandType, long durationNanos) {
+        }
+
+        public void commandFailed(Class<?> commandType, long durationNanos) {
+        }
+
+        public void eventDelivered(long latencyNanos) {
+        }
+
+        public void queueOccupancy(int size, int capacity) {
+        }
+
+        public void subscriberAdded(EventSubscriber subscriber) {
+        }
+
+        public void subscriberNotified(EventSubscriber subscriber, long durationNanos) {
+        }
+
+        public void subscriberRemoved(EventSubscriber subscriber) {
+        }
+    };
+
+    /**
+     * @param commandType The class of the successfully executed command.
+     * @param durationNanos The execution time of the command handler.
+     */
+    void commandExecuted(Class<?> commandType, long durationNanos);
+
+    /**
+     * @param commandType The class of the command whose handler failed.
+     * @param durationNanos The execution time of the command handler until it failed.
+     */
+    void commandFailed(Class<?> commandType, long durationNanos);
+
+    /**
+     * @param latencyNanos The time from publishing an event until its delivery started.
+     */
+    void eventDelivered(long latencyNanos);
+
+    /**
+     * @param size The number of events taken from the queue at once.
+     * @param capacity The capacity of the queue.
+     */
+    void queueOccupancy(int size, int capacity);
+
+    /**
+     * Called when a subscriber is added to a publisher, before it is notified for the first time. Unlike the other
+     * methods, it is not called on a hot path and may allocate.
+     *
+     * @param subscriber The added subscriber.
+     */
+    void subscriberAdded(EventSubscriber subscriber);
+
+    /**
+     * @param subscriber The notified subscriber.
+     * @param durationNanos The time the subscriber took to process an event or a batch of events.
+     */
+    void subscriberNotified(EventSubscriber subscriber, long durationNanos);
+
+    /**
+     * Called when a subscriber is removed from a publisher, so that its measurements can be discarded.
+     *
+     * @param subscriber The removed subscriber.
+     */
+    void subscriberRemoved(EventSubscriber subscriber);
+}
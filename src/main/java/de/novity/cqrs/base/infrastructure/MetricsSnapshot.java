@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The values of the metrics recorded by <code>InMemoryMetrics</code> at a point in time. All times are in
+ * nanoseconds. <code>toString</code> renders all metrics as lines of text.
+ */
+public final class MetricsSnapshot {
+    private final Map<String, LatencyHistogram.Snapshot> commandLatencies;
+    private final Map<String, Long> commandFailures;
+    private final LatencyHistogram.Snapshot deliveryLatency;
+    private final LatencyHistogram.Snapshot queueOccupancy;
+    private final int queueCapacity;
+    private final Map<String, LatencyHistogram.Snapshot> subscriberTimes;
+
+    MetricsSnapshot(Map<String, LatencyHistogram.Snapshot> commandLatencies, Map<String, Long> commandFailures,
+                    LatencyHistogram.Snapshot deliveryLatency, LatencyHistogram.Snapshot queueOccupancy,
+                    int queueCapacity, Map<String, LatencyHistogram.Snapshot> subscriberTimes) {
+        this.commandLatencies = Collections.unmodifiableMap(commandLatencies);
+        this.commandFailures = Collections.unmodifiableMap(commandFailures);
+        this.deliveryLatency = deliveryLatency;
+        this.queueOccupancy = queueOccupancy;
+        this.queueCapacity = queueCapacity;
+        this.subscriberTimes = Collections.unmodifiableMap(subscriberTimes);
+    }
+
+    /**
+     * @return The execution times of the command handlers by command class name.
+     */
+    public Map<String, LatencyHistogram.Snapshot> getCommandLatencies() {
+        return commandLatencies;
+    }
+
+    /**
+     * @return The number of failed command executions by command class name.
+     */
+    public Map<String, Long> getCommandFailures() {
+        return commandFailures;
+    }
+
+    /**
+     * @return The times from publishing events until their delivery started.
+     */
+    public LatencyHistogram.Snapshot getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    /**
+     * @return The numbers of events taken from the publisher queue at once.
+     */
+    public LatencyHistogram.Snapshot getQueueOccupancy() {
+        return queueOccupancy;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return The processing times of the subscribers by their string representation followed by a unique number.
+     */
+    public Map<String, LatencyHistogram.Snapshot> getSubscriberTimes() {
+        return subscriberTimes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : commandLatencies.entrySet()) {
+            text.append("command ").append(entry.getKey()).append(' ').append(entry.getValue())
+                    .append(" failures=").append(commandFailures.get(entry.getKey())).append('\n');
+        }
+
+        text.append("delivery ").append(deliveryLatency).append('\n');
+        text.append("queue ").append(queueOccupancy).append(" capacity=").append(queueCapacity).append('\n');
+
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : subscriberTimes.entrySet()) {
+            text.append("subscriber ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+
+        return text.toString();
+    }
+}
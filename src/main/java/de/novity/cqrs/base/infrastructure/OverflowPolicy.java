@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An overflow policy defines what happens to published events if the event queue of a publisher is full. Create the
+ * policy by one of the factory methods:
+ * <ul>
+ * <li><code>block()</code> waits until there is space in the queue.</li>
+ * <li><code>blockWithTimeout(timeout, unit)</code> waits for the given time and then fails with an
+ * <code>EventQueueFullException</code>.</li>
+ * <li><code>failFast()</code> fails with an <code>EventQueueFullException</code> immediately.</li>
+ * <li><code>dropOldest()</code> removes the oldest queued events to make room for the published events.</li>
+ * <li><code>dropNewest()</code> discards the published events.</li>
+ * <li><code>spillToDisk(file)</code> appends the published events to an overflow file, which is drained back into the
+ * queue in order once there is space again.</li>
+ * </ul>
+ * Dropped events are counted and available by <code>getDroppedEventCount</code>. A policy holds state of its own and
+ * must not be shared between publishers.
+ */
+public abstract class OverflowPolicy {
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    OverflowPolicy() {
+    }
+
+    public static OverflowPolicy block() {
+        return new OverflowPolicy() {
+            @Override
+            void put(EventQueue queue, Event event) throws Exception {
+                queue.put(event);
+            }
+
+            @Override
+            void put(EventQueue queue, List<Event> events) throws Exception {
+                queue.putAll(events);
+            }
+        };
+    }
+
+    public static OverflowPolicy blockWithTimeout(final long timeout, final TimeUnit unit) {
+        return new ChunkingOverflowPolicy() {
+            @Override
+            void putChunk(EventQueue queue, List<Event> events) throws Exception {
+                if (!queue.offerAll(events, timeout, unit)) {
+                    throw new EventQueueFullException("Event queue is still full after " + timeout + " " + unit, events.size());
+                }
+            }
+        };
+    }
+
+    public static OverflowPolicy failFast() {
+        return new ChunkingOverflowPolicy() {
+            @Override
+            void putChunk(EventQueue queue, List<Event> events) throws Exception {
+                if (!queue.offerAll(events, 0, TimeUnit.NANOSECONDS)) {
+                    throw new EventQueueFullException("Event queue is full", events.size());
+                }
+            }
+        };
+    }
+
+    public static OverflowPolicy dropOldest() {
+        return new ChunkingOverflowPolicy() {
+            @Override
+            void putChunk(EventQueue queue, List<Event> events) throws Exception {
+                while (!queue.offerAll(events, 0, TimeUnit.NANOSECONDS)) {
+                    if (queue.poll() != null) {
+                        dropped(1);
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+    }
+
+    public static OverflowPolicy dropNewest() {
+        return new ChunkingOverflowPolicy() {
+            @Override
+            void putChunk(EventQueue queue, List<Event> events) throws Exception {
+                if (!queue.offerAll(events, 0, TimeUnit.NANOSECONDS)) {
+                    dropped(events.size());
+                }
+            }
+        };
+    }
+
+    /**
+     * @param file The overflow file. An existing file is truncated when the first events are spilled.
+     * @return A policy spilling events to the given file while the event queue is full.
+     */
+    public static OverflowPolicy spillToDisk(File file) {
+        return new SpillingOverflowPolicy(file);
+    }
+
+    /**
+     * @return The number of published events that were dropped by this policy.
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Puts a single published event into the queue, applying this policy if the queue is full.
+     */
+    void put(EventQueue queue, Event event) throws Exception {
+        put(queue, Collections.singletonList(event));
+    }
+
+    /**
+     * Puts the published events into the queue as one unit, applying this policy if the queue is full.
+     */
+    abstract void put(EventQueue queue, List<Event> events) throws Exception;
+
+    /**
+     * Called by the consuming thread after it drained the queue, giving the policy the chance to move events it
+     * holds back into the queue.
+     */
+    void refill(EventQueue queue) throws Exception {
+    }
+
+    void dropped(int count) {
+        droppedEvents.addAndGet(count);
+    }
+
+    /**
+     * Base class of the policies that offer events to the queue, splitting lists exceeding the capacity of the queue.
+     */
+    private abstract static class ChunkingOverflowPolicy extends OverflowPolicy {
+        @Override
+        void put(EventQueue queue, List<Event> events) throws Exception {
+            final int capacity = queue.capacity();
+
+            if (events.size() <= capacity) {
+                putChunk(queue, events);
+                return;
+            }
+
+            for (int offset = 0; offset < events.size(); offset += capacity) {
+                putChunk(queue, events.subList(offset, Math.min(events.size(), offset + capacity)));
+            }
+        }
+
+        abstract void putChunk(EventQueue queue, List<Event> events) throws Exception;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A wait strategy that spins, then yields and finally parks the waiting thread. The park time doubles on every
+ * attempt until it reaches the configured maximum.
+ */
+public class ParkingWaitStrategy implements WaitStrategy {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long MIN_PARK_NANOS = 1000;
+
+    private final long maxParkNanos;
+
+    public ParkingWaitStrategy() {
+        this(1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maxPark The maximum time a waiting thread is parked at once.
+     * @param unit The time unit of the maximum park time.
+     */
+    public ParkingWaitStrategy(long maxPark, TimeUnit unit) {
+        this.maxParkNanos = Math.max(MIN_PARK_NANOS, unit.toNanos(maxPark));
+    }
+
+    public void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        int counter = SPIN_TRIES + YIELD_TRIES;
+        long parkNanos = MIN_PARK_NANOS;
+
+        while (!condition.getAsBoolean()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            if (counter > YIELD_TRIES) {
+                counter--;
+            } else if (counter > 0) {
+                counter--;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+            }
+        }
+    }
+
+    public boolean waitUntil(BooleanSupplier condition, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int counter = SPIN_TRIES + YIELD_TRIES;
+        long parkNanos = MIN_PARK_NANOS;
+
+        while (!condition.getAsBoolean()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            final long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                return false;
+            }
+
+            if (counter > YIELD_TRIES) {
+                counter--;
+            } else if (counter > 0) {
+                counter--;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(Math.min(parkNanos, remaining));
+                parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+            }
+        }
+
+        return true;
+    }
+
+    public void signalAll() {
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+
+/**
+ * A partition key extractor determines the partition an event is delivered on. Events with equal partition keys are
+ * delivered in the order they were published, events with different keys may be delivered in parallel.
+ * <p/>
+ * Usually the partition key is the identity of the root aggregate that created the event. See the following example:
+ * <p/>
+ * <pre>{@code
+ * public class OrderIdExtractor implements PartitionKeyExtractor {
+ *   public Object getPartitionKey(Event event) {
+ *     return ((OrderEvent) event).orderId;
+ *   }
+ * }
+ * }</pre>
+ */
+public interface PartitionKeyExtractor {
+    /**
+     * @param event The event to be published
+     * @return The partition key of the event. A <code>null</code> key is delivered on the first partition.
+     */
+    Object getPartitionKey(Event event);
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventPublisherService;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An in memory implementation of an event publisher that delivers events on several threads in parallel. Each
+ * published event is routed to one of the partitions by the partition key returned by a
+ * <code>PartitionKeyExtractor</code>. Every partition is backed by its own blocking queue and thread, so events with
+ * the same partition key are delivered in order whereas events with different partition keys are delivered in
+ * parallel. A published list of events is split by partition and put into the queue of each partition as one unit.
+ * <p/>
+ * Because subscribers are notified from several threads, registered event subscribers must be thread safe.
+ * Subscribers implementing <code>TypedEventSubscriber</code> are only notified about events of their declared types.
+ */
+public class PartitionedEventPublisherService implements EventPublisherService {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedEventPublisherService.class);
+
+    private final PartitionKeyExtractor keyExtractor;
+    private final int partitionCount;
+    private final int queueCapacity;
+    private final SubscriberRegistry subscribers;
+    private final EventPublisherImpl eventPublisher;
+    private final Partition[] partitions;
+    private boolean started;
+
+    /**
+     * Creates a publisher with one partition per available processor.
+     *
+     * @param keyExtractor Extracts the partition key from published events.
+     */
+    public PartitionedEventPublisherService(PartitionKeyExtractor keyExtractor) {
+        this(keyExtractor, Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    /**
+     * @param keyExtractor Extracts the partition key from published events.
+     * @param partitionCount The number of partitions and therefore delivering threads.
+     * @param queueCapacity The capacity of the queue of each partition.
+     */
+    public PartitionedEventPublisherService(PartitionKeyExtractor keyExtractor, int partitionCount, int queueCapacity) {
+        if (keyExtractor == null) {
+            throw new NullPointerException("You must provide a partition key extractor");
+        }
+
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("Partition count must be positive, but was " + partitionCount);
+        }
+
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive, but was " + queueCapacity);
+        }
+
+        this.keyExtractor = keyExtractor;
+        this.partitionCount = partitionCount;
+        this.queueCapacity = queueCapacity;
+        this.subscribers = new SubscriberRegistry();
+        this.eventPublisher = new EventPublisherImpl();
+        this.partitions = createPartitions();
+        this.started = false;
+        logger.info("PartitionedPublisher created with " + partitionCount + " partitions");
+    }
+
+    public void start() {
+        if (isRunning()) {
+            throw new IllegalStateException("Publisher is already started");
+        }
+
+        for (Partition partition : partitions) {
+            partition.start();
+        }
+
+        started = true;
+        logger.info("Publisher started");
+    }
+
+    public void stop() {
+        if (!isRunning()) {
+            throw new IllegalStateException("Publisher is not started");
+        }
+
+        try {
+            for (Partition partition : partitions) {
+                partition.interrupt();
+            }
+
+            for (Partition partition : partitions) {
+                partition.join(1000);
+            }
+
+            logger.info("Publisher stopped");
+        } catch (InterruptedException e) {
+            logger.error("Failed to stop publisher", e);
+        } finally {
+            started = false;
+        }
+    }
+
+    public boolean isRunning() {
+        return started;
+    }
+
+    public EventPublisher getPublisher() {
+        return eventPublisher;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    private Partition[] createPartitions() {
+        Partition[] result = new Partition[partitionCount];
+
+        for (int i = 0; i < partitionCount; i++) {
+            result[i] = new Partition(i);
+        }
+
+        return result;
+    }
+
+    private Partition partitionOf(Event event) {
+        Object key = keyExtractor.getPartitionKey(event);
+
+        if (key == null) {
+            return partitions[0];
+        }
+
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return partitions[(hash & 0x7fffffff) % partitionCount];
+    }
+
+    private class EventPublisherImpl implements EventPublisher {
+        public void addSubscriber(EventSubscriber subscriber) {
+            subscribers.add(subscriber);
+            logger.debug("Added subscriber " + subscriber);
+        }
+
+        public void removeSubscriber(EventSubscriber subscriber) {
+            subscribers.remove(subscriber);
+            logger.debug("Removed subscriber " + subscriber);
+        }
+
+        public void publish(Event event) throws Exception {
+            partitionOf(event).eventQueue.put(event);
+        }
+
+        public void publish(List<Event> events) throws Exception {
+            if (events.isEmpty()) {
+                return;
+            }
+
+            Partition first = partitionOf(events.get(0));
+            Partition[] routes = null;
+
+            for (int i = 1; i < events.size(); i++) {
+                Partition partition = partitionOf(events.get(i));
+
+                if (routes == null && partition != first) {
+                    routes = new Partition[events.size()];
+                    Arrays.fill(routes, 0, i, first);
+                }
+
+                if (routes != null) {
+                    routes[i] = partition;
+                }
+            }
+
+            if (routes == null) {
+                first.eventQueue.putAll(events);
+                return;
+            }
+
+            for (Partition partition : partitions) {
+                List<Event> partitionEvents = new ArrayList<Event>();
+
+                for (int i = 0; i < routes.length; i++) {
+                    if (routes[i] == partition) {
+                        partitionEvents.add(events.get(i));
+                    }
+                }
+
+                if (!partitionEvents.isEmpty()) {
+                    partition.eventQueue.putAll(partitionEvents);
+                }
+            }
+        }
+    }
+
+    /**
+     * A partition owns the queue of its events. The delivering thread is created on each start, so that queued events
+     * survive a restart of the service.
+     */
+    private class Partition implements Runnable {
+        private final int index;
+        private final EventQueue eventQueue;
+        private Thread thread;
+
+        private Partition(int index) {
+            this.index = index;
+            this.eventQueue = new BlockingEventQueue(queueCapacity);
+        }
+
+        private void start() {
+            thread = new Thread(this, "publisher-" + index);
+            thread.start();
+        }
+
+        private void interrupt() {
+            thread.interrupt();
+        }
+
+        private void join(long millis) throws InterruptedException {
+            thread.join(millis);
+        }
+
+        public void run() {
+            final Thread currentThread = Thread.currentThread();
+            final List<Event> batch = new ArrayList<Event>(queueCapacity);
+            final EventDelivery delivery = new EventDelivery(subscribers);
+
+            do {
+                try {
+                    eventQueue.drainTo(batch, queueCapacity);
+                    delivery.deliver(batch);
+                    batch.clear();
+                } catch (InterruptedException e) {
+                    currentThread.interrupt();
+                }
+            } while (!currentThread.isInterrupted());
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.CheckpointStore;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventStore;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.Projection;
+import de.novity.cqrs.base.api.StoredEventSubscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Feeds a projection with the events of an event store, keeping track of the position of the last processed event.
+ * <p/>
+ * On <code>start</code>, the runner loads the checkpoint of the projection and passes all events stored since then.
+ * Afterwards it follows live events: add the runner as subscriber to the publisher the stored events are published
+ * by. A live event only signals that the store may hold new events, which are then read from the store in the order of
+ * the log, so events published in a different order than they were stored or missed by a failing projection are
+ * processed in order, and events that were not stored are ignored. The publishing thread never waits for the runner:
+ * if another thread is already catching up or the projection is being rebuilt, that thread reads the new events when
+ * it is done. Live events are ignored until the runner is started, as they are read from the store anyway.
+ * <p/>
+ * The checkpoint is saved after catching up, every <code>checkpointInterval</code> events and on <code>stop</code>.
+ * <p/>
+ * <code>rebuild</code> resets the projection and passes all stored events again. The events are read by the calling
+ * thread and processed by a number of worker threads, each of them responsible for the streams whose id hashes to
+ * it, so that the events of one aggregate are processed in order. Live events arriving during a rebuild are read from
+ * the store afterwards. If the rebuild fails, the runner is left stopped with the projection reset and its checkpoint at
+ * 0, so that a half-rebuilt projection never receives further events. Once a worker failed, the reading thread stops
+ * waiting for the workers to take further events, so that a worker that died never blocks the rebuild.
+ */
+public class ProjectionRunner implements EventSubscriber {
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(ProjectionRunner.class);
+    private static final int REBUILD_QUEUE_CAPACITY = 1024;
+    private static final long REBUILD_OFFER_MILLIS = 100;
+    private static final Event END_OF_REBUILD = new Event() {
+    };
+
+    private final Projection projection;
+    private final EventStore eventStore;
+    private final CheckpointStore checkpointStore;
+    private final int checkpointInterval;
+    private final ReentrantLock lock;
+    private final AtomicBoolean pending;
+    private final StoredEventSubscriber catchUpSubscriber;
+    private volatile long position;
+    private long checkpoint;
+    private volatile boolean running;
+
+    public ProjectionRunner(Projection projection, EventStore eventStore, CheckpointStore checkpointStore) {
+        this(projection, eventStore, checkpointStore, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * @param projection The projection fed by this runner.
+     * @param eventStore The store the events are read from.
+     * @param checkpointStore The store of the checkpoint of the projection.
+     * @param checkpointInterval The number of processed events after which the checkpoint is saved.
+     */
+    public ProjectionRunner(Projection projection, EventStore eventStore, CheckpointStore checkpointStore, int checkpointInterval) {
+        if (projection == null) {
+            throw new NullPointerException("You must provide a projection");
+        }
+
+        if (eventStore == null) {
+            throw new NullPointerException("You must provide an event store");
+        }
+
+        if (checkpointStore == null) {
+            throw new NullPointerException("You must provide a checkpoint store");
+        }
+
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("You must provide a checkpoint interval of at least 1");
+        }
+
+        this.projection = projection;
+        this.eventStore = eventStore;
+        this.checkpointStore = checkpointStore;
+        this.checkpointInterval = checkpointInterval;
+        this.lock = new ReentrantLock();
+        this.pending = new AtomicBoolean(false);
+        this.catchUpSubscriber = new StoredEventSubscriber() {
+            public void onEvent(String streamId, long version, long position, Event event) throws Exception {
+                process(event, position);
+            }
+        };
+        this.running = false;
+    }
+
+    /**
+     * Passes the events stored since the last checkpoint to the projection and starts processing live events.
+     */
+    public void start() throws Exception {
+        lock.lock();
+
+        try {
+            if (running) {
+                throw new IllegalStateException("Projection runner is already started");
+            }
+
+            position = checkpointStore.load(projection.getName());
+            checkpoint = position;
+            catchUp();
+
+            running = true;
+            catchUp();
+            saveCheckpoint();
+            logger.info("Projection " + projection.getName() + " started at position " + position);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops processing live events and saves the checkpoint.
+     */
+    public void stop() throws Exception {
+        lock.lock();
+
+        try {
+            if (!running) {
+                throw new IllegalStateException("Projection runner is not started");
+            }
+
+            running = false;
+            saveCheckpoint();
+            logger.info("Projection " + projection.getName() + " stopped at position " + position);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return The position of the last event processed by the projection.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Reads the events stored since the last processed one, unless another thread is already doing so, which then
+     * reads them as well. Failures are logged, and the failed event is read from the store again when the next live
+     * event arrives.
+     */
+    public void onEvent(Event event) {
+        if (!running) {
+            return;
+        }
+
+        pending.set(true);
+
+        while (pending.get() && lock.tryLock()) {
+            try {
+                if (!running) {
+                    return;
+                }
+
+                pending.set(false);
+                catchUp();
+            } catch (Exception e) {
+                logger.error("Projection " + projection.getName() + " failed after position " + position, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the projection using one worker thread per available processor.
+     */
+    public void rebuild() throws Exception {
+        rebuild(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Resets the projection and passes all stored events to it again.
+     *
+     * @param threads The number of worker threads processing the events.
+     */
+    public void rebuild(int threads) throws Exception {
+        if (threads < 1) {
+            throw new IllegalArgumentException("You must provide at least 1 thread");
+        }
+
+        lock.lock();
+
+        try {
+            final boolean wasRunning = running;
+            running = false;
+
+            try {
+                projection.reset();
+                checkpointStore.save(projection.getName(), 0);
+                position = 0;
+                checkpoint = 0;
+
+                position = rebuildPartitioned(threads);
+                saveCheckpoint();
+                catchUp();
+                logger.info("Projection " + projection.getName() + " rebuilt up to position " + position);
+            } catch (Exception e) {
+                resetAfterFailedRebuild(e);
+                throw e;
+            } catch (Error e) {
+                resetAfterFailedRebuild(e);
+                throw e;
+            }
+
+            running = wasRunning;
+
+            if (wasRunning) {
+                catchUp();
+                saveCheckpoint();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Leaves the runner stopped at position 0 with an empty projection, so that it is neither continued from the
+     * position the rebuild stopped at nor fed with live events.
+     */
+    private void resetAfterFailedRebuild(Throwable failure) {
+        position = 0;
+        checkpoint = 0;
+
+        try {
+            projection.reset();
+            checkpointStore.save(projection.getName(), 0);
+        } catch (Exception e) {
+            failure.addSuppressed(e);
+        }
+
+        logger.error("Rebuilding projection " + projection.getName() + " failed, the runner is stopped", failure);
+    }
+
+    private long rebuildPartitioned(final int threads) throws Exception {
+        final List<BlockingQueue<Event>> queues = new ArrayList<BlockingQueue<Event>>(threads);
+        final List<Thread> workers = new ArrayList<Thread>(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final long[] lastPosition = new long[1];
+
+        for (int i = 0; i < threads; i++) {
+            final BlockingQueue<Event> queue = new ArrayBlockingQueue<Event>(REBUILD_QUEUE_CAPACITY);
+            final Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (Event event = queue.take(); event != END_OF_REBUILD; event = queue.take()) {
+                            if (failure.get() == null) {
+                                try {
+                                    projection.onEvent(event);
+                                } catch (Throwable e) {
+                                    failure.compareAndSet(null, e);
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failure.compareAndSet(null, e);
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "projection-" + projection.getName() + "-" + i);
+
+            worker.setDaemon(true);
+            worker.start();
+            queues.add(queue);
+            workers.add(worker);
+        }
+
+        try {
+            eventStore.readAll(0, new StoredEventSubscriber() {
+                public void onEvent(String streamId, long version, long position, Event event) throws Exception {
+                    final int partition = (streamId.hashCode() & Integer.MAX_VALUE) % threads;
+
+                    if (!offer(queues.get(partition), event, workers.get(partition), failure)) {
+                        rethrow(failure.get());
+                    }
+
+                    lastPosition[0] = position;
+                }
+            });
+        } finally {
+            for (int i = 0; i < threads; i++) {
+                offer(queues.get(i), END_OF_REBUILD, workers.get(i), null);
+            }
+
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+
+        if (failure.get() != null) {
+            rethrow(failure.get());
+        }
+
+        return lastPosition[0];
+    }
+
+    /**
+     * Waits for the queue of a rebuild worker to accept the given event.
+     *
+     * @param failure The failure of the rebuild, or <code>null</code> to keep waiting after a failure.
+     * @return <code>false</code> if the event was not queued because the rebuild failed or the worker is not alive.
+     */
+    private static boolean offer(BlockingQueue<Event> queue, Event event, Thread worker, AtomicReference<Throwable> failure) throws InterruptedException {
+        while (!queue.offer(event, REBUILD_OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+            if ((failure != null && failure.get() != null) || !worker.isAlive()) {
+                return false;
+            }
+        }
+
+        return failure == null || failure.get() == null;
+    }
+
+    private static void rethrow(Throwable failure) throws Exception {
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+
+        throw (Exception) failure;
+    }
+
+    private void catchUp() throws Exception {
+        eventStore.readAll(position, catchUpSubscriber);
+    }
+
+    private void process(Event event, long position) throws Exception {
+        projection.onEvent(event);
+        this.position = position;
+
+        if (position - checkpoint >= checkpointInterval) {
+            saveCheckpoint();
+        }
+    }
+
+    private void saveCheckpoint() throws Exception {
+        if (position != checkpoint) {
+            checkpointStore.save(projection.getName(), position);
+            checkpoint = position;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A retry policy decides whether and when a command failing with a <code>ConcurrencyException</code> is executed
+ * again. Create the policy by one of the factory methods:
+ * <ul>
+ * <li><code>never()</code> does not retry.</li>
+ * <li><code>immediately(maxAttempts)</code> retries without waiting.</li>
+ * <li><code>withBackoff(maxAttempts, initialDelay, maxDelay, unit)</code> waits a random time up to an exponentially
+ * growing delay before each retry, so that conflicting commands do not collide again.</li>
+ * </ul>
+ * The number of attempts includes the first execution.
+ */
+public abstract class RetryPolicy {
+    private final int maxAttempts;
+
+    RetryPolicy(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("You must allow at least 1 attempt");
+        }
+
+        this.maxAttempts = maxAttempts;
+    }
+
+    public static RetryPolicy never() {
+        return immediately(1);
+    }
+
+    public static RetryPolicy immediately(int maxAttempts) {
+        return new RetryPolicy(maxAttempts) {
+            @Override
+            long delayNanos(int retry) {
+                return 0;
+            }
+        };
+    }
+
+    public static RetryPolicy withBackoff(int maxAttempts, long initialDelay, long maxDelay, TimeUnit unit) {
+        if (initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("You must provide an initial delay of at least 0 and a maximum delay of at least the initial delay");
+        }
+
+        final long initialNanos = unit.toNanos(initialDelay);
+        final long maxNanos = unit.toNanos(maxDelay);
+
+        return new RetryPolicy(maxAttempts) {
+            @Override
+            long delayNanos(int retry) {
+                long delay = initialNanos << Math.min(retry - 1, 30);
+
+                if (delay < 0 || delay > maxNanos) {
+                    delay = maxNanos;
+                }
+
+                return delay == 0 ? 0 : ThreadLocalRandom.current().nextLong(delay + 1);
+            }
+        };
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param retry The number of the retry, starting with 1.
+     * @return The time to wait before the retry in nanoseconds.
+     */
+    abstract long delayNanos(int retry);
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandDispatcher;
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.api.ConcurrencyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A command dispatcher executing commands again if they fail with a <code>ConcurrencyException</code>, i.e. if the
+ * affected root aggregate was changed by another command in the meantime.
+ * <p/>
+ * Each retry executes the command handler again, which reloads the root aggregate from its repository and applies
+ * the command to its current version. Command handlers must therefore not have side effects besides storing events.
+ * When the retry policy gives up, the <code>ConcurrencyException</code> is thrown to the caller.
+ */
+public class RetryingCommandDispatcher implements CommandDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(RetryingCommandDispatcher.class);
+
+    private final CommandDispatcher delegate;
+    private final RetryPolicy retryPolicy;
+    private final AtomicLong retries;
+
+    public RetryingCommandDispatcher(CommandDispatcher delegate, RetryPolicy retryPolicy) {
+        if (delegate == null) {
+            throw new NullPointerException("You must provide a delegate dispatcher");
+        }
+
+        if (retryPolicy == null) {
+            throw new NullPointerException("You must provide a retry policy");
+        }
+
+        this.delegate = delegate;
+        this.retryPolicy = retryPolicy;
+        this.retries = new AtomicLong();
+    }
+
+    public void registerHandler(Class commandType, CommandHandler handler) {
+        delegate.registerHandler(commandType, handler);
+    }
+
+    public void execute(Command command) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                delegate.execute(command);
+                return;
+            } catch (Exception e) {
+                if (attempt >= retryPolicy.getMaxAttempts() || conflictOf(e) == null) {
+                    throw e;
+                }
+
+                logger.debug("Retrying command " + command.getClass().getSimpleName() + " after conflict: " + conflictOf(e).getMessage());
+                retries.incrementAndGet();
+
+                long delay = retryPolicy.delayNanos(attempt);
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of retried command executions.
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    private static ConcurrencyException conflictOf(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConcurrencyException) {
+                return (ConcurrencyException) cause;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A lock-free event queue backed by a preallocated ring buffer.
+ * <p/>
+ * Producers claim a sequence number by advancing the claim sequence, store the event in the slot of the claimed
+ * sequence and finally mark the slot as published by writing the sequence number to it. The single consumer drains
+ * all consecutively published slots in one batch and releases them by advancing the consumer sequence with a
+ * compare-and-set, so that producers may concurrently remove the oldest event by <code>poll</code>. If only one
+ * thread ever puts events, the queue may be created for a single producer and claims sequences without a
+ * compare-and-set. A list of events is put by claiming all its sequences at once, so that events of other producers
+ * are not interleaved. The put times of the events are kept in a plain array parallel to the slots, written before a
+ * slot is marked as published, so stamping an event does not allocate.
+ * <p/>
+ * Producers waiting for free slots and the consumer waiting for published events use the configured
+ * <code>WaitStrategy</code>.
+ */
+public class RingBufferEventQueue implements EventQueue {
+    private final int capacity;
+    private final int mask;
+    private final boolean singleProducer;
+    private final WaitStrategy waitStrategy;
+    private final AtomicReferenceArray<Event> entries;
+    private final long[] putTimes;
+    private final AtomicLongArray published;
+    private final Sequence claimSequence;
+    private final Sequence consumerSequence;
+    private final BooleanSupplier slotAvailable;
+    private final BooleanSupplier eventAvailable;
+
+    /**
+     * Creates a ring buffer for several producers.
+     *
+     * @param capacity The number of slots, rounded up to the next power of two.
+     * @param waitStrategy The strategy used by waiting producers and the consumer.
+     */
+    public RingBufferEventQueue(int capacity, WaitStrategy waitStrategy) {
+        this(capacity, waitStrategy, false);
+    }
+
+    /**
+     * @param capacity The number of slots, rounded up to the next power of two.
+     * @param waitStrategy The strategy used by waiting producers and the consumer.
+     * @param singleProducer <code>true</code> if only a single thread is going to put events.
+     */
+    public RingBufferEventQueue(int capacity, WaitStrategy waitStrategy, boolean singleProducer) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30, but was " + capacity);
+        }
+
+        if (waitStrategy == null) {
+            throw new NullPointerException("You must provide a wait strategy");
+        }
+
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.singleProducer = singleProducer;
+        this.waitStrategy = waitStrategy;
+        this.entries = new AtomicReferenceArray<Event>(this.capacity);
+        this.putTimes = new long[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+        this.claimSequence = new Sequence();
+        this.consumerSequence = new Sequence();
+
+        for (int i = 0; i < this.capacity; i++) {
+            published.set(i, -1L);
+        }
+
+        this.slotAvailable = new BooleanSupplier() {
+            public boolean getAsBoolean() {
+                return claimSequence.get() - consumerSequence.get() < RingBufferEventQueue.this.capacity;
+            }
+        };
+        this.eventAvailable = new BooleanSupplier() {
+            public boolean getAsBoolean() {
+                long next = consumerSequence.get();
+                return published.get(index(next)) == next;
+            }
+        };
+    }
+
+    public void put(Event event) throws InterruptedException {
+        if (event == null) {
+            throw new NullPointerException("You tried to queue a null event");
+        }
+
+        final long now = System.nanoTime();
+        publish(claim(1, -1, TimeUnit.NANOSECONDS), event, now);
+        waitStrategy.signalAll();
+    }
+
+    public void putAll(List<Event> events) throws InterruptedException {
+        final int size = events.size();
+        int offset = 0;
+
+        checkNotNull(events);
+        final long now = System.nanoTime();
+
+        while (offset < size) {
+            final int chunk = Math.min(size - offset, capacity);
+            publish(claim(chunk, -1, TimeUnit.NANOSECONDS), events.subList(offset, offset + chunk), now);
+            offset += chunk;
+            waitStrategy.signalAll();
+        }
+    }
+
+    public boolean offerAll(List<Event> events, long timeout, TimeUnit unit) throws InterruptedException {
+        if (events.size() > capacity) {
+            throw new IllegalArgumentException("You tried to offer " + events.size() + " events exceeding the capacity of " + capacity);
+        }
+
+        checkNotNull(events);
+
+        if (events.isEmpty()) {
+            return true;
+        }
+
+        final long now = System.nanoTime();
+        final long first = claim(events.size(), Math.max(0, timeout), unit);
+
+        if (first < 0) {
+            return false;
+        }
+
+        publish(first, events, now);
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    public Event poll() {
+        while (true) {
+            final long next = consumerSequence.get();
+            final int index = index(next);
+
+            if (published.get(index) != next) {
+                return null;
+            }
+
+            Event event = entries.get(index);
+
+            if (consumerSequence.compareAndSet(next, next + 1)) {
+                entries.compareAndSet(index, event, null);
+                waitStrategy.signalAll();
+                return event;
+            }
+        }
+    }
+
+    public int drainTo(List<Event> batch, int maxEvents) throws InterruptedException {
+        return drainTo(batch, null, maxEvents);
+    }
+
+    public int drainTo(List<Event> batch, long[] putTimes, int maxEvents) throws InterruptedException {
+        while (true) {
+            waitStrategy.waitUntil(eventAvailable);
+
+            final long first = consumerSequence.get();
+            final int batchSize = batch.size();
+            long next = first;
+
+            while (next - first < maxEvents && published.get(index(next)) == next) {
+                if (putTimes != null) {
+                    putTimes[(int) (next - first)] = this.putTimes[index(next)];
+                }
+
+                batch.add(entries.get(index(next)));
+                next++;
+            }
+
+            if (next > first && consumerSequence.compareAndSet(first, next)) {
+                for (int i = batchSize; i < batch.size(); i++) {
+                    entries.compareAndSet(index(first + i - batchSize), batch.get(i), null);
+                }
+
+                waitStrategy.signalAll();
+                return (int) (next - first);
+            }
+
+            // A producer polled the oldest event concurrently, so the batch is read again
+            batch.subList(batchSize, batch.size()).clear();
+        }
+    }
+
+    public int size() {
+        return (int) Math.max(0, claimSequence.get() - consumerSequence.get());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private void publish(long sequence, Event event, long putTime) {
+        entries.lazySet(index(sequence), event);
+        putTimes[index(sequence)] = putTime;
+        published.set(index(sequence), sequence);
+    }
+
+    private void publish(long first, List<Event> events, long putTime) {
+        final int size = events.size();
+
+        for (int i = 0; i < size; i++) {
+            entries.lazySet(index(first + i), events.get(i));
+            putTimes[index(first + i)] = putTime;
+        }
+
+        for (int i = 0; i < size; i++) {
+            published.set(index(first + i), first + i);
+        }
+    }
+
+    /**
+     * Claims the given number of consecutive sequences.
+     *
+     * @param count The number of sequences to be claimed, not exceeding the capacity.
+     * @param timeout The maximum time to wait for free slots, a negative value to wait without a timeout.
+     * @param unit The time unit of the timeout.
+     * @return The first claimed sequence or <code>-1</code> if the timeout elapsed.
+     */
+    private long claim(final int count, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = timeout < 0 ? 0 : System.nanoTime() + unit.toNanos(timeout);
+        BooleanSupplier available = count == 1 ? slotAvailable : null;
+
+        while (true) {
+            long current = claimSequence.get();
+
+            if (current + count - consumerSequence.get() <= capacity) {
+                if (singleProducer) {
+                    claimSequence.lazySet(current + count);
+                    return current;
+                }
+
+                if (claimSequence.compareAndSet(current, current + count)) {
+                    return current;
+                }
+
+                continue;
+            }
+
+            if (available == null) {
+                available = new BooleanSupplier() {
+                    public boolean getAsBoolean() {
+                        return claimSequence.get() + count - consumerSequence.get() <= capacity;
+                    }
+                };
+            }
+
+            if (timeout < 0) {
+                waitStrategy.waitUntil(available);
+            } else if (!waitStrategy.waitUntil(available, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return -1;
+            }
+        }
+    }
+
+    private void checkNotNull(List<Event> events) {
+        for (Event event : events) {
+            if (event == null) {
+                throw new NullPointerException("You tried to queue a null event");
+            }
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) sequence & mask;
+    }
+
+    /**
+     * A sequence padded to its own cache line, so that producers and the consumer don't invalidate each others cache
+     * lines when advancing their sequences.
+     */
+    @SuppressWarnings("unused")
+    private static class Sequence extends AtomicLong {
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
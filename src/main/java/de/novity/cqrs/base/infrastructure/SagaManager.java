@@ -0,0 +1,420 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandDispatcher;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.Saga;
+import de.novity.cqrs.base.api.SagaFactory;
+import de.novity.cqrs.base.api.SagaStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A saga runtime passing published events to sagas and sending their commands through a command dispatcher.
+ * <p/>
+ * Saga types are registered with a factory, a <code>CorrelationKeyExtractor</code> and the event types starting a new
+ * saga. For every event, the runtime determines the correlation key of each saga type and looks up the sagas
+ * associated with it in the <code>SagaStore</code>. If there is no such saga and the event starts the saga type, a
+ * new saga associated with the key is created. Each saga handles the event, is stored or, once completed, removed, and
+ * then its commands are executed by the command dispatcher. A saga failing to handle an event is logged and left
+ * unchanged.
+ * <p/>
+ * Timeouts requested by sagas are scheduled in a <code>HierarchicalTimingWheel</code>, so that millions of pending
+ * timeouts cost constant time to schedule and cancel and no thread per timeout. Once started, a thread advances the
+ * wheel every tick and passes the expired timeouts to their sagas. The deadlines of the timeouts are taken from the
+ * wall clock and stored with their sagas, and <code>start</code> schedules the pending timeouts of the stored sagas
+ * again, so that timeouts survive a restart. Timeouts that expired in the meantime expire with the first tick. A saga
+ * failing to handle a timeout keeps the timeout pending, which is retried after 10 seconds. Sagas and timeouts are
+ * processed one at a time, commands are executed after releasing the lock, so a command handler may publish events
+ * handled by sagas again.
+ */
+public class SagaManager implements EventSubscriber {
+    private static final Logger logger = LoggerFactory.getLogger(SagaManager.class);
+    private static final long TIMEOUT_RETRY_DELAY = TimeUnit.SECONDS.toNanos(10);
+
+    private final CommandDispatcher commandDispatcher;
+    private final SagaStore sagaStore;
+    private final long tickNanos;
+    private final LongSupplier clock;
+    private final List<Registration> registrations;
+    private final Object lock;
+    private final HierarchicalTimingWheel<TimeoutKey> timingWheel;
+    private final Map<TimeoutKey, HierarchicalTimingWheel.Timeout<TimeoutKey>> timeouts;
+    private Ticker ticker;
+
+    /**
+     * Creates a runtime keeping the sagas in memory with a timer resolution of 10 milliseconds.
+     */
+    public SagaManager(CommandDispatcher commandDispatcher) {
+        this(commandDispatcher, new InMemorySagaStore(), 10, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param commandDispatcher The dispatcher executing the commands sent by sagas.
+     * @param sagaStore The store of the running sagas.
+     * @param tickDuration The resolution of timeouts.
+     * @param unit The time unit of the tick duration.
+     */
+    public SagaManager(CommandDispatcher commandDispatcher, SagaStore sagaStore, long tickDuration, TimeUnit unit) {
+        this(commandDispatcher, sagaStore, tickDuration, unit, new LongSupplier() {
+            public long getAsLong() {
+                return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+            }
+        });
+    }
+
+    SagaManager(CommandDispatcher commandDispatcher, SagaStore sagaStore, long tickDuration, TimeUnit unit, LongSupplier clock) {
+        if (commandDispatcher == null) {
+            throw new NullPointerException("You must provide a command dispatcher");
+        }
+
+        if (sagaStore == null) {
+            throw new NullPointerException("You must provide a saga store");
+        }
+
+        this.commandDispatcher = commandDispatcher;
+        this.sagaStore = sagaStore;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.clock = clock;
+        this.registrations = new CopyOnWriteArrayList<Registration>();
+        this.lock = new Object();
+        this.timingWheel = new HierarchicalTimingWheel<TimeoutKey>(tickDuration, unit, clock.getAsLong());
+        this.timeouts = new HashMap<TimeoutKey, HierarchicalTimingWheel.Timeout<TimeoutKey>>();
+    }
+
+    /**
+     * Registers a saga type.
+     *
+     * @param sagaType The type of saga.
+     * @param factory Creates new sagas of the type.
+     * @param keyExtractor Determines the correlation key of events for the saga type.
+     * @param startingEventTypes The types of events starting a new saga if no saga is associated with their key.
+     */
+    public <T extends Saga> void register(Class<T> sagaType, SagaFactory<T> factory, CorrelationKeyExtractor keyExtractor, Collection<Class<? extends Event>> startingEventTypes) {
+        if (sagaType == null) {
+            throw new NullPointerException("You must provide a saga type");
+        }
+
+        if (factory == null) {
+            throw new NullPointerException("You must provide a saga factory");
+        }
+
+        if (keyExtractor == null) {
+            throw new NullPointerException("You must provide a correlation key extractor");
+        }
+
+        if (startingEventTypes == null) {
+            throw new NullPointerException("You must provide the starting event types");
+        }
+
+        registrations.add(new Registration(sagaType, factory, keyExtractor, new ArrayList<Class<? extends Event>>(startingEventTypes)));
+    }
+
+    /**
+     * Schedules the pending timeouts of the stored sagas and starts the thread advancing the timing wheel.
+     */
+    public synchronized void start() throws Exception {
+        if (isRunning()) {
+            throw new IllegalStateException("Saga manager is already started");
+        }
+
+        schedulePendingTimeouts();
+        ticker = new Ticker();
+        ticker.start();
+        logger.info("Saga manager started");
+    }
+
+    public synchronized void stop() {
+        if (!isRunning()) {
+            throw new IllegalStateException("Saga manager is not started");
+        }
+
+        try {
+            ticker.interrupt();
+            ticker.join(1000);
+            logger.info("Saga manager stopped");
+        } catch (InterruptedException e) {
+            logger.error("Failed to stop saga manager", e);
+        } finally {
+            ticker = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return ticker != null;
+    }
+
+    /**
+     * @return The number of pending timeouts.
+     */
+    public int getTimeoutCount() {
+        synchronized (lock) {
+            return timingWheel.size();
+        }
+    }
+
+    public void onEvent(Event event) {
+        final List<Command> commands = new ArrayList<Command>();
+
+        synchronized (lock) {
+            for (Registration registration : registrations) {
+                final Object key = registration.keyExtractor.getKey(event);
+
+                if (key == null) {
+                    continue;
+                }
+
+                try {
+                    final Collection<String> sagaIds = sagaStore.find(registration.sagaType, key);
+
+                    if (sagaIds.isEmpty()) {
+                        if (registration.isStartedBy(event)) {
+                            final Saga saga = registration.factory.create(UUID.randomUUID().toString());
+                            saga.associateWith(key);
+                            handle(saga, event, commands);
+                        }
+
+                        continue;
+                    }
+
+                    for (String sagaId : sagaIds) {
+                        final Saga saga = sagaStore.load(sagaId);
+
+                        if (saga != null) {
+                            handle(saga, event, commands);
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.error("Failed to correlate event " + event + " to sagas of type " + registration.sagaType.getSimpleName(), e);
+                }
+            }
+        }
+
+        execute(commands);
+    }
+
+    /**
+     * Advances the timing wheel to the current time and passes the expired timeouts to their sagas.
+     */
+    void advance() {
+        final List<HierarchicalTimingWheel.Timeout<TimeoutKey>> expired = new ArrayList<HierarchicalTimingWheel.Timeout<TimeoutKey>>();
+        final List<Command> commands = new ArrayList<Command>();
+
+        synchronized (lock) {
+            timingWheel.advance(clock.getAsLong(), expired);
+
+            for (HierarchicalTimingWheel.Timeout<TimeoutKey> timeout : expired) {
+                final TimeoutKey key = timeout.getPayload();
+
+                if (timeouts.get(key) != timeout) {
+                    continue;
+                }
+
+                timeouts.remove(key);
+
+                try {
+                    final Saga saga = sagaStore.load(key.sagaId);
+
+                    if (saga == null || !saga.getTimeouts().containsKey(key.name)) {
+                        continue;
+                    }
+
+                    saga.timeoutExpired(key.name);
+                    saga.onTimeout(key.name);
+                    process(saga, commands);
+                } catch (Exception e) {
+                    logger.error("Saga " + key.sagaId + " failed to handle timeout " + key.name + ", retrying", e);
+                    timeouts.put(key, timingWheel.schedule(key, clock.getAsLong() + TIMEOUT_RETRY_DELAY));
+                }
+            }
+        }
+
+        execute(commands);
+    }
+
+    private void handle(Saga saga, Event event, List<Command> commands) {
+        try {
+            saga.handle(event);
+            process(saga, commands);
+        } catch (Exception e) {
+            logger.error("Saga " + saga.getId() + " failed to handle event " + event, e);
+        }
+    }
+
+    /**
+     * Stores or removes the saga and applies its timeout requests. The commands are collected to be executed after
+     * releasing the lock.
+     */
+    private void process(Saga saga, List<Command> commands) throws Exception {
+        final long now = clock.getAsLong();
+
+        for (Map.Entry<String, Long> request : saga.getTimeoutRequests().entrySet()) {
+            if (request.getValue() >= 0) {
+                saga.timeoutScheduled(request.getKey(), now + request.getValue());
+            }
+        }
+
+        if (saga.isCompleted()) {
+            sagaStore.delete(saga.getId());
+
+            for (String name : saga.getTimeouts().keySet()) {
+                cancel(new TimeoutKey(saga.getId(), name));
+            }
+        } else {
+            sagaStore.save(saga);
+        }
+
+        for (Map.Entry<String, Long> request : saga.getTimeoutRequests().entrySet()) {
+            final TimeoutKey key = new TimeoutKey(saga.getId(), request.getKey());
+            cancel(key);
+
+            if (request.getValue() >= 0 && !saga.isCompleted()) {
+                timeouts.put(key, timingWheel.schedule(key, saga.getTimeouts().get(request.getKey())));
+            }
+        }
+
+        commands.addAll(saga.getCommands());
+        saga.commit();
+    }
+
+    /**
+     * Schedules the timeouts stored with the sagas, unless they are scheduled already.
+     */
+    private void schedulePendingTimeouts() throws Exception {
+        synchronized (lock) {
+            for (String sagaId : sagaStore.findWithTimeouts()) {
+                final Saga saga = sagaStore.load(sagaId);
+
+                if (saga == null) {
+                    continue;
+                }
+
+                for (Map.Entry<String, Long> pending : saga.getTimeouts().entrySet()) {
+                    final TimeoutKey key = new TimeoutKey(sagaId, pending.getKey());
+
+                    if (!timeouts.containsKey(key)) {
+                        timeouts.put(key, timingWheel.schedule(key, pending.getValue()));
+                    }
+                }
+            }
+        }
+    }
+
+    private void cancel(TimeoutKey key) {
+        final HierarchicalTimingWheel.Timeout<TimeoutKey> timeout = timeouts.remove(key);
+
+        if (timeout != null) {
+            timingWheel.cancel(timeout);
+        }
+    }
+
+    private void execute(List<Command> commands) {
+        for (Command command : commands) {
+            try {
+                commandDispatcher.execute(command);
+            } catch (Exception e) {
+                logger.error("Failed to execute command " + command + " sent by a saga", e);
+            }
+        }
+    }
+
+    private static final class Registration {
+        private final Class<? extends Saga> sagaType;
+        private final SagaFactory<? extends Saga> factory;
+        private final CorrelationKeyExtractor keyExtractor;
+        private final List<Class<? extends Event>> startingEventTypes;
+
+        private Registration(Class<? extends Saga> sagaType, SagaFactory<? extends Saga> factory, CorrelationKeyExtractor keyExtractor, List<Class<? extends Event>> startingEventTypes) {
+            this.sagaType = sagaType;
+            this.factory = factory;
+            this.keyExtractor = keyExtractor;
+            this.startingEventTypes = startingEventTypes;
+        }
+
+        private boolean isStartedBy(Event event) {
+            for (Class<? extends Event> eventType : startingEventTypes) {
+                if (eventType.isInstance(event)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private static final class TimeoutKey {
+        private final String sagaId;
+        private final String name;
+
+        private TimeoutKey(String sagaId, String name) {
+            this.sagaId = sagaId;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TimeoutKey)) {
+                return false;
+            }
+
+            final TimeoutKey other = (TimeoutKey) o;
+            return sagaId.equals(other.sagaId) && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sagaId.hashCode() + name.hashCode();
+        }
+    }
+
+    /**
+     * The thread advancing the timing wheel once per tick.
+     */
+    private class Ticker extends Thread {
+        private Ticker() {
+            setName("saga-timeouts");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(tickNanos);
+                    advance();
+                } catch (InterruptedException e) {
+                    interrupt();
+                } catch (RuntimeException e) {
+                    logger.error("Failed to process timeouts", e);
+                }
+            }
+        }
+    }
+}
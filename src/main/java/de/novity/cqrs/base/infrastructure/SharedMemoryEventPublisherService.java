@@ -0,0 +1,662 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventPublisherService;
+import de.novity.cqrs.base.api.EventSerializer;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * An event publisher sharing the published events with other processes on the same host through a memory-mapped
+ * ring buffer file.
+ * <p/>
+ * Every process creates a service on the same file. Events published by one process are serialized into the ring,
+ * and every process that started its service reads them from the ring with a cursor of its own and delivers them to
+ * its local subscribers, like an <code>InMemoryEventPublisherService</code> does. A process that only publishes
+ * events doesn't need to start its service. A started service receives the events published after it was started.
+ * <p/>
+ * The file starts with a header page holding the cursors, followed by the ring:
+ * <pre>
+ * [int magic][int capacity] ... [long claimed position] ... [long published position] ... [long next sequence]
+ * [reader slots: long cursor, long process id] ...
+ * [ring: records of [int length][int reserved][long sequence][serialized event], aligned to 16 bytes]
+ * </pre>
+ * Positions are byte positions growing across all laps of the ring. A record never wraps around the end of the ring,
+ * the remaining space is filled by a padding record instead. The writer first announces the range it is going to
+ * overwrite by advancing the claimed position, writes its records and then makes them visible by advancing the
+ * published position with release semantics. The records of a list of events become visible at once, unless the list
+ * exceeds the space of the ring.
+ * <p/>
+ * Only one process may publish events at a time, which is enforced by a file lock taken on the first publish. Slow
+ * readers are handled as defined by the <code>SlowSubscriberPolicy</code>:
+ * <ul>
+ * <li><code>BLOCK_PUBLISHER</code> makes the writer wait until the slowest reader has consumed enough of the ring.
+ * The cursor slots of reader processes that died without stopping their service are released by the waiting
+ * writer.</li>
+ * <li><code>DROP_EVENTS</code> lets the writer overwrite unread records. A reader detecting that it has been overrun
+ * continues at the published position and counts the skipped events as dropped.</li>
+ * </ul>
+ * Since waiting threads are never signalled across processes, the wait strategy must poll, e.g. a
+ * <code>ParkingWaitStrategy</code>. A <code>BlockingWaitStrategy</code> is rejected.
+ */
+public class SharedMemoryEventPublisherService implements EventPublisherService, Closeable {
+    public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+    public static final int MAX_READERS = 32;
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedMemoryEventPublisherService.class);
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int MAGIC = 0x45564e54;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int CLAIMED_OFFSET = 64;
+    private static final int PUBLISHED_OFFSET = 128;
+    private static final int SEQUENCE_OFFSET = 192;
+    private static final int READERS_OFFSET = 256;
+    private static final int READER_SIZE = 64;
+    private static final int HEADER_PAGE_SIZE = 4096;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int RECORD_ALIGNMENT = 16;
+    private static final int PADDING = -1;
+    private static final long FREE = -1;
+    private static final long WRITER_LOCK_POSITION = Long.MAX_VALUE - 1;
+    private static final long DEAD_READER_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final Object INITIALIZATION_LOCK = new Object();
+
+    private final File file;
+    private final int capacity;
+    private final int mask;
+    private final EventSerializer serializer;
+    private final WaitStrategy waitStrategy;
+    private final SlowSubscriberPolicy slowSubscriberPolicy;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final SubscriberRegistry subscribers;
+    private final EventPublisherImpl eventPublisher;
+    private final AtomicLong droppedEvents;
+    private Reader reader;
+
+    /**
+     * Opens the ring in the given file with the default capacity, using Java serialization and blocking the publisher
+     * while the slowest reader lags behind by the capacity of the ring.
+     */
+    public SharedMemoryEventPublisherService(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY, new JavaEventSerializer(), new ParkingWaitStrategy(), SlowSubscriberPolicy.BLOCK_PUBLISHER);
+    }
+
+    /**
+     * @param file The ring buffer file, created if it does not exist.
+     * @param capacity The size of the ring in bytes, a power of two between 4 KB and 1 GB. It must match the capacity
+     * of an existing file and limits the size of a single serialized event.
+     * @param serializer The serializer converting events to bytes and back, the same in all processes.
+     * @param waitStrategy The strategy used by the waiting reader and publishing threads.
+     * @param slowSubscriberPolicy Defines whether the publisher waits for the slowest reader.
+     */
+    public SharedMemoryEventPublisherService(File file, int capacity, EventSerializer serializer, WaitStrategy waitStrategy, SlowSubscriberPolicy slowSubscriberPolicy) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("You must provide a ring buffer file");
+        }
+
+        if (capacity < HEADER_PAGE_SIZE || capacity > (1 << 30) || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two between 2^12 and 2^30, but was " + capacity);
+        }
+
+        if (serializer == null) {
+            throw new NullPointerException("You must provide an event serializer");
+        }
+
+        if (waitStrategy == null) {
+            throw new NullPointerException("You must provide a wait strategy");
+        }
+
+        if (waitStrategy instanceof BlockingWaitStrategy) {
+            throw new IllegalArgumentException("You must provide a polling wait strategy, as waiting threads are not signalled across processes");
+        }
+
+        if (slowSubscriberPolicy == null) {
+            throw new NullPointerException("You must provide a slow subscriber policy");
+        }
+
+        this.file = file;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.serializer = serializer;
+        this.waitStrategy = waitStrategy;
+        this.slowSubscriberPolicy = slowSubscriberPolicy;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.subscribers = new SubscriberRegistry();
+        this.eventPublisher = new EventPublisherImpl();
+        this.droppedEvents = new AtomicLong();
+
+        try {
+            this.buffer = map();
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        } catch (RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+
+        logger.info("Shared memory publisher created on " + file);
+    }
+
+    /**
+     * Starts reading the ring and delivering the events to the local subscribers.
+     *
+     * @throws IllegalStateException If the service is already started or all reader slots are taken.
+     */
+    public synchronized void start() {
+        if (isRunning()) {
+            throw new IllegalStateException("Publisher is already started");
+        }
+
+        reader = new Reader(claimReaderSlot());
+        reader.start();
+        logger.info("Publisher started");
+    }
+
+    public synchronized void stop() {
+        if (!isRunning()) {
+            throw new IllegalStateException("Publisher is not started");
+        }
+
+        try {
+            reader.interrupt();
+            reader.join(1000);
+            logger.info("Publisher stopped");
+        } catch (InterruptedException e) {
+            logger.error("Failed to stop publisher", e);
+        } finally {
+            releaseReaderSlot(reader.slot);
+            reader = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return reader != null;
+    }
+
+    public EventPublisher getPublisher() {
+        return eventPublisher;
+    }
+
+    /**
+     * @return The number of events this process skipped because it was overrun by the publisher.
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return The number of bytes published to the ring but not yet delivered to the local subscribers, or
+     * <code>0</code> if the service is not started.
+     */
+    public synchronized long getLag() {
+        if (reader == null) {
+            return 0;
+        }
+
+        return Math.max(0, getLong(PUBLISHED_OFFSET) - getLong(readerOffset(reader.slot)));
+    }
+
+    /**
+     * Stops the service if it is running and releases the ring buffer file.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (isRunning()) {
+                stop();
+            }
+        }
+
+        eventPublisher.releaseWriterLock();
+        randomAccessFile.close();
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        final FileChannel channel = randomAccessFile.getChannel();
+        final long size = (long) HEADER_PAGE_SIZE + capacity;
+
+        synchronized (INITIALIZATION_LOCK) {
+            final FileLock lock = channel.lock(0, HEADER_PAGE_SIZE, false);
+
+            try {
+                final boolean created = channel.size() == 0;
+
+                if (!created && channel.size() != size) {
+                    throw new IllegalArgumentException("You tried to open " + file + " of " + channel.size() + " bytes with a capacity of " + capacity + " bytes");
+                }
+
+                final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                mapped.order(ByteOrder.nativeOrder());
+
+                if (created) {
+                    for (int slot = 0; slot < MAX_READERS; slot++) {
+                        mapped.putLong(readerOffset(slot), FREE);
+                    }
+
+                    mapped.putInt(CAPACITY_OFFSET, capacity);
+                    mapped.putInt(MAGIC_OFFSET, MAGIC);
+                    mapped.force();
+                } else if (mapped.getInt(MAGIC_OFFSET) != MAGIC || mapped.getInt(CAPACITY_OFFSET) != capacity) {
+                    throw new IllegalArgumentException("You tried to open " + file + ", which is not an event ring of " + capacity + " bytes");
+                }
+
+                return mapped;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private int claimReaderSlot() {
+        final long pid = ProcessHandle.current().pid();
+
+        for (int slot = 0; slot < MAX_READERS; slot++) {
+            final int offset = readerOffset(slot);
+
+            if (getLong(offset) == FREE && LONGS.compareAndSet(buffer, offset, FREE, getLong(PUBLISHED_OFFSET))) {
+                LONGS.setRelease(buffer, offset + 8, pid);
+                return slot;
+            }
+        }
+
+        throw new IllegalStateException("You tried to start more than " + MAX_READERS + " readers of " + file);
+    }
+
+    private void releaseReaderSlot(int slot) {
+        final int offset = readerOffset(slot);
+        LONGS.setRelease(buffer, offset + 8, 0L);
+        LONGS.setRelease(buffer, offset, FREE);
+    }
+
+    private long getLong(int offset) {
+        return (long) LONGS.getAcquire(buffer, offset);
+    }
+
+    private int index(long position) {
+        return HEADER_PAGE_SIZE + (int) (position & mask);
+    }
+
+    private static int readerOffset(int slot) {
+        return READERS_OFFSET + slot * READER_SIZE;
+    }
+
+    private static int align(int size) {
+        return (size + RECORD_ALIGNMENT - 1) & -RECORD_ALIGNMENT;
+    }
+
+    /**
+     * Writes events to the ring. Publishing threads of this process are serialized by a lock, other processes are
+     * excluded by a file lock taken on the first publish.
+     */
+    private class EventPublisherImpl implements EventPublisher {
+        private final ReentrantLock lock;
+        private final BooleanSupplier readersDone;
+        private FileLock writerLock;
+        private long claimed;
+        private long published;
+        private long sequence;
+        private int requiredSpace;
+
+        private EventPublisherImpl() {
+            this.lock = new ReentrantLock();
+            this.readersDone = new BooleanSupplier() {
+                public boolean getAsBoolean() {
+                    return claimed + requiredSpace - slowestReader() <= capacity;
+                }
+            };
+        }
+
+        public void addSubscriber(EventSubscriber subscriber) {
+            subscribers.add(subscriber);
+            logger.debug("Added subscriber " + subscriber);
+        }
+
+        public void removeSubscriber(EventSubscriber subscriber) {
+            subscribers.remove(subscriber);
+            logger.debug("Removed subscriber " + subscriber);
+        }
+
+        public void publish(Event event) throws Exception {
+            publish(Collections.singletonList(event));
+        }
+
+        public void publish(List<Event> events) throws Exception {
+            final List<byte[]> records = new ArrayList<byte[]>(events.size());
+
+            for (Event event : events) {
+                if (event == null) {
+                    throw new NullPointerException("You tried to publish a null event");
+                }
+
+                final byte[] bytes = serializer.serialize(event);
+
+                if (align(RECORD_HEADER_SIZE + bytes.length) > capacity) {
+                    throw new IllegalArgumentException("You tried to publish an event of " + bytes.length + " bytes exceeding the capacity of " + capacity + " bytes");
+                }
+
+                records.add(bytes);
+            }
+
+            lock.lock();
+            try {
+                acquireWriterLock();
+
+                for (byte[] record : records) {
+                    write(record);
+                }
+
+                commit();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void write(byte[] record) throws InterruptedException {
+            final int recordSize = align(RECORD_HEADER_SIZE + record.length);
+            final int remaining = capacity - (int) (claimed & mask);
+            final int padding = recordSize > remaining ? remaining : 0;
+
+            claim(padding + recordSize);
+
+            if (padding > 0) {
+                buffer.putInt(index(claimed), PADDING);
+                claimed += padding;
+            }
+
+            final int index = index(claimed);
+            buffer.putInt(index, record.length);
+            buffer.putInt(index + 4, 0);
+            buffer.putLong(index + 8, sequence++);
+
+            final ByteBuffer body = buffer.duplicate();
+            body.position(index + RECORD_HEADER_SIZE);
+            body.put(record);
+
+            claimed += recordSize;
+        }
+
+        /**
+         * Announces that the given number of bytes is about to be overwritten, waiting for the slowest reader if the
+         * publisher is blocked by slow readers.
+         */
+        private void claim(int size) throws InterruptedException {
+            if (slowSubscriberPolicy == SlowSubscriberPolicy.BLOCK_PUBLISHER) {
+                requiredSpace = size;
+
+                while (!readersDone.getAsBoolean()) {
+                    // Readers cannot consume records that are not published yet
+                    commit();
+
+                    if (!waitStrategy.waitUntil(readersDone, DEAD_READER_CHECK_NANOS, TimeUnit.NANOSECONDS)) {
+                        releaseDeadReaders();
+                    }
+                }
+            }
+
+            LONGS.setRelease(buffer, CLAIMED_OFFSET, claimed + size);
+
+            // Readers detect overwritten records by reading the claimed position after the record, so it must become
+            // visible before any byte written into the claimed space. A release store only orders the preceding
+            // stores, the fence keeps the following record writes from becoming visible earlier.
+            VarHandle.storeStoreFence();
+        }
+
+        private void commit() {
+            if (published == claimed) {
+                return;
+            }
+
+            buffer.putLong(SEQUENCE_OFFSET, sequence);
+            LONGS.setRelease(buffer, PUBLISHED_OFFSET, claimed);
+            published = claimed;
+            waitStrategy.signalAll();
+        }
+
+        private long slowestReader() {
+            long slowest = claimed;
+
+            for (int slot = 0; slot < MAX_READERS; slot++) {
+                final long cursor = getLong(readerOffset(slot));
+
+                if (cursor != FREE && cursor < slowest) {
+                    slowest = cursor;
+                }
+            }
+
+            return slowest;
+        }
+
+        private void releaseDeadReaders() {
+            for (int slot = 0; slot < MAX_READERS; slot++) {
+                final int offset = readerOffset(slot);
+                final long cursor = getLong(offset);
+                final long pid = getLong(offset + 8);
+
+                if (cursor == FREE || pid == 0) {
+                    continue;
+                }
+
+                final Optional<ProcessHandle> process = ProcessHandle.of(pid);
+
+                if (!process.isPresent() || !process.get().isAlive()) {
+                    logger.warn("Releasing reader slot " + slot + " of " + file + " held by terminated process " + pid);
+                    LONGS.compareAndSet(buffer, offset + 8, pid, 0L);
+                    LONGS.compareAndSet(buffer, offset, cursor, FREE);
+                }
+            }
+        }
+
+        private void acquireWriterLock() throws IOException {
+            if (writerLock != null) {
+                return;
+            }
+
+            try {
+                writerLock = randomAccessFile.getChannel().tryLock(WRITER_LOCK_POSITION, 1, false);
+            } catch (OverlappingFileLockException e) {
+                writerLock = null;
+            }
+
+            if (writerLock == null) {
+                throw new IllegalStateException("You tried to publish to " + file + ", which is already published to by another publisher");
+            }
+
+            // Continue after the records of the previous writer, dropping records it claimed but did not publish
+            published = getLong(PUBLISHED_OFFSET);
+            claimed = published;
+            sequence = buffer.getLong(SEQUENCE_OFFSET);
+            LONGS.setRelease(buffer, CLAIMED_OFFSET, claimed);
+        }
+
+        private void releaseWriterLock() throws IOException {
+            lock.lock();
+            try {
+                if (writerLock != null && writerLock.isValid()) {
+                    writerLock.release();
+                }
+
+                writerLock = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reads the ring with the cursor of a reader slot and delivers the events to the local subscribers. After every
+     * batch the cursor is advanced, allowing a blocked publisher to reuse the consumed space. Records read while the
+     * publisher was overwriting them are discarded, and the reader continues at the published position.
+     */
+    private class Reader extends Thread {
+        private final int slot;
+        private final BooleanSupplier eventAvailable;
+        private long position;
+        private long nextSequence;
+
+        private Reader(int slot) {
+            this.slot = slot;
+            this.position = getLong(readerOffset(slot));
+            this.nextSequence = -1;
+            this.eventAvailable = new BooleanSupplier() {
+                public boolean getAsBoolean() {
+                    return getLong(PUBLISHED_OFFSET) > position;
+                }
+            };
+            setName("shared-memory-publisher-" + slot);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final List<Event> batch = new ArrayList<Event>();
+            final EventDelivery delivery = new EventDelivery(subscribers);
+
+            do {
+                try {
+                    waitStrategy.waitUntil(eventAvailable);
+
+                    if (!read(batch)) {
+                        skipUnreadableRecords();
+                        continue;
+                    }
+
+                    try {
+                        delivery.deliver(batch);
+                    } finally {
+                        batch.clear();
+                        LONGS.setRelease(buffer, readerOffset(slot), position);
+                    }
+                } catch (InterruptedException e) {
+                    interrupt();
+                } catch (Exception e) {
+                    logger.error("Failed to deliver events", e);
+                }
+            } while (!isInterrupted());
+        }
+
+        /**
+         * Reads the published records following the current position. A record that cannot be deserialized is
+         * skipped, a record that cannot be parsed at all makes the reader continue at the published position.
+         *
+         * @return <code>false</code> if the records were overwritten while being read.
+         */
+        private boolean read(List<Event> batch) {
+            final long start = position;
+            final long end = getLong(PUBLISHED_OFFSET);
+            long next = start;
+            long sequence = nextSequence;
+            long dropped = 0;
+            RuntimeException corruption = null;
+            Exception unreadable = null;
+
+            try {
+                while (next < end && batch.size() < MAX_BATCH_SIZE) {
+                    final int index = index(next);
+                    final int length = buffer.getInt(index);
+
+                    if (length == PADDING) {
+                        next += capacity - (int) (next & mask);
+                        continue;
+                    }
+
+                    final ByteBuffer body = buffer.duplicate();
+                    body.limit(index + RECORD_HEADER_SIZE + length);
+                    body.position(index + RECORD_HEADER_SIZE);
+
+                    final long recordSequence = buffer.getLong(index + 8);
+
+                    try {
+                        batch.add(serializer.deserialize(body.slice()));
+                    } catch (Exception e) {
+                        unreadable = e;
+                    }
+
+                    if (sequence >= 0 && recordSequence > sequence) {
+                        dropped += recordSequence - sequence;
+                    }
+
+                    sequence = recordSequence + 1;
+                    next += align(RECORD_HEADER_SIZE + length);
+                }
+            } catch (RuntimeException e) {
+                corruption = e;
+            }
+
+            // Records are only valid if the publisher did not start to overwrite them while they were read
+            VarHandle.acquireFence();
+            if (start < getLong(CLAIMED_OFFSET) - capacity) {
+                batch.clear();
+                return false;
+            }
+
+            if (corruption != null) {
+                logger.error("Cannot parse the record at position " + next + " of " + file, corruption);
+                batch.clear();
+                return false;
+            }
+
+            if (unreadable != null) {
+                logger.error("Skipped events of " + file + ", which cannot be deserialized", unreadable);
+            }
+
+            droppedEvents.addAndGet(dropped);
+            position = next;
+            nextSequence = sequence;
+            return true;
+        }
+
+        /**
+         * Continues at the published position. The skipped events are counted as dropped by the sequence of the next
+         * record read.
+         */
+        private void skipUnreadableRecords() {
+            final long published = getLong(PUBLISHED_OFFSET);
+            logger.warn("Reader " + slot + " of " + file + " skips " + (published - position) + " bytes of overwritten or corrupted records");
+
+            position = published;
+            LONGS.setRelease(buffer, readerOffset(slot), position);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.EventStore;
+
+/**
+ * An event store knowing the serialized size of the events it stores. A repository counting the bytes of the events
+ * since the last snapshot takes the sizes from the store instead of serializing the events again.
+ */
+public interface SizedEventStore extends EventStore {
+    /**
+     * Passes the events of the stream following the given version to the subscriber in order, together with their
+     * serialized size.
+     *
+     * @param streamId The id of the stream.
+     * @param fromVersion The version after which the replay starts, 0 to replay the whole stream.
+     * @param subscriber The subscriber receiving the replayed events.
+     * @throws Exception If the events could not be read.
+     */
+    void replay(String streamId, long fromVersion, SizedEventSubscriber subscriber) throws Exception;
+
+    /**
+     * @param streamId The id of the stream.
+     * @param fromVersion The version after which counting starts.
+     * @param toVersion The version of the last event counted.
+     * @return The serialized size in bytes of the events of the stream in the given range of versions.
+     */
+    long getSize(String streamId, long fromVersion, long toVersion);
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+
+/**
+ * A sized event subscriber receives the events replayed by a <code>SizedEventStore</code> together with their
+ * serialized size.
+ */
+public interface SizedEventSubscriber {
+    /**
+     * @param event The replayed event.
+     * @param size The serialized size of the event in bytes.
+     */
+    void onEvent(Event event, int size);
+}
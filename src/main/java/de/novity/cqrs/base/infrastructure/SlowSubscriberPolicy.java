@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+/**
+ * Defines how a <code>FanOutEventPublisherService</code> treats a subscriber lagging behind by the capacity of the
+ * ring buffer.
+ */
+public enum SlowSubscriberPolicy {
+    /**
+     * The publisher waits until the slowest subscriber has consumed enough events. No events are lost, but a slow
+     * subscriber throttles the publishing threads.
+     */
+    BLOCK_PUBLISHER,
+
+    /**
+     * The publisher never waits for subscribers. A subscriber that is overrun skips the overwritten events and counts
+     * them as dropped.
+     */
+    DROP_EVENTS
+}
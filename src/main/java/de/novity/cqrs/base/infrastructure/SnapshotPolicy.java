@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+/**
+ * A snapshot policy decides when a repository takes a snapshot of a root aggregate after saving it. Create the policy
+ * by one of the factory methods:
+ * <ul>
+ * <li><code>never()</code> does not take snapshots.</li>
+ * <li><code>everyEvents(events)</code> takes a snapshot once the given number of events has been applied since the
+ * last snapshot.</li>
+ * <li><code>aboveBytes(bytes)</code> takes a snapshot once the serialized size of the events applied since the last
+ * snapshot exceeds the given number of bytes.</li>
+ * <li><code>everyEventsOrAboveBytes(events, bytes)</code> takes a snapshot once either threshold is reached.</li>
+ * </ul>
+ * The policies counting bytes take the sizes from the event store, which must be a <code>SizedEventStore</code>.
+ */
+public abstract class SnapshotPolicy {
+    SnapshotPolicy() {
+    }
+
+    public static SnapshotPolicy never() {
+        return new SnapshotPolicy() {
+            @Override
+            boolean isDue(long eventsSinceSnapshot, long bytesSinceSnapshot) {
+                return false;
+            }
+        };
+    }
+
+    public static SnapshotPolicy everyEvents(final long events) {
+        checkThreshold(events);
+
+        return new SnapshotPolicy() {
+            @Override
+            boolean isDue(long eventsSinceSnapshot, long bytesSinceSnapshot) {
+                return eventsSinceSnapshot >= events;
+            }
+        };
+    }
+
+    public static SnapshotPolicy aboveBytes(final long bytes) {
+        checkThreshold(bytes);
+
+        return new SnapshotPolicy() {
+            @Override
+            boolean isDue(long eventsSinceSnapshot, long bytesSinceSnapshot) {
+                return bytesSinceSnapshot > bytes;
+            }
+
+            @Override
+            boolean countsBytes() {
+                return true;
+            }
+        };
+    }
+
+    public static SnapshotPolicy everyEventsOrAboveBytes(final long events, final long bytes) {
+        checkThreshold(events);
+        checkThreshold(bytes);
+
+        return new SnapshotPolicy() {
+            @Override
+            boolean isDue(long eventsSinceSnapshot, long bytesSinceSnapshot) {
+                return eventsSinceSnapshot >= events || bytesSinceSnapshot > bytes;
+            }
+
+            @Override
+            boolean countsBytes() {
+                return true;
+            }
+        };
+    }
+
+    abstract boolean isDue(long eventsSinceSnapshot, long bytesSinceSnapshot);
+
+    /**
+     * @return Whether the repository must count the serialized size of events for this policy.
+     */
+    boolean countsBytes() {
+        return false;
+    }
+
+    private static void checkThreshold(long threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("You must provide a threshold of at least 1");
+        }
+    }
+}
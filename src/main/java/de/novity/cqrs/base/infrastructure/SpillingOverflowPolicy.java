@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An overflow policy that appends events to an overflow file while the event queue is full.
+ * <p/>
+ * Once the first events have been spilled, all further events are appended to the file as well, so that the order of
+ * the published events is kept. The consuming thread moves the spilled events back into the queue whenever it drained
+ * the queue. After the file has been drained completely, it is truncated and events are queued directly again.
+ * <p/>
+ * The spilling state is switched under the same lock the consuming thread checks it with, so a consumer that drained
+ * the queue while a producer is spilling waits for the spilled events instead of blocking on the empty queue.
+ * <p/>
+ * Spilled events are written by Java serialization, so they must implement <code>Serializable</code>.
+ */
+final class SpillingOverflowPolicy extends OverflowPolicy {
+    private final File file;
+    private final Object lock;
+    private volatile boolean spilling;
+    private RandomAccessFile overflow;
+    private long readPosition;
+    private long writePosition;
+    private List<Event> pending;
+
+    SpillingOverflowPolicy(File file) {
+        if (file == null) {
+            throw new NullPointerException("You must provide an overflow file");
+        }
+
+        this.file = file;
+        this.lock = new Object();
+        this.spilling = false;
+    }
+
+    @Override
+    void put(EventQueue queue, List<Event> events) throws Exception {
+        final int capacity = queue.capacity();
+
+        for (int offset = 0; offset < events.size(); offset += capacity) {
+            List<Event> chunk = events.size() <= capacity ? events : events.subList(offset, Math.min(events.size(), offset + capacity));
+
+            if (!spilling && queue.offerAll(chunk, 0, TimeUnit.NANOSECONDS)) {
+                continue;
+            }
+
+            synchronized (lock) {
+                if (!spilling && queue.offerAll(chunk, 0, TimeUnit.NANOSECONDS)) {
+                    continue;
+                }
+
+                spilling = true;
+                append(chunk);
+            }
+        }
+    }
+
+    @Override
+    void refill(EventQueue queue) throws Exception {
+        synchronized (lock) {
+            if (!spilling) {
+                return;
+            }
+
+            while (pending != null || readPosition < writePosition) {
+                if (pending == null) {
+                    pending = read();
+                }
+
+                if (!queue.offerAll(pending, 0, TimeUnit.NANOSECONDS)) {
+                    return;
+                }
+
+                pending = null;
+            }
+
+            if (overflow != null) {
+                overflow.setLength(0);
+            }
+
+            readPosition = 0;
+            writePosition = 0;
+            spilling = false;
+        }
+    }
+
+    private void append(List<Event> events) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(events.toArray(new Event[events.size()]));
+        out.close();
+
+        if (overflow == null) {
+            overflow = new RandomAccessFile(file, "rw");
+            overflow.setLength(0);
+        }
+
+        overflow.seek(writePosition);
+        overflow.writeInt(bytes.size());
+        overflow.write(bytes.toByteArray());
+        writePosition = overflow.getFilePointer();
+    }
+
+    private List<Event> read() throws IOException, ClassNotFoundException {
+        overflow.seek(readPosition);
+        byte[] record = new byte[overflow.readInt()];
+        overflow.readFully(record);
+        readPosition = overflow.getFilePointer();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record));
+        try {
+            return Arrays.asList((Event[]) in.readObject());
+        } finally {
+            in.close();
+        }
+    }
+}
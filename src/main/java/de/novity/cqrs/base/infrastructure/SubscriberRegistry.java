@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.TypedEventSubscriber;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A copy-on-write registry of event subscribers used by the event publishers of this package.
+ * <p/>
+ * The registry holds an immutable routing table that is atomically replaced whenever a subscriber is added or
+ * removed. The routing table maps an event class to the array of subscribers interested in it. Subscribers implementing
+ * <code>TypedEventSubscriber</code> are routed events of their declared types and subtypes only, all other subscribers
+ * are routed every event. The subscribers of an event class are resolved once per routing table, so looking up the
+ * subscribers of an event is a lock-free map lookup.
+ */
+final class SubscriberRegistry {
+    private static final EventSubscriber[] NO_SUBSCRIBERS = new EventSubscriber[0];
+
+    private final AtomicReference<RoutingTable> routingTable;
+
+    SubscriberRegistry() {
+        this.routingTable = new AtomicReference<RoutingTable>(new RoutingTable(new Registration[0]));
+    }
+
+    void add(EventSubscriber subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("You tried to add a null subscriber");
+        }
+
+        Registration registration = new Registration(subscriber);
+
+        while (true) {
+            RoutingTable current = routingTable.get();
+            Registration[] registrations = Arrays.copyOf(current.registrations, current.registrations.length + 1);
+            registrations[registrations.length - 1] = registration;
+
+            if (routingTable.compareAndSet(current, new RoutingTable(registrations))) {
+                return;
+            }
+        }
+    }
+
+    boolean remove(EventSubscriber subscriber) {
+        while (true) {
+            RoutingTable current = routingTable.get();
+            int index = current.indexOf(subscriber);
+
+            if (index < 0) {
+                return false;
+            }
+
+            Registration[] registrations = new Registration[current.registrations.length - 1];
+            System.arraycopy(current.registrations, 0, registrations, 0, index);
+            System.arraycopy(current.registrations, index + 1, registrations, index, registrations.length - index);
+
+            if (routingTable.compareAndSet(current, new RoutingTable(registrations))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param eventType The class of a published event.
+     * @return The subscribers interested in events of the given class. The returned array must not be modified.
+     */
+    EventSubscriber[] subscribersOf(Class<? extends Event> eventType) {
+        return routingTable.get().route(eventType);
+    }
+
+    private static final class RoutingTable {
+        private final Registration[] registrations;
+        private final ConcurrentMap<Class<?>, EventSubscriber[]> routes;
+
+        private RoutingTable(Registration[] registrations) {
+            this.registrations = registrations;
+            this.routes = new ConcurrentHashMap<Class<?>, EventSubscriber[]>();
+        }
+
+        private EventSubscriber[] route(Class<? extends Event> eventType) {
+            EventSubscriber[] subscribers = routes.get(eventType);
+
+            if (subscribers == null) {
+                subscribers = resolve(eventType);
+                routes.put(eventType, subscribers);
+            }
+
+            return subscribers;
+        }
+
+        private EventSubscriber[] resolve(Class<? extends Event> eventType) {
+            List<EventSubscriber> subscribers = new ArrayList<EventSubscriber>(registrations.length);
+
+            for (Registration registration : registrations) {
+                if (registration.accepts(eventType)) {
+                    subscribers.add(registration.subscriber);
+                }
+            }
+
+            return subscribers.isEmpty() ? NO_SUBSCRIBERS : subscribers.toArray(new EventSubscriber[subscribers.size()]);
+        }
+
+        private int indexOf(EventSubscriber subscriber) {
+            for (int i = 0; i < registrations.length; i++) {
+                if (registrations[i].subscriber.equals(subscriber)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+    }
+
+    private static final class Registration {
+        private final EventSubscriber subscriber;
+        private final Class<?>[] eventTypes;
+
+        private Registration(EventSubscriber subscriber) {
+            this.subscriber = subscriber;
+
+            if (subscriber instanceof TypedEventSubscriber) {
+                this.eventTypes = ((TypedEventSubscriber) subscriber).getEventTypes().toArray(new Class<?>[0]);
+            } else {
+                this.eventTypes = null;
+            }
+        }
+
+        private boolean accepts(Class<? extends Event> eventType) {
+            if (eventTypes == null) {
+                return true;
+            }
+
+            for (Class<?> type : eventTypes) {
+                if (type.isAssignableFrom(eventType)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
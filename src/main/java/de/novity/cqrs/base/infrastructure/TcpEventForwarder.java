@@ -0,0 +1,510 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BatchEventSubscriber;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An event subscriber forwarding the events of a local event publisher to remote nodes over TCP, where they are
+ * received by a <code>TcpEventPublisherService</code>.
+ * <p/>
+ * Every forwarded event is numbered by a sequence starting at 1, serialized once and retained in a ring of the most
+ * recent events. A connecting node sends the sequence it wants to resume from, or 0 to receive only new events, and
+ * is then sent the retained events from this sequence on. A node lagging behind by more than the retained events
+ * continues with the oldest retained event, and the receiving node counts the skipped events as dropped.
+ * <p/>
+ * All connections are served by a single selector thread without blocking. Events are sent in frames of as many
+ * events as fit into the write buffer of the connection, which is reused for all frames and only grows to hold an
+ * event larger than the buffer:
+ * <pre>
+ * [int frame length][long sequence of first event][int event count] ([int event length][serialized event])*
+ * </pre>
+ * A connection is only written to as long as the socket accepts data, so a slow node throttles only its own
+ * connection and never the publisher or other nodes.
+ */
+public class TcpEventForwarder implements BatchEventSubscriber, Closeable {
+    public static final int DEFAULT_RETAINED_EVENTS = 65536;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    static final int FRAME_HEADER_SIZE = 16;
+    static final int HANDSHAKE_SIZE = 8;
+
+    private static final Logger logger = LoggerFactory.getLogger(TcpEventForwarder.class);
+    private static final int MAX_FRAMES_PER_SELECT = 16;
+
+    private final InetSocketAddress bindAddress;
+    private final EventSerializer serializer;
+    private final int bufferSize;
+    private final int mask;
+    private final byte[][] retained;
+    private final Object lock;
+    private final AtomicBoolean wakeupPending;
+    private long nextSequence;
+    private volatile Selector selector;
+    private ServerSocketChannel serverChannel;
+    private InetSocketAddress localAddress;
+    private Sender sender;
+
+    /**
+     * Creates a forwarder using Java serialization, retaining the default number of events.
+     *
+     * @param bindAddress The address to accept connections on.
+     */
+    public TcpEventForwarder(InetSocketAddress bindAddress) {
+        this(bindAddress, new JavaEventSerializer(), DEFAULT_RETAINED_EVENTS, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bindAddress The address to accept connections on, with port 0 for an ephemeral port.
+     * @param serializer The serializer converting events to bytes, the same on all nodes.
+     * @param retainedEvents The number of recent events retained for resuming nodes, rounded up to the next power of
+     * two.
+     * @param bufferSize The initial size of the write buffer of a connection in bytes.
+     */
+    public TcpEventForwarder(InetSocketAddress bindAddress, EventSerializer serializer, int retainedEvents, int bufferSize) {
+        if (bindAddress == null) {
+            throw new NullPointerException("You must provide a bind address");
+        }
+
+        if (serializer == null) {
+            throw new NullPointerException("You must provide an event serializer");
+        }
+
+        if (retainedEvents < 1 || retainedEvents > (1 << 30)) {
+            throw new IllegalArgumentException("Retained events must be between 1 and 2^30, but was " + retainedEvents);
+        }
+
+        if (bufferSize <= FRAME_HEADER_SIZE) {
+            throw new IllegalArgumentException("You must provide a buffer size larger than " + FRAME_HEADER_SIZE + " bytes");
+        }
+
+        final int capacity = retainedEvents == 1 ? 1 : Integer.highestOneBit(retainedEvents - 1) << 1;
+
+        this.bindAddress = bindAddress;
+        this.serializer = serializer;
+        this.bufferSize = bufferSize;
+        this.mask = capacity - 1;
+        this.retained = new byte[capacity][];
+        this.lock = new Object();
+        this.wakeupPending = new AtomicBoolean();
+        this.nextSequence = 1;
+    }
+
+    /**
+     * Binds the server socket and starts accepting connections. A restarted forwarder binds the address it was bound to
+     * before, so that nodes can reconnect even if it was started on an ephemeral port.
+     */
+    public synchronized void start() throws IOException {
+        if (isRunning()) {
+            throw new IllegalStateException("Forwarder is already started");
+        }
+
+        final Selector selector = Selector.open();
+
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(localAddress != null ? localAddress : bindAddress);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            localAddress = (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            selector.close();
+
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+
+            throw e;
+        }
+
+        wakeupPending.set(false);
+        this.selector = selector;
+        sender = new Sender(selector);
+        sender.start();
+        logger.info("Forwarder started on " + localAddress);
+    }
+
+    /**
+     * Closes all connections and the server socket. Events forwarded while the forwarder is stopped are still retained.
+     */
+    public synchronized void stop() {
+        if (!isRunning()) {
+            throw new IllegalStateException("Forwarder is not started");
+        }
+
+        try {
+            sender.interrupt();
+            selector.wakeup();
+            sender.join(1000);
+            selector = null;
+            logger.info("Forwarder stopped");
+        } catch (InterruptedException e) {
+            logger.error("Failed to stop forwarder", e);
+        } finally {
+            sender = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return sender != null;
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (isRunning()) {
+                stop();
+            }
+        }
+    }
+
+    /**
+     * @return The address the forwarder accepts connections on, or <code>null</code> if it was never started.
+     */
+    public synchronized InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    /**
+     * @return The sequence the next forwarded event is numbered with.
+     */
+    public long getNextSequence() {
+        synchronized (lock) {
+            return nextSequence;
+        }
+    }
+
+    public void onEvent(Event event) {
+        onEvents(Collections.singletonList(event));
+    }
+
+    public void onEvents(List<Event> events) {
+        int forwarded = 0;
+
+        for (Event event : events) {
+            final byte[] bytes;
+
+            try {
+                bytes = serializer.serialize(event);
+            } catch (Exception e) {
+                logger.error("Cannot forward event " + event + ", which cannot be serialized", e);
+                continue;
+            }
+
+            synchronized (lock) {
+                retained[(int) nextSequence & mask] = bytes;
+                nextSequence++;
+            }
+
+            forwarded++;
+        }
+
+        final Selector selector = this.selector;
+
+        if (forwarded > 0 && selector != null && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Fills the write buffer of the connection with the next frame of retained events.
+     *
+     * @return <code>false</code> if there are no events to be sent.
+     */
+    private boolean fill(Connection connection) {
+        synchronized (lock) {
+            final long oldest = Math.max(1, nextSequence - retained.length);
+
+            if (connection.nextSequence < oldest) {
+                logger.warn("Connection " + connection + " lags behind the retained events, skipping " + (oldest - connection.nextSequence) + " events");
+                connection.nextSequence = oldest;
+            }
+
+            if (connection.nextSequence >= nextSequence) {
+                return false;
+            }
+
+            final long first = connection.nextSequence;
+            ByteBuffer output = connection.output;
+            output.clear();
+            output.position(FRAME_HEADER_SIZE);
+
+            while (connection.nextSequence < nextSequence) {
+                final byte[] event = retained[(int) connection.nextSequence & mask];
+
+                if (4 + event.length > output.remaining()) {
+                    if (connection.nextSequence > first) {
+                        break;
+                    }
+
+                    output = ByteBuffer.allocateDirect(FRAME_HEADER_SIZE + 4 + event.length);
+                    output.position(FRAME_HEADER_SIZE);
+                    connection.output = output;
+                }
+
+                output.putInt(event.length);
+                output.put(event);
+                connection.nextSequence++;
+            }
+
+            output.putInt(0, output.position() - 4);
+            output.putLong(4, first);
+            output.putInt(12, (int) (connection.nextSequence - first));
+            output.flip();
+            return true;
+        }
+    }
+
+    /**
+     * The state of a connection to a remote node. It is only accessed by the selector thread.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer handshake;
+        private ByteBuffer output;
+        private long nextSequence;
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            this.handshake = ByteBuffer.allocate(HANDSHAKE_SIZE);
+            this.output = ByteBuffer.allocateDirect(bufferSize);
+            this.output.limit(0);
+            this.nextSequence = -1;
+        }
+
+        private boolean isResumed() {
+            return nextSequence >= 0;
+        }
+
+        /**
+         * Reads the handshake of the node, or detects that the node closed the connection.
+         */
+        private void read(ByteBuffer discard) throws IOException {
+            if (!isResumed()) {
+                if (channel.read(handshake) < 0) {
+                    throw new IOException("Connection closed during handshake");
+                }
+
+                if (!handshake.hasRemaining()) {
+                    resume(handshake.getLong(0));
+                }
+
+                return;
+            }
+
+            discard.clear();
+            if (channel.read(discard) < 0) {
+                throw new IOException("Connection closed by node");
+            }
+        }
+
+        private void resume(long sequence) {
+            synchronized (lock) {
+                if (sequence <= 0) {
+                    nextSequence = TcpEventForwarder.this.nextSequence;
+                } else if (sequence > TcpEventForwarder.this.nextSequence) {
+                    logger.warn("Connection " + this + " resumes from sequence " + sequence + " not forwarded yet, resuming from the oldest retained event");
+                    nextSequence = Math.max(1, TcpEventForwarder.this.nextSequence - retained.length);
+                } else {
+                    nextSequence = sequence;
+                }
+            }
+
+            logger.debug("Connection " + this + " resumes from sequence " + nextSequence);
+        }
+
+        /**
+         * Writes frames until the socket does not accept more data or there are no more events.
+         */
+        private void send() throws IOException {
+            for (int frames = 0; frames < MAX_FRAMES_PER_SELECT; ) {
+                if (output.hasRemaining()) {
+                    channel.write(output);
+
+                    if (output.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+
+                if (!fill(this)) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+
+                frames++;
+            }
+
+            // Let other connections go first, but come back as soon as the socket is writable
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        private void close() {
+            key.cancel();
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close connection " + this, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+    }
+
+    /**
+     * The selector thread accepting connections and sending frames.
+     */
+    private class Sender extends Thread {
+        private final Selector selector;
+
+        private Sender(Selector selector) {
+            this.selector = selector;
+            setName("tcp-event-forwarder");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final ByteBuffer discard = ByteBuffer.allocate(256);
+
+            try {
+                while (!isInterrupted()) {
+                    selector.select();
+                    wakeupPending.set(false);
+
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+
+                        final Connection connection = (Connection) key.attachment();
+
+                        try {
+                            if (key.isReadable()) {
+                                connection.read(discard);
+                            }
+
+                            if (key.isValid() && key.isWritable() && connection.isResumed()) {
+                                connection.send();
+                            }
+                        } catch (IOException e) {
+                            logger.info("Closing connection " + connection + ": " + e.getMessage());
+                            connection.close();
+                        }
+                    }
+
+                    for (SelectionKey key : selector.keys()) {
+                        if (!key.isValid() || !(key.attachment() instanceof Connection)) {
+                            continue;
+                        }
+
+                        final Connection connection = (Connection) key.attachment();
+
+                        if (connection.isResumed() && !connection.output.hasRemaining()) {
+                            try {
+                                connection.send();
+                            } catch (IOException e) {
+                                logger.info("Closing connection " + connection + ": " + e.getMessage());
+                                connection.close();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Forwarder failed", e);
+            } finally {
+                closeAll();
+            }
+        }
+
+        private void accept() {
+            SocketChannel channel = null;
+
+            try {
+                channel = serverChannel.accept();
+
+                if (channel == null) {
+                    return;
+                }
+
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(channel, key));
+                logger.info("Accepted connection from " + channel.socket().getRemoteSocketAddress());
+            } catch (IOException e) {
+                logger.error("Failed to accept connection", e);
+
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException closeFailure) {
+                        logger.debug("Failed to close connection", closeFailure);
+                    }
+                }
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                logger.error("Failed to close forwarder", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventPublisherService;
+import de.novity.cqrs.base.api.EventSerializer;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An event publisher delivering the events forwarded by a remote <code>TcpEventForwarder</code> to local subscribers.
+ * <p/>
+ * The service connects to the forwarder on a thread of its own and receives the frames of events sent by the
+ * forwarder. The events of every read are delivered as one batch, notifying a <code>BatchEventSubscriber</code> once
+ * per batch. The service keeps the sequence of the next expected event. If the connection is lost, it reconnects after
+ * the reconnect delay and resumes from this sequence, so that no event is lost or delivered twice as long as the
+ * forwarder still retains it. Events the forwarder no longer retains are counted as dropped. The receive buffer is
+ * reused for all frames and only grows to hold a frame larger than the buffer.
+ * <p/>
+ * Events are published by the forwarding node, so <code>publish</code> is not supported by the publisher of this
+ * service.
+ */
+public class TcpEventPublisherService implements EventPublisherService, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TcpEventPublisherService.class);
+
+    private final InetSocketAddress remoteAddress;
+    private final EventSerializer serializer;
+    private final long reconnectDelayMillis;
+    private final SubscriberRegistry subscribers;
+    private final EventPublisherImpl eventPublisher;
+    private final AtomicLong droppedEvents;
+    private volatile long nextSequence;
+    private volatile boolean connected;
+    private Receiver receiver;
+
+    /**
+     * Creates a service receiving the events forwarded after it connected for the first time, using Java
+     * serialization and reconnecting after a second.
+     *
+     * @param remoteAddress The address of the forwarder.
+     */
+    public TcpEventPublisherService(InetSocketAddress remoteAddress) {
+        this(remoteAddress, new JavaEventSerializer(), 0, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param remoteAddress The address of the forwarder.
+     * @param serializer The serializer converting bytes to events, the same on all nodes.
+     * @param fromSequence The sequence of the first event to be received, or <code>0</code> to receive the events
+     * forwarded after connecting.
+     * @param reconnectDelay The time to wait before reconnecting after the connection failed.
+     * @param unit The time unit of the reconnect delay.
+     */
+    public TcpEventPublisherService(InetSocketAddress remoteAddress, EventSerializer serializer, long fromSequence, long reconnectDelay, TimeUnit unit) {
+        if (remoteAddress == null) {
+            throw new NullPointerException("You must provide a remote address");
+        }
+
+        if (serializer == null) {
+            throw new NullPointerException("You must provide an event serializer");
+        }
+
+        if (fromSequence < 0) {
+            throw new IllegalArgumentException("You must provide a sequence of at least 0, but provided " + fromSequence);
+        }
+
+        if (unit == null) {
+            throw new NullPointerException("You must provide a time unit");
+        }
+
+        this.remoteAddress = remoteAddress;
+        this.serializer = serializer;
+        this.reconnectDelayMillis = Math.max(0, unit.toMillis(reconnectDelay));
+        this.subscribers = new SubscriberRegistry();
+        this.eventPublisher = new EventPublisherImpl();
+        this.droppedEvents = new AtomicLong();
+        this.nextSequence = fromSequence;
+        this.connected = false;
+    }
+
+    public synchronized void start() {
+        if (isRunning()) {
+            throw new IllegalStateException("Publisher is already started");
+        }
+
+        receiver = new Receiver();
+        receiver.start();
+        logger.info("Publisher started, receiving events from " + remoteAddress);
+    }
+
+    public synchronized void stop() {
+        if (!isRunning()) {
+            throw new IllegalStateException("Publisher is not started");
+        }
+
+        try {
+            receiver.interrupt();
+            receiver.selector.wakeup();
+            receiver.join(1000);
+            logger.info("Publisher stopped");
+        } catch (InterruptedException e) {
+            logger.error("Failed to stop publisher", e);
+        } finally {
+            receiver = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return receiver != null;
+    }
+
+    public EventPublisher getPublisher() {
+        return eventPublisher;
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (isRunning()) {
+                stop();
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the service is connected to the forwarder.
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return The sequence of the next event expected from the forwarder, or <code>0</code> if no event was received
+     * yet and the service started with the events forwarded after connecting.
+     */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @return The number of events skipped because the forwarder no longer retained them.
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    private class EventPublisherImpl implements EventPublisher {
+        public void addSubscriber(EventSubscriber subscriber) {
+            subscribers.add(subscriber);
+            logger.debug("Added subscriber " + subscriber);
+        }
+
+        public void removeSubscriber(EventSubscriber subscriber) {
+            subscribers.remove(subscriber);
+            logger.debug("Removed subscriber " + subscriber);
+        }
+
+        public void publish(Event event) {
+            throw new UnsupportedOperationException("You tried to publish to the events received from " + remoteAddress + ", which are published by the forwarding node");
+        }
+
+        public void publish(List<Event> events) {
+            throw new UnsupportedOperationException("You tried to publish to the events received from " + remoteAddress + ", which are published by the forwarding node");
+        }
+    }
+
+    /**
+     * The thread connecting to the forwarder and delivering the received events.
+     */
+    private class Receiver extends Thread {
+        private final Selector selector;
+        private final EventDelivery delivery;
+        private final List<Event> batch;
+        private ByteBuffer input;
+
+        private Receiver() {
+            try {
+                this.selector = Selector.open();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open selector", e);
+            }
+
+            this.delivery = new EventDelivery(subscribers);
+            this.batch = new ArrayList<Event>();
+            this.input = ByteBuffer.allocateDirect(TcpEventForwarder.DEFAULT_BUFFER_SIZE);
+            setName("tcp-event-receiver");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    try {
+                        receive();
+                    } catch (IOException e) {
+                        logger.warn("Connection to " + remoteAddress + " failed: " + e.getMessage());
+                    } finally {
+                        connected = false;
+                    }
+
+                    if (!isInterrupted()) {
+                        Thread.sleep(reconnectDelayMillis);
+                    }
+                }
+            } catch (InterruptedException e) {
+                interrupt();
+            } finally {
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close selector", e);
+                }
+            }
+        }
+
+        /**
+         * Connects to the forwarder, sends the sequence to resume from and receives frames until the connection fails
+         * or the thread is interrupted.
+         */
+        private void receive() throws IOException {
+            final SocketChannel channel = SocketChannel.open();
+
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.connect(remoteAddress);
+
+                final SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+                final ByteBuffer handshake = ByteBuffer.allocate(TcpEventForwarder.HANDSHAKE_SIZE);
+                handshake.putLong(0, nextSequence);
+                input.clear();
+
+                while (!isInterrupted()) {
+                    selector.select();
+
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        keys.next();
+                        keys.remove();
+                    }
+
+                    if (key.isConnectable() && channel.finishConnect()) {
+                        connected = true;
+                        logger.info("Connected to " + remoteAddress + ", resuming from sequence " + nextSequence);
+                    }
+
+                    if (!channel.isConnected()) {
+                        continue;
+                    }
+
+                    if (handshake.hasRemaining()) {
+                        channel.write(handshake);
+                        key.interestOps(handshake.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                        continue;
+                    }
+
+                    if (channel.read(input) < 0) {
+                        throw new IOException("Connection closed by forwarder");
+                    }
+
+                    readFrames();
+                }
+            } finally {
+                channel.close();
+                selector.selectNow();
+            }
+        }
+
+        /**
+         * Decodes all complete frames in the receive buffer and delivers their events. An incomplete frame is kept in
+         * the buffer, which grows if the frame does not fit.
+         */
+        private void readFrames() {
+            input.flip();
+
+            while (input.remaining() >= 4) {
+                final int start = input.position();
+                final int frameLength = input.getInt(start);
+
+                if (input.remaining() < 4 + frameLength) {
+                    break;
+                }
+
+                final long first = input.getLong(start + 4);
+                final int count = input.getInt(start + 12);
+                int offset = start + TcpEventForwarder.FRAME_HEADER_SIZE;
+
+                if (nextSequence > 0 && first > nextSequence) {
+                    logger.warn("Forwarder " + remoteAddress + " no longer retained " + (first - nextSequence) + " events");
+                    droppedEvents.addAndGet(first - nextSequence);
+                }
+
+                for (int i = 0; i < count; i++) {
+                    final int length = input.getInt(offset);
+                    final ByteBuffer event = input.duplicate();
+                    event.limit(offset + 4 + length);
+                    event.position(offset + 4);
+
+                    try {
+                        batch.add(serializer.deserialize(event.slice()));
+                    } catch (Exception e) {
+                        logger.error("Skipping event " + (first + i) + " from " + remoteAddress + ", which cannot be deserialized", e);
+                    }
+
+                    offset += 4 + length;
+                }
+
+                nextSequence = first + count;
+                input.position(start + 4 + frameLength);
+            }
+
+            try {
+                if (!batch.isEmpty()) {
+                    delivery.deliver(batch);
+                }
+            } catch (Exception e) {
+                logger.error("Failed to deliver events", e);
+            } finally {
+                batch.clear();
+            }
+
+            if (input.remaining() >= 4 && 4 + input.getInt(input.position()) > input.capacity()) {
+                final ByteBuffer larger = ByteBuffer.allocateDirect(4 + input.getInt(input.position()));
+                larger.put(input);
+                input = larger;
+            } else {
+                input.compact();
+            }
+        }
+    }
+}
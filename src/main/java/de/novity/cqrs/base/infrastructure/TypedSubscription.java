@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BatchEventSubscriber;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.TypedEventSubscriber;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Subscribes an event subscriber to the given event types, as declared by <code>SubscribesTo</code>. A subscriber
+ * implementing <code>BatchEventSubscriber</code> keeps receiving batches.
+ * <p/>
+ * To remove the subscriber from a publisher, remove the subscription returned by <code>of</code>.
+ */
+public class TypedSubscription implements TypedEventSubscriber {
+    private final EventSubscriber subscriber;
+    private final Collection<Class<? extends Event>> eventTypes;
+
+    private TypedSubscription(EventSubscriber subscriber, Collection<Class<? extends Event>> eventTypes) {
+        this.subscriber = subscriber;
+        this.eventTypes = eventTypes;
+    }
+
+    /**
+     * @param subscriber The subscriber notified about the events of the given types.
+     * @param eventTypes The types of events the subscriber is notified about.
+     * @return The subscription to be added to a publisher.
+     */
+    public static TypedEventSubscriber of(EventSubscriber subscriber, List<Class<? extends Event>> eventTypes) {
+        if (subscriber == null) {
+            throw new NullPointerException("You must provide an event subscriber");
+        }
+
+        if (eventTypes == null) {
+            throw new NullPointerException("You must provide a list of event types");
+        }
+
+        final Collection<Class<? extends Event>> types = Collections.unmodifiableList(new ArrayList<Class<? extends Event>>(eventTypes));
+
+        if (subscriber instanceof BatchEventSubscriber) {
+            return new TypedBatchSubscription((BatchEventSubscriber) subscriber, types);
+        }
+
+        return new TypedSubscription(subscriber, types);
+    }
+
+    public Collection<Class<? extends Event>> getEventTypes() {
+        return eventTypes;
+    }
+
+    public void onEvent(Event event) {
+        subscriber.onEvent(event);
+    }
+
+    @Override
+    public String toString() {
+        return subscriber.toString();
+    }
+
+    private static final class TypedBatchSubscription extends TypedSubscription implements BatchEventSubscriber {
+        private final BatchEventSubscriber subscriber;
+
+        private TypedBatchSubscription(BatchEventSubscriber subscriber, Collection<Class<? extends Event>> eventTypes) {
+            super(subscriber, eventTypes);
+            this.subscriber = subscriber;
+        }
+
+        public void onEvents(List<Event> events) {
+            subscriber.onEvents(events);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventSourcedRootAggregate;
+import de.novity.cqrs.base.api.EventStore;
+import de.novity.cqrs.base.api.Repository;
+import de.novity.cqrs.base.api.RootAggregate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A unit of work collects the root aggregates touched while a command is executed by a
+ * <code>UnitOfWorkCommandDispatcher</code>. After the command handler succeeded, the events of all registered root
+ * aggregates are stored and published together, and only then committed on the root aggregates. If the command
+ * handler fails, nothing is stored or published.
+ * <p/>
+ * The repositories register the root aggregates they load with the active unit of work, and saving a root aggregate
+ * registers it instead of storing it right away, so command handlers do not have to register them. When the unit of
+ * work is flushed, these root aggregates are saved by their repository, so that caching repositories keep them and
+ * snapshot policies apply. Root aggregates not obtained from a repository are registered by <code>register</code>.
+ * <p/>
+ * A unit of work is an identity map of the registered root aggregates: while it is active, the repositories return
+ * a registered root aggregate instead of loading it again. A <code>BatchingCommandDispatcher</code> executes several
+ * commands within one unit of work, so that a root aggregate targeted by all of them is loaded only once.
+ * <p/>
+ * The unit of work of the current command is bound to the executing thread. See the following example of a command
+ * handler:
+ * <p/>
+ * <pre>{@code
+ * public void execute(TransferMoney command) throws Exception {
+ *   Account source = repository.load(command.sourceId);
+ *   Account target = repository.load(command.targetId);
+ *   source.withdraw(command.amount);
+ *   target.deposit(command.amount);
+ * }
+ * }</pre>
+ */
+public final class UnitOfWork {
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<UnitOfWork>();
+
+    private final List<String> streamIds;
+    private final List<RootAggregate> aggregates;
+    private final List<Repository<?>> repositories;
+    private int savedAggregateCount;
+    private int[] savedEventCounts;
+    private boolean flushing;
+
+    private UnitOfWork() {
+        this.streamIds = new ArrayList<String>();
+        this.aggregates = new ArrayList<RootAggregate>();
+        this.repositories = new ArrayList<Repository<?>>();
+        this.savedAggregateCount = 0;
+        this.savedEventCounts = new int[0];
+        this.flushing = false;
+    }
+
+    /**
+     * @return The unit of work of the command executed by the current thread.
+     * @throws IllegalStateException If the current thread is not executing a command.
+     */
+    public static UnitOfWork current() {
+        final UnitOfWork unitOfWork = current.get();
+
+        if (unitOfWork == null) {
+            throw new IllegalStateException("You tried to access the unit of work outside of a command execution");
+        }
+
+        return unitOfWork;
+    }
+
+    /**
+     * @return Whether the current thread is executing a command within a unit of work.
+     */
+    public static boolean isActive() {
+        return current.get() != null;
+    }
+
+    /**
+     * Registers a root aggregate. The events of an event sourced root aggregate are appended to the stream named by
+     * its id, the events of other root aggregates are only published.
+     */
+    public void register(RootAggregate aggregate) {
+        if (aggregate instanceof EventSourcedRootAggregate) {
+            register(((EventSourcedRootAggregate) aggregate).getId(), aggregate);
+        } else {
+            register(null, aggregate);
+        }
+    }
+
+    /**
+     * Registers a root aggregate whose events are appended to the given stream. Registering a root aggregate again has
+     * no effect.
+     */
+    public void register(String streamId, RootAggregate aggregate) {
+        if (aggregate == null) {
+            throw new NullPointerException("You must provide a root aggregate");
+        }
+
+        if (indexOf(aggregate) < 0) {
+            streamIds.add(streamId);
+            aggregates.add(aggregate);
+            repositories.add(null);
+        }
+    }
+
+    /**
+     * @return The unit of work collecting the root aggregates of the command executed by the current thread, or
+     * <code>null</code> if there is none or it is being flushed.
+     */
+    static UnitOfWork collecting() {
+        final UnitOfWork unitOfWork = current.get();
+        return unitOfWork == null || unitOfWork.flushing ? null : unitOfWork;
+    }
+
+    /**
+     * Registers a root aggregate to be saved by the given repository. Registering a root aggregate again replaces its
+     * repository, so that a repository wrapping another one saves it.
+     */
+    <T extends EventSourcedRootAggregate> void register(T aggregate, Repository<T> repository) {
+        final int index = indexOf(aggregate);
+
+        if (index < 0) {
+            streamIds.add(aggregate.getId());
+            aggregates.add(aggregate);
+            repositories.add(repository);
+        } else {
+            repositories.set(index, repository);
+        }
+    }
+
+    /**
+     * @param streamId The stream of the root aggregate, usually its id.
+     * @return The root aggregate registered with the given stream, or <code>null</code> if there is none.
+     */
+    public RootAggregate find(String streamId) {
+        if (streamId == null) {
+            throw new NullPointerException("You must provide a stream id");
+        }
+
+        for (int i = 0; i < aggregates.size(); i++) {
+            if (streamId.equals(streamIds.get(i))) {
+                return aggregates.get(i);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Binds a new unit of work to the current thread.
+     *
+     * @return The new unit of work, or <code>null</code> if the thread already has a unit of work, which the
+     * command joins.
+     */
+    static UnitOfWork begin() {
+        if (current.get() != null) {
+            return null;
+        }
+
+        final UnitOfWork unitOfWork = new UnitOfWork();
+        current.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    void end() {
+        current.remove();
+    }
+
+    /**
+     * Saves the root aggregates registered by a repository through it, appends the events of the other root aggregates
+     * to the event store, if given, publishes all events in one batch and commits the other root aggregates.
+     */
+    void flush(EventStore eventStore, EventPublisher eventPublisher) throws Exception {
+        final List<Event> events = new ArrayList<Event>();
+
+        for (RootAggregate aggregate : aggregates) {
+            events.addAll(aggregate.getEvents());
+        }
+
+        if (events.isEmpty()) {
+            return;
+        }
+
+        flushing = true;
+        try {
+            for (int i = 0; i < aggregates.size(); i++) {
+                final RootAggregate aggregate = aggregates.get(i);
+
+                if (aggregate.getEventCount() == 0) {
+                    continue;
+                }
+
+                if (repositories.get(i) != null) {
+                    save(repositories.get(i), aggregate);
+                } else if (eventStore != null && streamIds.get(i) != null) {
+                    eventStore.append(streamIds.get(i), aggregate.getVersion(), aggregate.getEvents());
+                }
+            }
+        } finally {
+            flushing = false;
+        }
+
+        eventPublisher.publish(events);
+
+        for (int i = 0; i < aggregates.size(); i++) {
+            if (repositories.get(i) == null) {
+                aggregates.get(i).commitEvents();
+            }
+        }
+    }
+
+    /**
+     * Remembers the registered root aggregates and their number of uncommitted events.
+     */
+    void savepoint() {
+        savedAggregateCount = aggregates.size();
+        savedEventCounts = new int[savedAggregateCount];
+
+        for (int i = 0; i < savedAggregateCount; i++) {
+            savedEventCounts[i] = aggregates.get(i).getEventCount();
+        }
+    }
+
+    /**
+     * Stores and publishes only the events raised up to the last savepoint. The events are appended to the event store
+     * directly, also those of root aggregates registered by a repository. The root aggregates are not committed, as
+     * they may hold changes made after the savepoint, and must not be used any further.
+     */
+    void flushSavepoint(EventStore eventStore, EventPublisher eventPublisher) throws Exception {
+        final List<Event> events = new ArrayList<Event>();
+
+        for (int i = 0; i < savedAggregateCount; i++) {
+            events.addAll(savedEventsOf(i));
+        }
+
+        if (events.isEmpty()) {
+            return;
+        }
+
+        if (eventStore != null) {
+            for (int i = 0; i < savedAggregateCount; i++) {
+                List<Event> aggregateEvents = savedEventsOf(i);
+
+                if (streamIds.get(i) != null && !aggregateEvents.isEmpty()) {
+                    eventStore.append(streamIds.get(i), aggregates.get(i).getVersion(), aggregateEvents);
+                }
+            }
+        }
+
+        eventPublisher.publish(events);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void save(Repository<?> repository, RootAggregate aggregate) throws Exception {
+        ((Repository<EventSourcedRootAggregate>) repository).save((EventSourcedRootAggregate) aggregate);
+    }
+
+    private int indexOf(RootAggregate aggregate) {
+        for (int i = 0; i < aggregates.size(); i++) {
+            if (aggregates.get(i) == aggregate) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private List<Event> savedEventsOf(int index) {
+        return aggregates.get(index).getEvents().subList(0, savedEventCounts[index]);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandDispatcher;
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventStore;
+
+/**
+ * A command dispatcher executing each command within a <code>UnitOfWork</code>.
+ * <p/>
+ * After the command handler returned, the root aggregates registered by a repository are saved by it, the events of
+ * the other registered root aggregates are appended to the event store, if given, and all events are published in a
+ * single batch. Commands executed by a command handler through this dispatcher join the unit of work of the outer
+ * command and are flushed with it.
+ * <p/>
+ * Appends to different streams are not atomic with each other. If an append or the publishing fails, only the root
+ * aggregates already saved by their repository are committed.
+ */
+public class UnitOfWorkCommandDispatcher implements CommandDispatcher {
+    private final CommandDispatcher delegate;
+    private final EventStore eventStore;
+    private final EventPublisher eventPublisher;
+
+    /**
+     * Creates a dispatcher publishing the events without storing them.
+     */
+    public UnitOfWorkCommandDispatcher(CommandDispatcher delegate, EventPublisher eventPublisher) {
+        this(delegate, null, eventPublisher);
+    }
+
+    /**
+     * @param delegate The dispatcher executing the command handlers.
+     * @param eventStore The event store the events are appended to, or <code>null</code> to only publish them.
+     * @param eventPublisher The publisher publishing the events.
+     */
+    public UnitOfWorkCommandDispatcher(CommandDispatcher delegate, EventStore eventStore, EventPublisher eventPublisher) {
+        if (delegate == null) {
+            throw new NullPointerException("You must provide a delegate dispatcher");
+        }
+
+        if (eventPublisher == null) {
+            throw new NullPointerException("You must provide an event publisher");
+        }
+
+        this.delegate = delegate;
+        this.eventStore = eventStore;
+        this.eventPublisher = eventPublisher;
+    }
+
+    public void registerHandler(Class commandType, CommandHandler handler) {
+        delegate.registerHandler(commandType, handler);
+    }
+
+    public void execute(Command command) throws Exception {
+        final UnitOfWork unitOfWork = UnitOfWork.begin();
+
+        if (unitOfWork == null) {
+            delegate.execute(command);
+            return;
+        }
+
+        try {
+            delegate.execute(command);
+            unitOfWork.flush(eventStore, eventPublisher);
+        } finally {
+            unitOfWork.end();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A wait strategy defines how a thread waits for a lock-free data structure to change its state, e.g. a consumer
+ * waiting for events to be published to a ring buffer. The available strategies trade CPU usage for latency:
+ * <ul>
+ * <li><code>BlockingWaitStrategy</code> uses a lock and a condition and burns no CPU while waiting.</li>
+ * <li><code>ParkingWaitStrategy</code> spins, yields and finally parks with an increasing backoff.</li>
+ * <li><code>YieldingWaitStrategy</code> spins and then yields the CPU to other threads.</li>
+ * <li><code>BusySpinWaitStrategy</code> spins and provides the lowest latency at the cost of a whole core.</li>
+ * </ul>
+ */
+public interface WaitStrategy {
+    /**
+     * Waits until the given condition becomes true.
+     *
+     * @param condition The condition to be waited for.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    void waitUntil(BooleanSupplier condition) throws InterruptedException;
+
+    /**
+     * Waits until the given condition becomes true or the timeout elapses.
+     *
+     * @param condition The condition to be waited for.
+     * @param timeout The maximum time to wait.
+     * @param unit The time unit of the timeout.
+     * @return <code>true</code> if the condition became true, <code>false</code> if the timeout elapsed.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    boolean waitUntil(BooleanSupplier condition, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Signals all waiting threads that the state they are waiting for might have changed.
+     */
+    void signalAll();
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.api;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.testng.Assert.*;
+
+public class RootAggregateTest {
+    @Test
+    public void AggregateWithoutChangesHasNoEvents() throws Exception {
+        Order order = new Order();
+
+        assertTrue(order.getEvents().isEmpty());
+        assertEquals(order.getEventCount(), 0);
+    }
+
+    @Test
+    public void EventsAreKeptInOrderUntilCommitted() throws Exception {
+        Order order = new Order();
+        Event first = order.change();
+        Event second = order.change();
+
+        List<Event> events = order.getEvents();
+        assertEquals(events, Arrays.asList(first, second));
+
+        order.commitEvents();
+
+        assertTrue(events.isEmpty());
+        assertEquals(order.getVersion(), 2);
+    }
+
+    @Test(
+            expectedExceptions = {
+                    UnsupportedOperationException.class
+            }
+    )
+    public void EventsCannotBeModifiedFromOutside() throws Exception {
+        Order order = new Order();
+        order.change();
+
+        order.getEvents().clear();
+    }
+
+    @Test
+    public void DrainingPassesEventsAndCommitsThem() throws Exception {
+        Order order = new Order();
+        List<Event> expected = new ArrayList<Event>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(order.change());
+        }
+
+        final List<Event> drained = new ArrayList<Event>();
+        order.drainEvents(new Consumer<Event>() {
+            public void accept(Event event) {
+                drained.add(event);
+            }
+        });
+
+        assertEquals(drained, expected);
+        assertEquals(order.getEventCount(), 0);
+        assertEquals(order.getVersion(), 100);
+
+        Event next = order.change();
+        assertEquals(order.getEvents(), Arrays.asList(next));
+    }
+
+    @Test
+    public void FailingConsumerLeavesEventsUncommitted() throws Exception {
+        Order order = new Order();
+        order.change();
+
+        try {
+            order.drainEvents(new Consumer<Event>() {
+                public void accept(Event event) {
+                    throw new IllegalStateException("Publishing failed");
+                }
+            });
+            fail("Draining should have failed");
+        } catch (IllegalStateException e) {
+            assertEquals(order.getEventCount(), 1);
+            assertEquals(order.getVersion(), 0);
+        }
+    }
+
+    private static class Order extends RootAggregate {
+        private Event change() {
+            Event event = new Changed();
+            addEvent(event);
+            return event;
+        }
+    }
+
+    private static class Changed extends Event {
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandHandler;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class AsyncCommandDispatcherTest {
+    private ExecutorService executor;
+    private AsyncCommandDispatcher dispatcher;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(4);
+        dispatcher = new AsyncCommandDispatcher(new InMemoryCommandDispatcher(), new CommandKeyExtractor() {
+            public Object getKey(Command command) {
+                return ((KeyedCommand) command).key;
+            }
+        }, executor);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void CommandsOfTheSameAggregateAreExecutedInOrder() throws Exception {
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        dispatcher.registerHandler(KeyedCommand.class, new CommandHandler<KeyedCommand>() {
+            public void execute(KeyedCommand command) throws Exception {
+                int concurrent = running.incrementAndGet();
+                maxRunning.set(Math.max(maxRunning.get(), concurrent));
+                executed.add(command.number);
+                running.decrementAndGet();
+            }
+        });
+
+        List<CompletableFuture<Void>> results = new ArrayList<CompletableFuture<Void>>();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            results.add(dispatcher.submit(new KeyedCommand("order-1", i)));
+            expected.add(i);
+        }
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[results.size()])).get(10, TimeUnit.SECONDS);
+
+        assertEquals(executed, expected);
+        assertEquals(maxRunning.get(), 1);
+    }
+
+    @Test
+    public void CommandsOfDifferentAggregatesAreExecutedInParallel() throws Exception {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+
+        dispatcher.registerHandler(KeyedCommand.class, new CommandHandler<KeyedCommand>() {
+            public void execute(KeyedCommand command) throws Exception {
+                bothRunning.countDown();
+
+                if (!bothRunning.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Commands were not executed in parallel");
+                }
+            }
+        });
+
+        CompletableFuture<Void> first = dispatcher.submit(new KeyedCommand("order-1", 0));
+        CompletableFuture<Void> second = dispatcher.submit(new KeyedCommand("order-2", 0));
+
+        CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void FailingCommandCompletesFutureExceptionallyAndDoesNotBlockFollowingCommands() throws Exception {
+        dispatcher.registerHandler(KeyedCommand.class, new CommandHandler<KeyedCommand>() {
+            public void execute(KeyedCommand command) throws Exception {
+                if (command.number == 0) {
+                    throw new IllegalArgumentException("Command failed");
+                }
+            }
+        });
+
+        CompletableFuture<Void> failed = dispatcher.submit(new KeyedCommand("order-1", 0));
+        CompletableFuture<Void> succeeded = dispatcher.submit(new KeyedCommand("order-1", 1));
+
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("Command should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        succeeded.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test(
+            expectedExceptions = {
+                    IllegalArgumentException.class
+            }
+    )
+    public void ExecutingFailingCommandRethrowsException() throws Exception {
+        dispatcher.registerHandler(KeyedCommand.class, new CommandHandler<KeyedCommand>() {
+            public void execute(KeyedCommand command) throws Exception {
+                throw new IllegalArgumentException("Command failed");
+            }
+        });
+
+        dispatcher.execute(new KeyedCommand(null, 0));
+    }
+
+    private static class KeyedCommand extends Command {
+        private final String key;
+        private final int number;
+
+        private KeyedCommand(String key, int number) {
+            this.key = key;
+            this.number = number;
+        }
+    }
+}
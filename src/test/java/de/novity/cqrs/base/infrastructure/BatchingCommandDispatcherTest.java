@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.AggregateFactory;
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.api.ConcurrencyException;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventSourcedRootAggregate;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class BatchingCommandDispatcherTest {
+    private CountingEventStore eventStore;
+    private RecordingPublisher publisher;
+    private AtomicInteger created;
+    private BatchingCommandDispatcher dispatcher;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        eventStore = new CountingEventStore();
+        publisher = new RecordingPublisher();
+        created = new AtomicInteger();
+
+        final EventSourcedRepository<Counter> repository = new EventSourcedRepository<Counter>(eventStore, new AggregateFactory<Counter>() {
+            public Counter create(String id) {
+                created.incrementAndGet();
+                return new Counter(id);
+            }
+        });
+
+        dispatcher = new BatchingCommandDispatcher(new InMemoryCommandDispatcher(), new CommandKeyExtractor() {
+            public Object getKey(Command command) {
+                return ((Add) command).counterId;
+            }
+        }, eventStore, publisher, 10, 10, TimeUnit.SECONDS);
+
+        dispatcher.registerHandler(Add.class, new CommandHandler<Add>() {
+            public void execute(Add command) throws Exception {
+                Counter counter = repository.load(command.counterId);
+
+                if (counter == null) {
+                    counter = new Counter(command.counterId);
+                }
+
+                counter.add(command.amount);
+                repository.save(counter);
+
+                if (command.amount < 0) {
+                    throw new IllegalArgumentException("You tried to add a negative amount");
+                }
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void FullBatchLoadsAggregateOnceAndWritesAllEventsTogether() throws Exception {
+        eventStore.append("counter-1", Collections.<Event>singletonList(new Added(100)));
+
+        List<CompletableFuture<Void>> results = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 10; i++) {
+            results.add(dispatcher.submit(new Add("counter-1", 1)));
+        }
+
+        for (CompletableFuture<Void> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(created.get(), 1);
+        assertEquals(eventStore.appends, 2);
+        assertEquals(eventStore.getVersion("counter-1"), 11);
+        assertEquals(publisher.batches.size(), 1);
+        assertEquals(publisher.batches.get(0).size(), 10);
+    }
+
+    @Test
+    public void FailedCommandFailsAloneAndFollowingCommandsReloadAggregate() throws Exception {
+        List<CompletableFuture<Void>> results = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 10; i++) {
+            results.add(dispatcher.submit(new Add("counter-1", i == 3 ? -1 : 1)));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            if (i == 3) {
+                try {
+                    results.get(i).get(10, TimeUnit.SECONDS);
+                    fail("Command should have failed");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalArgumentException);
+                }
+            } else {
+                results.get(i).get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        assertEquals(eventStore.getVersion("counter-1"), 9);
+        assertEquals(publisher.batches.size(), 2);
+        assertEquals(publisher.batches.get(0).size(), 3);
+        assertEquals(publisher.batches.get(1).size(), 6);
+        assertEquals(created.get(), 2);
+    }
+
+    @Test
+    public void SingleCommandIsExecutedAfterDelay() throws Exception {
+        BatchingCommandDispatcher delayed = new BatchingCommandDispatcher(new InMemoryCommandDispatcher(), new CommandKeyExtractor() {
+            public Object getKey(Command command) {
+                return ((Add) command).counterId;
+            }
+        }, eventStore, publisher, 10, 10, TimeUnit.MILLISECONDS);
+
+        try {
+            delayed.registerHandler(Add.class, new CommandHandler<Add>() {
+                public void execute(Add command) throws Exception {
+                    Counter counter = new Counter(command.counterId);
+                    counter.add(command.amount);
+                    UnitOfWork.current().register(counter);
+                }
+            });
+
+            delayed.execute(new Add("counter-1", 1));
+
+            assertEquals(eventStore.getVersion("counter-1"), 1);
+        } finally {
+            delayed.shutdown();
+        }
+    }
+
+    @Test
+    public void CachedAggregateIsReusedAcrossBatches() throws Exception {
+        InMemorySnapshotStore snapshotStore = new InMemorySnapshotStore();
+        final CachingRepository<Counter> repository = new CachingRepository<Counter>(new EventSourcedRepository<Counter>(eventStore, snapshotStore, SnapshotPolicy.everyEvents(2), new AggregateFactory<Counter>() {
+            public Counter create(String id) {
+                created.incrementAndGet();
+                return new Counter(id);
+            }
+        }), 10);
+        eventStore.append("counter-1", Collections.<Event>singletonList(new Added(100)));
+
+        BatchingCommandDispatcher cached = new BatchingCommandDispatcher(new InMemoryCommandDispatcher(), new CommandKeyExtractor() {
+            public Object getKey(Command command) {
+                return ((Add) command).counterId;
+            }
+        }, null, publisher, 10, 0, TimeUnit.MILLISECONDS);
+
+        try {
+            cached.registerHandler(Add.class, new CommandHandler<Add>() {
+                public void execute(Add command) throws Exception {
+                    repository.load(command.counterId).add(command.amount);
+                }
+            });
+
+            for (int i = 0; i < 3; i++) {
+                cached.execute(new Add("counter-1", 1));
+            }
+
+            assertEquals(created.get(), 1);
+            assertEquals(repository.getMissCount(), 1);
+            assertEquals(repository.getHitCount(), 2);
+            assertEquals(repository.load("counter-1").total, 103);
+            assertEquals(eventStore.getVersion("counter-1"), 4);
+            assertEquals(snapshotStore.load("counter-1").getVersion(), 4);
+            assertEquals(publisher.batches.size(), 3);
+        } finally {
+            cached.shutdown();
+        }
+    }
+
+    private static class Add extends Command {
+        private final String counterId;
+        private final int amount;
+
+        private Add(String counterId, int amount) {
+            this.counterId = counterId;
+            this.amount = amount;
+        }
+    }
+
+    private static class Counter extends EventSourcedRootAggregate {
+        private long total;
+
+        private Counter(String id) {
+            super(id);
+        }
+
+        private void add(int amount) {
+            applyChange(new Added(amount));
+        }
+
+        @Override
+        protected void apply(Event event) {
+            total += ((Added) event).amount;
+        }
+
+        @Override
+        protected Object snapshotState() {
+            return total;
+        }
+
+        @Override
+        protected void restoreState(Object state) {
+            total = (Long) state;
+        }
+    }
+
+    private static class Added extends Event {
+        private final int amount;
+
+        private Added(int amount) {
+            this.amount = amount;
+        }
+    }
+
+    private static class CountingEventStore extends InMemoryEventStore {
+        private volatile int appends;
+
+        @Override
+        public long append(String streamId, long expectedVersion, List<Event> events) throws ConcurrencyException {
+            appends++;
+            return super.append(streamId, expectedVersion, events);
+        }
+
+        @Override
+        public long append(String streamId, List<Event> events) throws ConcurrencyException {
+            appends++;
+            return super.append(streamId, events);
+        }
+    }
+
+    private static class RecordingPublisher implements EventPublisher {
+        private final List<List<Event>> batches = Collections.synchronizedList(new ArrayList<List<Event>>());
+
+        public void addSubscriber(EventSubscriber subscriber) {
+        }
+
+        public void removeSubscriber(EventSubscriber subscriber) {
+        }
+
+        public void publish(Event event) throws Exception {
+            batches.add(Collections.singletonList(event));
+        }
+
+        public void publish(List<Event> events) throws Exception {
+            batches.add(new ArrayList<Event>(events));
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BatchEventSubscriber;
+import de.novity.cqrs.base.api.CacheableQuery;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.Projection;
+import de.novity.cqrs.base.api.Query;
+import de.novity.cqrs.base.api.QueryHandler;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.testng.Assert.*;
+
+public class CachingQueryDispatcherTest {
+    private SynchronousEventPublisher eventPublisher;
+    private CountingHandler handler;
+    private CachingQueryDispatcher dispatcher;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        eventPublisher = new SynchronousEventPublisher();
+        handler = new CountingHandler();
+        dispatcher = new CachingQueryDispatcher(new InMemoryQueryDispatcher(), eventPublisher, 2);
+        dispatcher.registerHandler(FindOrder.class, handler);
+        dispatcher.registerHandler(CountOrders.class, new QueryHandler<CountOrders, Integer>() {
+            public Integer execute(CountOrders query) throws Exception {
+                return handler.executions++;
+            }
+        });
+    }
+
+    @Test
+    public void RepeatedQueryIsServedFromCache() throws Exception {
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#0");
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#0");
+
+        assertEquals(handler.executions, 1);
+        assertEquals(dispatcher.getHitCount(), 1);
+        assertEquals(dispatcher.getMissCount(), 1);
+    }
+
+    @Test
+    public void EventOfDeclaredTypeEvictsOnlyQueriesDeclaringIt() throws Exception {
+        dispatcher.execute(new FindOrder("order-1"));
+        eventPublisher.publish(new CustomerRenamed());
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#0");
+
+        eventPublisher.publish(new OrderConfirmed());
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#1");
+        assertEquals(handler.executions, 2);
+    }
+
+    @Test
+    public void EventOfSubtypeEvictsQueriesDeclaringSupertype() throws Exception {
+        dispatcher.execute(new FindOrder("order-1"));
+        eventPublisher.publish(new ExpressOrderConfirmed());
+
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#1");
+        assertEquals(dispatcher.size(), 1);
+    }
+
+    @Test
+    public void QueriesNotImplementingCacheableQueryAreAlwaysExecuted() throws Exception {
+        assertEquals(dispatcher.execute(new CountOrders()), Integer.valueOf(0));
+        assertEquals(dispatcher.execute(new CountOrders()), Integer.valueOf(1));
+        assertEquals(dispatcher.size(), 0);
+    }
+
+    @Test
+    public void ResultIsNotCachedIfInvalidatingEventArrivesDuringExecution() throws Exception {
+        handler.publishDuringExecution = new OrderConfirmed();
+
+        dispatcher.execute(new FindOrder("order-1"));
+
+        assertEquals(dispatcher.size(), 0);
+        handler.publishDuringExecution = null;
+
+        dispatcher.execute(new FindOrder("order-1"));
+        dispatcher.execute(new FindOrder("order-1"));
+        assertEquals(handler.executions, 2);
+    }
+
+    @Test
+    public void LeastRecentlyUsedResultIsEvictedWhenMaximumSizeIsExceeded() throws Exception {
+        dispatcher.execute(new FindOrder("order-1"));
+        dispatcher.execute(new FindOrder("order-2"));
+        dispatcher.execute(new FindOrder("order-1"));
+        dispatcher.execute(new FindOrder("order-3"));
+
+        assertEquals(dispatcher.size(), 2);
+        assertEquals(dispatcher.getEvictionCount(), 1);
+
+        dispatcher.execute(new FindOrder("order-1"));
+        assertEquals(handler.executions, 3);
+
+        dispatcher.execute(new FindOrder("order-2"));
+        assertEquals(handler.executions, 4);
+    }
+
+    @Test
+    public void ResultReadBeforeProjectionAppliedEventIsEvictedWhenItDoes() throws Exception {
+        final List<Event> applied = new CopyOnWriteArrayList<Event>();
+        Projection projection = dispatcher.invalidating(new Projection() {
+            public String getName() {
+                return "orders";
+            }
+
+            public void reset() {
+                applied.clear();
+            }
+
+            public void onEvent(Event event) {
+                applied.add(event);
+            }
+        });
+
+        dispatcher.execute(new FindOrder("order-1"));
+        eventPublisher.publish(new OrderConfirmed());
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#1");
+
+        projection.onEvent(new OrderConfirmed());
+        assertEquals(applied.size(), 1);
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#2");
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#2");
+
+        projection.reset();
+        assertEquals(dispatcher.size(), 0);
+    }
+
+    @Test
+    public void ResultReadBeforeReadModelConfirmedUpdateIsEvicted() throws Exception {
+        eventPublisher.publish(new OrderConfirmed());
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#0");
+
+        dispatcher.readModelUpdated(Collections.<Event>singletonList(new CustomerRenamed()));
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#0");
+
+        dispatcher.readModelUpdated(Collections.<Event>singletonList(new OrderConfirmed()));
+        assertEquals(dispatcher.execute(new FindOrder("order-1")), "order-1#1");
+    }
+
+    @Test
+    public void ClosedCacheIsUnsubscribedFromPublisher() throws Exception {
+        dispatcher.close();
+
+        assertTrue(eventPublisher.subscribers.isEmpty());
+    }
+
+    @Test(
+            expectedExceptions = {
+                    NullPointerException.class
+            }
+    )
+    public void ExecutingQueryWithUnregisteredHandlerFails() throws Exception {
+        new InMemoryQueryDispatcher().execute(new FindOrder("order-1"));
+    }
+
+    private class CountingHandler implements QueryHandler<FindOrder, String> {
+        private int executions;
+        private Event publishDuringExecution;
+
+        public String execute(FindOrder query) throws Exception {
+            if (publishDuringExecution != null) {
+                eventPublisher.publish(publishDuringExecution);
+            }
+
+            return query.id + "#" + executions++;
+        }
+    }
+
+    private static class FindOrder extends Query<String> implements CacheableQuery {
+        private final String id;
+
+        private FindOrder(String id) {
+            this.id = id;
+        }
+
+        public Collection<Class<? extends Event>> getInvalidatingEventTypes() {
+            return Collections.<Class<? extends Event>>singletonList(OrderConfirmed.class);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FindOrder && ((FindOrder) o).id.equals(id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
+
+    private static class CountOrders extends Query<Integer> {
+    }
+
+    private static class OrderConfirmed extends Event {
+    }
+
+    private static class ExpressOrderConfirmed extends OrderConfirmed {
+    }
+
+    private static class CustomerRenamed extends Event {
+    }
+
+    private static class SynchronousEventPublisher implements EventPublisher {
+        private final List<EventSubscriber> subscribers = new CopyOnWriteArrayList<EventSubscriber>();
+
+        public void addSubscriber(EventSubscriber subscriber) {
+            subscribers.add(subscriber);
+        }
+
+        public void removeSubscriber(EventSubscriber subscriber) {
+            subscribers.remove(subscriber);
+        }
+
+        public void publish(Event event) throws Exception {
+            publish(Collections.singletonList(event));
+        }
+
+        public void publish(List<Event> events) throws Exception {
+            for (EventSubscriber subscriber : subscribers) {
+                ((BatchEventSubscriber) subscriber).onEvents(events);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.AggregateFactory;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSourcedRootAggregate;
+import de.novity.cqrs.base.api.Repository;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+import static org.testng.Assert.*;
+
+public class CachingRepositoryTest {
+    private EventSourcedRepository<Counter> delegate;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        delegate = new EventSourcedRepository<Counter>(new InMemoryEventStore(), new AggregateFactory<Counter>() {
+            public Counter create(String id) {
+                return new Counter(id);
+            }
+        });
+
+        for (int i = 0; i < 3; i++) {
+            Counter counter = new Counter("counter-" + i);
+            counter.add(i);
+            delegate.save(counter);
+        }
+    }
+
+    @Test
+    public void HotAggregateStaysResident() throws Exception {
+        CachingRepository<Counter> repository = new CachingRepository<Counter>(delegate, 10);
+
+        Counter first = repository.load("counter-1");
+        first.add(5);
+        repository.save(first);
+        Counter second = repository.load("counter-1");
+
+        assertSame(second, first);
+        assertEquals(second.total, 6);
+        assertEquals(repository.getMissCount(), 1);
+        assertEquals(repository.getHitCount(), 1);
+    }
+
+    @Test
+    public void LeastRecentlyUsedAggregateIsEvicted() throws Exception {
+        CachingRepository<Counter> repository = new CachingRepository<Counter>(delegate, 2);
+
+        Counter first = repository.load("counter-0");
+        repository.load("counter-1");
+        repository.load("counter-0");
+        repository.load("counter-2");
+
+        assertEquals(repository.size(), 2);
+        assertEquals(repository.getEvictionCount(), 1);
+        assertSame(repository.load("counter-0"), first);
+        assertEquals(repository.getMissCount(), 3);
+    }
+
+    @Test
+    public void CacheIsBoundedByWeight() throws Exception {
+        CachingRepository<Counter> repository = new CachingRepository<Counter>(delegate, 3, new AggregateWeigher<Counter>() {
+            public long weigh(Counter aggregate) {
+                return 2;
+            }
+        });
+
+        repository.load("counter-0");
+        repository.load("counter-1");
+
+        assertEquals(repository.size(), 1);
+        assertEquals(repository.getWeight(), 2);
+    }
+
+    @Test
+    public void AggregateChangedWithoutSavingIsLoadedAgain() throws Exception {
+        CachingRepository<Counter> repository = new CachingRepository<Counter>(delegate, 10);
+
+        Counter changed = repository.load("counter-1");
+        changed.add(100);
+        Counter loaded = repository.load("counter-1");
+
+        assertNotSame(loaded, changed);
+        assertEquals(loaded.total, 1);
+        assertEquals(repository.getMissCount(), 2);
+    }
+
+    @Test
+    public void FailedSaveInvalidatesAggregate() throws Exception {
+        final FailingRepository failing = new FailingRepository(delegate);
+        CachingRepository<Counter> repository = new CachingRepository<Counter>(failing, 10);
+
+        Counter counter = repository.load("counter-1");
+        counter.add(100);
+        failing.failing = true;
+
+        try {
+            repository.save(counter);
+            fail("Saving should have failed");
+        } catch (IllegalStateException e) {
+            assertEquals(repository.size(), 0);
+        }
+    }
+
+    private static class Counter extends EventSourcedRootAggregate {
+        private long total;
+
+        private Counter(String id) {
+            super(id);
+        }
+
+        private void add(int amount) {
+            applyChange(new Added(amount));
+        }
+
+        @Override
+        protected void apply(Event event) {
+            total += ((Added) event).amount;
+        }
+    }
+
+    private static class Added extends Event {
+        private final int amount;
+
+        private Added(int amount) {
+            this.amount = amount;
+        }
+    }
+
+    private static class FailingRepository implements Repository<Counter> {
+        private final Repository<Counter> delegate;
+        private boolean failing;
+
+        private FailingRepository(Repository<Counter> delegate) {
+            this.delegate = delegate;
+        }
+
+        public Counter load(String id) throws Exception {
+            return delegate.load(id);
+        }
+
+        public void save(Counter aggregate) throws Exception {
+            if (failing) {
+                throw new IllegalStateException("Saving failed");
+            }
+
+            delegate.save(aggregate);
+        }
+    }
+}
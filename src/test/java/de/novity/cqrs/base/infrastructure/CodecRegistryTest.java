@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BinaryCodec;
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.TypeId;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.testng.Assert.*;
+
+public class CodecRegistryTest {
+    private CodecRegistry registry;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        registry = new CodecRegistry().registerGenerated(getClass().getClassLoader());
+    }
+
+    @Test
+    public void GeneratedCodecsAreRegistered() throws Exception {
+        assertTrue(registry.isRegistered(OrderPlaced.class));
+        assertTrue(registry.isRegistered(ShipOrder.class));
+    }
+
+    @Test
+    public void EncodedEventIsDecodedWithAllFields() throws Exception {
+        UUID customerId = UUID.randomUUID();
+        OrderPlaced event = new OrderPlaced("order-1", customerId, 3, 9.5, true, 'x', (byte) 1, (short) 2, 1.5f,
+                42L, null, new byte[]{1, 2, 3}, Priority.HIGH);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        registry.encode(event, buffer);
+        buffer.flip();
+        OrderPlaced decoded = (OrderPlaced) registry.decode(buffer);
+
+        assertFalse(buffer.hasRemaining());
+        assertEquals(decoded.orderId, "order-1");
+        assertEquals(decoded.customerId, customerId);
+        assertEquals(decoded.quantity, 3);
+        assertEquals(decoded.price, 9.5);
+        assertTrue(decoded.express);
+        assertEquals(decoded.code, 'x');
+        assertEquals(decoded.flags, (byte) 1);
+        assertEquals(decoded.warehouse, (short) 2);
+        assertEquals(decoded.weight, 1.5f);
+        assertEquals(decoded.reference, Long.valueOf(42L));
+        assertNull(decoded.discount);
+        assertEquals(decoded.payload, new byte[]{1, 2, 3});
+        assertEquals(decoded.priority, Priority.HIGH);
+    }
+
+    @Test
+    public void CommandsAreEncodedAsWell() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        registry.encode(new ShipOrder("order-1"), buffer);
+        buffer.flip();
+
+        assertEquals(((ShipOrder) registry.decode(buffer)).orderId, "order-1");
+    }
+
+    @Test
+    public void NewerVersionReadsOlderLayoutWithDefaults() throws Exception {
+        CodecRegistry writer = new CodecRegistry();
+        writer.register(new CustomerRenamedV1Codec());
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        writer.encode(new CustomerRenamedV1("Alice"), buffer);
+        buffer.flip();
+        CustomerRenamed decoded = (CustomerRenamed) registry.decode(buffer);
+
+        assertEquals(decoded.name, "Alice");
+        assertNull(decoded.reason);
+    }
+
+    @Test
+    public void OlderVersionSkipsUnknownFields() throws Exception {
+        CodecRegistry reader = new CodecRegistry();
+        reader.register(new CustomerRenamedV1Codec());
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        registry.encode(new CustomerRenamed("Alice", "Married"), buffer);
+        registry.encode(new ShipOrder("order-1"), buffer);
+        buffer.flip();
+
+        assertEquals(((CustomerRenamedV1) reader.decode(buffer)).name, "Alice");
+        assertEquals(((ShipOrder) registry.decode(buffer)).orderId, "order-1");
+    }
+
+    @Test(
+            expectedExceptions = {
+                    IllegalArgumentException.class
+            }
+    )
+    public void RegisteringDuplicateTypeIdFails() throws Exception {
+        registry.register(new CustomerRenamedV1Codec());
+    }
+
+    @Test
+    public void BinarySerializerRoundTripsEvents() throws Exception {
+        BinaryEventSerializer serializer = new BinaryEventSerializer(registry);
+
+        byte[] bytes = serializer.serialize(new CustomerRenamed("Alice", "Married"));
+        CustomerRenamed decoded = (CustomerRenamed) serializer.deserialize(ByteBuffer.wrap(bytes));
+
+        assertEquals(decoded.reason, "Married");
+    }
+
+    enum Priority {
+        LOW, HIGH
+    }
+
+    @TypeId(100)
+    static class OrderPlaced extends Event {
+        final String orderId;
+        final UUID customerId;
+        final int quantity;
+        final double price;
+        final boolean express;
+        final char code;
+        final byte flags;
+        final short warehouse;
+        final float weight;
+        final Long reference;
+        final Integer discount;
+        final byte[] payload;
+        final Priority priority;
+
+        OrderPlaced(String orderId, UUID customerId, int quantity, double price, boolean express, char code, byte flags,
+                    short warehouse, float weight, Long reference, Integer discount, byte[] payload, Priority priority) {
+            this.orderId = orderId;
+            this.customerId = customerId;
+            this.quantity = quantity;
+            this.price = price;
+            this.express = express;
+            this.code = code;
+            this.flags = flags;
+            this.warehouse = warehouse;
+            this.weight = weight;
+            this.reference = reference;
+            this.discount = discount;
+            this.payload = payload;
+            this.priority = priority;
+        }
+    }
+
+    @TypeId(value = 101, version = 2)
+    static class CustomerRenamed extends Event {
+        final String name;
+        final String reason;
+
+        CustomerRenamed(String name, String reason) {
+            this.name = name;
+            this.reason = reason;
+        }
+    }
+
+    @TypeId(102)
+    static class ShipOrder extends Command {
+        final String orderId;
+
+        ShipOrder(String orderId) {
+            this.orderId = orderId;
+        }
+    }
+
+    /**
+     * The first version of <code>CustomerRenamed</code>, with its codec written as it was generated back then.
+     */
+    static class CustomerRenamedV1 extends Event {
+        final String name;
+
+        CustomerRenamedV1(String name) {
+            this.name = name;
+        }
+    }
+
+    static class CustomerRenamedV1Codec implements BinaryCodec<CustomerRenamedV1> {
+        public Class<CustomerRenamedV1> getType() {
+            return CustomerRenamedV1.class;
+        }
+
+        public int getTypeId() {
+            return 101;
+        }
+
+        public int getVersion() {
+            return 1;
+        }
+
+        public int getFieldCount() {
+            return 1;
+        }
+
+        public void write(CustomerRenamedV1 value, ByteBuffer buffer) {
+            BinaryFields.writeString(buffer, value.name);
+        }
+
+        public CustomerRenamedV1 read(ByteBuffer buffer, int version, int fieldCount) {
+            return new CustomerRenamedV1(fieldCount > 0 ? BinaryFields.readString(buffer) : null);
+        }
+    }
+}
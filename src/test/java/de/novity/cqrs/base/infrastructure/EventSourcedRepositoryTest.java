@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.AggregateFactory;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSourcedRootAggregate;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.SnapshotStore;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.file.Files;
+
+import static org.testng.Assert.*;
+
+public class EventSourcedRepositoryTest {
+    private static final AggregateFactory<Counter> FACTORY = new AggregateFactory<Counter>() {
+        public Counter create(String id) {
+            return new Counter(id);
+        }
+    };
+
+    private CountingEventStore eventStore;
+    private SnapshotStore snapshotStore;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        eventStore = new CountingEventStore();
+        snapshotStore = new InMemorySnapshotStore();
+    }
+
+    @Test
+    public void LoadingUnknownAggregateReturnsNull() throws Exception {
+        EventSourcedRepository<Counter> repository = new EventSourcedRepository<Counter>(eventStore, FACTORY);
+
+        assertNull(repository.load("counter-1"));
+    }
+
+    @Test
+    public void SavedAggregateIsRebuiltFromItsEvents() throws Exception {
+        EventSourcedRepository<Counter> repository = new EventSourcedRepository<Counter>(eventStore, FACTORY);
+        Counter counter = new Counter("counter-1");
+        counter.add(2);
+        counter.add(3);
+        repository.save(counter);
+
+        assertTrue(counter.getEvents().isEmpty());
+        assertEquals(counter.getVersion(), 2);
+
+        Counter loaded = repository.load("counter-1");
+        assertEquals(loaded.total, 5);
+        assertEquals(loaded.getVersion(), 2);
+        assertEquals(eventStore.replayed, 2);
+    }
+
+    @Test
+    public void LoadingReplaysOnlyEventsAfterLatestSnapshot() throws Exception {
+        EventSourcedRepository<Counter> repository = new EventSourcedRepository<Counter>(eventStore, snapshotStore, SnapshotPolicy.everyEvents(10), FACTORY);
+        Counter counter = new Counter("counter-1");
+
+        for (int i = 1; i <= 25; i++) {
+            counter.add(i);
+            repository.save(counter);
+        }
+
+        assertEquals(snapshotStore.load("counter-1").getVersion(), 20);
+
+        Counter loaded = repository.load("counter-1");
+        assertEquals(loaded.total, 325);
+        assertEquals(loaded.getVersion(), 25);
+        assertEquals(loaded.getEventsSinceSnapshot(), 5);
+        assertEquals(eventStore.replayed, 5);
+    }
+
+    @Test
+    public void SnapshotIsTakenAboveByteThreshold() throws Exception {
+        File directory = Files.createTempDirectory("events").toFile();
+        CountingSerializer serializer = new CountingSerializer();
+        MappedFileEventStore mappedStore = new MappedFileEventStore(directory, 64 * 1024, serializer, false);
+
+        try {
+            EventSourcedRepository<Counter> repository = new EventSourcedRepository<Counter>(mappedStore, snapshotStore, SnapshotPolicy.aboveBytes(1000), FACTORY);
+            Counter counter = new Counter("counter-1");
+            counter.add(1);
+            repository.save(counter);
+
+            long size = serializer.serialized;
+            assertEquals(serializer.serializedEvents, 1);
+            assertEquals(counter.getBytesSinceSnapshot(), size);
+            assertNull(snapshotStore.load("counter-1"));
+
+            Counter loaded = repository.load("counter-1");
+            assertEquals(loaded.getBytesSinceSnapshot(), size);
+
+            while (loaded.getBytesSinceSnapshot() > 0) {
+                loaded.add(1);
+                repository.save(loaded);
+            }
+
+            assertEquals(serializer.serializedEvents, loaded.getVersion());
+            assertTrue(loaded.getVersion() * size >= 1000);
+            assertEquals(snapshotStore.load("counter-1").getVersion(), loaded.getVersion());
+        } finally {
+            mappedStore.close();
+
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+
+            directory.delete();
+        }
+    }
+
+    @Test(
+            expectedExceptions = {
+                    IllegalArgumentException.class
+            }
+    )
+    public void CountingBytesRequiresEventStoreKnowingEventSizes() throws Exception {
+        new EventSourcedRepository<Counter>(eventStore, snapshotStore, SnapshotPolicy.aboveBytes(1), FACTORY);
+    }
+
+    private static class Counter extends EventSourcedRootAggregate {
+        private long total;
+
+        private Counter(String id) {
+            super(id);
+        }
+
+        private void add(int amount) {
+            applyChange(new Added(amount));
+        }
+
+        @Override
+        protected void apply(Event event) {
+            total += ((Added) event).amount;
+        }
+
+        @Override
+        protected Object snapshotState() {
+            return total;
+        }
+
+        @Override
+        protected void restoreState(Object state) {
+            total = (Long) state;
+        }
+    }
+
+    private static class Added extends Event implements Serializable {
+        private final int amount;
+
+        private Added(int amount) {
+            this.amount = amount;
+        }
+    }
+
+    private static class CountingSerializer extends JavaEventSerializer {
+        private int serializedEvents;
+        private long serialized;
+
+        @Override
+        public byte[] serialize(Event event) throws Exception {
+            byte[] bytes = super.serialize(event);
+            serializedEvents++;
+            serialized += bytes.length;
+            return bytes;
+        }
+    }
+
+    private static class CountingEventStore extends InMemoryEventStore {
+        private int replayed;
+
+        @Override
+        public void replay(String streamId, long fromVersion, final EventSubscriber subscriber) throws Exception {
+            super.replay(streamId, fromVersion, new EventSubscriber() {
+                public void onEvent(Event event) {
+                    replayed++;
+                    subscriber.onEvent(event);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class FanOutEventPublisherServiceTest {
+    private FanOutEventPublisherService service;
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (service != null && service.isRunning()) {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void StartingEventPublisherServiceStartsOneThreadPerSubscriber() throws Exception {
+        service = new FanOutEventPublisherService();
+        service.getPublisher().addSubscriber(new CountingSubscriber(0));
+        service.getPublisher().addSubscriber(new CountingSubscriber(0));
+
+        final int baseThreadCount = Thread.activeCount();
+        service.start();
+        assertEquals(Thread.activeCount(), baseThreadCount + 2);
+    }
+
+    @Test
+    public void SlowSubscriberDoesNotDelayOtherSubscribers() throws Exception {
+        service = new FanOutEventPublisherService(1024, new BlockingWaitStrategy(), SlowSubscriberPolicy.BLOCK_PUBLISHER);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingSubscriber fastSubscriber = new CountingSubscriber(100);
+        final CountingSubscriber slowSubscriber = new CountingSubscriber(100) {
+            @Override
+            public void onEvent(Event event) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                super.onEvent(event);
+            }
+        };
+
+        EventPublisher publisher = service.getPublisher();
+        publisher.addSubscriber(fastSubscriber);
+        publisher.addSubscriber(slowSubscriber);
+        service.start();
+
+        for (int i = 0; i < 100; i++) {
+            publisher.publish(new TestEvent());
+        }
+
+        assertTrue(fastSubscriber.latch.await(5, TimeUnit.SECONDS));
+        awaitNoLag(fastSubscriber);
+        assertTrue(service.getLag(slowSubscriber) > 0);
+
+        release.countDown();
+        assertTrue(slowSubscriber.latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void OverrunSubscriberDropsEventsInsteadOfBlockingThePublisher() throws Exception {
+        service = new FanOutEventPublisherService(8, new BlockingWaitStrategy(), SlowSubscriberPolicy.DROP_EVENTS);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountingSubscriber slowSubscriber = new CountingSubscriber(0) {
+            @Override
+            public void onEvent(Event event) {
+                try {
+                    blocked.countDown();
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        EventPublisher publisher = service.getPublisher();
+        publisher.addSubscriber(slowSubscriber);
+        service.start();
+
+        publisher.publish(new TestEvent());
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 100; i++) {
+            publisher.publish(new TestEvent());
+        }
+
+        release.countDown();
+        awaitNoLag(slowSubscriber);
+        assertTrue(service.getDroppedEventCount(slowSubscriber) > 0);
+    }
+
+    private void awaitNoLag(EventSubscriber subscriber) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (service.getLag(subscriber) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(service.getLag(subscriber), 0);
+    }
+
+    private static class CountingSubscriber implements EventSubscriber {
+        private final CountDownLatch latch;
+
+        private CountingSubscriber(int expectedEvents) {
+            this.latch = new CountDownLatch(expectedEvents);
+        }
+
+        public void onEvent(Event event) {
+            latch.countDown();
+        }
+    }
+
+    private static class TestEvent extends Event {
+    }
+}
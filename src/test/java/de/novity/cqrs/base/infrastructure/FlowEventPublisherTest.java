@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BatchEventSubscriber;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.testng.Assert.*;
+
+public class FlowEventPublisherTest {
+    private static final Executor CALLER_RUNS = new Executor() {
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private SynchronousEventPublisher eventPublisher;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        eventPublisher = new SynchronousEventPublisher();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void EventsAreDeliveredOnlyAsRequested() throws Exception {
+        FlowEventPublisher flowPublisher = new FlowEventPublisher(eventPublisher, 16, policies(OverflowPolicy.failFast()), CALLER_RUNS);
+        RecordingSubscriber subscriber = new RecordingSubscriber(2);
+        flowPublisher.subscribe(subscriber);
+
+        eventPublisher.publish(events(0, 5));
+        assertEquals(subscriber.numbers(), Arrays.asList(0, 1));
+
+        subscriber.subscription.request(2);
+        assertEquals(subscriber.numbers(), Arrays.asList(0, 1, 2, 3));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        eventPublisher.publish(events(5, 7));
+        assertEquals(subscriber.numbers(), Arrays.asList(0, 1, 2, 3, 4, 5, 6));
+        assertNull(subscriber.failure);
+    }
+
+    @Test
+    public void OverflowingBufferTerminatesSubscriptionWithFailFastPolicy() throws Exception {
+        FlowEventPublisher flowPublisher = new FlowEventPublisher(eventPublisher, 2, policies(OverflowPolicy.failFast()), CALLER_RUNS);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        flowPublisher.subscribe(subscriber);
+
+        eventPublisher.publish(events(0, 3));
+
+        assertTrue(subscriber.failure instanceof EventQueueFullException);
+        assertEquals(flowPublisher.getSubscriberCount(), 0);
+
+        subscriber.subscription.request(10);
+        assertTrue(subscriber.numbers().isEmpty());
+    }
+
+    @Test
+    public void OverflowingBufferDropsEventsWithDropNewestPolicy() throws Exception {
+        OverflowPolicy policy = OverflowPolicy.dropNewest();
+        FlowEventPublisher flowPublisher = new FlowEventPublisher(eventPublisher, 2, policies(policy), CALLER_RUNS);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        flowPublisher.subscribe(subscriber);
+
+        eventPublisher.publish(events(0, 2));
+        eventPublisher.publish(events(2, 3));
+        subscriber.subscription.request(10);
+
+        assertEquals(subscriber.numbers(), Arrays.asList(0, 1));
+        assertEquals(policy.getDroppedEventCount(), 1);
+        assertNull(subscriber.failure);
+    }
+
+    @Test
+    public void BlockingPolicyHoldsPublisherBackUntilSubscriberRequestsEvents() throws Exception {
+        FlowEventPublisher flowPublisher = new FlowEventPublisher(eventPublisher, 2, policies(OverflowPolicy.block()), executor);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        flowPublisher.subscribe(subscriber);
+
+        final CountDownLatch published = new CountDownLatch(1);
+        Thread publisher = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    eventPublisher.publish(events(0, 4));
+                    published.countDown();
+                } catch (Exception e) {
+                    // the latch is not counted down
+                }
+            }
+        });
+        publisher.start();
+
+        assertFalse(published.await(100, TimeUnit.MILLISECONDS));
+
+        subscriber.subscription.request(4);
+
+        assertTrue(published.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.await(4));
+        assertEquals(subscriber.numbers(), Arrays.asList(0, 1, 2, 3));
+    }
+
+    @Test
+    public void ClosingCompletesSubscriptionsAfterBufferedEventsAreDelivered() throws Exception {
+        FlowEventPublisher flowPublisher = new FlowEventPublisher(eventPublisher, 16, policies(OverflowPolicy.failFast()), CALLER_RUNS);
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        flowPublisher.subscribe(subscriber);
+
+        eventPublisher.publish(events(0, 3));
+        flowPublisher.close();
+
+        assertFalse(subscriber.completed);
+        assertTrue(eventPublisher.subscribers.isEmpty());
+
+        subscriber.subscription.request(2);
+
+        assertEquals(subscriber.numbers(), Arrays.asList(0, 1, 2));
+        assertTrue(subscriber.completed);
+        assertEquals(flowPublisher.getSubscriberCount(), 0);
+    }
+
+    @Test
+    public void CancelledSubscriptionReceivesNoFurtherEvents() throws Exception {
+        FlowEventPublisher flowPublisher = new FlowEventPublisher(eventPublisher, 16, policies(OverflowPolicy.failFast()), CALLER_RUNS);
+        RecordingSubscriber subscriber = new RecordingSubscriber(10);
+        flowPublisher.subscribe(subscriber);
+
+        eventPublisher.publish(events(0, 1));
+        subscriber.subscription.cancel();
+        eventPublisher.publish(events(1, 2));
+
+        assertEquals(subscriber.numbers(), Collections.singletonList(0));
+        assertEquals(flowPublisher.getSubscriberCount(), 0);
+    }
+
+    @Test
+    public void RequestingNoEventsSignalsError() throws Exception {
+        FlowEventPublisher flowPublisher = new FlowEventPublisher(eventPublisher, 16, policies(OverflowPolicy.failFast()), CALLER_RUNS);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        flowPublisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.failure instanceof IllegalArgumentException);
+    }
+
+    private static Supplier<OverflowPolicy> policies(final OverflowPolicy policy) {
+        return new Supplier<OverflowPolicy>() {
+            public OverflowPolicy get() {
+                return policy;
+            }
+        };
+    }
+
+    private static List<Event> events(int from, int to) {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = from; i < to; i++) {
+            events.add(new NumberedEvent(i));
+        }
+
+        return events;
+    }
+
+    private static class NumberedEvent extends Event {
+        private final int number;
+
+        private NumberedEvent(int number) {
+            this.number = number;
+        }
+    }
+
+    private static class SynchronousEventPublisher implements EventPublisher {
+        private final List<EventSubscriber> subscribers = new CopyOnWriteArrayList<EventSubscriber>();
+
+        public void addSubscriber(EventSubscriber subscriber) {
+            subscribers.add(subscriber);
+        }
+
+        public void removeSubscriber(EventSubscriber subscriber) {
+            subscribers.remove(subscriber);
+        }
+
+        public void publish(Event event) throws Exception {
+            publish(Collections.singletonList(event));
+        }
+
+        public void publish(List<Event> events) throws Exception {
+            for (EventSubscriber subscriber : subscribers) {
+                ((BatchEventSubscriber) subscriber).onEvents(events);
+            }
+        }
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Event> {
+        private final long initialDemand;
+        private final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable failure;
+        private volatile boolean completed;
+
+        private RecordingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+
+            if (initialDemand > 0) {
+                subscription.request(initialDemand);
+            }
+        }
+
+        public void onNext(Event event) {
+            received.add(((NumberedEvent) event).number);
+        }
+
+        public void onError(Throwable throwable) {
+            failure = throwable;
+        }
+
+        public void onComplete() {
+            completed = true;
+        }
+
+        private List<Integer> numbers() {
+            return new ArrayList<Integer>(received);
+        }
+
+        private boolean await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+
+            while (received.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            return received.size() >= count;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BatchEventSubscriber;
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.HandlesCommand;
+import de.novity.cqrs.base.api.InstanceProvider;
+import de.novity.cqrs.base.api.SubscribesTo;
+import de.novity.cqrs.base.api.TypedEventSubscriber;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+public class HandlerRegistryProcessorTest {
+    private InMemoryCommandDispatcher dispatcher;
+    private RecordingPublisher publisher;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dispatcher = new InMemoryCommandDispatcher();
+        publisher = new RecordingPublisher();
+    }
+
+    @Test
+    public void GeneratedRegistryRegistersAnnotatedHandlersAndSubscribers() throws Exception {
+        GeneratedHandlerRegistry.register(dispatcher, publisher);
+
+        dispatcher.execute(new Confirm());
+
+        assertEquals(publisher.subscribers.size(), 3);
+    }
+
+    @Test
+    public void GeneratedRegistryTakesInstancesFromProvider() throws Exception {
+        final ConfirmHandler handler = new ConfirmHandler();
+        final OrderView view = new OrderView();
+        final Map<Class<?>, Object> instances = new HashMap<Class<?>, Object>();
+        instances.put(ConfirmHandler.class, handler);
+        instances.put(OrderView.class, view);
+        instances.put(AuditLog.class, new AuditLog());
+        instances.put(OrderBatchView.class, new OrderBatchView());
+
+        GeneratedHandlerRegistry.register(dispatcher, publisher, new InstanceProvider() {
+            public <T> T get(Class<T> type) {
+                return type.cast(instances.get(type));
+            }
+        });
+
+        dispatcher.execute(new Confirm());
+        assertEquals(handler.executed, 1);
+
+        TypedEventSubscriber subscription = (TypedEventSubscriber) publisher.subscribers.get(publisher.indexOf(view));
+        assertEquals(new ArrayList<Class<? extends Event>>(subscription.getEventTypes()), Arrays.<Class<? extends Event>>asList(Confirmed.class));
+
+        subscription.onEvent(new Confirmed());
+        assertEquals(view.received, 1);
+    }
+
+    @Test
+    public void SubscriberWithoutEventTypesIsAddedUnwrappedAndBatchSubscriberKeepsReceivingBatches() throws Exception {
+        GeneratedHandlerRegistry.register(dispatcher, publisher);
+
+        boolean unwrapped = false;
+        boolean batch = false;
+
+        for (EventSubscriber subscriber : publisher.subscribers) {
+            unwrapped |= subscriber instanceof AuditLog;
+            batch |= subscriber instanceof TypedEventSubscriber && subscriber instanceof BatchEventSubscriber;
+        }
+
+        assertTrue(unwrapped);
+        assertTrue(batch);
+    }
+
+    static class Confirm extends Command {
+    }
+
+    static class Confirmed extends Event {
+    }
+
+    @HandlesCommand
+    static class ConfirmHandler implements CommandHandler<Confirm> {
+        private int executed;
+
+        public void execute(Confirm command) {
+            executed++;
+        }
+    }
+
+    @SubscribesTo(Confirmed.class)
+    static class OrderView implements EventSubscriber {
+        private int received;
+
+        public void onEvent(Event event) {
+            received++;
+        }
+
+        @Override
+        public String toString() {
+            return "order view";
+        }
+    }
+
+    @SubscribesTo
+    static class AuditLog implements EventSubscriber {
+        public void onEvent(Event event) {
+        }
+    }
+
+    @SubscribesTo(Confirmed.class)
+    static class OrderBatchView implements BatchEventSubscriber {
+        public void onEvent(Event event) {
+        }
+
+        public void onEvents(List<Event> events) {
+        }
+    }
+
+    private static class RecordingPublisher implements EventPublisher {
+        private final List<EventSubscriber> subscribers = new ArrayList<EventSubscriber>();
+
+        public void addSubscriber(EventSubscriber subscriber) {
+            subscribers.add(subscriber);
+        }
+
+        public void removeSubscriber(EventSubscriber subscriber) {
+            subscribers.remove(subscriber);
+        }
+
+        public void publish(Event event) {
+        }
+
+        public void publish(List<Event> events) {
+        }
+
+        private int indexOf(EventSubscriber subscriber) {
+            for (int i = 0; i < subscribers.size(); i++) {
+                if (subscribers.get(i).toString().equals(subscriber.toString())) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class HierarchicalTimingWheelTest {
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private HierarchicalTimingWheel<String> wheel;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        wheel = new HierarchicalTimingWheel<String>(1, TimeUnit.MILLISECONDS, 0);
+    }
+
+    @Test
+    public void TimeoutExpiresAtTheFirstTickAtOrAfterItsDeadline() throws Exception {
+        wheel.schedule("timeout", 5 * TICK - 1);
+
+        assertTrue(advance(4 * TICK).isEmpty());
+        assertEquals(advance(5 * TICK), Arrays.asList("timeout"));
+        assertEquals(wheel.size(), 0);
+    }
+
+    @Test
+    public void CancelledTimeoutDoesNotExpire() throws Exception {
+        HierarchicalTimingWheel.Timeout<String> timeout = wheel.schedule("timeout", 5 * TICK);
+
+        assertTrue(wheel.cancel(timeout));
+        assertFalse(timeout.isPending());
+        assertFalse(wheel.cancel(timeout));
+        assertTrue(advance(10 * TICK).isEmpty());
+        assertEquals(wheel.size(), 0);
+    }
+
+    @Test
+    public void TimeoutsBeyondTheLowestLevelAreCascadedDown() throws Exception {
+        wheel.schedule("late", 70000 * TICK);
+        wheel.schedule("early", 300 * TICK);
+
+        for (long tick = 1; tick < 300; tick++) {
+            assertTrue(advance(tick * TICK).isEmpty());
+        }
+
+        assertEquals(advance(300 * TICK), Arrays.asList("early"));
+        assertTrue(advance(69999 * TICK).isEmpty());
+        assertEquals(advance(70000 * TICK), Arrays.asList("late"));
+    }
+
+    @Test
+    public void AdvancingOverSeveralTicksExpiresTimeoutsInOrderOfTheirDeadlines() throws Exception {
+        wheel.schedule("third", 1000 * TICK);
+        wheel.schedule("first", 10 * TICK);
+        wheel.schedule("second", 257 * TICK);
+
+        assertEquals(advance(2000 * TICK), Arrays.asList("first", "second", "third"));
+    }
+
+    @Test
+    public void TimeoutInThePastExpiresAtTheNextTick() throws Exception {
+        advance(10 * TICK);
+        wheel.schedule("timeout", 0);
+
+        assertEquals(advance(11 * TICK), Arrays.asList("timeout"));
+    }
+
+    private List<String> advance(long nowNanos) {
+        List<HierarchicalTimingWheel.Timeout<String>> expired = new ArrayList<HierarchicalTimingWheel.Timeout<String>>();
+        wheel.advance(nowNanos, expired);
+
+        List<String> payloads = new ArrayList<String>();
+        for (HierarchicalTimingWheel.Timeout<String> timeout : expired) {
+            payloads.add(timeout.getPayload());
+        }
+
+        return payloads;
+    }
+}
@@ -17,15 +17,19 @@
 package de.novity.cqrs.base.infrastructure;
 
 import de.novity.cqrs.base.api.Command;
-import de.novity.cqrs.base.api.CommandDispatcher;
 import de.novity.cqrs.base.api.CommandHandler;
 import mockit.Mocked;
 import mockit.Verifications;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
 public class InMemoryCommandDispatcherTest {
-    private CommandDispatcher dispatcher;
+    private InMemoryCommandDispatcher dispatcher;
 
     @BeforeMethod
     public void setUp() throws Exception {
@@ -61,4 +65,80 @@ public class InMemoryCommandDispatcherTest {
 
         // Then the dispatcher fails
     }
-}
\ No newline at end of file
+
+    @Test
+    public void ExecutingSubclassCommandUsesHandlerOfSuperclass() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        dispatcher.registerHandler(OrderCommand.class, handler);
+
+        Command command = new PlaceExpressOrder();
+        dispatcher.execute(command);
+
+        assertEquals(handler.executed.size(), 1);
+        assertSame(handler.executed.get(0), command);
+    }
+
+    @Test
+    public void ExecutingCommandUsesHandlerOfImplementedInterface() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        dispatcher.registerHandler(Auditable.class, handler);
+
+        dispatcher.execute(new PlaceExpressOrder());
+
+        assertEquals(handler.executed.size(), 1);
+    }
+
+    @Test
+    public void MostSpecificHandlerIsUsed() throws Exception {
+        RecordingHandler generalHandler = new RecordingHandler();
+        RecordingHandler specificHandler = new RecordingHandler();
+        dispatcher.registerHandler(OrderCommand.class, generalHandler);
+        dispatcher.execute(new PlaceExpressOrder());
+
+        dispatcher.registerHandler(PlaceExpressOrder.class, specificHandler);
+        dispatcher.execute(new PlaceExpressOrder());
+
+        assertEquals(generalHandler.executed.size(), 1);
+        assertEquals(specificHandler.executed.size(), 1);
+    }
+
+    @Test
+    public void FrozenDispatcherExecutesRegisteredHandlers() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        dispatcher.registerHandler(OrderCommand.class, handler);
+        dispatcher.freeze();
+
+        dispatcher.execute(new PlaceExpressOrder());
+
+        assertTrue(dispatcher.isFrozen());
+        assertEquals(handler.executed.size(), 1);
+    }
+
+    @Test(
+            expectedExceptions = {
+                    IllegalStateException.class
+            }
+    )
+    public void RegisteringHandlerAfterFreezeFails() throws Exception {
+        dispatcher.freeze();
+
+        dispatcher.registerHandler(OrderCommand.class, new RecordingHandler());
+    }
+
+    private interface Auditable {
+    }
+
+    private abstract static class OrderCommand extends Command {
+    }
+
+    private static class PlaceExpressOrder extends OrderCommand implements Auditable {
+    }
+
+    private static class RecordingHandler implements CommandHandler<Command> {
+        private final List<Command> executed = new ArrayList<Command>();
+
+        public void execute(Command command) throws Exception {
+            executed.add(command);
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package de.novity.cqrs.base.infrastructure;
 
+import de.novity.cqrs.base.api.BatchEventSubscriber;
 import de.novity.cqrs.base.api.Event;
 import de.novity.cqrs.base.api.EventPublisher;
 import de.novity.cqrs.base.api.EventSubscriber;
@@ -25,6 +26,12 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.testng.Assert.*;
 
 public class InMemoryEventPublisherServiceTest {
@@ -109,4 +116,52 @@ public class InMemoryEventPublisherServiceTest {
             subscriber.onEvent(event);
         }};
     }
-}
\ No newline at end of file
+
+    @Test
+    public void RingBufferBackedEventPublisherServiceDeliversAllPublishedEvents() throws Exception {
+        service = new InMemoryEventPublisherService(16, new ParkingWaitStrategy());
+        final CountDownLatch latch = new CountDownLatch(1000);
+
+        EventPublisher publisher = service.getPublisher();
+        publisher.addSubscriber(new EventSubscriber() {
+            public void onEvent(Event event) {
+                latch.countDown();
+            }
+        });
+        service.start();
+
+        for (int i = 0; i < 1000; i++) {
+            publisher.publish(new TestEvent());
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void PublishedListOfEventsIsDeliveredToBatchEventSubscriberAtOnce() throws Exception {
+        final List<List<Event>> batches = new ArrayList<List<Event>>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Event> events = Arrays.<Event>asList(new TestEvent(), new TestEvent(), new TestEvent());
+
+        EventPublisher publisher = service.getPublisher();
+        publisher.addSubscriber(new BatchEventSubscriber() {
+            public void onEvents(List<Event> events) {
+                batches.add(events);
+                latch.countDown();
+            }
+
+            public void onEvent(Event event) {
+                fail("Batch event subscriber must be notified about batches");
+            }
+        });
+        publisher.publish(events);
+        service.start();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(batches.size(), 1);
+        assertEquals(batches.get(0), events);
+    }
+
+    private static class TestEvent extends Event {
+    }
+}
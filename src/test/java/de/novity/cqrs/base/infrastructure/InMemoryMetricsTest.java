@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.TypedEventSubscriber;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class InMemoryMetricsTest {
+    private InMemoryMetrics metrics;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        metrics = new InMemoryMetrics();
+    }
+
+    @Test
+    public void HistogramReportsPercentilesWithinBucketPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(snapshot.getCount(), 1000);
+        assertEquals(snapshot.getMax(), 1000000);
+        assertEquals(snapshot.getMean(), 500500.0, 0.1);
+        assertEquals(snapshot.getPercentile(50), 500000.0, 500000 / 8.0);
+        assertEquals(snapshot.getPercentile(99), 990000.0, 990000 / 8.0);
+    }
+
+    @Test
+    public void DispatcherRecordsExecutedAndFailedCommands() throws Exception {
+        InMemoryCommandDispatcher dispatcher = new InMemoryCommandDispatcher(metrics);
+        dispatcher.registerHandler(TestCommand.class, new CommandHandler<TestCommand>() {
+            public void execute(TestCommand command) throws Exception {
+                if (command.fail) {
+                    throw new IllegalArgumentException("Command failed");
+                }
+            }
+        });
+
+        dispatcher.execute(new TestCommand(false));
+        dispatcher.execute(new TestCommand(false));
+
+        try {
+            dispatcher.execute(new TestCommand(true));
+            fail("Command should have failed");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+
+        assertEquals(snapshot.getCommandLatencies().get(TestCommand.class.getName()).getCount(), 3);
+        assertEquals(snapshot.getCommandFailures().get(TestCommand.class.getName()), Long.valueOf(1));
+    }
+
+    @Test
+    public void PublisherRecordsDeliveryLatencyQueueOccupancyAndSubscriberTimes() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(10);
+        EventSubscriber subscriber = new EventSubscriber() {
+            public void onEvent(Event event) {
+                delivered.countDown();
+            }
+
+            @Override
+            public String toString() {
+                return "counting";
+            }
+        };
+
+        InMemoryEventPublisherService service = new InMemoryEventPublisherService(new BlockingEventQueue(16), OverflowPolicy.block(), metrics);
+        service.getPublisher().addSubscriber(subscriber);
+        service.start();
+
+        for (int i = 0; i < 10; i++) {
+            service.getPublisher().publish(new TestEvent());
+        }
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        service.stop();
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+
+        assertEquals(snapshot.getDeliveryLatency().getCount(), 10);
+        assertEquals(snapshot.getSubscriberTimes().get("counting#1").getCount(), 10);
+        assertTrue(snapshot.getQueueOccupancy().getMax() >= 1);
+        assertEquals(snapshot.getQueueCapacity(), 16);
+        assertTrue(snapshot.toString().contains("subscriber counting#1"));
+    }
+
+    @Test
+    public void SubscribersWithEqualNamesAreReportedApartAndDiscardedOnRemoval() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(2);
+        EventSubscriber first = new NamedSubscriber(delivered);
+        EventSubscriber second = new NamedSubscriber(delivered);
+
+        InMemoryEventPublisherService service = new InMemoryEventPublisherService(new BlockingEventQueue(16), OverflowPolicy.block(), metrics);
+        service.getPublisher().addSubscriber(first);
+        service.getPublisher().addSubscriber(second);
+        service.start();
+        service.getPublisher().publish(new TestEvent());
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        service.stop();
+
+        assertEquals(metrics.snapshot().getSubscriberTimes().keySet(), new HashSet<String>(Arrays.asList("named#1", "named#2")));
+
+        service.getPublisher().removeSubscriber(first);
+
+        assertEquals(metrics.snapshot().getSubscriberTimes().keySet(), Collections.singleton("named#2"));
+    }
+
+    @Test
+    public void SubscribersReceiveThePublishedEventsWhileMetricsAreRecorded() throws Exception {
+        final BlockingQueue<Event> received = new LinkedBlockingQueue<Event>();
+        InMemoryEventPublisherService service = new InMemoryEventPublisherService(new BlockingEventQueue(16), OverflowPolicy.block(), metrics);
+        service.getPublisher().addSubscriber(new TypedEventSubscriber() {
+            public Collection<Class<? extends Event>> getEventTypes() {
+                return Collections.<Class<? extends Event>>singletonList(TestEvent.class);
+            }
+
+            public void onEvent(Event event) {
+                received.add(event);
+            }
+        });
+        service.start();
+
+        TestEvent event = new TestEvent();
+        service.getPublisher().publish(event);
+
+        assertSame(received.poll(10, TimeUnit.SECONDS), event);
+        service.stop();
+    }
+
+    private static class TestCommand extends Command {
+        private final boolean fail;
+
+        private TestCommand(boolean fail) {
+            this.fail = fail;
+        }
+    }
+
+    private static class TestEvent extends Event {
+    }
+
+    private static class NamedSubscriber implements EventSubscriber {
+        private final CountDownLatch delivered;
+
+        private NamedSubscriber(CountDownLatch delivered) {
+            this.delivered = delivered;
+        }
+
+        public void onEvent(Event event) {
+            delivered.countDown();
+        }
+
+        @Override
+        public String toString() {
+            return "named";
+        }
+    }
+}
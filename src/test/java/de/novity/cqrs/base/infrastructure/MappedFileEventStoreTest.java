@@ -0,0 +1,278 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.ConcurrencyException;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.StoredEventSubscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class MappedFileEventStoreTest {
+    private File directory;
+    private MappedFileEventStore store;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("events").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+
+        directory.delete();
+    }
+
+    @Test
+    public void AppendedEventsAreReplayedPerStreamInOrder() throws Exception {
+        store = open(4096);
+
+        assertEquals(store.append("order-1", events(0, 2)), 2);
+        assertEquals(store.append("order-2", events(10, 1)), 1);
+        assertEquals(store.append("order-1", events(2, 1)), 3);
+
+        assertEquals(replay("order-1", 0), Arrays.asList(0, 1, 2));
+        assertEquals(replay("order-2", 0), Arrays.asList(10));
+        assertEquals(store.getVersion("order-1"), 3);
+        assertEquals(store.getVersion("order-3"), 0);
+    }
+
+    @Test
+    public void ReplayStartsAfterGivenVersion() throws Exception {
+        store = open(4096);
+        store.append("order-1", events(0, 5));
+
+        assertEquals(replay("order-1", 3), Arrays.asList(3, 4));
+        assertEquals(replay("order-1", 5), new ArrayList<Integer>());
+    }
+
+    @Test
+    public void StreamsAreRecoveredFromAllSegmentsAfterReopening() throws Exception {
+        store = open(1024);
+        for (int i = 0; i < 50; i++) {
+            store.append("order-" + (i % 3), events(i, 1));
+        }
+        store.close();
+
+        assertTrue(directory.listFiles().length > 1);
+
+        store = open(1024);
+        assertEquals(store.getVersion("order-0"), 17);
+        assertEquals(replay("order-1", 0).size(), 17);
+        assertEquals(replay("order-2", 15), Arrays.asList(47));
+
+        store.append("order-2", events(50, 1));
+        assertEquals(replay("order-2", 15), Arrays.asList(47, 50));
+    }
+
+    @Test
+    public void IncompleteBatchIsDiscardedOnRecovery() throws Exception {
+        store = open(4096);
+        store.append("order-1", events(0, 1));
+        store.append("order-2", events(1, 3));
+        store.close();
+
+        corruptRecord(new File(directory, "0000000000.log"), 3);
+
+        store = open(4096);
+        assertEquals(store.getVersion("order-1"), 1);
+        assertEquals(store.getVersion("order-2"), 0);
+
+        store.append("order-2", events(5, 1));
+        store.close();
+
+        store = open(4096);
+        assertEquals(replay("order-2", 0), Arrays.asList(5));
+    }
+
+    @Test
+    public void RecoveryStopsAtTornRecordAndDiscardsFollowingSegments() throws Exception {
+        store = open(1024);
+        for (int i = 0; i < 50; i++) {
+            store.append("order-" + (i % 3), events(i, 1));
+        }
+        store.close();
+
+        assertTrue(directory.listFiles().length > 1);
+        corruptRecord(new File(directory, "0000000000.log"), 2);
+
+        store = open(1024);
+        assertEquals(replay("order-0", 0), Arrays.asList(0));
+        assertEquals(replay("order-1", 0), Arrays.asList(1));
+        assertEquals(store.getVersion("order-2"), 0);
+
+        store.append("order-2", events(50, 1));
+        store.close();
+
+        store = open(1024);
+        assertEquals(replay("order-0", 0), Arrays.asList(0));
+        assertEquals(replay("order-2", 0), Arrays.asList(50));
+    }
+
+    @Test
+    public void ConcurrentlyAppendedEventsAreAllStored() throws Exception {
+        store = new MappedFileEventStore(directory, 64 * 1024, new JavaEventSerializer(), true);
+        List<Thread> appenders = new ArrayList<Thread>();
+        final List<Throwable> failures = new ArrayList<Throwable>();
+
+        for (int i = 0; i < 4; i++) {
+            final String streamId = "order-" + i;
+            Thread appender = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            store.append(streamId, events(j, 2));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            appenders.add(appender);
+            appender.start();
+        }
+
+        for (Thread appender : appenders) {
+            appender.join();
+        }
+
+        assertTrue(failures.isEmpty(), failures.toString());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(store.getVersion("order-" + i), 200);
+        }
+    }
+
+    @Test
+    public void AppendingWithUnexpectedVersionFails() throws Exception {
+        store = open(4096);
+        assertEquals(store.append("order-1", 0, events(0, 2)), 2);
+
+        try {
+            store.append("order-1", 1, events(2, 1));
+            fail("Appending should have failed");
+        } catch (ConcurrencyException e) {
+            assertEquals(e.getActualVersion(), 2);
+        }
+
+        assertEquals(store.append("order-1", 2, events(2, 1)), 3);
+        assertEquals(replay("order-1", 0), Arrays.asList(0, 1, 2));
+    }
+
+    @Test
+    public void ReadAllPassesEventsOfAllStreamsInLogOrderAfterReopening() throws Exception {
+        store = open(1024);
+        List<Event> appended = events(0, 40);
+        for (int i = 0; i < 40; i += 2) {
+            store.append("order-" + (i % 3), appended.subList(i, i + 2));
+        }
+
+        assertEquals(store.getPosition(), 40);
+        store.close();
+
+        store = open(1024);
+        final List<String> read = new ArrayList<String>();
+        store.readAll(35, new StoredEventSubscriber() {
+            public void onEvent(String streamId, long version, long position, Event event) {
+                read.add(position + ":" + streamId + ":" + version + ":" + ((NumberedEvent) event).number);
+            }
+        });
+
+        assertEquals(store.getPosition(), 40);
+        assertEquals(read, Arrays.asList("36:order-1:12:35", "37:order-0:13:36", "38:order-0:14:37", "39:order-2:13:38", "40:order-2:14:39"));
+    }
+
+    @Test(
+            expectedExceptions = {
+                    IllegalStateException.class
+            }
+    )
+    public void AppendingToClosedStoreFails() throws Exception {
+        store = open(4096);
+        store.close();
+
+        store.append("order-1", events(0, 1));
+    }
+
+    private MappedFileEventStore open(int segmentSize) throws Exception {
+        return new MappedFileEventStore(directory, segmentSize, new JavaEventSerializer(), false);
+    }
+
+    private List<Integer> replay(String streamId, long fromVersion) throws Exception {
+        final List<Integer> numbers = new ArrayList<Integer>();
+        store.replay(streamId, fromVersion, new EventSubscriber() {
+            public void onEvent(Event event) {
+                numbers.add(((NumberedEvent) event).number);
+            }
+        });
+
+        return numbers;
+    }
+
+    private static List<Event> events(int first, int count) {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = first; i < first + count; i++) {
+            events.add(new NumberedEvent(i));
+        }
+
+        return events;
+    }
+
+    private static void corruptRecord(File segment, int index) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            long offset = 0;
+            for (int i = 0; i < index; i++) {
+                file.seek(offset);
+                offset += 8 + file.readInt();
+            }
+
+            file.seek(offset + 4);
+            file.writeInt(0);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static class NumberedEvent extends Event implements Serializable {
+        private final int number;
+
+        private NumberedEvent(int number) {
+            this.number = number;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class OverflowPolicyTest {
+    @DataProvider
+    public Object[][] fullQueues() throws Exception {
+        return new Object[][]{
+                {fill(new BlockingEventQueue(2))},
+                {fill(new RingBufferEventQueue(2, new BlockingWaitStrategy()))}
+        };
+    }
+
+    @Test(
+            dataProvider = "fullQueues",
+            expectedExceptions = {
+                    EventQueueFullException.class
+            }
+    )
+    public void FailFastPolicyRejectsEventsIfQueueIsFull(EventQueue queue) throws Exception {
+        OverflowPolicy.failFast().put(queue, new NumberedEvent(2));
+    }
+
+    @Test(
+            dataProvider = "fullQueues",
+            expectedExceptions = {
+                    EventQueueFullException.class
+            }
+    )
+    public void BlockWithTimeoutPolicyRejectsEventsIfQueueIsStillFullAfterTimeout(EventQueue queue) throws Exception {
+        OverflowPolicy.blockWithTimeout(10, TimeUnit.MILLISECONDS).put(queue, new NumberedEvent(2));
+    }
+
+    @Test(dataProvider = "fullQueues")
+    public void DropNewestPolicyDiscardsPublishedEvents(EventQueue queue) throws Exception {
+        OverflowPolicy policy = OverflowPolicy.dropNewest();
+        policy.put(queue, new NumberedEvent(2));
+
+        assertEquals(policy.getDroppedEventCount(), 1);
+        assertEquals(drain(queue), Arrays.asList(0, 1));
+    }
+
+    @Test(dataProvider = "fullQueues")
+    public void DropOldestPolicyRemovesQueuedEvents(EventQueue queue) throws Exception {
+        OverflowPolicy policy = OverflowPolicy.dropOldest();
+        policy.put(queue, new NumberedEvent(2));
+
+        assertEquals(policy.getDroppedEventCount(), 1);
+        assertEquals(drain(queue), Arrays.asList(1, 2));
+    }
+
+    @Test(dataProvider = "fullQueues")
+    public void SpillToDiskPolicyDrainsSpilledEventsBackInOrder(EventQueue queue) throws Exception {
+        File file = File.createTempFile("overflow", ".bin");
+        file.deleteOnExit();
+        OverflowPolicy policy = OverflowPolicy.spillToDisk(file);
+
+        for (int i = 2; i < 10; i++) {
+            policy.put(queue, new NumberedEvent(i));
+        }
+
+        assertTrue(file.length() > 0);
+
+        List<Integer> received = new ArrayList<Integer>();
+        while (received.size() < 10) {
+            received.addAll(drain(queue));
+            policy.refill(queue);
+        }
+
+        assertEquals(received, Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+        assertEquals(file.length(), 0);
+        assertEquals(policy.getDroppedEventCount(), 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void SpillToDiskPolicyRefillsEventsSpilledWhileConsumerDrains() throws Exception {
+        File file = File.createTempFile("overflow", ".bin");
+        file.deleteOnExit();
+        final OverflowPolicy policy = OverflowPolicy.spillToDisk(file);
+        final ConsumerDrainingEventQueue queue = new ConsumerDrainingEventQueue(fill(new BlockingEventQueue(2)), policy);
+
+        policy.put(queue, new NumberedEvent(2));
+        queue.consumer.join();
+
+        assertEquals(queue.drained, Arrays.asList(0, 1));
+        assertEquals(queue.size(), 1);
+        assertEquals(drain(queue), Arrays.asList(2));
+    }
+
+    private static EventQueue fill(EventQueue queue) throws Exception {
+        queue.put(new NumberedEvent(0));
+        queue.put(new NumberedEvent(1));
+        return queue;
+    }
+
+    private static List<Integer> drain(EventQueue queue) throws Exception {
+        List<Event> events = new ArrayList<Event>();
+        queue.drainTo(events, queue.capacity());
+
+        List<Integer> numbers = new ArrayList<Integer>();
+        for (Event event : events) {
+            numbers.add(((NumberedEvent) event).number);
+        }
+
+        return numbers;
+    }
+
+    /**
+     * Drains the queue and refills it from the overflow policy in a consumer thread while the producer is about to
+     * spill, i.e. after its second failed offer, which is made under the lock of the spilling policy.
+     */
+    private static class ConsumerDrainingEventQueue implements EventQueue {
+        private final EventQueue queue;
+        private final Thread consumer;
+        private final CountDownLatch consumerDrained;
+        private volatile List<Integer> drained;
+        private Thread producer;
+        private int failedOffers;
+
+        private ConsumerDrainingEventQueue(EventQueue queue, final OverflowPolicy policy) {
+            this.queue = queue;
+            this.consumerDrained = new CountDownLatch(1);
+            this.consumer = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        drained = drain(ConsumerDrainingEventQueue.this);
+                        consumerDrained.countDown();
+                        policy.refill(ConsumerDrainingEventQueue.this);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        }
+
+        public void put(Event event) throws InterruptedException {
+            queue.put(event);
+        }
+
+        public void putAll(List<Event> events) throws InterruptedException {
+            queue.putAll(events);
+        }
+
+        public boolean offerAll(List<Event> events, long timeout, TimeUnit unit) throws InterruptedException {
+            if (queue.offerAll(events, timeout, unit)) {
+                return true;
+            }
+
+            if (producer == null) {
+                producer = Thread.currentThread();
+            }
+
+            if (Thread.currentThread() == producer && ++failedOffers == 2) {
+                consumer.start();
+                consumerDrained.await();
+                consumer.join(100);
+            }
+
+            return false;
+        }
+
+        public Event poll() {
+            return queue.poll();
+        }
+
+        public int drainTo(List<Event> batch, int maxEvents) throws InterruptedException {
+            return queue.drainTo(batch, maxEvents);
+        }
+
+        public int drainTo(List<Event> batch, long[] putTimes, int maxEvents) throws InterruptedException {
+            return queue.drainTo(batch, putTimes, maxEvents);
+        }
+
+        public int size() {
+            return queue.size();
+        }
+
+        public int capacity() {
+            return queue.capacity();
+        }
+    }
+
+    private static class NumberedEvent extends Event implements Serializable {
+        private final int number;
+
+        private NumberedEvent(int number) {
+            this.number = number;
+        }
+    }
+}
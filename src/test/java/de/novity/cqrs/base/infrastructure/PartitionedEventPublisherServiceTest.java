@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class PartitionedEventPublisherServiceTest {
+    private PartitionedEventPublisherService service;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        service = new PartitionedEventPublisherService(new PartitionKeyExtractor() {
+            public Object getPartitionKey(Event event) {
+                return ((AggregateEvent) event).aggregateId;
+            }
+        }, 4, 16);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (service.isRunning()) {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void StartingEventPublisherServiceStartsOneThreadPerPartition() throws Exception {
+        final int baseThreadCount = Thread.activeCount();
+        service.start();
+        assertEquals(Thread.activeCount(), baseThreadCount + 4);
+    }
+
+    @Test(
+            expectedExceptions = {
+                    IllegalStateException.class
+            }
+    )
+    public void EventPublisherServiceCannotBeStartedTwice() throws Exception {
+        service.start();
+        service.start();
+    }
+
+    @Test
+    public void StoppedEventPublisherServiceCanBeRestarted() throws Exception {
+        service.start();
+        service.stop();
+        service.start();
+        assertTrue(service.isRunning());
+    }
+
+    @Test
+    public void EventsOfTheSameAggregateAreDeliveredInOrder() throws Exception {
+        final int aggregateCount = 8;
+        final int eventsPerAggregate = 500;
+        final CountDownLatch latch = new CountDownLatch(aggregateCount * eventsPerAggregate);
+        final Map<String, List<Integer>> received = new ConcurrentHashMap<String, List<Integer>>();
+
+        EventPublisher publisher = service.getPublisher();
+        publisher.addSubscriber(new EventSubscriber() {
+            public void onEvent(Event event) {
+                AggregateEvent aggregateEvent = (AggregateEvent) event;
+                List<Integer> sequence = received.get(aggregateEvent.aggregateId);
+
+                if (sequence == null) {
+                    sequence = new ArrayList<Integer>();
+                    received.put(aggregateEvent.aggregateId, sequence);
+                }
+
+                sequence.add(aggregateEvent.sequence);
+                latch.countDown();
+            }
+        });
+        service.start();
+
+        for (int i = 0; i < eventsPerAggregate; i++) {
+            for (int a = 0; a < aggregateCount; a++) {
+                publisher.publish(new AggregateEvent("aggregate-" + a, i));
+            }
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(received.size(), aggregateCount);
+
+        for (List<Integer> sequence : received.values()) {
+            for (int i = 0; i < eventsPerAggregate; i++) {
+                assertEquals(sequence.get(i).intValue(), i);
+            }
+        }
+    }
+
+    private static class AggregateEvent extends Event {
+        private final String aggregateId;
+        private final int sequence;
+
+        private AggregateEvent(String aggregateId, int sequence) {
+            this.aggregateId = aggregateId;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.Projection;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.Assert.*;
+
+public class ProjectionRunnerTest {
+    private InMemoryEventStore eventStore;
+    private InMemoryCheckpointStore checkpointStore;
+    private RecordingProjection projection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        eventStore = new InMemoryEventStore();
+        checkpointStore = new InMemoryCheckpointStore();
+        projection = new RecordingProjection();
+    }
+
+    @Test
+    public void StartedRunnerCatchesUpFromCheckpoint() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            eventStore.append("order-" + (i % 2), events(i, 1));
+        }
+        checkpointStore.save("orders", 4);
+
+        ProjectionRunner runner = new ProjectionRunner(projection, eventStore, checkpointStore);
+        runner.start();
+
+        assertEquals(projection.numbers(), Arrays.asList(4, 5, 6, 7, 8, 9));
+        assertEquals(runner.getPosition(), 10);
+        assertEquals(checkpointStore.load("orders"), 10);
+    }
+
+    @Test
+    public void LiveEventsCauseStoredEventsToBeReadInLogOrder() throws Exception {
+        ProjectionRunner runner = new ProjectionRunner(projection, eventStore, checkpointStore);
+        runner.start();
+
+        List<Event> first = events(0, 1);
+        List<Event> second = events(1, 1);
+        List<Event> third = events(2, 1);
+        eventStore.append("order-1", first);
+        eventStore.append("order-2", second);
+        eventStore.append("order-1", third);
+
+        runner.onEvent(first.get(0));
+        runner.onEvent(third.get(0));
+        runner.onEvent(second.get(0));
+        runner.onEvent(new NumberedEvent(99));
+
+        assertEquals(projection.numbers(), Arrays.asList(0, 1, 2));
+        assertEquals(runner.getPosition(), 3);
+    }
+
+    @Test
+    public void CheckpointIsSavedEveryIntervalAndOnStop() throws Exception {
+        ProjectionRunner runner = new ProjectionRunner(projection, eventStore, checkpointStore, 3);
+        runner.start();
+
+        for (int i = 0; i < 4; i++) {
+            List<Event> events = events(i, 1);
+            eventStore.append("order-1", events);
+            runner.onEvent(events.get(0));
+        }
+
+        assertEquals(checkpointStore.load("orders"), 3);
+
+        runner.stop();
+        assertEquals(checkpointStore.load("orders"), 4);
+    }
+
+    @Test
+    public void RebuildPassesEventsOfEachStreamInOrderOnSeveralThreads() throws Exception {
+        for (int i = 0; i < 800; i++) {
+            eventStore.append("order-" + (i % 8), events(i, 1));
+        }
+
+        ProjectionRunner runner = new ProjectionRunner(projection, eventStore, checkpointStore);
+        runner.start();
+        runner.rebuild(4);
+
+        assertEquals(projection.resets, 1);
+        assertEquals(projection.numbers().size(), 800);
+        assertTrue(projection.threads.size() > 1);
+        assertEquals(runner.getPosition(), 800);
+        assertEquals(checkpointStore.load("orders"), 800);
+
+        for (List<Integer> numbers : projection.byStream.values()) {
+            List<Integer> sorted = new ArrayList<Integer>(numbers);
+            Collections.sort(sorted);
+            assertEquals(numbers, sorted);
+            assertEquals(numbers.size(), 100);
+        }
+    }
+
+    @Test
+    public void FailedRebuildLeavesRunnerStoppedAndReset() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            eventStore.append("order-" + (i % 8), events(i, 1));
+        }
+
+        ProjectionRunner runner = new ProjectionRunner(projection, eventStore, checkpointStore, 10);
+        runner.start();
+        projection.failAt = 50;
+
+        try {
+            runner.rebuild(2);
+            fail("Rebuild should fail");
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "Failed at 50");
+        }
+
+        assertFalse(runner.isRunning());
+        assertEquals(projection.resets, 2);
+        assertTrue(projection.numbers().isEmpty());
+        assertEquals(runner.getPosition(), 0);
+        assertEquals(checkpointStore.load("orders"), 0);
+
+        List<Event> events = events(100, 1);
+        eventStore.append("order-1", events);
+        runner.onEvent(events.get(0));
+        assertTrue(projection.numbers().isEmpty());
+
+        projection.failAt = -1;
+        runner.start();
+        assertEquals(projection.numbers().size(), 101);
+        assertEquals(runner.getPosition(), 101);
+    }
+
+    @Test(timeOut = 10000)
+    public void ErrorInRebuildWorkerFailsRebuildWithoutBlockingTheReader() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            eventStore.append("order-1", events(i, 1));
+        }
+
+        ProjectionRunner runner = new ProjectionRunner(projection, eventStore, checkpointStore);
+        projection.errorAt = 10;
+
+        try {
+            runner.rebuild(1);
+            fail("Rebuild should fail");
+        } catch (AssertionError e) {
+            assertEquals(e.getMessage(), "Error at 10");
+        }
+
+        assertFalse(runner.isRunning());
+        assertTrue(projection.numbers().isEmpty());
+        assertEquals(checkpointStore.load("orders"), 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void LiveEventsDuringRebuildDoNotBlockPublisherAndAreProcessedAfterwards() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            eventStore.append("order-" + (i % 8), events(i, 1));
+        }
+
+        final ProjectionRunner runner = new ProjectionRunner(projection, eventStore, checkpointStore);
+        runner.start();
+        projection.blockAt = 5;
+
+        final Exception[] failure = new Exception[1];
+        Thread rebuild = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    runner.rebuild(1);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        rebuild.start();
+        projection.blocked.await();
+
+        List<Event> events = events(10, 1);
+        eventStore.append("order-1", events);
+        runner.onEvent(events.get(0));
+
+        projection.release.countDown();
+        rebuild.join();
+
+        assertNull(failure[0]);
+        assertTrue(runner.isRunning());
+        assertEquals(projection.numbers().size(), 11);
+        assertTrue(projection.numbers().contains(10));
+        assertEquals(runner.getPosition(), 11);
+    }
+
+    @Test
+    public void FileCheckpointSurvivesReopening() throws Exception {
+        File directory = Files.createTempDirectory("checkpoints").toFile();
+
+        try {
+            new FileCheckpointStore(directory).save("orders", 42);
+            new FileCheckpointStore(directory).save("orders", 43);
+
+            assertEquals(new FileCheckpointStore(directory).load("orders"), 43);
+            assertEquals(new FileCheckpointStore(directory).load("customers"), 0);
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+
+            directory.delete();
+        }
+    }
+
+    private static List<Event> events(int first, int count) {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = first; i < first + count; i++) {
+            events.add(new NumberedEvent(i));
+        }
+
+        return events;
+    }
+
+    private static class RecordingProjection implements Projection {
+        private final List<Integer> numbers = Collections.synchronizedList(new ArrayList<Integer>());
+        private final Map<Integer, List<Integer>> byStream = new ConcurrentHashMap<Integer, List<Integer>>();
+        private final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile int failAt = -1;
+        private volatile int errorAt = -1;
+        private volatile int blockAt = -1;
+        private int resets;
+
+        public String getName() {
+            return "orders";
+        }
+
+        public void reset() {
+            numbers.clear();
+            byStream.clear();
+            threads.clear();
+            resets++;
+        }
+
+        public void onEvent(Event event) {
+            final int number = ((NumberedEvent) event).number;
+
+            if (number == failAt) {
+                throw new IllegalStateException("Failed at " + number);
+            }
+
+            if (number == errorAt) {
+                throw new AssertionError("Error at " + number);
+            }
+
+            if (number == blockAt) {
+                blocked.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            List<Integer> stream = byStream.get(number % 8);
+
+            if (stream == null) {
+                byStream.put(number % 8, new ArrayList<Integer>());
+                stream = byStream.get(number % 8);
+            }
+
+            stream.add(number);
+            numbers.add(number);
+            threads.add(Thread.currentThread().getName());
+        }
+
+        private List<Integer> numbers() {
+            return new ArrayList<Integer>(numbers);
+        }
+    }
+
+    private static class NumberedEvent extends Event {
+        private final int number;
+
+        private NumberedEvent(int number) {
+            this.number = number;
+        }
+    }
+}
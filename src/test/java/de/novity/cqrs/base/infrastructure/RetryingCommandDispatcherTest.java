@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.AggregateFactory;
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.api.ConcurrencyException;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSourcedRootAggregate;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class RetryingCommandDispatcherTest {
+    private EventSourcedRepository<Counter> repository;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        repository = new EventSourcedRepository<Counter>(new InMemoryEventStore(), new AggregateFactory<Counter>() {
+            public Counter create(String id) {
+                return new Counter(id);
+            }
+        });
+
+        Counter counter = new Counter("counter-1");
+        counter.add();
+        repository.save(counter);
+    }
+
+    @Test
+    public void SavingStaleAggregateFails() throws Exception {
+        Counter first = repository.load("counter-1");
+        Counter second = repository.load("counter-1");
+        first.add();
+        second.add();
+        repository.save(first);
+
+        try {
+            repository.save(second);
+            fail("Saving a stale aggregate should have failed");
+        } catch (ConcurrencyException e) {
+            assertEquals(e.getExpectedVersion(), 1);
+            assertEquals(e.getActualVersion(), 2);
+        }
+    }
+
+    @Test
+    public void ConcurrentCommandsOnTheSameAggregateAreRetriedUntilTheySucceed() throws Exception {
+        final RetryingCommandDispatcher dispatcher = new RetryingCommandDispatcher(new InMemoryCommandDispatcher(),
+                RetryPolicy.withBackoff(1000, 0, 1, TimeUnit.MILLISECONDS));
+        dispatcher.registerHandler(Increment.class, new CommandHandler<Increment>() {
+            public void execute(Increment command) throws Exception {
+                Counter counter = repository.load("counter-1");
+                counter.add();
+                Thread.yield();
+                repository.save(counter);
+            }
+        });
+
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            dispatcher.execute(new Increment());
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.isEmpty(), failures.toString());
+        assertEquals(repository.load("counter-1").total, 401);
+    }
+
+    @Test(
+            expectedExceptions = {
+                    ConcurrencyException.class
+            }
+    )
+    public void ConflictIsThrownWhenRetriesAreExhausted() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        RetryingCommandDispatcher dispatcher = new RetryingCommandDispatcher(new InMemoryCommandDispatcher(), RetryPolicy.immediately(3));
+        dispatcher.registerHandler(Increment.class, new CommandHandler<Increment>() {
+            public void execute(Increment command) throws Exception {
+                attempts.incrementAndGet();
+                throw new ConcurrencyException("counter-1", 0, 1);
+            }
+        });
+
+        try {
+            dispatcher.execute(new Increment());
+        } finally {
+            assertEquals(attempts.get(), 3);
+            assertEquals(dispatcher.getRetryCount(), 2);
+        }
+    }
+
+    @Test(
+            expectedExceptions = {
+                    IllegalStateException.class
+            }
+    )
+    public void OtherFailuresAreNotRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        RetryingCommandDispatcher dispatcher = new RetryingCommandDispatcher(new InMemoryCommandDispatcher(), RetryPolicy.immediately(3));
+        dispatcher.registerHandler(Increment.class, new CommandHandler<Increment>() {
+            public void execute(Increment command) throws Exception {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("Command failed");
+            }
+        });
+
+        try {
+            dispatcher.execute(new Increment());
+        } finally {
+            assertEquals(attempts.get(), 1);
+        }
+    }
+
+    private static class Increment extends Command {
+    }
+
+    private static class Counter extends EventSourcedRootAggregate {
+        private long total;
+
+        private Counter(String id) {
+            super(id);
+        }
+
+        private void add() {
+            applyChange(new Added());
+        }
+
+        @Override
+        protected void apply(Event event) {
+            total++;
+        }
+    }
+
+    private static class Added extends Event {
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class RingBufferEventQueueTest {
+    @DataProvider
+    public Object[][] waitStrategies() {
+        return new Object[][]{
+                {new BlockingWaitStrategy()},
+                {new ParkingWaitStrategy()},
+                {new YieldingWaitStrategy()},
+                {new BusySpinWaitStrategy()}
+        };
+    }
+
+    @Test
+    public void CapacityIsRoundedUpToAPowerOfTwo() throws Exception {
+        assertEquals(new RingBufferEventQueue(1000, new BlockingWaitStrategy()).capacity(), 1024);
+        assertEquals(new RingBufferEventQueue(1024, new BlockingWaitStrategy()).capacity(), 1024);
+        assertEquals(new RingBufferEventQueue(1, new BlockingWaitStrategy()).capacity(), 1);
+    }
+
+    @Test
+    public void DrainingRemovesAllAvailableEventsInOneBatch() throws Exception {
+        RingBufferEventQueue queue = new RingBufferEventQueue(8, new BlockingWaitStrategy());
+        queue.put(new SequencedEvent(0, 0));
+        queue.put(new SequencedEvent(0, 1));
+        queue.put(new SequencedEvent(0, 2));
+
+        List<Event> batch = new ArrayList<Event>();
+        assertEquals(queue.drainTo(batch, 8), 3);
+        assertEquals(batch.size(), 3);
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void DrainingStoresThePutTimeOfEveryEvent() throws Exception {
+        RingBufferEventQueue queue = new RingBufferEventQueue(8, new BlockingWaitStrategy());
+        long start = System.nanoTime();
+        queue.put(new SequencedEvent(0, 0));
+        queue.putAll(Arrays.<Event>asList(new SequencedEvent(0, 1), new SequencedEvent(0, 2)));
+        long end = System.nanoTime();
+
+        List<Event> batch = new ArrayList<Event>();
+        long[] putTimes = new long[8];
+        assertEquals(queue.drainTo(batch, putTimes, 8), 3);
+
+        assertTrue(putTimes[0] >= start && putTimes[0] <= putTimes[1]);
+        assertEquals(putTimes[1], putTimes[2]);
+        assertTrue(putTimes[2] <= end);
+    }
+
+    @Test
+    public void ListOfEventsIsPutAsOneContiguousUnit() throws Exception {
+        final RingBufferEventQueue queue = new RingBufferEventQueue(16, new YieldingWaitStrategy());
+        final int batchCount = 2000;
+        final int batchSize = 5;
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int b = 0; b < batchCount; b++) {
+                        List<Event> events = new ArrayList<Event>();
+
+                        for (int i = 0; i < batchSize; i++) {
+                            events.add(new SequencedEvent(b, i));
+                        }
+
+                        queue.putAll(events);
+                    }
+                } catch (InterruptedException e) {
+                    interrupt();
+                }
+            }
+        };
+        Thread interleavingProducer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < batchCount; i++) {
+                        queue.put(new SequencedEvent(-1, i));
+                    }
+                } catch (InterruptedException e) {
+                    interrupt();
+                }
+            }
+        };
+        producer.start();
+        interleavingProducer.start();
+
+        List<Event> received = new ArrayList<Event>();
+        while (received.size() < batchCount * (batchSize + 1)) {
+            queue.drainTo(received, 16);
+        }
+
+        for (int i = 0; i < received.size(); i++) {
+            SequencedEvent event = (SequencedEvent) received.get(i);
+
+            if (event.producer >= 0 && event.sequence == 0) {
+                for (int j = 1; j < batchSize; j++) {
+                    SequencedEvent next = (SequencedEvent) received.get(i + j);
+                    assertEquals(next.producer, event.producer);
+                    assertEquals(next.sequence, j);
+                }
+            }
+        }
+
+        producer.join(1000);
+        interleavingProducer.join(1000);
+    }
+
+    @Test(dataProvider = "waitStrategies")
+    public void EventsOfConcurrentProducersAreDrainedInProducerOrder(WaitStrategy waitStrategy) throws Exception {
+        final int producerCount = 3;
+        final int eventsPerProducer = 2000;
+        final RingBufferEventQueue queue = new RingBufferEventQueue(64, waitStrategy);
+        final List<Thread> producers = new ArrayList<Thread>();
+
+        for (int p = 0; p < producerCount; p++) {
+            final int producer = p;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < eventsPerProducer; i++) {
+                            queue.put(new SequencedEvent(producer, i));
+                        }
+                    } catch (InterruptedException e) {
+                        interrupt();
+                    }
+                }
+            };
+            producers.add(thread);
+            thread.start();
+        }
+
+        int[] expected = new int[producerCount];
+        List<Event> batch = new ArrayList<Event>();
+        int received = 0;
+
+        while (received < producerCount * eventsPerProducer) {
+            received += queue.drainTo(batch, 32);
+
+            for (Event event : batch) {
+                SequencedEvent sequencedEvent = (SequencedEvent) event;
+                assertEquals(sequencedEvent.sequence, expected[sequencedEvent.producer]);
+                expected[sequencedEvent.producer]++;
+            }
+
+            batch.clear();
+        }
+
+        for (Thread producer : producers) {
+            producer.join(1000);
+        }
+
+        assertEquals(queue.size(), 0);
+    }
+
+    private static class SequencedEvent extends Event {
+        private final int producer;
+        private final int sequence;
+
+        private SequencedEvent(int producer, int sequence) {
+            this.producer = producer;
+            this.sequence = sequence;
+        }
+    }
+}
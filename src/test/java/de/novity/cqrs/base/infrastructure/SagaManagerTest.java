@@ -0,0 +1,363 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.BinaryCodec;
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.Saga;
+import de.novity.cqrs.base.api.SagaFactory;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.testng.Assert.*;
+
+public class SagaManagerTest {
+    private static final AtomicInteger failingTimeouts = new AtomicInteger();
+
+    private AtomicLong now;
+    private InMemorySagaStore store;
+    private List<String> executed;
+    private InMemoryCommandDispatcher dispatcher;
+    private SagaManager manager;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        now = new AtomicLong();
+        store = new InMemorySagaStore();
+        executed = new ArrayList<String>();
+        failingTimeouts.set(0);
+
+        dispatcher = new InMemoryCommandDispatcher();
+        dispatcher.registerHandler(OrderCommand.class, new CommandHandler<OrderCommand>() {
+            public void execute(OrderCommand command) throws Exception {
+                executed.add(command.name + ":" + command.orderId);
+            }
+        });
+
+        manager = createManager();
+    }
+
+    @Test
+    public void StartingEventCreatesSagaAssociatedWithItsKey() throws Exception {
+        manager.onEvent(new OrderPlaced("order-1"));
+
+        assertEquals(store.size(), 1);
+        assertEquals(store.find(OrderFulfillment.class, "order-1").size(), 1);
+        assertEquals(executed, Arrays.asList("reserve:order-1"));
+    }
+
+    @Test
+    public void EventsWithoutSagaAreIgnoredUnlessTheyStartOne() throws Exception {
+        manager.onEvent(new PaymentReceived("order-1"));
+        manager.onEvent(new Event() {
+        });
+
+        assertEquals(store.size(), 0);
+        assertTrue(executed.isEmpty());
+    }
+
+    @Test
+    public void CorrelatedEventIsHandledByTheSagaWhichIsRemovedOnCompletion() throws Exception {
+        manager.onEvent(new OrderPlaced("order-1"));
+        manager.onEvent(new OrderPlaced("order-2"));
+        manager.onEvent(new PaymentReceived("order-1"));
+
+        assertEquals(executed, Arrays.asList("reserve:order-1", "reserve:order-2", "ship:order-1"));
+        assertEquals(store.size(), 1);
+        assertTrue(store.find(OrderFulfillment.class, "order-1").isEmpty());
+        assertEquals(manager.getTimeoutCount(), 1);
+    }
+
+    @Test
+    public void ExpiredTimeoutIsHandledByTheSaga() throws Exception {
+        manager.onEvent(new OrderPlaced("order-1"));
+
+        now.set(TimeUnit.SECONDS.toNanos(9));
+        manager.advance();
+        assertEquals(executed, Arrays.asList("reserve:order-1"));
+
+        now.set(TimeUnit.SECONDS.toNanos(10));
+        manager.advance();
+        assertEquals(executed, Arrays.asList("reserve:order-1", "cancel:order-1"));
+        assertEquals(store.size(), 0);
+        assertEquals(manager.getTimeoutCount(), 0);
+    }
+
+    @Test
+    public void CancelledTimeoutDoesNotExpire() throws Exception {
+        manager.onEvent(new OrderPlaced("order-1"));
+        manager.onEvent(new PaymentReceived("order-1"));
+
+        now.set(TimeUnit.SECONDS.toNanos(20));
+        manager.advance();
+
+        assertEquals(executed, Arrays.asList("reserve:order-1", "ship:order-1"));
+        assertEquals(manager.getTimeoutCount(), 0);
+    }
+
+    @Test
+    public void FailingSagaIsLeftUnchanged() throws Exception {
+        manager.onEvent(new OrderPlaced("order-1"));
+        manager.onEvent(new OrderFailed("order-1"));
+        manager.onEvent(new PaymentReceived("order-1"));
+
+        assertEquals(executed, Arrays.asList("reserve:order-1", "ship:order-1"));
+    }
+
+    @Test
+    public void TimeoutIsRetriedIfTheSagaFailsToHandleIt() throws Exception {
+        manager.onEvent(new OrderPlaced("order-1"));
+        failingTimeouts.set(1);
+
+        now.set(TimeUnit.SECONDS.toNanos(10));
+        manager.advance();
+        assertEquals(executed, Arrays.asList("reserve:order-1"));
+        assertEquals(manager.getTimeoutCount(), 1);
+
+        String sagaId = store.find(OrderFulfillment.class, "order-1").iterator().next();
+        assertEquals(store.load(sagaId).getTimeouts().keySet(), Collections.singleton("payment"));
+
+        now.set(TimeUnit.SECONDS.toNanos(20));
+        manager.advance();
+        assertEquals(executed, Arrays.asList("reserve:order-1", "cancel:order-1"));
+        assertEquals(store.size(), 0);
+        assertEquals(manager.getTimeoutCount(), 0);
+    }
+
+    @Test
+    public void PendingTimeoutsAreScheduledAgainOnStart() throws Exception {
+        manager.onEvent(new OrderPlaced("order-1"));
+        manager.onEvent(new OrderPlaced("order-2"));
+        manager.onEvent(new PaymentReceived("order-2"));
+
+        SagaManager restarted = createManager();
+        restarted.start();
+        restarted.stop();
+        assertEquals(restarted.getTimeoutCount(), 1);
+
+        now.set(TimeUnit.SECONDS.toNanos(10));
+        restarted.advance();
+        assertEquals(executed, Arrays.asList("reserve:order-1", "reserve:order-2", "ship:order-2", "cancel:order-1"));
+        assertEquals(store.size(), 0);
+    }
+
+    @Test
+    public void BinarySerializedSagasKeepTheirStateAssociationsAndTimeouts() throws Exception {
+        CodecRegistry registry = new CodecRegistry();
+        registry.register(new OrderFulfillmentCodec());
+        store = new InMemorySagaStore(new BinarySagaSerializer(registry));
+        manager = createManager();
+
+        manager.onEvent(new OrderPlaced("order-1"));
+        manager.onEvent(new OrderPlaced("order-2"));
+        manager.onEvent(new PaymentReceived("order-2"));
+
+        String sagaId = store.find(OrderFulfillment.class, "order-1").iterator().next();
+        OrderFulfillment saga = (OrderFulfillment) store.load(sagaId);
+        assertEquals(saga.getId(), sagaId);
+        assertEquals(saga.getAssociations(), Collections.singleton("order-1"));
+        assertEquals(saga.getTimeouts(), Collections.singletonMap("payment", TimeUnit.SECONDS.toNanos(10)));
+        assertEquals(saga.unit.toSeconds(saga.paymentTimeout), 10);
+        assertTrue(saga.getAssociationChanges().isEmpty());
+        assertTrue(store.find(OrderFulfillment.class, "order-2").isEmpty());
+
+        byte[] binary = new BinarySagaSerializer(registry).serialize(saga);
+        byte[] java = new JavaSagaSerializer().serialize(saga);
+        assertTrue(binary.length * 3 < java.length, binary.length + " bytes compared to " + java.length);
+
+        now.set(TimeUnit.SECONDS.toNanos(10));
+        manager.advance();
+        assertEquals(executed, Arrays.asList("reserve:order-1", "reserve:order-2", "ship:order-2", "cancel:order-1"));
+        assertEquals(store.size(), 0);
+        assertTrue(store.find(OrderFulfillment.class, "order-1").isEmpty());
+    }
+
+    @Test
+    public void RunningManagerProcessesTimeouts() throws Exception {
+        InMemoryCommandDispatcher dispatcher = new InMemoryCommandDispatcher();
+        final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+        dispatcher.registerHandler(OrderCommand.class, new CommandHandler<OrderCommand>() {
+            public void execute(OrderCommand command) throws Exception {
+                commands.add(command.name);
+            }
+        });
+
+        SagaManager running = new SagaManager(dispatcher, new InMemorySagaStore(), 1, TimeUnit.MILLISECONDS);
+        running.register(OrderFulfillment.class, new SagaFactory<OrderFulfillment>() {
+            public OrderFulfillment create(String id) {
+                return new OrderFulfillment(id, 5, TimeUnit.MILLISECONDS);
+            }
+        }, new CorrelationKeyExtractor() {
+            public Object getKey(Event event) {
+                return ((OrderEvent) event).orderId;
+            }
+        }, Collections.<Class<? extends Event>>singletonList(OrderPlaced.class));
+
+        running.start();
+        try {
+            running.onEvent(new OrderPlaced("order-1"));
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (commands.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+
+            assertEquals(commands, Arrays.asList("reserve", "cancel"));
+        } finally {
+            running.stop();
+        }
+
+        assertFalse(running.isRunning());
+    }
+
+    private SagaManager createManager() {
+        SagaManager sagaManager = new SagaManager(dispatcher, store, 1, TimeUnit.SECONDS, new LongSupplier() {
+            public long getAsLong() {
+                return now.get();
+            }
+        });
+        sagaManager.register(OrderFulfillment.class, new SagaFactory<OrderFulfillment>() {
+            public OrderFulfillment create(String id) {
+                return new OrderFulfillment(id);
+            }
+        }, new CorrelationKeyExtractor() {
+            public Object getKey(Event event) {
+                return event instanceof OrderEvent ? ((OrderEvent) event).orderId : null;
+            }
+        }, Collections.<Class<? extends Event>>singletonList(OrderPlaced.class));
+
+        return sagaManager;
+    }
+
+    private static class OrderFulfillment extends Saga {
+        private final long paymentTimeout;
+        private final TimeUnit unit;
+
+        private OrderFulfillment(String id) {
+            this(id, 10, TimeUnit.SECONDS);
+        }
+
+        private OrderFulfillment(String id, long paymentTimeout, TimeUnit unit) {
+            super(id);
+            this.paymentTimeout = paymentTimeout;
+            this.unit = unit;
+        }
+
+        @Override
+        public void handle(Event event) throws Exception {
+            final String orderId = ((OrderEvent) event).orderId;
+
+            if (event instanceof OrderPlaced) {
+                requestTimeout("payment", paymentTimeout, unit);
+                send(new OrderCommand("reserve", orderId));
+            } else if (event instanceof PaymentReceived) {
+                cancelTimeout("payment");
+                send(new OrderCommand("ship", orderId));
+                complete();
+            } else if (event instanceof OrderFailed) {
+                send(new OrderCommand("fail", orderId));
+                complete();
+                throw new IllegalStateException("Order failed");
+            }
+        }
+
+        @Override
+        public void onTimeout(String name) throws Exception {
+            if (failingTimeouts.getAndDecrement() > 0) {
+                throw new IllegalStateException("Timeout failed");
+            }
+
+            send(new OrderCommand("cancel", getAssociations().iterator().next().toString()));
+            complete();
+        }
+    }
+
+    private static class OrderFulfillmentCodec implements BinaryCodec<OrderFulfillment> {
+        public Class<OrderFulfillment> getType() {
+            return OrderFulfillment.class;
+        }
+
+        public int getTypeId() {
+            return 1001;
+        }
+
+        public int getVersion() {
+            return 1;
+        }
+
+        public int getFieldCount() {
+            return 2;
+        }
+
+        public void write(OrderFulfillment value, ByteBuffer buffer) {
+            BinaryFields.writeString(buffer, value.getId());
+            buffer.putLong(value.unit.toNanos(value.paymentTimeout));
+        }
+
+        public OrderFulfillment read(ByteBuffer buffer, int version, int fieldCount) {
+            return new OrderFulfillment(BinaryFields.readString(buffer), buffer.getLong(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static class OrderEvent extends Event {
+        private final String orderId;
+
+        private OrderEvent(String orderId) {
+            this.orderId = orderId;
+        }
+    }
+
+    private static class OrderPlaced extends OrderEvent {
+        private OrderPlaced(String orderId) {
+            super(orderId);
+        }
+    }
+
+    private static class PaymentReceived extends OrderEvent {
+        private PaymentReceived(String orderId) {
+            super(orderId);
+        }
+    }
+
+    private static class OrderFailed extends OrderEvent {
+        private OrderFailed(String orderId) {
+            super(orderId);
+        }
+    }
+
+    private static class OrderCommand extends Command {
+        private final String name;
+        private final String orderId;
+
+        private OrderCommand(String name, String orderId) {
+            this.name = name;
+            this.orderId = orderId;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class SharedMemoryEventPublisherServiceTest {
+    private static final int CAPACITY = 4096;
+
+    private File file;
+    private List<SharedMemoryEventPublisherService> services;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        file = File.createTempFile("events", ".ring");
+        file.delete();
+        services = new ArrayList<SharedMemoryEventPublisherService>();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        for (SharedMemoryEventPublisherService service : services) {
+            service.close();
+        }
+
+        file.delete();
+    }
+
+    @Test
+    public void PublishedEventsAreDeliveredToReadersInOrder() throws Exception {
+        SharedMemoryEventPublisherService writer = open(SlowSubscriberPolicy.BLOCK_PUBLISHER);
+        RecordingSubscriber first = new RecordingSubscriber(null);
+        RecordingSubscriber second = new RecordingSubscriber(null);
+        startReader(SlowSubscriberPolicy.BLOCK_PUBLISHER, first);
+        startReader(SlowSubscriberPolicy.BLOCK_PUBLISHER, second);
+
+        for (int i = 0; i < 500; i += 5) {
+            writer.getPublisher().publish(events(i, 5));
+        }
+
+        assertTrue(first.await(500));
+        assertTrue(second.await(500));
+        assertEquals(first.numbers(), range(0, 500));
+        assertEquals(second.numbers(), range(0, 500));
+    }
+
+    @Test
+    public void SlowReaderBlocksPublisher() throws Exception {
+        final SharedMemoryEventPublisherService writer = open(SlowSubscriberPolicy.BLOCK_PUBLISHER);
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingSubscriber subscriber = new RecordingSubscriber(release);
+        startReader(SlowSubscriberPolicy.BLOCK_PUBLISHER, subscriber);
+
+        final CountDownLatch published = new CountDownLatch(1);
+        Thread publisher = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        writer.getPublisher().publish(new NumberedEvent(i));
+                    }
+
+                    published.countDown();
+                } catch (Exception e) {
+                    // the latch is not counted down
+                }
+            }
+        });
+        publisher.start();
+
+        assertFalse(published.await(200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+
+        assertTrue(published.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.await(200));
+        assertEquals(subscriber.numbers(), range(0, 200));
+        assertEquals(writer.getDroppedEventCount(), 0);
+    }
+
+    @Test
+    public void OverrunReaderSkipsOverwrittenEventsAndCountsThemAsDropped() throws Exception {
+        SharedMemoryEventPublisherService writer = open(SlowSubscriberPolicy.DROP_EVENTS);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSubscriber subscriber = new RecordingSubscriber(release);
+        SharedMemoryEventPublisherService reader = startReader(SlowSubscriberPolicy.DROP_EVENTS, subscriber);
+
+        writer.getPublisher().publish(new NumberedEvent(0));
+        assertTrue(subscriber.awaitBlocked());
+
+        for (int i = 1; i < 200; i++) {
+            writer.getPublisher().publish(new NumberedEvent(i));
+        }
+
+        release.countDown();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (reader.getLag() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        writer.getPublisher().publish(new NumberedEvent(200));
+
+        assertTrue(subscriber.awaitNumber(200));
+
+        List<Integer> received = subscriber.numbers();
+        for (int i = 1; i < received.size(); i++) {
+            assertTrue(received.get(i) > received.get(i - 1));
+        }
+
+        assertTrue(reader.getDroppedEventCount() > 0);
+        assertEquals(received.size() + reader.getDroppedEventCount(), 201);
+    }
+
+    @Test(
+            expectedExceptions = {
+                    IllegalStateException.class
+            }
+    )
+    public void SecondPublisherIsRejected() throws Exception {
+        SharedMemoryEventPublisherService first = open(SlowSubscriberPolicy.BLOCK_PUBLISHER);
+        SharedMemoryEventPublisherService second = open(SlowSubscriberPolicy.BLOCK_PUBLISHER);
+
+        first.getPublisher().publish(new NumberedEvent(0));
+        second.getPublisher().publish(new NumberedEvent(1));
+    }
+
+    @Test(
+            expectedExceptions = {
+                    IllegalArgumentException.class
+            }
+    )
+    public void OpeningRingWithDifferentCapacityFails() throws Exception {
+        open(SlowSubscriberPolicy.BLOCK_PUBLISHER);
+        services.add(new SharedMemoryEventPublisherService(file, CAPACITY * 2, new JavaEventSerializer(), new ParkingWaitStrategy(), SlowSubscriberPolicy.BLOCK_PUBLISHER));
+    }
+
+    private SharedMemoryEventPublisherService open(SlowSubscriberPolicy policy) throws Exception {
+        SharedMemoryEventPublisherService service = new SharedMemoryEventPublisherService(file, CAPACITY, new JavaEventSerializer(), new ParkingWaitStrategy(), policy);
+        services.add(service);
+        return service;
+    }
+
+    private SharedMemoryEventPublisherService startReader(SlowSubscriberPolicy policy, EventSubscriber subscriber) throws Exception {
+        SharedMemoryEventPublisherService service = open(policy);
+        service.getPublisher().addSubscriber(subscriber);
+        service.start();
+        return service;
+    }
+
+    private static List<Event> events(int first, int count) {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = first; i < first + count; i++) {
+            events.add(new NumberedEvent(i));
+        }
+
+        return events;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> numbers = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            numbers.add(i);
+        }
+
+        return numbers;
+    }
+
+    private static class NumberedEvent extends Event implements Serializable {
+        private final int number;
+
+        private NumberedEvent(int number) {
+            this.number = number;
+        }
+    }
+
+    private static class RecordingSubscriber implements EventSubscriber {
+        private final CountDownLatch release;
+        private final CountDownLatch blocked;
+        private final List<Integer> received;
+
+        private RecordingSubscriber(CountDownLatch release) {
+            this.release = release;
+            this.blocked = new CountDownLatch(1);
+            this.received = new CopyOnWriteArrayList<Integer>();
+        }
+
+        public void onEvent(Event event) {
+            received.add(((NumberedEvent) event).number);
+            blocked.countDown();
+
+            try {
+                if (release != null) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private List<Integer> numbers() {
+            return new ArrayList<Integer>(received);
+        }
+
+        private boolean awaitBlocked() throws InterruptedException {
+            return blocked.await(10, TimeUnit.SECONDS);
+        }
+
+        private boolean await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+
+            while (received.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            return received.size() >= count;
+        }
+
+        private boolean awaitNumber(int number) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+
+            while (!received.contains(number) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            return received.contains(number);
+        }
+    }
+}
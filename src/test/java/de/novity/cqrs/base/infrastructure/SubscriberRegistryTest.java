@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSubscriber;
+import de.novity.cqrs.base.api.TypedEventSubscriber;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.testng.Assert.*;
+
+public class SubscriberRegistryTest {
+    private SubscriberRegistry registry;
+    private EventSubscriber untypedSubscriber;
+    private EventSubscriber orderSubscriber;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        registry = new SubscriberRegistry();
+        untypedSubscriber = new EventSubscriber() {
+            public void onEvent(Event event) {
+            }
+        };
+        orderSubscriber = new TypedEventSubscriber() {
+            public Collection<Class<? extends Event>> getEventTypes() {
+                return Arrays.<Class<? extends Event>>asList(OrderEvent.class);
+            }
+
+            public void onEvent(Event event) {
+            }
+        };
+    }
+
+    @Test
+    public void UntypedSubscriberIsRoutedEveryEvent() throws Exception {
+        registry.add(untypedSubscriber);
+
+        assertEquals(registry.subscribersOf(OrderConfirmed.class), new EventSubscriber[]{untypedSubscriber});
+        assertEquals(registry.subscribersOf(CustomerRegistered.class), new EventSubscriber[]{untypedSubscriber});
+    }
+
+    @Test
+    public void TypedSubscriberIsRoutedEventsOfItsDeclaredTypesAndSubtypesOnly() throws Exception {
+        registry.add(orderSubscriber);
+
+        assertEquals(registry.subscribersOf(OrderEvent.class), new EventSubscriber[]{orderSubscriber});
+        assertEquals(registry.subscribersOf(OrderConfirmed.class), new EventSubscriber[]{orderSubscriber});
+        assertEquals(registry.subscribersOf(CustomerRegistered.class).length, 0);
+    }
+
+    @Test
+    public void AddingASubscriberUpdatesResolvedRoutes() throws Exception {
+        registry.add(orderSubscriber);
+        assertEquals(registry.subscribersOf(OrderConfirmed.class).length, 1);
+
+        registry.add(untypedSubscriber);
+        assertEquals(registry.subscribersOf(OrderConfirmed.class), new EventSubscriber[]{orderSubscriber, untypedSubscriber});
+    }
+
+    @Test
+    public void RemovedSubscriberIsNoLongerRouted() throws Exception {
+        registry.add(orderSubscriber);
+        registry.add(untypedSubscriber);
+        assertEquals(registry.subscribersOf(OrderConfirmed.class).length, 2);
+
+        assertTrue(registry.remove(orderSubscriber));
+        assertEquals(registry.subscribersOf(OrderConfirmed.class), new EventSubscriber[]{untypedSubscriber});
+        assertFalse(registry.remove(orderSubscriber));
+    }
+
+    private static abstract class OrderEvent extends Event {
+    }
+
+    private static class OrderConfirmed extends OrderEvent {
+    }
+
+    private static class CustomerRegistered extends Event {
+    }
+}
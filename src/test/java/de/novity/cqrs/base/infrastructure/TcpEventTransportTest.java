@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class TcpEventTransportTest {
+    private TcpEventForwarder forwarder;
+    private List<TcpEventPublisherService> services;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        forwarder = new TcpEventForwarder(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new JavaEventSerializer(), 16, 256);
+        services = new ArrayList<TcpEventPublisherService>();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        for (TcpEventPublisherService service : services) {
+            service.close();
+        }
+
+        forwarder.close();
+    }
+
+    @Test
+    public void ForwardedEventsAreDeliveredToAllConnectedNodesInOrder() throws Exception {
+        forwarder.start();
+        RecordingSubscriber first = connect(1);
+        RecordingSubscriber second = connect(1);
+
+        for (int i = 0; i < 100; i += 4) {
+            forwarder.onEvents(events(i, 4));
+            awaitReceived(first, i + 4);
+        }
+
+        assertTrue(await(second, 100));
+        assertEquals(first.numbers(), range(0, 100));
+        assertEquals(second.numbers(), range(0, 100));
+    }
+
+    @Test
+    public void EventsLargerThanTheWriteBufferAreForwarded() throws Exception {
+        forwarder.start();
+        RecordingSubscriber subscriber = connect(1);
+
+        forwarder.onEvent(new NumberedEvent(0, new byte[4096]));
+        forwarder.onEvent(new NumberedEvent(1, new byte[0]));
+
+        assertTrue(await(subscriber, 2));
+        assertEquals(subscriber.numbers(), Arrays.asList(0, 1));
+    }
+
+    @Test
+    public void NodeResumesFromNextSequenceAfterReconnect() throws Exception {
+        forwarder.start();
+        InetSocketAddress address = forwarder.getLocalAddress();
+        RecordingSubscriber subscriber = connect(1);
+
+        forwarder.onEvents(events(0, 5));
+        assertTrue(await(subscriber, 5));
+
+        forwarder.stop();
+        forwarder.onEvents(events(5, 5));
+
+        forwarder.start();
+        assertEquals(forwarder.getLocalAddress(), address);
+
+        assertTrue(await(subscriber, 10));
+        assertEquals(subscriber.numbers(), range(0, 10));
+        assertEquals(services.get(0).getNextSequence(), 11);
+        assertEquals(services.get(0).getDroppedEventCount(), 0);
+    }
+
+    @Test
+    public void NodeLaggingBehindRetainedEventsCountsSkippedEventsAsDropped() throws Exception {
+        forwarder.start();
+        forwarder.onEvents(events(0, 20));
+
+        RecordingSubscriber subscriber = connect(1);
+
+        assertTrue(await(subscriber, 16));
+        assertEquals(subscriber.numbers(), range(4, 20));
+        assertEquals(services.get(0).getDroppedEventCount(), 4);
+    }
+
+    @Test
+    public void NodeStartingWithoutSequenceReceivesOnlyNewEvents() throws Exception {
+        forwarder.start();
+        forwarder.onEvents(events(0, 3));
+
+        RecordingSubscriber subscriber = connect(0);
+        awaitConnected(services.get(0));
+        Thread.sleep(50);
+
+        forwarder.onEvents(events(3, 2));
+
+        assertTrue(await(subscriber, 2));
+        assertEquals(subscriber.numbers(), Arrays.asList(3, 4));
+    }
+
+    @Test(
+            expectedExceptions = {
+                    UnsupportedOperationException.class
+            }
+    )
+    public void PublishingToReceivedEventsIsRejected() throws Exception {
+        TcpEventPublisherService service = new TcpEventPublisherService(new InetSocketAddress(InetAddress.getLoopbackAddress(), 1));
+        service.getPublisher().publish(new NumberedEvent(0, new byte[0]));
+    }
+
+    private RecordingSubscriber connect(long fromSequence) {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        TcpEventPublisherService service = new TcpEventPublisherService(forwarder.getLocalAddress(), new JavaEventSerializer(), fromSequence, 10, TimeUnit.MILLISECONDS);
+        service.getPublisher().addSubscriber(subscriber);
+        service.start();
+        services.add(service);
+        return subscriber;
+    }
+
+    private static void awaitConnected(TcpEventPublisherService service) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (!service.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertTrue(service.isConnected());
+    }
+
+    private static void awaitReceived(RecordingSubscriber subscriber, int count) throws InterruptedException {
+        assertTrue(await(subscriber, count));
+    }
+
+    private static boolean await(RecordingSubscriber subscriber, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (subscriber.received.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        return subscriber.received.size() >= count;
+    }
+
+    private static List<Event> events(int first, int count) {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = first; i < first + count; i++) {
+            events.add(new NumberedEvent(i, new byte[0]));
+        }
+
+        return events;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> numbers = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            numbers.add(i);
+        }
+
+        return numbers;
+    }
+
+    private static class NumberedEvent extends Event implements Serializable {
+        private final int number;
+        private final byte[] payload;
+
+        private NumberedEvent(int number, byte[] payload) {
+            this.number = number;
+            this.payload = payload;
+        }
+    }
+
+    private static class RecordingSubscriber implements EventSubscriber {
+        private final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+
+        public void onEvent(Event event) {
+            received.add(((NumberedEvent) event).number);
+        }
+
+        private List<Integer> numbers() {
+            return new ArrayList<Integer>(received);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016 novity Software-Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.novity.cqrs.base.infrastructure;
+
+import de.novity.cqrs.base.api.AggregateFactory;
+import de.novity.cqrs.base.api.Command;
+import de.novity.cqrs.base.api.CommandHandler;
+import de.novity.cqrs.base.api.Event;
+import de.novity.cqrs.base.api.EventPublisher;
+import de.novity.cqrs.base.api.EventSourcedRootAggregate;
+import de.novity.cqrs.base.api.EventSubscriber;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class UnitOfWorkCommandDispatcherTest {
+    private RecordingPublisher publisher;
+    private InMemoryEventStore eventStore;
+    private UnitOfWorkCommandDispatcher dispatcher;
+    private Account source;
+    private Account target;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        publisher = new RecordingPublisher();
+        eventStore = new InMemoryEventStore();
+        dispatcher = new UnitOfWorkCommandDispatcher(new InMemoryCommandDispatcher(), eventStore, publisher);
+        source = new Account("account-1");
+        target = new Account("account-2");
+    }
+
+    @Test
+    public void EventsOfAllTouchedAggregatesArePublishedInOneBatch() throws Exception {
+        dispatcher.registerHandler(Transfer.class, new CommandHandler<Transfer>() {
+            public void execute(Transfer command) throws Exception {
+                source.change(-command.amount);
+                target.change(command.amount);
+                UnitOfWork.current().register(source);
+                UnitOfWork.current().register(target);
+
+                assertTrue(publisher.batches.isEmpty());
+            }
+        });
+
+        dispatcher.execute(new Transfer(5));
+
+        assertEquals(publisher.batches.size(), 1);
+        assertEquals(publisher.batches.get(0).size(), 2);
+        assertTrue(source.getEvents().isEmpty());
+        assertEquals(source.getVersion(), 1);
+        assertEquals(eventStore.getVersion("account-1"), 1);
+        assertEquals(eventStore.getVersion("account-2"), 1);
+        assertFalse(UnitOfWork.isActive());
+    }
+
+    @Test
+    public void NothingIsPublishedOrCommittedIfHandlerFails() throws Exception {
+        dispatcher.registerHandler(Transfer.class, new CommandHandler<Transfer>() {
+            public void execute(Transfer command) throws Exception {
+                source.change(-command.amount);
+                UnitOfWork.current().register(source);
+                throw new IllegalStateException("Insufficient funds");
+            }
+        });
+
+        try {
+            dispatcher.execute(new Transfer(5));
+            fail("Command should have failed");
+        } catch (IllegalStateException e) {
+            assertTrue(publisher.batches.isEmpty());
+            assertEquals(source.getEvents().size(), 1);
+            assertEquals(eventStore.getVersion("account-1"), 0);
+            assertFalse(UnitOfWork.isActive());
+        }
+    }
+
+    @Test
+    public void NestedCommandsJoinTheOuterUnitOfWork() throws Exception {
+        dispatcher.registerHandler(Transfer.class, new CommandHandler<Transfer>() {
+            public void execute(Transfer command) throws Exception {
+                source.change(-command.amount);
+                UnitOfWork.current().register(source);
+                dispatcher.execute(new Deposit(command.amount));
+            }
+        });
+        dispatcher.registerHandler(Deposit.class, new CommandHandler<Deposit>() {
+            public void execute(Deposit command) throws Exception {
+                target.change(command.amount);
+                UnitOfWork.current().register(target);
+            }
+        });
+
+        dispatcher.execute(new Transfer(5));
+
+        assertEquals(publisher.batches.size(), 1);
+        assertEquals(publisher.batches.get(0).size(), 2);
+    }
+
+    @Test
+    public void AggregatesLoadedOrSavedThroughRepositoryAreRegistered() throws Exception {
+        final EventSourcedRepository<Account> repository = new EventSourcedRepository<Account>(eventStore, new AggregateFactory<Account>() {
+            public Account create(String id) {
+                return new Account(id);
+            }
+        });
+        eventStore.append("account-1", Collections.<Event>singletonList(new BalanceChanged(10)));
+
+        dispatcher.registerHandler(Transfer.class, new CommandHandler<Transfer>() {
+            public void execute(Transfer command) throws Exception {
+                Account loaded = repository.load("account-1");
+                loaded.change(-command.amount);
+
+                Account opened = new Account("account-2");
+                opened.change(command.amount);
+                repository.save(opened);
+
+                assertSame(repository.load("account-1"), loaded);
+                assertEquals(eventStore.getVersion("account-2"), 0);
+            }
+        });
+
+        dispatcher.execute(new Transfer(5));
+
+        assertEquals(publisher.batches.size(), 1);
+        assertEquals(publisher.batches.get(0).size(), 2);
+        assertEquals(eventStore.getVersion("account-1"), 2);
+        assertEquals(eventStore.getVersion("account-2"), 1);
+        assertEquals(repository.load("account-1").balance, 5);
+    }
+
+    private static class Transfer extends Command {
+        private final int amount;
+
+        private Transfer(int amount) {
+            this.amount = amount;
+        }
+    }
+
+    private static class Deposit extends Command {
+        private final int amount;
+
+        private Deposit(int amount) {
+            this.amount = amount;
+        }
+    }
+
+    private static class Account extends EventSourcedRootAggregate {
+        private long balance;
+
+        private Account(String id) {
+            super(id);
+        }
+
+        private void change(int amount) {
+            applyChange(new BalanceChanged(amount));
+        }
+
+        @Override
+        protected void apply(Event event) {
+            balance += ((BalanceChanged) event).amount;
+        }
+    }
+
+    private static class BalanceChanged extends Event {
+        private final int amount;
+
+        private BalanceChanged(int amount) {
+            this.amount = amount;
+        }
+    }
+
+    private static class RecordingPublisher implements EventPublisher {
+        private final List<List<Event>> batches = new ArrayList<List<Event>>();
+
+        public void addSubscriber(EventSubscriber subscriber) {
+        }
+
+        public void removeSubscriber(EventSubscriber subscriber) {
+        }
+
+        public void publish(Event event) throws Exception {
+            batches.add(Collections.singletonList(event));
+        }
+
+        public void publish(List<Event> events) throws Exception {
+            batches.add(new ArrayList<Event>(events));
+        }
+    }
+}